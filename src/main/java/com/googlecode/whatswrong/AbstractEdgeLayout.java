@@ -1,16 +1,19 @@
 package com.googlecode.whatswrong;
 
 import com.googlecode.whatswrong.javautils.Counter;
-import com.googlecode.whatswrong.javautils.HashMultiMapLinkedList;
 
 import java.awt.*;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.util.*;
+import java.util.List;
 
 /**
  * An AbstractEdgeLayout serves as a base class for edge layout classes. It mostly stores properties associated with
- * drawing edge layouts, such as whether lines should be curved or not.
+ * drawing edge layouts, such as whether lines should be curved or not. It also calculates how edges are stacked on
+ * top of each other, see {@link #calculateNestingDepths(java.util.Collection)}, {@link
+ * #calculateOverlapDepths(java.util.Collection)} and {@link #calculateCrossingOffsets(java.util.List,
+ * com.googlecode.whatswrong.javautils.Counter)}.
  *
  * @author Sebastian Riedel
  */
@@ -46,6 +49,10 @@ public abstract class AbstractEdgeLayout {
      * The stroke to use as default.
      */
     private BasicStroke defaultStroke = new BasicStroke();
+    /**
+     * The cache that measures and shapes edge labels.
+     */
+    protected TextLayoutCache textLayoutCache = TextLayoutCache.getShared();
     /**
      * A mapping from edges to their start points in the layout.
      */
@@ -82,9 +89,10 @@ public abstract class AbstractEdgeLayout {
      *
      * @param type  the type of the edges we want to change the color for.
      * @param color the color of the edges of the given type.
+     * @return true iff the color for the given type has been different before.
      */
-    public void setColor(String type, Color color) {
-        colors.put(type, color);
+    public boolean setColor(String type, Color color) {
+        return !color.equals(colors.put(type, color));
     }
 
     /**
@@ -137,6 +145,16 @@ public abstract class AbstractEdgeLayout {
         return Color.BLACK;
     }
 
+    /**
+     * Returns the font of edge labels.
+     *
+     * @param font the font of the graphics object.
+     * @return a plain font of size 8 from the family of the given font.
+     */
+    protected Font getLabelFont(Font font) {
+        return new Font(font.getName(), Font.PLAIN, 8);
+    }
+
     /**
      * Add an edge to the selection. Selected edges will be drawn using a bolder stroke.
      *
@@ -229,28 +247,261 @@ public abstract class AbstractEdgeLayout {
     }
 
     /**
-     * Calculate the number of edges under each edge and returns the max. of these numbers.
+     * Calculates the depth of each edge when edges are stacked like dependency arcs: an edge is drawn above another
+     * edge if it spans all tokens of the other edge, or if both span the same tokens and the type and label of the
+     * edge come later in the {@link Edge#lexicographicOrder(Edge)}. The depth of an edge is 0 if no edge is drawn
+     * under it, and otherwise one more than the largest depth of the edges under it.
+     * <p/>
+     * <p>The edges are processed by increasing end token, and edges with the same end by decreasing start token, so
+     * all edges under an edge are processed before it. A Fenwick tree over the start tokens then returns the largest
+     * depth of the processed edges that start at or after the start of an edge. This takes O(n log n) time instead of
+     * comparing all pairs of edges.
+     *
+     * @param edges the edges to stack (without self loops).
+     * @return the depths of the edges; edges with depth 0 have no entry.
+     */
+    protected Counter<Edge> calculateNestingDepths(Collection<Edge> edges) {
+        Edge[] sorted = edges.toArray(new Edge[edges.size()]);
+        Arrays.sort(sorted, new Comparator<Edge>() {
+            public int compare(Edge edge1, Edge edge2) {
+                if (edge1.getMaxIndex() != edge2.getMaxIndex()) return edge1.getMaxIndex() - edge2.getMaxIndex();
+                if (edge1.getMinIndex() != edge2.getMinIndex()) return edge2.getMinIndex() - edge1.getMinIndex();
+                return edge1.lexicographicOrder(edge2);
+            }
+        });
+        int[] starts = getStarts(sorted);
+        int[] tree = new int[starts.length + 1];
+        Counter<Edge> depth = new Counter<Edge>();
+        for (int group = 0; group < sorted.length;) {
+            int end = getGroupEnd(sorted, group);
+            //the tree is indexed from the right so that its prefixes contain the starts at or after a given start
+            int position = starts.length - Arrays.binarySearch(starts, sorted[group].getMinIndex());
+            int edgeDepth = getMaximum(tree, position);
+            if (edgeDepth > 0)
+                for (int i = group; i < end; ++i) depth.put(sorted[i], edgeDepth);
+            raise(tree, position, edgeDepth + 1);
+            group = end;
+        }
+        return depth;
+    }
+
+    /**
+     * Calculates the depth of each edge when edges are stacked like spans: an edge is drawn above another edge if it
+     * spans all tokens of the other edge, if both span the same tokens and the type and label of the edge come later
+     * in the {@link Edge#lexicographicOrder(Edge)}, or if it starts before the other edge and ends within it. The
+     * depth of an edge is 0 if no edge is drawn under it, and otherwise one more than the largest depth of the edges
+     * under it.
+     * <p/>
+     * <p>The edges are processed by decreasing start token, and edges with the same start by increasing end token, so
+     * all edges under an edge are processed before it. The edges under an edge are then exactly the processed edges
+     * that start before the end of the edge, and a Fenwick tree over the start tokens returns their largest depth in
+     * O(log n) time.
+     *
+     * @param edges the edges to stack.
+     * @return the depths of the edges; edges with depth 0 have no entry.
+     */
+    protected Counter<Edge> calculateOverlapDepths(Collection<Edge> edges) {
+        Edge[] sorted = edges.toArray(new Edge[edges.size()]);
+        Arrays.sort(sorted, new Comparator<Edge>() {
+            public int compare(Edge edge1, Edge edge2) {
+                if (edge1.getMinIndex() != edge2.getMinIndex()) return edge2.getMinIndex() - edge1.getMinIndex();
+                if (edge1.getMaxIndex() != edge2.getMaxIndex()) return edge1.getMaxIndex() - edge2.getMaxIndex();
+                return edge1.lexicographicOrder(edge2);
+            }
+        });
+        int[] starts = getStarts(sorted);
+        int[] tree = new int[starts.length + 1];
+        Counter<Edge> depth = new Counter<Edge>();
+        for (int group = 0; group < sorted.length;) {
+            int end = getGroupEnd(sorted, group);
+            int edgeDepth = getMaximum(tree, upperBound(starts, sorted[group].getMaxIndex()));
+            if (edgeDepth > 0)
+                for (int i = group; i < end; ++i) depth.put(sorted[i], edgeDepth);
+            raise(tree, Arrays.binarySearch(starts, sorted[group].getMinIndex()) + 1, edgeDepth + 1);
+            group = end;
+        }
+        return depth;
+    }
+
+    /**
+     * Calculates vertical offsets for edges that cross other edges of the same depth, so that their horizontal lines
+     * don't lie on top of each other. The crossing pairs are visited in the order of the given list (first edge of
+     * the pair in the outer loop, second in the inner loop), and each pair updates the offsets of its edges depending
+     * on their current offsets.
+     * <p/>
+     * <p>Edges of the same depth never span each other (otherwise one would be drawn above the other). Sorted by start
+     * token they are therefore sorted by end token too, and the edges crossing a given edge form a contiguous range of
+     * this order that is found by binary search. So only the crossing pairs are visited, not all pairs of edges.
+     *
+     * @param edges the edges in the order in which crossings should be resolved.
+     * @param depth the depths of the edges as calculated by {@link #calculateNestingDepths(Collection)}.
+     * @return the offsets of the edges; edges without offset have no entry.
+     */
+    protected Counter<Edge> calculateCrossingOffsets(List<Edge> edges, Counter<Edge> depth) {
+        int size = edges.size();
+        final int[] depths = new int[size];
+        final int[] starts = new int[size];
+        final int[] ends = new int[size];
+        Integer[] sorted = new Integer[size];
+        for (int i = 0; i < size; ++i) {
+            Edge edge = edges.get(i);
+            depths[i] = depth.get(edge);
+            starts[i] = edge.getMinIndex();
+            ends[i] = edge.getMaxIndex();
+            sorted[i] = i;
+        }
+        Arrays.sort(sorted, new Comparator<Integer>() {
+            public int compare(Integer index1, Integer index2) {
+                if (depths[index1] != depths[index2]) return depths[index1] - depths[index2];
+                if (starts[index1] != starts[index2]) return starts[index1] - starts[index2];
+                return ends[index1] - ends[index2];
+            }
+        });
+        //the range of positions in the sorted order that contain the edges of the same depth as each edge
+        int[] levelFrom = new int[size];
+        int[] levelTo = new int[size];
+        int[] sortedStarts = new int[size];
+        int[] sortedEnds = new int[size];
+        for (int from = 0; from < size;) {
+            int to = from;
+            while (to < size && depths[sorted[to]] == depths[sorted[from]]) ++to;
+            for (int position = from; position < to; ++position) {
+                levelFrom[sorted[position]] = from;
+                levelTo[sorted[position]] = to;
+                sortedStarts[position] = starts[sorted[position]];
+                sortedEnds[position] = ends[sorted[position]];
+            }
+            from = to;
+        }
+
+        Counter<Edge> offset = new Counter<Edge>();
+        int[] crossing = new int[size];
+        for (int index = 0; index < size; ++index) {
+            //edges that end after the start of this edge and start before its end, except those with the same start
+            int from = upperBound(sortedEnds, levelFrom[index], levelTo[index], starts[index]);
+            int to = lowerBound(sortedStarts, levelFrom[index], levelTo[index], ends[index]);
+            int count = 0;
+            for (int position = from; position < to; ++position)
+                if (sortedStarts[position] != starts[index]) crossing[count++] = sorted[position];
+            Arrays.sort(crossing, 0, count);
+            Edge left = edges.get(index);
+            for (int i = 0; i < count; ++i) {
+                Edge right = edges.get(crossing[i]);
+                if (offset.get(left) == 0 && offset.get(right) == 0)
+                    offset.increment(left, heightPerLevel / 2);
+                else if (offset.get(left).equals(offset.get(right))) {
+                    offset.put(left, heightPerLevel / 3);
+                    offset.put(right, heightPerLevel * 2 / 3);
+                }
+            }
+        }
+        return offset;
+    }
+
+    /**
+     * Returns the sorted distinct start tokens of the given edges.
+     *
+     * @param edges the edges.
+     * @return the sorted distinct values of {@link Edge#getMinIndex()}.
+     */
+    private static int[] getStarts(Edge[] edges) {
+        int[] starts = new int[edges.length];
+        for (int i = 0; i < edges.length; ++i) starts[i] = edges[i].getMinIndex();
+        Arrays.sort(starts);
+        int distinct = 0;
+        for (int i = 0; i < starts.length; ++i)
+            if (i == 0 || starts[i] != starts[distinct - 1]) starts[distinct++] = starts[i];
+        int[] result = new int[distinct];
+        System.arraycopy(starts, 0, result, 0, distinct);
+        return result;
+    }
+
+    /**
+     * Returns the end of the group of edges that starts at the given position. The edges of a group span the same
+     * tokens and are equal in the {@link Edge#lexicographicOrder(Edge)}, so none of them is drawn above another.
      *
-     * @param dominates a map from edges to the edges it dominates.
-     * @param depth     the resulting depths of each edge.
-     * @param root      the root of the graph.
-     * @return the max. depth.
+     * @param sorted the sorted edges.
+     * @param group  the position of the first edge of the group.
+     * @return the position after the last edge of the group.
+     */
+    private static int getGroupEnd(Edge[] sorted, int group) {
+        int end = group + 1;
+        while (end < sorted.length && sorted[end].coversExactly(sorted[group]) &&
+            sorted[end].lexicographicOrder(sorted[group]) == 0) ++end;
+        return end;
+    }
+
+    /**
+     * Returns the number of values in a sorted array that are not larger than the given value.
+     *
+     * @param values the sorted values.
+     * @param value  the value.
+     * @return the position of the first value larger than the given value.
      */
-    protected int calculateDepth(HashMultiMapLinkedList<Edge, Edge> dominates,
-                                 Counter<Edge> depth,
-                                 Edge root) {
-        if (depth.get(root) > 0) return depth.get(root);
-        if (dominates.get(root).size() == 0) {
-            return 0;
+    private static int upperBound(int[] values, int value) {
+        return upperBound(values, 0, values.length, value);
+    }
+
+    /**
+     * Returns the position of the first value in a sorted range of an array that is larger than the given value.
+     *
+     * @param values the values.
+     * @param from   the start of the sorted range.
+     * @param to     the end of the sorted range (exclusive).
+     * @param value  the value.
+     * @return the position of the first value larger than the given value, or <code>to</code> if there is none.
+     */
+    private static int upperBound(int[] values, int from, int to, int value) {
+        while (from < to) {
+            int middle = (from + to) >>> 1;
+            if (values[middle] <= value) from = middle + 1;
+            else to = middle;
         }
-        int max = 0;
-        for (Edge children : dominates.get(root)) {
-            int current = calculateDepth(dominates, depth, children);
-            if (current > max) max = current;
+        return from;
+    }
+
+    /**
+     * Returns the position of the first value in a sorted range of an array that is not smaller than the given value.
+     *
+     * @param values the values.
+     * @param from   the start of the sorted range.
+     * @param to     the end of the sorted range (exclusive).
+     * @param value  the value.
+     * @return the position of the first value not smaller than the given value, or <code>to</code> if there is none.
+     */
+    private static int lowerBound(int[] values, int from, int to, int value) {
+        while (from < to) {
+            int middle = (from + to) >>> 1;
+            if (values[middle] < value) from = middle + 1;
+            else to = middle;
         }
-        depth.put(root, max + 1);
-        return max + 1;
+        return from;
+    }
+
+    /**
+     * Raises the value at a position of a Fenwick tree of maxima.
+     *
+     * @param tree     the tree; position 0 is not used.
+     * @param position the position to raise (1-based).
+     * @param value    the new minimal value at the position.
+     */
+    private static void raise(int[] tree, int position, int value) {
+        for (; position < tree.length; position += position & -position)
+            if (tree[position] < value) tree[position] = value;
+    }
 
+    /**
+     * Returns the largest value at the positions 1 to <code>position</code> of a Fenwick tree of maxima.
+     *
+     * @param tree     the tree; position 0 is not used.
+     * @param position the last position to consider (1-based), or 0 for none.
+     * @return the largest value in the prefix or 0 if there is none.
+     */
+    private static int getMaximum(int[] tree, int position) {
+        int max = 0;
+        for (; position > 0; position -= position & -position)
+            if (tree[position] > max) max = tree[position];
+        return max;
     }
 
     /**
@@ -4,6 +4,7 @@ import java.awt.*;
 import java.awt.geom.GeneralPath;
 import java.awt.geom.Point2D;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -14,6 +15,11 @@ import java.util.Map;
  */
 public class AlignmentRenderer implements NLPCanvasRenderer {
 
+    /**
+     * The number of layouts kept in the cache.
+     */
+    private static final int CACHE_SIZE = 64;
+
     /**
      * The layout object for tokens.
      */
@@ -33,12 +39,57 @@ public class AlignmentRenderer implements NLPCanvasRenderer {
     private int heightFactor = 100;
     private boolean isCurved = true;
 
+    /**
+     * The layouts of recently drawn instances, shared with the copies of this renderer.
+     */
+    private final LayoutCache cache;
+
+    /**
+     * The version of the settings, counted up whenever a setting changes.
+     */
+    private int settings;
+
 
     public AlignmentRenderer() {
+        this(new LayoutCache(CACHE_SIZE));
+    }
+
+    /**
+     * Creates a new AlignmentRenderer that stores its layouts in the given cache.
+     *
+     * @param cache the layout cache.
+     */
+    private AlignmentRenderer(final LayoutCache cache) {
+        this.cache = cache;
         tokenLayout1.setToSplitPoint(0);
         tokenLayout2.setFromSplitPoint(0);
     }
 
+    /**
+     * Creates a renderer with the same settings that shares the layout cache of this renderer.
+     *
+     * @return a copy of this renderer.
+     * @see NLPCanvasRenderer#copy()
+     */
+    public synchronized NLPCanvasRenderer copy() {
+        AlignmentRenderer copy = new AlignmentRenderer(cache);
+        copy.settings = settings;
+        copy.antiAliasing = antiAliasing;
+        copy.heightFactor = heightFactor;
+        copy.isCurved = isCurved;
+        copy.tokenLayout1.setMargin(tokenLayout1.getMargin());
+        copy.tokenLayout2.setMargin(tokenLayout2.getMargin());
+        return copy;
+    }
+
+    /**
+     * Clears the layout cache and counts up the version of the settings.
+     */
+    private void settingsChanged() {
+        ++settings;
+        cache.clear();
+    }
+
     /**
      * Renders the given instance as a single sentence with spans drawn below tokens, and dependencies above tokens.
      *
@@ -49,6 +100,39 @@ public class AlignmentRenderer implements NLPCanvasRenderer {
      *      java.awt.Graphics2D)
      */
     public Dimension render(NLPInstance instance, Graphics2D graphics2D) {
+        NLPLayout layout = layout(instance, graphics2D);
+        layout.paint(graphics2D);
+        return layout.getDimension();
+    }
+
+    /**
+     * Lays out the given instance as two sentences on top of each other, with alignment edges between them. The layout
+     * is taken from the cache if the same instance has been laid out before with the current settings.
+     *
+     * @param instance   the instance to lay out.
+     * @param graphics2D the graphics object whose font is used to measure text.
+     * @return the layout of the instance.
+     * @see com.googlecode.whatswrong.NLPCanvasRenderer#layout(com.googlecode.whatswrong.NLPInstance,
+     *      java.awt.Graphics2D)
+     */
+    public synchronized NLPLayout layout(NLPInstance instance, Graphics2D graphics2D) {
+        List<Object> key = LayoutCache.createKey(instance, graphics2D.getFont(), settings);
+        NLPLayout layout = cache.get(key, instance);
+        if (layout == null) {
+            layout = createLayout(instance, graphics2D);
+            cache.put(key, instance, layout);
+        }
+        return layout;
+    }
+
+    /**
+     * Lays out the given instance without looking at the cache.
+     *
+     * @param instance   the instance to lay out.
+     * @param graphics2D the graphics object whose font is used to measure text.
+     * @return the layout of the instance.
+     */
+    private NLPLayout createLayout(NLPInstance instance, Graphics2D graphics2D) {
 
         //find token bounds
         Map<Token, Bounds1D> tokenXBounds1 =
@@ -65,23 +149,25 @@ public class AlignmentRenderer implements NLPCanvasRenderer {
         }
 
 
+        NLPLayout.Builder builder = new NLPLayout.Builder(graphics2D);
+
         int width = 0;
         int height = 0;
         Dimension dim;
 
         //place dependencies on top
         dim = tokenLayout1.layout(instance, Collections.<Token, Integer>emptyMap(),
-            graphics2D);
+            builder);
         height += dim.height;
         width = dim.width > width ? dim.width : width;
 
         for (Edge edge : instance.getEdges(Edge.RenderType.dependency)) {
             if ("FP".equals(edge.getTypePostfix()))
-                graphics2D.setColor(Color.RED);
+                builder.setColor(Color.RED);
             else if ("FN".equals(edge.getTypePostfix()))
-                graphics2D.setColor(Color.BLUE);
+                builder.setColor(Color.BLUE);
             else
-                graphics2D.setColor(Color.BLACK);
+                builder.setColor(Color.BLACK);
             Bounds1D bound1 = tokenXBounds1.get(edge.getFrom());
             Bounds1D bound2 = tokenXBounds2.get(edge.getTo());
             if (isCurved) {
@@ -90,21 +176,21 @@ public class AlignmentRenderer implements NLPCanvasRenderer {
                 shape.curveTo(bound1.getMiddle(), height + heightFactor / 2,
                     bound2.getMiddle(), height + heightFactor / 2,
                     bound2.getMiddle(), height + heightFactor);
-                graphics2D.draw(shape);
+                builder.draw(shape);
             } else {
-                graphics2D.drawLine(bound1.getMiddle(), height,
+                builder.drawLine(bound1.getMiddle(), height,
                     bound2.getMiddle(), height + heightFactor);
             }
         }
 
         //add spans
-        graphics2D.translate(0, dim.height + heightFactor);
+        builder.translate(0, dim.height + heightFactor);
         dim = tokenLayout2.layout(instance, Collections.<Token, Integer>emptyMap(),
-            graphics2D);
+            builder);
         height += dim.height + heightFactor;
         width = dim.width > width ? dim.width : width;
 
-        return new Dimension(width, height + 1);
+        return builder.build(new Dimension(width, height + 1), antiAliasing);
     }
 
     /**
@@ -112,8 +198,9 @@ public class AlignmentRenderer implements NLPCanvasRenderer {
      *
      * @param antiAliasing rue iff anti-aliasing should be used when drawing the graph.
      */
-    public void setAntiAliasing(boolean antiAliasing) {
+    public synchronized void setAntiAliasing(boolean antiAliasing) {
         this.antiAliasing = antiAliasing;
+        settingsChanged();
     }
 
     /**
@@ -121,9 +208,10 @@ public class AlignmentRenderer implements NLPCanvasRenderer {
      *
      * @param margin the margin between tokens.
      */
-    public void setMargin(int margin) {
+    public synchronized void setMargin(int margin) {
         tokenLayout1.setMargin(margin);
         tokenLayout2.setMargin(margin);
+        settingsChanged();
     }
 
 
@@ -145,8 +233,9 @@ public class AlignmentRenderer implements NLPCanvasRenderer {
      *
      * @param heightFactor an integer that indicates how high the graph should be.
      */
-    public void setHeightFactor(int heightFactor) {
+    public synchronized void setHeightFactor(int heightFactor) {
         this.heightFactor = heightFactor * 4;
+        settingsChanged();
     }
 
     /**
@@ -165,8 +254,9 @@ public class AlignmentRenderer implements NLPCanvasRenderer {
      * @param isCurved should the graph be more curved.
      * @see com.googlecode.whatswrong.NLPCanvasRenderer#setCurved(boolean)
      */
-    public void setCurved(boolean isCurved) {
+    public synchronized void setCurved(boolean isCurved) {
         this.isCurved = isCurved;
+        settingsChanged();
     }
 
     /**
@@ -0,0 +1,499 @@
+package com.googlecode.whatswrong;
+
+import gnu.trove.map.hash.TIntIntHashMap;
+
+import java.util.*;
+
+/**
+ * A CompactNLPInstance is a read-only NLPInstance that stores its tokens and edges as columns of symbol ids instead of
+ * Token and Edge objects. Token properties are kept in one int column per property of a property schema (shared by
+ * all instances with the same properties), and edges are kept in from/to/label/type/note/description int columns.
+ * There are no per-token hash maps and an edge costs about 25 bytes.
+ * <p/>
+ * <p>{@link #getTokens()}, {@link #getToken(int)} and {@link #getEdges()} return lightweight views that are created
+ * on access, so renderers, filters and the diff work on compact instances like on any other instance. Views of the
+ * same token are equal (tokens are compared by index), but they are not necessarily the same object. All methods that
+ * would change the instance throw an UnsupportedOperationException.
+ */
+@SuppressWarnings({"MissingMethodJavaDoc"})
+public class CompactNLPInstance extends NLPInstance {
+
+    /**
+     * The symbol table that maps the ids in this instance to strings.
+     */
+    private final SymbolTable symbols;
+
+    /**
+     * The properties of the tokens, one per property column.
+     */
+    private final TokenProperty[] schema;
+
+    /**
+     * The index of each token.
+     */
+    private final int[] indices;
+
+    /**
+     * The property columns: <code>values[p][t]</code> is the symbol id of the value of property <code>schema[p]</code>
+     * of token <code>t</code>, or {@link SymbolTable#NULL} if the token has no such property.
+     */
+    private final int[][] values;
+
+    /**
+     * The position of the start token of each edge.
+     */
+    private final int[] from;
+
+    /**
+     * The position of the end token of each edge.
+     */
+    private final int[] to;
+
+    /**
+     * The symbol id of the label of each edge.
+     */
+    private final int[] labels;
+
+    /**
+     * The symbol id of the type of each edge.
+     */
+    private final int[] types;
+
+    /**
+     * The symbol id of the note of each edge.
+     */
+    private final int[] notes;
+
+    /**
+     * The symbol id of the description of each edge.
+     */
+    private final int[] descriptions;
+
+    /**
+     * The render type ordinal of each edge.
+     */
+    private final byte[] renderTypes;
+
+    /**
+     * The split points of this instance.
+     */
+    private final int[] splitPoints;
+
+    /**
+     * Creates a compact copy of the given instance.
+     *
+     * @param instance the instance to copy.
+     * @param symbols  the symbol table of the corpus the instance belongs to.
+     */
+    public CompactNLPInstance(final NLPInstance instance, final SymbolTable symbols) {
+        this.symbols = symbols;
+        super.setRenderType(instance.getRenderType());
+        List<Integer> splits = instance.getSplitPoints();
+        splitPoints = new int[splits.size()];
+        for (int i = 0; i < splitPoints.length; ++i) splitPoints[i] = splits.get(i);
+
+        //tokens
+        List<Token> tokens = instance.getTokens();
+        indices = new int[tokens.size()];
+        TIntIntHashMap positions = new TIntIntHashMap(tokens.size() * 2, 0.5f, -1, -1);
+        ArrayList<TokenProperty> properties = new ArrayList<TokenProperty>();
+        HashMap<TokenProperty, Integer> columns = new HashMap<TokenProperty, Integer>();
+        for (int t = 0; t < indices.length; ++t) {
+            Token token = tokens.get(t);
+            indices[t] = token.getIndex();
+            positions.put(token.getIndex(), t);
+            for (TokenProperty property : token.getPropertyTypes())
+                if (!columns.containsKey(property)) {
+                    columns.put(property, properties.size());
+                    properties.add(symbols.intern(property));
+                }
+        }
+        schema = symbols.internSchema(properties);
+        values = new int[schema.length][indices.length];
+        for (int[] column : values) Arrays.fill(column, SymbolTable.NULL);
+        for (int t = 0; t < indices.length; ++t) {
+            Token token = tokens.get(t);
+            for (TokenProperty property : token.getPropertyTypes())
+                values[columns.get(property)][t] = symbols.getId(token.getProperty(property));
+        }
+
+        //edges
+        List<Edge> edges = instance.getEdges();
+        int size = edges.size();
+        from = new int[size];
+        to = new int[size];
+        labels = new int[size];
+        types = new int[size];
+        notes = new int[size];
+        descriptions = new int[size];
+        renderTypes = new byte[size];
+        for (int e = 0; e < size; ++e) {
+            Edge edge = edges.get(e);
+            from[e] = positions.get(edge.getFrom().getIndex());
+            to[e] = positions.get(edge.getTo().getIndex());
+            if (from[e] == -1 || to[e] == -1)
+                throw new IllegalArgumentException("Edge " + edge + " refers to a token that is not in the instance");
+            labels[e] = symbols.getId(edge.getLabel());
+            types[e] = symbols.getId(edge.getType());
+            notes[e] = symbols.getId(edge.getNote());
+            descriptions[e] = symbols.getId(edge.getDescription());
+            renderTypes[e] = (byte) edge.getRenderType().ordinal();
+        }
+    }
+
+    /**
+     * Returns a view of the token at the given position.
+     *
+     * @param position the position of the token in the token list.
+     * @return a view of the token.
+     */
+    private Token tokenView(final int position) {
+        return new CompactToken(position);
+    }
+
+    /**
+     * Returns a view of the edge at the given position.
+     *
+     * @param position the position of the edge in the edge list.
+     * @return a view of the edge.
+     */
+    private Edge edgeView(final int position) {
+        Token fromToken = tokenView(from[position]);
+        Token toToken = from[position] == to[position] ? fromToken : tokenView(to[position]);
+        return new Edge(fromToken, toToken, symbols.getSymbol(labels[position]), symbols.getSymbol(notes[position]),
+            symbols.getSymbol(types[position]), Edge.RenderType.values()[renderTypes[position]],
+            symbols.getSymbol(descriptions[position]));
+    }
+
+    /**
+     * Returns views of all tokens of this instance.
+     *
+     * @return an unmodifiable list of all tokens of this sentence, in the right order.
+     */
+    public List<Token> getTokens() {
+        return new TokenList();
+    }
+
+    /**
+     * Returns a view of the token with the given index.
+     *
+     * @param index the index of the token to return
+     * @return the token with the given index or null if there is no such token.
+     */
+    public Token getToken(final int index) {
+        if (index >= 0 && index < indices.length && indices[index] == index) return tokenView(index);
+        for (int t = 0; t < indices.length; ++t)
+            if (indices[t] == index) return tokenView(t);
+        return null;
+    }
+
+    /**
+     * Returns views of all edges of this instance.
+     *
+     * @return all edges of this instance as unmodifiable list.
+     */
+    public List<Edge> getEdges() {
+        return new EdgeList();
+    }
+
+    /**
+     * Returns views of all edges of this instance with the given render type.
+     *
+     * @param renderType the render type of the edges to return.
+     * @return all edges of this instance with the given render type. This list can be altered if needed.
+     */
+    public List<Edge> getEdges(final Edge.RenderType renderType) {
+        ArrayList<Edge> result = new ArrayList<Edge>(renderTypes.length);
+        for (int e = 0; e < renderTypes.length; ++e)
+            if (renderTypes[e] == renderType.ordinal()) result.add(edgeView(e));
+        return result;
+    }
+
+    /**
+     * Returns the list of split points for this instance.
+     *
+     * @return the list of split points.
+     */
+    public List<Integer> getSplitPoints() {
+        ArrayList<Integer> result = new ArrayList<Integer>(splitPoints.length);
+        for (int splitPoint : splitPoints) result.add(splitPoint);
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Returns a string representation of this instance in the same format as {@link NLPInstance#toString()}.
+     *
+     * @return a string representation of this instance.
+     */
+    public String toString() {
+        HashMap<Integer, Token> map = new HashMap<Integer, Token>();
+        for (Token token : getTokens()) map.put(token.getIndex(), token);
+        return getTokens() + "\n" + map + "\n" + getEdges();
+    }
+
+    /**
+     * Not supported: compact instances are read-only.
+     *
+     * @throws UnsupportedOperationException always.
+     */
+    public void addEdge(final int from, final int to, final String label, final String type) {
+        throw new UnsupportedOperationException("Compact instances are read-only");
+    }
+
+    /**
+     * Not supported: compact instances are read-only.
+     *
+     * @throws UnsupportedOperationException always.
+     */
+    public void addEdge(final int from, final int to, final String label, final String type,
+                        final Edge.RenderType renderType) {
+        throw new UnsupportedOperationException("Compact instances are read-only");
+    }
+
+    /**
+     * Not supported: compact instances are read-only.
+     *
+     * @throws UnsupportedOperationException always.
+     */
+    public void addEdge(final Edge edge) {
+        throw new UnsupportedOperationException("Compact instances are read-only");
+    }
+
+    /**
+     * Not supported: compact instances are read-only.
+     *
+     * @throws UnsupportedOperationException always.
+     */
+    public void addSpan(final int from, final int to, final String label, final String type) {
+        throw new UnsupportedOperationException("Compact instances are read-only");
+    }
+
+    /**
+     * Not supported: compact instances are read-only.
+     *
+     * @throws UnsupportedOperationException always.
+     */
+    public void addSpan(final int from, final int to, final String label, final String type,
+                        final String description) {
+        throw new UnsupportedOperationException("Compact instances are read-only");
+    }
+
+    /**
+     * Not supported: compact instances are read-only.
+     *
+     * @throws UnsupportedOperationException always.
+     */
+    public void addDependency(final int from, final int to, final String label, final String type) {
+        throw new UnsupportedOperationException("Compact instances are read-only");
+    }
+
+    /**
+     * Not supported: compact instances are read-only.
+     *
+     * @throws UnsupportedOperationException always.
+     */
+    public void addDependency(final int from, final int to, final String label, final String type,
+                              final String description) {
+        throw new UnsupportedOperationException("Compact instances are read-only");
+    }
+
+    /**
+     * Not supported: compact instances are read-only.
+     *
+     * @throws UnsupportedOperationException always.
+     */
+    public void addEdge(final Token from, final Token to, final String label, final String type) {
+        throw new UnsupportedOperationException("Compact instances are read-only");
+    }
+
+    /**
+     * Not supported: compact instances are read-only.
+     *
+     * @throws UnsupportedOperationException always.
+     */
+    public void addEdge(final Token from, final Token to, final String label, final String type,
+                        final Edge.RenderType renderType) {
+        throw new UnsupportedOperationException("Compact instances are read-only");
+    }
+
+    /**
+     * Not supported: compact instances are read-only.
+     *
+     * @throws UnsupportedOperationException always.
+     */
+    public void addTokens(final Collection<Token> tokens) {
+        throw new UnsupportedOperationException("Compact instances are read-only");
+    }
+
+    /**
+     * Not supported: compact instances are read-only.
+     *
+     * @throws UnsupportedOperationException always.
+     */
+    public void addEdges(final Collection<Edge> edges) {
+        throw new UnsupportedOperationException("Compact instances are read-only");
+    }
+
+    /**
+     * Not supported: compact instances are read-only.
+     *
+     * @throws UnsupportedOperationException always.
+     */
+    public void merge(final NLPInstance nlp) {
+        throw new UnsupportedOperationException("Compact instances are read-only");
+    }
+
+    /**
+     * Not supported: compact instances are read-only.
+     *
+     * @throws UnsupportedOperationException always.
+     */
+    public void addTokenWithProperties(final String... properties) {
+        throw new UnsupportedOperationException("Compact instances are read-only");
+    }
+
+    /**
+     * Not supported: compact instances are read-only.
+     *
+     * @throws UnsupportedOperationException always.
+     */
+    public Token addToken() {
+        throw new UnsupportedOperationException("Compact instances are read-only");
+    }
+
+    /**
+     * Not supported: compact instances are read-only.
+     *
+     * @throws UnsupportedOperationException always.
+     */
+    public Token addToken(final int index) {
+        throw new UnsupportedOperationException("Compact instances are read-only");
+    }
+
+    /**
+     * Not supported: compact instances are read-only.
+     *
+     * @throws UnsupportedOperationException always.
+     */
+    public void consistify() {
+        throw new UnsupportedOperationException("Compact instances are read-only");
+    }
+
+    /**
+     * Not supported: compact instances are read-only.
+     *
+     * @throws UnsupportedOperationException always.
+     */
+    public void addSplitPoint(final int tokenIndex) {
+        throw new UnsupportedOperationException("Compact instances are read-only");
+    }
+
+    /**
+     * The list of token views.
+     */
+    private class TokenList extends AbstractList<Token> implements RandomAccess {
+        public Token get(final int position) {
+            if (position < 0 || position >= indices.length)
+                throw new IndexOutOfBoundsException("Index: " + position + ", Size: " + indices.length);
+            return tokenView(position);
+        }
+
+        public int size() {
+            return indices.length;
+        }
+    }
+
+    /**
+     * The list of edge views.
+     */
+    private class EdgeList extends AbstractList<Edge> implements RandomAccess {
+        public Edge get(final int position) {
+            if (position < 0 || position >= from.length)
+                throw new IndexOutOfBoundsException("Index: " + position + ", Size: " + from.length);
+            return edgeView(position);
+        }
+
+        public int size() {
+            return from.length;
+        }
+    }
+
+    /**
+     * A CompactToken is a view of a token in the property columns of the instance.
+     */
+    private class CompactToken extends Token {
+
+        /**
+         * The position of the token in the token list.
+         */
+        private final int position;
+
+        /**
+         * Creates a view of the token at the given position.
+         *
+         * @param position the position of the token.
+         */
+        CompactToken(final int position) {
+            super(indices[position], null);
+            this.position = position;
+        }
+
+        public Collection<TokenProperty> getPropertyTypes() {
+            ArrayList<TokenProperty> result = new ArrayList<TokenProperty>(schema.length);
+            for (int p = 0; p < schema.length; ++p)
+                if (values[p][position] != SymbolTable.NULL) result.add(schema[p]);
+            return Collections.unmodifiableCollection(result);
+        }
+
+        public String getProperty(final TokenProperty property) {
+            for (int p = 0; p < schema.length; ++p)
+                if (schema[p].equals(property)) return symbols.getSymbol(values[p][position]);
+            return null;
+        }
+
+        public Collection<String> getPropertyValues() {
+            ArrayList<String> result = new ArrayList<String>(schema.length);
+            for (int[] column : values)
+                if (column[position] != SymbolTable.NULL) result.add(symbols.getSymbol(column[position]));
+            return Collections.unmodifiableCollection(result);
+        }
+
+        public void removeProperty(final int index) {
+            throw new UnsupportedOperationException("Compact tokens are read-only");
+        }
+
+        public void removeProperty(final String name) {
+            throw new UnsupportedOperationException("Compact tokens are read-only");
+        }
+
+        public Token addProperty(final String name, final String value) {
+            throw new UnsupportedOperationException("Compact tokens are read-only");
+        }
+
+        public void addProperty(final int index, final String property) {
+            throw new UnsupportedOperationException("Compact tokens are read-only");
+        }
+
+        public Token addProperty(final TokenProperty property, final String value) {
+            throw new UnsupportedOperationException("Compact tokens are read-only");
+        }
+
+        public void addProperty(final String value) {
+            throw new UnsupportedOperationException("Compact tokens are read-only");
+        }
+
+        public void merge(final Token token) {
+            throw new UnsupportedOperationException("Compact tokens are read-only");
+        }
+
+        void intern(final SymbolTable symbols) {
+            //values are interned already
+        }
+
+        public String toString() {
+            HashMap<TokenProperty, String> properties = new HashMap<TokenProperty, String>();
+            for (TokenProperty property : getPropertyTypes()) properties.put(property, getProperty(property));
+            return getIndex() + ":" + properties;
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package com.googlecode.whatswrong;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MultiSearcher;
+import org.apache.lucene.search.Searchable;
+import org.apache.lucene.search.Searcher;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A CorpusIndex is the Lucene search index of a corpus as provided by an {@link IndexCache}. The index may still be
+ * under construction: documents are added in batches by a background thread, and after each batch the searcher is
+ * replaced by one that also sees the new documents. Searches during construction hence return hits from the part of
+ * the corpus indexed so far. Listeners are notified (on the indexing thread) after each batch.
+ * <p/>
+ * <p>The index may consist of several shards, each covering a contiguous range of the corpus. The searcher is then a
+ * {@link MultiSearcher} over all shards; since every document stores the index of its instance in the whole corpus in
+ * the "&lt;nr&gt;" field, hits from different shards need no further mapping.
+ * <p/>
+ * <p>Because the searcher is replaced (and the old one closed) while the index is built, clients must synchronize on
+ * the CorpusIndex while they use the searcher returned by {@link #getSearcher()}, including reading the documents of
+ * the hits.
+ */
+public class CorpusIndex {
+
+    /**
+     * A Listener is notified about the progress of building an index.
+     */
+    public static interface Listener {
+        /**
+         * Called after a batch of documents was added, when the index is complete, and when building failed.
+         *
+         * @param index the index that progressed.
+         */
+        void progressed(CorpusIndex index);
+    }
+
+    /**
+     * The corpus of this index.
+     */
+    private final List<NLPInstance> corpus;
+
+    /**
+     * The current reader of each shard; null for shards that aren't searchable yet.
+     */
+    private IndexReader[] readers = new IndexReader[0];
+
+    /**
+     * The number of searchable instances in each shard.
+     */
+    private int[] counts = new int[0];
+
+    /**
+     * The current searcher, or null if nothing is searchable yet.
+     */
+    private Searcher searcher;
+
+    /**
+     * The number of instances that are searchable.
+     */
+    private volatile int indexed;
+
+    /**
+     * Whether all instances are searchable.
+     */
+    private volatile boolean complete;
+
+    /**
+     * Whether building this index failed.
+     */
+    private volatile boolean failed;
+
+    /**
+     * Whether building this index was cancelled.
+     */
+    private volatile boolean cancelled;
+
+    /**
+     * The listeners of this index.
+     */
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+    /**
+     * Creates a new CorpusIndex that isn't searchable yet.
+     *
+     * @param corpus the corpus to index.
+     */
+    CorpusIndex(final List<NLPInstance> corpus) {
+        this.corpus = corpus;
+    }
+
+    /**
+     * Adds a listener to this index.
+     *
+     * @param listener the listener to add.
+     */
+    public void addListener(final Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Returns the current searcher. Clients must synchronize on this index while they use the searcher.
+     *
+     * @return the current searcher or null if no instance has been indexed yet.
+     */
+    public synchronized Searcher getSearcher() {
+        return searcher;
+    }
+
+    /**
+     * Returns the number of instances that can be found with the current searcher.
+     *
+     * @return the number of searchable instances.
+     */
+    public int getIndexed() {
+        return indexed;
+    }
+
+    /**
+     * Returns the number of instances in the corpus.
+     *
+     * @return the size of the corpus.
+     */
+    public int size() {
+        return corpus.size();
+    }
+
+    /**
+     * Returns the corpus of this index.
+     *
+     * @return the corpus of this index.
+     */
+    List<NLPInstance> getCorpus() {
+        return corpus;
+    }
+
+    /**
+     * Checks whether all instances of the corpus are searchable.
+     *
+     * @return true iff the index is complete.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Checks whether building the index failed.
+     *
+     * @return true iff an error occurred while building the index.
+     */
+    public boolean isFailed() {
+        return failed;
+    }
+
+    /**
+     * Checks whether the index has been cancelled.
+     *
+     * @return true iff {@link #cancel()} was called.
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Stops building the index (if it isn't complete yet) and closes the searcher.
+     */
+    public void cancel() {
+        cancelled = true;
+        synchronized (this) {
+            for (IndexReader reader : readers) close(reader);
+            readers = new IndexReader[0];
+            counts = new int[0];
+            searcher = null;
+        }
+    }
+
+    /**
+     * Replaces the readers of all shards and notifies the listeners. The old readers are closed. If the index has been
+     * cancelled the new readers are closed instead.
+     *
+     * @param newReaders the new readers, one per shard.
+     * @param count      the number of instances visible to the new readers.
+     * @param done       whether the new readers see the complete corpus.
+     * @throws IOException if the searcher can't be created.
+     */
+    void setReaders(final IndexReader[] newReaders, final int count, final boolean done) throws IOException {
+        synchronized (this) {
+            if (cancelled) {
+                for (IndexReader reader : newReaders) close(reader);
+                return;
+            }
+            for (IndexReader reader : readers) close(reader);
+            readers = newReaders.clone();
+            counts = new int[readers.length];
+            updateSearcher();
+            indexed = count;
+            complete = done;
+        }
+        fireProgressed();
+    }
+
+    /**
+     * Replaces the reader of one shard and notifies the listeners. The old reader of the shard is closed unless it is
+     * the new reader. If the index has been cancelled the new reader is closed instead.
+     *
+     * @param shard     the shard.
+     * @param newReader the new reader of the shard.
+     * @param count     the number of instances of the shard visible to the new reader.
+     * @throws IOException if the searcher can't be created.
+     */
+    void setReader(final int shard, final IndexReader newReader, final int count) throws IOException {
+        synchronized (this) {
+            if (cancelled) {
+                close(newReader);
+                return;
+            }
+            if (readers[shard] != newReader) close(readers[shard]);
+            readers[shard] = newReader;
+            indexed += count - counts[shard];
+            counts[shard] = count;
+            updateSearcher();
+        }
+        fireProgressed();
+    }
+
+    /**
+     * Closes all readers so that no index files are open any more. The index isn't searchable until new readers are
+     * set.
+     */
+    synchronized void closeReaders() {
+        for (IndexReader reader : readers) close(reader);
+        readers = new IndexReader[readers.length];
+        searcher = null;
+    }
+
+    /**
+     * Creates a searcher over the current readers.
+     *
+     * @throws IOException if the searcher can't be created.
+     */
+    private void updateSearcher() throws IOException {
+        ArrayList<Searchable> searchables = new ArrayList<Searchable>(readers.length);
+        for (IndexReader reader : readers)
+            if (reader != null) searchables.add(new IndexSearcher(reader));
+        if (searchables.isEmpty()) searcher = null;
+        else if (searchables.size() == 1) searcher = (Searcher) searchables.get(0);
+        else searcher = new MultiSearcher(searchables.toArray(new Searchable[searchables.size()]));
+    }
+
+    /**
+     * Closes the given reader.
+     *
+     * @param toClose the reader to close, may be null.
+     */
+    private static void close(final IndexReader toClose) {
+        if (toClose == null) return;
+        try {
+            toClose.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Returns the current reader of the given shard.
+     *
+     * @param shard the shard.
+     * @return the current reader of the shard or null if the shard isn't searchable.
+     */
+    synchronized IndexReader getReader(final int shard) {
+        return shard < readers.length ? readers[shard] : null;
+    }
+
+    /**
+     * Marks this index as failed and notifies the listeners.
+     */
+    void fail() {
+        failed = true;
+        fireProgressed();
+    }
+
+    /**
+     * Notifies all listeners about progress.
+     */
+    private void fireProgressed() {
+        for (Listener listener : listeners) listener.progressed(this);
+    }
+}
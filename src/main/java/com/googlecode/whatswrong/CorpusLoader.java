@@ -50,6 +50,12 @@ public class CorpusLoader extends JPanel {
      */
     private DefaultListModel fileNames;
 
+    /**
+     * A description of where each corpus came from (see {@link #getSource(List)}).
+     */
+    private Map<List<NLPInstance>, String>
+        sources = Collections.synchronizedMap(new HashMap<List<NLPInstance>, String>());
+
     /**
      * A mapping from names to CorpusFormat objects that will load corpora when the user chooses the corresponding name.
      */
@@ -66,6 +72,11 @@ public class CorpusLoader extends JPanel {
      */
     private JButton remove;
 
+    /**
+     * The button that saves the selected corpus in binary format.
+     */
+    private JButton save;
+
     /**
      * The file chooser dialog.
      */
@@ -156,10 +167,49 @@ public class CorpusLoader extends JPanel {
     /**
      * Returns the currently selected corpus or null if no corpus is selected.
      *
-     * @return the currently selected corpus or null if no corpus is selected.
+     * @return the currently selected corpus (unmodifiable) or null if no corpus is selected.
      */
     public List<NLPInstance> getSelected() {
-        return selected == null ? null : Collections.unmodifiableList(selected);
+        return selected;
+    }
+
+    /**
+     * Returns a description of where the given corpus came from: every file the format read (see {@link
+     * CorpusFormat#getInputFiles(File)}) with size and modification time, the format and all its settings, and the range
+     * of instances. Two corpora loaded with the
+     * same description contain the same instances, so the description can be used as key for caches that outlive a
+     * session.
+     *
+     * @param corpus a corpus of this loader.
+     * @return a description of the source of the corpus, or null if the corpus was not loaded by this loader.
+     */
+    public String getSource(final List<NLPInstance> corpus) {
+        return sources.get(corpus);
+    }
+
+    /**
+     * Creates the description of a corpus source (see {@link #getSource(List)}).
+     *
+     * @param file   the file or directory the corpus was loaded from.
+     * @param format the format used to load the corpus.
+     * @param start  the index of the first instance.
+     * @param end    the index after the last instance.
+     * @return a description of the corpus source.
+     * @throws IOException if the canonical path of the file can't be determined.
+     */
+    private static String describeSource(final File file, final CorpusFormat format, final int start, final int end)
+        throws IOException {
+        StringBuilder result = new StringBuilder();
+        result.append(file.getCanonicalPath()).append('\n');
+        for (File input : format.getInputFiles(file))
+            result.append(input.getCanonicalPath()).append('\t').append(input.exists()).append('\t')
+                .append(input.length()).append('\t').append(input.lastModified()).append('\n');
+        result.append(format.getName()).append('\t').append(start).append('\t').append(end).append('\n');
+        Properties settings = new Properties();
+        format.saveProperties(settings, "format");
+        for (Map.Entry<Object, Object> entry : new TreeMap<Object, Object>(settings).entrySet())
+            result.append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+        return result.toString();
     }
 
     /**
@@ -347,11 +397,13 @@ public class CorpusLoader extends JPanel {
                 if (files.getSelectedIndex() == -1) {
                     selected = null;
                     remove.setEnabled(false);
+                    save.setEnabled(false);
                     fireSelected(null);
 
                 } else {
                     selected = corpora.get(files.getSelectedIndex());
                     remove.setEnabled(true);
+                    save.setEnabled(true);
                     fireSelected(selected);
                 }
             }
@@ -392,10 +444,14 @@ public class CorpusLoader extends JPanel {
                                         monitor.setProgress(index);
                                     }
                                 });
-                                List<NLPInstance> corpus = format.load(fileChooser.getSelectedFile(),
-                                    accessory.getStart(), accessory.getEnd());
+                                //wrap once so that listeners and getSelected() see the same corpus object
+                                List<NLPInstance> corpus = Collections.unmodifiableList(
+                                    format.load(fileChooser.getSelectedFile(), accessory.getStart(),
+                                        accessory.getEnd()));
                                 if (corpus.size() == 0)
                                     throw new RuntimeException("No instances in corpus.");
+                                sources.put(corpus, describeSource(fileChooser.getSelectedFile(), format,
+                                    accessory.getStart(), accessory.getEnd()));
                                 monitor.close();
                                 setCursor(Cursor.getPredefinedCursor(Cursor.DEFAULT_CURSOR));
                                 corpora.add(corpus);
@@ -432,12 +488,48 @@ public class CorpusLoader extends JPanel {
                     fileNames.remove(index);
                     List<NLPInstance> corpus = corpora.remove(index);
                     fireRemoved(corpus);
+                    sources.remove(corpus);
                     //repaint();
                 }
             }
         });
         add(remove, c);
 
+        //save the selected corpus in binary format
+        c.gridx = 0;
+        c.gridy = 3;
+        c.gridwidth = 2;
+        save = new JButton("Save Binary");
+        save.setEnabled(false);
+        save.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                final List<NLPInstance> corpus = selected;
+                JFileChooser saveChooser = new JFileChooser(fileChooser.getCurrentDirectory());
+                saveChooser.setDialogTitle("Save Binary Corpus");
+                if (corpus == null || saveChooser.showSaveDialog(CorpusLoader.this) != JFileChooser.APPROVE_OPTION)
+                    return;
+                File chosen = saveChooser.getSelectedFile();
+                final File file = chosen.getName().endsWith(BinaryCorpusFormat.EXTENSION) ? chosen :
+                    new File(chosen.getParentFile(), chosen.getName() + BinaryCorpusFormat.EXTENSION);
+                new Thread(new Runnable() {
+                    public void run() {
+                        try {
+                            setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+                            BinaryCorpusFormat.save(corpus, file);
+                        } catch (IOException e1) {
+                            e1.printStackTrace();
+                            JOptionPane.showMessageDialog(CorpusLoader.this,
+                                "Corpus could not be saved to " + file + ":\n" + e1.getMessage(),
+                                "Save problem", JOptionPane.ERROR_MESSAGE);
+                        } finally {
+                            setCursor(Cursor.getPredefinedCursor(Cursor.DEFAULT_CURSOR));
+                        }
+                    }
+                }).start();
+            }
+        });
+        add(save, c);
+
         //setSize(new Dimension(50, 200));
         //setMinimumSize(new Dimension(150, 10));
     }
@@ -452,6 +544,7 @@ public class CorpusLoader extends JPanel {
         addFormat(new BioNLP2009SharedTaskFormat());
         addFormat(new BioNLP2009SharedTaskFormat());
 	addFormat(new GizaAlignmentFormat());
+        addFormat(new BinaryCorpusFormat());
     }
 
 
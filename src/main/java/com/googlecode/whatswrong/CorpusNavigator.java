@@ -5,14 +5,13 @@ import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.WhitespaceAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
-import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.queryParser.QueryParser;
-import org.apache.lucene.search.Hits;
-import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Searcher;
+import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.search.highlight.Highlighter;
 import org.apache.lucene.search.highlight.QueryScorer;
-import org.apache.lucene.store.RAMDirectory;
 
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
@@ -26,19 +25,48 @@ import java.awt.event.ActionListener;
 import java.io.IOException;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 /**
  * A CorpusNavigator allows the user to navigate through a corpus (or a diffed corpus) and pick one NLP instance to draw
  * (or one difference of two NLPInstance objects in terms of their edges). The CorpusNavigator also allows us to search
  * a corpus for keywords by using the Lucene IR engine. The instances that match the user's query are presented in a
- * list and one of them can then be picked to be rendered. The CorpusNavigator has also a spinner panel that allows to
- * go through this corpus by index. This spinner is not part of the navigator panel and can be placed anywhere.
+ * list and one of them can then be picked to be rendered. Queries that contain an edge pattern such as
+ * <code>Pos=VB -[OBJ]-&gt; Pos=IN</code> are answered by a {@link PatternIndex} instead, and queries such as
+ * <code>phrase: the Pos=NN of</code> by a {@link PhraseIndex}. The "Similar" button lists the instances most similar
+ * to the current one (see {@link SimilarityIndex}). The CorpusNavigator has also a spinner panel that allows to go
+ * through this corpus by index. This spinner is not part of the navigator panel and can be placed anywhere.
  *
  * @author Sebastian Riedel
  */
 @SuppressWarnings({"MissingMethodJavaDoc"})
 public class CorpusNavigator extends JPanel implements CorpusLoader.Listener {
 
+    /**
+     * The number of search hits fetched at once.
+     */
+    private static final int PAGE_SIZE = 100;
+
+    /**
+     * The prefix of phrase queries.
+     */
+    private static final String PHRASE_PREFIX = "phrase:";
+
+    /**
+     * The number of tokens shown before and after a phrase match.
+     */
+    private static final int PHRASE_CONTEXT = 4;
+
+    /**
+     * The number of similar instances shown.
+     */
+    private static final int MAX_SIMILAR = 50;
+
+    /**
+     * The number of words of a similar instance shown in its result.
+     */
+    private static final int SIMILAR_WORDS = 8;
+
     /**
      * The loader for guess instances.
      */
@@ -63,15 +91,35 @@ public class CorpusNavigator extends JPanel implements CorpusLoader.Listener {
     /**
      * A mapping from corpora to index searchers that can be used to search the corpus.
      */
-    private HashMap<List<NLPInstance>, IndexSearcher>
-        indices = new HashMap<List<NLPInstance>, IndexSearcher>();
+    private HashMap<List<NLPInstance>, CorpusIndex>
+        indices = new HashMap<List<NLPInstance>, CorpusIndex>();
+
+    /**
+     * A mapping from corpora to their pattern indices. A corpus whose pattern index is still being built is mapped to
+     * null.
+     */
+    private HashMap<List<NLPInstance>, PatternIndex>
+        patternIndices = new HashMap<List<NLPInstance>, PatternIndex>();
+
+    /**
+     * A mapping from corpora to their phrase indices. A corpus whose phrase index is still being built is mapped to
+     * null.
+     */
+    private HashMap<List<NLPInstance>, PhraseIndex>
+        phraseIndices = new HashMap<List<NLPInstance>, PhraseIndex>();
+
+    /**
+     * A mapping from corpora to their similarity indices. A corpus whose similarity index is still being built is
+     * mapped to null.
+     */
+    private HashMap<List<NLPInstance>, SimilarityIndex>
+        similarityIndices = new HashMap<List<NLPInstance>, SimilarityIndex>();
 
     /**
-     * A mapping from pairs of corpora to index searchers that can be used to search the differences between the two
-     * corpora.
+     * A mapping from pairs of corpora to the (lazily calculated) differences between the two corpora.
      */
-    private HashMap<Pair<List<NLPInstance>, List<NLPInstance>>, List<NLPInstance>>
-        diffCorpora = new HashMap<Pair<List<NLPInstance>, List<NLPInstance>>, List<NLPInstance>>();
+    private HashMap<Pair<List<NLPInstance>, List<NLPInstance>>, DiffCorpus>
+        diffCorpora = new HashMap<Pair<List<NLPInstance>, List<NLPInstance>>, DiffCorpus>();
     //private HashMap<List<NLPInstance>>
 
     /**
@@ -86,17 +134,25 @@ public class CorpusNavigator extends JPanel implements CorpusLoader.Listener {
         guessCorpora = new HashSet<List<NLPInstance>>();
 
     /**
-     * The current IndexSearcher (for the selected corpus/corpus pair).
+     * The current index (for the selected corpus/corpus pair).
      */
-    private IndexSearcher indexSearcher;
+    private CorpusIndex index;
     /**
      * The Analyzer for the search index.
      */
     private Analyzer analyzer;
+    /**
+     * The cache that creates and stores the search indices.
+     */
+    private IndexCache indexCache;
     /**
      * The search button that triggers the search process.
      */
     private JButton searchButton;
+    /**
+     * The button that finds instances similar to the current instance.
+     */
+    private JButton similarButton;
     /**
      * The list of search results.
      */
@@ -117,6 +173,10 @@ public class CorpusNavigator extends JPanel implements CorpusLoader.Listener {
      * The label that shows how many results where found.
      */
     private JLabel ofHowMany;
+    /**
+     * The label that shows how much of the current corpus has been indexed.
+     */
+    private JLabel indexStatus;
 
     /**
      * The EdgeTypeFilter that needs to be initialized when the navigator does not have a selected corpus and shows an
@@ -142,23 +202,21 @@ public class CorpusNavigator extends JPanel implements CorpusLoader.Listener {
     }
 
     /**
-     * Returns a difference corpus between two corpora. This difference corpus is calculated if it hasn't been calculated
-     * before.
+     * Returns a difference corpus between two corpora. The difference corpus is created if it hasn't been created
+     * before, but the differences of individual instances are only calculated when they are requested.
      *
      * @param gold  the gold corpus.
      * @param guess the guess corpus.
      * @return the difference corpus.
      * @see com.googlecode.whatswrong.NLPDiff
+     * @see com.googlecode.whatswrong.DiffCorpus
      */
-    private List<NLPInstance> getDiffCorpus(final List<NLPInstance> gold,
-                                            final List<NLPInstance> guess) {
-        List<NLPInstance> diffCorpus = diffCorpora.get(new Pair<List<NLPInstance>, List<NLPInstance>>(gold, guess));
+    DiffCorpus getDiffCorpus(final List<NLPInstance> gold,
+                             final List<NLPInstance> guess) {
+        DiffCorpus diffCorpus = diffCorpora.get(new Pair<List<NLPInstance>, List<NLPInstance>>(gold, guess));
         if (diffCorpus == null) {
-            diffCorpus = new ArrayList<NLPInstance>(Math.min(gold.size(), guess.size()));
+            diffCorpus = new DiffCorpus(gold, guess, diff);
             diffCorpora.put(new Pair<List<NLPInstance>, List<NLPInstance>>(gold, guess), diffCorpus);
-            for (int i = 0; i < Math.min(gold.size(), guess.size()); ++i)
-                diffCorpus.add(diff.diff(gold.get(i), guess.get(i)));
-            //indices.put(diffCorpus,createIndex(diffCorpus));
         }
         return diffCorpus;
     }
@@ -172,10 +230,11 @@ public class CorpusNavigator extends JPanel implements CorpusLoader.Listener {
     private void removeDiffCorpus(final List<NLPInstance> gold,
                                   final List<NLPInstance> guess) {
         Pair<List<NLPInstance>, List<NLPInstance>> pair = new Pair<List<NLPInstance>, List<NLPInstance>>(gold, guess);
-        List<NLPInstance> diffCorpus = diffCorpora.get(pair);
+        DiffCorpus diffCorpus = diffCorpora.get(pair);
         if (diffCorpus != null) {
             diffCorpora.remove(pair);
-            indices.remove(diffCorpus);
+            removeIndex(diffCorpus);
+            diffCorpus.dispose();
         }
     }
 
@@ -189,15 +248,15 @@ public class CorpusNavigator extends JPanel implements CorpusLoader.Listener {
                               final CorpusLoader src) {
         if (src == gold) {
             goldCorpora.remove(corpus);
-            indices.remove(corpus);
+            removeIndex(corpus);
             for (List<NLPInstance> c : guessCorpora) {
                 removeDiffCorpus(corpus, c);
             }
         } else {
             guessCorpora.remove(corpus);
-            indices.remove(corpus);
+            removeIndex(corpus);
             for (List<NLPInstance> c : goldCorpora) {
-                removeDiffCorpus(corpus, c);
+                removeDiffCorpus(c, corpus);
             }
         }
 
@@ -252,6 +311,226 @@ public class CorpusNavigator extends JPanel implements CorpusLoader.Listener {
         }
     }
 
+    /**
+     * A list model over the hits of a query that fetches only the top {@link #PAGE_SIZE} hits at first and more when
+     * the list is scrolled towards its end. The stored document and highlighted fragment of a hit are only read when
+     * the list asks for the row of the hit, which (with fixed cell sizes) it only does for the rows it displays.
+     * <p/>
+     * <p>When the index has replaced its searcher since the hits were fetched, the hits are fetched again from the new
+     * searcher. The number of hits can't shrink that way because the index only grows.
+     */
+    private class HitListModel extends AbstractListModel {
+        /**
+         * The searched index.
+         */
+        private final CorpusIndex searchedIndex;
+        /**
+         * The query.
+         */
+        private final Query query;
+        /**
+         * The highlighter that creates the fragments of the hits.
+         */
+        private final Highlighter highlighter;
+        /**
+         * The searcher that found the hits.
+         */
+        private Searcher searcher;
+        /**
+         * The hits fetched so far, best first.
+         */
+        private ScoreDoc[] hits = new ScoreDoc[0];
+        /**
+         * The results created for the fetched hits so far, null for hits whose row hasn't been requested yet.
+         */
+        private Result[] created = new Result[0];
+        /**
+         * The total number of hits.
+         */
+        private int totalHits;
+        /**
+         * Whether more hits will be fetched.
+         */
+        private boolean fetching;
+
+        /**
+         * Creates a new HitListModel and fetches the first page of hits.
+         *
+         * @param searchedIndex the index to search.
+         * @param query         the query.
+         * @throws IOException if the index can't be searched.
+         */
+        public HitListModel(final CorpusIndex searchedIndex, final Query query) throws IOException {
+            this.searchedIndex = searchedIndex;
+            this.query = query;
+            this.highlighter = new Highlighter(new QueryScorer(query));
+            //the index replaces its searcher while it is built, so we have to hold on to it while reading hits
+            synchronized (searchedIndex) {
+                fetch(PAGE_SIZE);
+            }
+        }
+
+        /**
+         * Fetches the given number of top hits from the current searcher of the index. Results created for earlier
+         * hits are kept if the searcher hasn't changed. The caller must hold the lock of the index.
+         *
+         * @param count the number of hits to fetch.
+         * @return true iff the searcher has changed.
+         * @throws IOException if the index can't be searched.
+         */
+        private boolean fetch(final int count) throws IOException {
+            Searcher current = searchedIndex.getSearcher();
+            boolean changed = current != searcher;
+            searcher = current;
+            if (searcher == null) {
+                hits = new ScoreDoc[0];
+                totalHits = 0;
+            } else {
+                TopDocs topDocs = searcher.search(query, null, count);
+                hits = topDocs.scoreDocs;
+                totalHits = topDocs.totalHits;
+            }
+            Result[] old = created;
+            created = new Result[hits.length];
+            if (!changed) System.arraycopy(old, 0, created, 0, Math.min(old.length, created.length));
+            return changed;
+        }
+
+        public int getSize() {
+            return hits.length;
+        }
+
+        public Object getElementAt(final int row) {
+            if (row >= hits.length - PAGE_SIZE / 2 && hits.length < totalHits && !fetching) {
+                fetching = true;
+                SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        fetchMore();
+                    }
+                });
+            }
+            if (row >= created.length) return new Result(-1, " ");
+            if (created[row] == null) {
+                //createResult may fetch the hits again and replace the created array
+                Result result = createResult(row);
+                if (row < created.length) created[row] = result;
+                return result;
+            }
+            return created[row];
+        }
+
+        /**
+         * Fetches the next page of hits and notifies the list.
+         */
+        private void fetchMore() {
+            int oldSize = hits.length;
+            boolean changed;
+            try {
+                synchronized (searchedIndex) {
+                    changed = fetch(hits.length + PAGE_SIZE);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            } finally {
+                fetching = false;
+            }
+            if (changed) fireContentsChanged(this, 0, Math.max(0, Math.min(oldSize, hits.length) - 1));
+            if (hits.length > oldSize) fireIntervalAdded(this, oldSize, hits.length - 1);
+        }
+
+        /**
+         * Reads the document of a hit and creates its result with a highlighted fragment.
+         *
+         * @param row the position of the hit.
+         * @return the result for the hit.
+         */
+        private Result createResult(final int row) {
+            try {
+                synchronized (searchedIndex) {
+                    if (searchedIndex.getSearcher() != searcher) {
+                        //the old searcher is closed and replaced by one over at least the same documents, so there
+                        //are at least as many hits as before, but their order may have changed
+                        fetch(hits.length);
+                        SwingUtilities.invokeLater(new Runnable() {
+                            public void run() {
+                                fireContentsChanged(HitListModel.this, 0, Math.max(0, hits.length - 1));
+                            }
+                        });
+                    }
+                    if (searcher == null || row >= hits.length) return new Result(-1, " ");
+                    Document hitDoc = searcher.doc(hits[row].doc);
+                    int nr = Integer.parseInt(hitDoc.get("<nr>"));
+                    String best = null;
+                    for (Object field : hitDoc.getFields()) {
+                        Field f = (Field) field;
+                        best = highlighter.getBestFragment(analyzer, f.name(), hitDoc.get(f.name()));
+                        if (best != null) break;
+                    }
+                    return new Result(nr, "<html>" + nr + ":" + (best != null ? best : "") + "</html>");
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                return new Result(-1, " ");
+            }
+        }
+    }
+
+    /**
+     * A list model over the matches of a phrase query that creates the text of a match, the match with a few tokens of
+     * context, only when the list asks for its row.
+     */
+    private static class PhraseListModel extends AbstractListModel {
+        /**
+         * The index that found the matches.
+         */
+        private final PhraseIndex phraseIndex;
+        /**
+         * The stream positions of the matches.
+         */
+        private final int[] matches;
+        /**
+         * The number of tokens of each match.
+         */
+        private final int length;
+
+        /**
+         * Creates a new PhraseListModel.
+         *
+         * @param phraseIndex the index that found the matches.
+         * @param matches     the stream positions of the matches.
+         * @param length      the number of tokens of each match.
+         */
+        public PhraseListModel(final PhraseIndex phraseIndex, final int[] matches, final int length) {
+            this.phraseIndex = phraseIndex;
+            this.matches = matches;
+            this.length = length;
+        }
+
+        public int getSize() {
+            return matches.length;
+        }
+
+        public Object getElementAt(final int row) {
+            int start = matches[row];
+            int nr = phraseIndex.getInstance(start);
+            StringBuilder text = new StringBuilder("<html>").append(nr).append(":");
+            for (int position = start - PHRASE_CONTEXT; position < start + length + PHRASE_CONTEXT; ++position) {
+                String value = phraseIndex.getValue(position);
+                if (value == null) {
+                    if (position < start) text.setLength(text.indexOf(":") + 1);
+                    else if (position >= start + length) break;
+                    continue;
+                }
+                text.append(" ");
+                if (position == start) text.append("<b>");
+                text.append(escape(value));
+                if (position == start + length - 1) text.append("</b>");
+            }
+            return new Result(nr, text.append("</html>").toString());
+        }
+    }
+
     /**
      * Creates a new CorpusNavigator.
      *
@@ -309,6 +588,10 @@ public class CorpusNavigator extends JPanel implements CorpusLoader.Listener {
         spinnerPanel.add(ofHowMany);
 
         search = new JTextField(10);
+        search.setToolTipText("<html>Keywords, or dependency patterns such as<br>" +
+            "<code>Pos=VB -[OBJ]-&gt; Pos=IN</code><br>" +
+            "<code>Word=bank -[type=role]-&gt; * &amp; * -[label=SBJ]-&gt; *</code><br>" +
+            "or phrases such as <code>phrase: the Pos=NN of *</code></html>");
         search.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
                 searchCorpus();
@@ -318,9 +601,19 @@ public class CorpusNavigator extends JPanel implements CorpusLoader.Listener {
 
         //search button
         searchButton = new JButton("Search");
+        similarButton = new JButton("Similar");
+        similarButton.setToolTipText("Find instances with similar words and edges as the current instance");
+        similarButton.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                findSimilar();
+            }
+        });
+        JPanel buttonPanel = new JPanel(new GridLayout(1, 2));
+        buttonPanel.add(searchButton);
+        buttonPanel.add(similarButton);
         JPanel searchPanel = new JPanel(new BorderLayout());
         searchPanel.add(search, BorderLayout.CENTER);
-        searchPanel.add(searchButton, BorderLayout.EAST);
+        searchPanel.add(buttonPanel, BorderLayout.EAST);
         //add(searchButton, new SimpleGridBagConstraints(2, false, false));
         searchButton.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
@@ -329,11 +622,14 @@ public class CorpusNavigator extends JPanel implements CorpusLoader.Listener {
         });
 
         results = new JList();
+        //with fixed cell sizes the list only asks the model for the rows it displays
+        results.setPrototypeCellValue(new Result(0, "<html>00000:the quick <b>brown</b> fox jumps over the</html>"));
         results.addListSelectionListener(new ListSelectionListener() {
             public void valueChanged(ListSelectionEvent e) {
                 int selectedIndex = results.getSelectedIndex();
                 if (selectedIndex != -1) {
                     int nr = ((Result) results.getSelectedValue()).nr;
+                    if (nr == -1) return;
                     spinner.setValue(nr);
                     repaint();
                 }
@@ -345,9 +641,13 @@ public class CorpusNavigator extends JPanel implements CorpusLoader.Listener {
         JScrollPane resultsPane = new JScrollPane(results);
         resultsPane.setMinimumSize(new Dimension(100, 10));
         add(resultsPane, new SimpleGridBagConstraints(0, 1, 2, 2));
+        indexStatus = new JLabel(" ");
+        indexStatus.setForeground(Color.GRAY);
+        add(indexStatus, new SimpleGridBagConstraints(0, 3, 2, 1));
 
         //setPreferredSize((new Dimension(100, (int) getPreferredSize().getHeight())));
         analyzer = new WhitespaceAnalyzer();
+        indexCache = new IndexCache(IndexCache.getDefaultDirectory(), analyzer);
         updateCanvas();
         //analyzer.
     }
@@ -362,36 +662,37 @@ public class CorpusNavigator extends JPanel implements CorpusLoader.Listener {
         return spinnerPanel;
     }
 
+    /**
+     * Shows the instance with the given index of the selected corpus (or corpus pair).
+     *
+     * @param nr the index of the instance to show.
+     */
+    public void showInstance(final int nr) {
+        if (gold.getSelected() != null) spinner.setValue(nr);
+    }
+
     /**
      * Searches the current corpus using the search terms in the search field.
      */
     private void searchCorpus() {
         if (search.getText().trim().equals("")) return;
+        List<NLPInstance> corpus = guess.getSelected() != null ?
+            getDiffCorpus(gold.getSelected(), guess.getSelected()) : gold.getSelected();
+        if (PatternIndex.isPatternQuery(search.getText())) {
+            searchPatterns(corpus);
+            return;
+        }
+        if (search.getText().trim().startsWith(PHRASE_PREFIX)) {
+            //diff instances have the tokens of the gold instances
+            searchPhrases(gold.getSelected());
+            return;
+        }
         try {
-            indexSearcher = guess.getSelected() != null ?
-                getIndex(getDiffCorpus(gold.getSelected(), guess.getSelected())) :
-                getIndex(gold.getSelected());
+            index = getIndex(corpus);
             //System.out.println("Searching...");
             QueryParser parser = new QueryParser("Word", analyzer);
             Query query = parser.parse(search.getText());
-            Hits hits = indexSearcher.search(query);
-            Highlighter highlighter = new Highlighter(new QueryScorer(query));
-            DefaultListModel model = new DefaultListModel();
-            for (int i = 0; i < hits.length(); i++) {
-                Document hitDoc = hits.doc(i);
-                int nr = Integer.parseInt(hitDoc.get("<nr>"));
-                //System.out.println(hitDoc.get("<nr>"));
-                String best = null;
-                for (Object field : hitDoc.getFields()) {
-                    Field f = (Field) field;
-                    best = highlighter.getBestFragment(analyzer, f.name(), hitDoc.get(f.name()));
-                    if (best != null) break;
-                }
-                if (best != null)
-                    model.addElement(new Result(nr, "<html>" + nr + ":" + best + "</html>"));
-                //System.out.println(highlighter.getBestFragment(analyzer, "Word", hitDoc.get("Word")));
-                //assertEquals("This is the text to be indexed.", hitDoc.get("fieldname"));
-            }
+            HitListModel model = new HitListModel(index, query);
             results.setModel(model);
             repaint();
         } catch (Exception ex) {
@@ -401,101 +702,261 @@ public class CorpusNavigator extends JPanel implements CorpusLoader.Listener {
 
 
     /**
-     * Returns an IndexSearcher for the given corpus. A new one is created if not yet existent.
+     * Shows the instances of the current corpus (or corpus pair) that are most similar to the current instance (see
+     * {@link SimilarityIndex}). If the similarity index of the corpus doesn't exist yet it is built in the background
+     * and the search is repeated when it is done.
+     */
+    private void findSimilar() {
+        if (gold.getSelected() == null) return;
+        final List<NLPInstance> corpus = guess.getSelected() != null ?
+            getDiffCorpus(gold.getSelected(), guess.getSelected()) : gold.getSelected();
+        SimilarityIndex similarityIndex = getOrBuild(similarityIndices, corpus, new Callable<SimilarityIndex>() {
+            public SimilarityIndex call() {
+                return new SimilarityIndex(corpus);
+            }
+        }, new Runnable() {
+            public void run() {
+                findSimilar();
+            }
+        }, "SimilarityIndex builder");
+        if (similarityIndex == null) {
+            indexStatus.setText("Building similarity index");
+            return;
+        }
+        int nr = (Integer) spinner.getValue();
+        DefaultListModel model = new DefaultListModel();
+        for (SimilarityIndex.Hit hit : similarityIndex.findSimilar(nr, MAX_SIMILAR)) {
+            StringBuilder text = new StringBuilder("<html>").append(hit.instance).append(" (")
+                .append(String.format("%.2f", hit.similarity)).append("):");
+            List<Token> tokens = corpus.get(hit.instance).getTokens();
+            for (int i = 0; i < tokens.size() && i < SIMILAR_WORDS; ++i) {
+                String word = tokens.get(i).getProperty(new TokenProperty("Word"));
+                if (word != null) text.append(" ").append(escape(word));
+            }
+            if (tokens.size() > SIMILAR_WORDS) text.append(" ...");
+            model.addElement(new Result(hit.instance, text.append("</html>").toString()));
+        }
+        results.setModel(model);
+        indexStatus.setText(model.size() + " instances similar to " + nr);
+        repaint();
+    }
+
+    /**
+     * Searches the given corpus for the dependency pattern in the search field (see {@link PatternIndex}). If the
+     * pattern index of the corpus doesn't exist yet it is built in the background and the search is repeated when it is
+     * done.
      *
-     * @param corpus the corpus to get an IndexSearcher for.
-     * @return the IndexSearcher for the given corpus.
-     */
-    private synchronized IndexSearcher getIndex(final List<NLPInstance> corpus) {
-        IndexSearcher index = indices.get(corpus);
-        if (index == null) {
-            index = createIndex(corpus);
-            indices.put(corpus, index);
+     * @param corpus the corpus to search.
+     */
+    private void searchPatterns(final List<NLPInstance> corpus) {
+        PatternIndex patternIndex = getPatternIndex(corpus);
+        if (patternIndex == null) {
+            indexStatus.setText("Building pattern index");
+            return;
         }
-        return index;
+        updateIndexStatus();
+        DefaultListModel model = new DefaultListModel();
+        try {
+            for (PatternIndex.Match match : patternIndex.search(search.getText()))
+                model.addElement(new Result(match.instance, "<html>" + match.instance + ": " +
+                    escape(match.head) + " <b>-" + escape(match.label) + "-&gt;</b> " + escape(match.dependent) +
+                    "</html>"));
+        } catch (IllegalArgumentException e) {
+            indexStatus.setText(e.getMessage());
+        }
+        results.setModel(model);
+        repaint();
     }
 
     /**
-     * Creates an IndexSearcher for the given corpus that allows us to search the corpus efficiently for keywords in the
-     * token properties and edges.
+     * Searches the given corpus for the phrase in the search field (see {@link PhraseIndex}). If the phrase index of
+     * the corpus doesn't exist yet it is loaded or built in the background and the search is repeated when it is done.
      *
-     * @param corpus the corpus to create the IndexSearcher for.
-     * @return An IndexSearcher for the given corpus.
+     * @param corpus the corpus to search.
      */
-    private IndexSearcher createIndex(final List<NLPInstance> corpus) {
+    private void searchPhrases(final List<NLPInstance> corpus) {
+        PhraseIndex phraseIndex = getPhraseIndex(corpus);
+        if (phraseIndex == null) {
+            indexStatus.setText("Building phrase index");
+            return;
+        }
+        String query = search.getText().trim().substring(PHRASE_PREFIX.length());
         try {
-            System.err.println("Creating Index");
-            RAMDirectory directory = new RAMDirectory();
-            IndexWriter iwriter;
-            iwriter = new IndexWriter(directory, analyzer, true);
-            iwriter.setMaxFieldLength(25000);
-
-            int nr = 0;
-            for (NLPInstance instance : corpus) {
-                Document doc = new Document();
-                HashMap<TokenProperty, StringBuffer>
-                    sentences = new LinkedHashMap<TokenProperty, StringBuffer>();
-                for (Token token : instance.getTokens()) {
-                    for (TokenProperty p : token.getPropertyTypes()) {
-                        StringBuffer buffer = sentences.get(p);
-                        if (buffer == null) {
-                            buffer = new StringBuffer();
-                            sentences.put(p, buffer);
-                        }
-                        if (token.getIndex() > 0) buffer.append(" ");
-                        buffer.append(token.getProperty(p));
+            int[] matches = phraseIndex.find(query);
+            results.setModel(new PhraseListModel(phraseIndex, matches, PhraseIndex.getLength(query)));
+            indexStatus.setText(matches.length + " matches");
+        } catch (IllegalArgumentException e) {
+            results.setModel(new DefaultListModel());
+            indexStatus.setText(e.getMessage());
+        }
+        repaint();
+    }
+
+    /**
+     * Returns the phrase index of the given corpus. If it doesn't exist yet it is loaded from the index cache or built
+     * in a background thread that repeats the search when it is done, and this method returns null.
+     *
+     * @param corpus the corpus to get the phrase index for.
+     * @return the phrase index of the given corpus or null if it is still being built.
+     */
+    private PhraseIndex getPhraseIndex(final List<NLPInstance> corpus) {
+        final String key = getSource(corpus);
+        return getOrBuild(phraseIndices, corpus, new Callable<PhraseIndex>() {
+            public PhraseIndex call() throws Exception {
+                return indexCache.getPhraseIndex(corpus, key, "Word");
+            }
+        }, new Runnable() {
+            public void run() {
+                if (search.getText().trim().startsWith(PHRASE_PREFIX)) searchCorpus();
+                else updateIndexStatus();
+            }
+        }, "PhraseIndex builder");
+    }
+
+    /**
+     * Escapes the HTML special characters of the given text.
+     *
+     * @param text the text to escape.
+     * @return the text with &amp;, &lt; and &gt; replaced by entities.
+     */
+    private static String escape(final String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+
+    /**
+     * Returns the pattern index of the given corpus. If it doesn't exist yet it is built in a background thread that
+     * repeats the search when it is done, and this method returns null.
+     *
+     * @param corpus the corpus to get the pattern index for.
+     * @return the pattern index of the given corpus or null if it is still being built.
+     */
+    private PatternIndex getPatternIndex(final List<NLPInstance> corpus) {
+        return getOrBuild(patternIndices, corpus, new Callable<PatternIndex>() {
+            public PatternIndex call() {
+                return new PatternIndex(corpus);
+            }
+        }, new Runnable() {
+            public void run() {
+                if (PatternIndex.isPatternQuery(search.getText())) searchCorpus();
+                else updateIndexStatus();
+            }
+        }, "PatternIndex builder");
+    }
+
+    /**
+     * Returns the value for the given corpus from the given map. If there is none yet the value is built by the given
+     * builder in a background thread, which stores it in the map and then runs the given action on the event dispatch
+     * thread, and this method returns null. While the value is built the corpus is mapped to null.
+     *
+     * @param map       the map from corpora to values.
+     * @param corpus    the corpus.
+     * @param builder   the builder for the value.
+     * @param whenBuilt the action to run when the value has been built.
+     * @param name      the name of the background thread.
+     * @return the value for the corpus, or null if it is still being built.
+     */
+    private synchronized <T> T getOrBuild(final HashMap<List<NLPInstance>, T> map,
+                                          final List<NLPInstance> corpus,
+                                          final Callable<T> builder,
+                                          final Runnable whenBuilt,
+                                          final String name) {
+        if (map.containsKey(corpus)) return map.get(corpus);
+        map.put(corpus, null);
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                final T value;
+                try {
+                    value = builder.call();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    synchronized (CorpusNavigator.this) {
+                        map.remove(corpus);
                     }
+                    return;
                 }
-                for (TokenProperty p : sentences.keySet()) {
-                    doc.add(new Field(p.getName(), sentences.get(p).toString(),
-                        Field.Store.YES, Field.Index.TOKENIZED));
+                synchronized (CorpusNavigator.this) {
+                    //the corpus may have been removed in the meantime
+                    if (!map.containsKey(corpus)) return;
+                    map.put(corpus, value);
                 }
+                SwingUtilities.invokeLater(whenBuilt);
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+        return null;
+    }
 
-                //edges
-                HashMap<String, StringBuffer> edges = new HashMap<String, StringBuffer>();
-                StringBuffer types = new StringBuffer();
-                for (Edge e : instance.getEdges()) {
-                    String prefix = e.getTypePrefix();
-                    StringBuffer prefixBuffer = edges.get(prefix);
-                    types.append(prefix).append(" ");
-                    if (prefixBuffer == null) {
-                        prefixBuffer = new StringBuffer();
-                        edges.put(prefix, prefixBuffer);
-                    }
-                    prefixBuffer.append(e.getLabel()).append(" ");
-                    String postfix = e.getTypePostfix();
-                    if (postfix != null) {
-                        types.append(postfix).append(" ");
-                        StringBuffer postfixBuffer = edges.get(postfix);
-                        if (postfixBuffer == null) {
-                            postfixBuffer = new StringBuffer();
-                            edges.put(postfix, postfixBuffer);
+    /**
+     * Returns the index of the given corpus. If it doesn't exist yet it is loaded from the index cache, or built in
+     * the background while this method returns right away.
+     *
+     * @param corpus the corpus to get the index for.
+     * @return the (possibly incomplete) index of the given corpus.
+     */
+    synchronized CorpusIndex getIndex(final List<NLPInstance> corpus) {
+        CorpusIndex result = indices.get(corpus);
+        if (result == null) {
+            result = indexCache.getIndex(corpus, getSource(corpus));
+            result.addListener(new CorpusIndex.Listener() {
+                public void progressed(CorpusIndex index) {
+                    SwingUtilities.invokeLater(new Runnable() {
+                        public void run() {
+                            updateIndexStatus();
                         }
-                        postfixBuffer.append(e.getLabel()).append(" ");
-                    }
-                }
-
-                doc.add(new Field("types", types.toString(), Field.Store.YES, Field.Index.TOKENIZED));
-
-                for (String type : edges.keySet()) {
-                    doc.add(new Field(type, edges.get(type).toString(), Field.Store.YES, Field.Index.TOKENIZED));
+                    });
                 }
+            });
+            indices.put(corpus, result);
+        }
+        return result;
+    }
 
-                //for (DependencyEdge e : instance.getTokens())
-                doc.add(new Field("<nr>", String.valueOf(nr), Field.Store.YES, Field.Index.UN_TOKENIZED));
+    /**
+     * Shows how much of the current corpus has been indexed.
+     */
+    private void updateIndexStatus() {
+        if (index == null || index.isComplete()) indexStatus.setText(" ");
+        else if (index.isFailed()) indexStatus.setText("Indexing failed");
+        else indexStatus.setText("Indexed " + index.getIndexed() + " of " + index.size());
+    }
 
-                System.err.print(".");
-                iwriter.addDocument(doc);
-                nr++;
+    /**
+     * Returns a description of where the given corpus came from, used as key of its cached index. For a difference
+     * corpus the description combines the descriptions of its gold and guess corpus.
+     *
+     * @param corpus the corpus.
+     * @return the source description of the corpus or null if it is unknown.
+     * @see CorpusLoader#getSource(List)
+     */
+    private String getSource(final List<NLPInstance> corpus) {
+        for (Map.Entry<Pair<List<NLPInstance>, List<NLPInstance>>, DiffCorpus> entry : diffCorpora.entrySet()) {
+            if (entry.getValue() == corpus) {
+                String goldSource = gold.getSource(entry.getKey().arg1);
+                String guessSource = guess.getSource(entry.getKey().arg2);
+                return goldSource == null || guessSource == null ? null :
+                    "diff\n" + goldSource + "vs\n" + guessSource;
             }
-            System.err.println();
-            iwriter.optimize();
-            iwriter.close();
-            return new IndexSearcher(directory);
-        } catch (IOException e) {
-            throw new RuntimeException("Couldn't build the index");
         }
+        return gold.getSource(corpus) != null ? gold.getSource(corpus) : guess.getSource(corpus);
+    }
 
+    /**
+     * Removes the index of the given corpus, if there is one, and stops building it.
+     *
+     * @param corpus the corpus whose index should be removed.
+     */
+    private synchronized void removeIndex(final List<NLPInstance> corpus) {
+        CorpusIndex removed = indices.remove(corpus);
+        if (removed != null) {
+            if (removed == index) index = null;
+            removed.cancel();
+            updateIndexStatus();
+        }
+        patternIndices.remove(corpus);
+        phraseIndices.remove(corpus);
+        similarityIndices.remove(corpus);
     }
 
     /**
@@ -504,6 +965,7 @@ public class CorpusNavigator extends JPanel implements CorpusLoader.Listener {
     private void updateCanvas() {
         if (gold.getSelected() != null) {
             searchButton.setEnabled(true);
+            similarButton.setEnabled(true);
             search.setEnabled(true);
             spinner.setEnabled(true);
             results.setEnabled(true);
@@ -514,30 +976,40 @@ public class CorpusNavigator extends JPanel implements CorpusLoader.Listener {
                 numberModel.setMaximum(maxIndex);
                 ofHowMany.setText(" of " + maxIndex);
 
-                indexSearcher = getIndex(gold.getSelected());
+                this.index = getIndex(gold.getSelected());
+                updateIndexStatus();
                 canvas.setNLPInstance(gold.getSelected().get(index));
                 canvas.updateNLPGraphics();
+                canvas.prefetch(gold.getSelected(), index);
             } else {
                 int maxIndex = Math.min(gold.getSelected().size() - 1, guess.getSelected().size() - 1);
                 numberModel.setMaximum(maxIndex);
                 int index = Math.min((Integer) spinner.getValue(), maxIndex);
                 spinner.setValue(index);
                 ofHowMany.setText(" of " + maxIndex);
-                NLPInstance instance = getDiffCorpus(gold.getSelected(), guess.getSelected()).get(index);
+                DiffCorpus diffCorpus = getDiffCorpus(gold.getSelected(), guess.getSelected());
+                NLPInstance instance = diffCorpus.get(index);
+                diffCorpus.prefetch(index);
+                this.index = getIndex(diffCorpus);
+                updateIndexStatus();
                 canvas.getRenderer().setEdgeTypeColor("FN", Color.BLUE);
                 canvas.getRenderer().setEdgeTypeColor("FP", Color.RED);
                 canvas.setNLPInstance(instance);
                 canvas.updateNLPGraphics();
+                canvas.prefetch(diffCorpus, index);
 
             }
         } else {
             searchButton.setEnabled(false);
+            similarButton.setEnabled(false);
             search.setEnabled(false);
             spinner.setEnabled(false);
             spinner.setValue(0);
             searchButton.setEnabled(false);
             results.setEnabled(false);
             ofHowMany.setText(" of 1");
+            this.index = null;
+            updateIndexStatus();
 
 
             NLPInstance example = new NLPInstance();
@@ -35,12 +35,12 @@ public class DependencyLayout extends AbstractEdgeLayout {
      *
      * @param edges  the edges to layout.
      * @param bounds the bounds of the tokens the edges connect.
-     * @param g2d    the graphics object to draw on.
+     * @param g2d    the layout builder to draw on.
      * @return the dimensions of the drawn graph.
      */
     public Dimension layoutEdges(Collection<Edge> edges,
                                  Map<Token, Bounds1D> bounds,
-                                 Graphics2D g2d) {
+                                 NLPLayout.Builder g2d) {
 
         if (visible.size() > 0) {
             edges = new HashSet<Edge>(edges);
@@ -63,34 +63,8 @@ public class DependencyLayout extends AbstractEdgeLayout {
         }
         edges.removeAll(allLoops);
 
-        Counter<Edge> depth = new Counter<Edge>();
-        Counter<Edge> offset = new Counter<Edge>();
-        HashMultiMapLinkedList<Edge, Edge>
-            dominates = new HashMultiMapLinkedList<Edge, Edge>();
-
-        for (Edge over : edges)
-            for (Edge under : edges) {
-                if (over != under && (over.covers(under) || over.coversSemi(under) ||
-                    over.coversExactly(under) && over.lexicographicOrder(under) > 0)) {
-                    dominates.add(over, under);
-                }
-            }
-
-        for (Edge edge : edges)
-            calculateDepth(dominates, depth, edge);
-
-        for (Edge left : edges)
-            for (Edge right : edges) {
-                if (left != right && left.crosses(right) &&
-                    depth.get(left).equals(depth.get(right))) {
-                    if (offset.get(left) == 0 && offset.get(right) == 0)
-                        offset.increment(left, heightPerLevel / 2);
-                    else if (offset.get(left).equals(offset.get(right))) {
-                        offset.put(left, heightPerLevel / 3);
-                        offset.put(right, heightPerLevel * 2 / 3);
-                    }
-                }
-            }
+        Counter<Edge> depth = calculateNestingDepths(edges);
+        Counter<Edge> offset = calculateCrossingOffsets(new ArrayList<Edge>(edges), depth);
 
         //calculate maxHeight and maxWidth
         int maxHeight = (depth.getMaximum() + 1) * heightPerLevel + 3;
@@ -158,6 +132,8 @@ public class DependencyLayout extends AbstractEdgeLayout {
 
         //draw each edge
         edges.addAll(allLoops);
+        Font font = getLabelFont(g2d.getFont());
+        FontRenderContext frc = g2d.getFontRenderContext();
         for (Edge edge : edges) {
             //set Color and remember old color
             Color old = g2d.getColor();
@@ -179,14 +155,13 @@ public class DependencyLayout extends AbstractEdgeLayout {
             g2d.drawLine(p4.x + arrowSize, p4.y - arrowSize, p4.x, p4.y);
 
             //write label in the middle under
-            Font font = new Font(g2d.getFont().getName(), Font.PLAIN, 8);
-            FontRenderContext frc = g2d.getFontRenderContext();
-            TextLayout layout = new TextLayout(edge.getLabelWithNote(), font, frc);
+            TextLayout layout = textLayoutCache.getTextLayout(edge.getLabelWithNote(), font, frc);
             int labelx = (int) (Math.min(p1.x, p3.x) + Math.abs(p1.x - p3.x) / 2 - layout.getBounds().getWidth() / 2);
             int labely = (int) (height + layout.getAscent()) + 1;
-            layout.draw(g2d, labelx, labely);
+            g2d.draw(layout, labelx, labely);
             g2d.setColor(old);
             shapes.put(shape, edge);
+            g2d.addEdge(shape, edge);
 
 
         }
@@ -0,0 +1,261 @@
+package com.googlecode.whatswrong;
+
+import com.googlecode.whatswrong.javautils.LRUCache;
+
+import java.util.AbstractList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A DiffCorpus is the list of differences between the instances of a gold and a guess corpus (see {@link NLPDiff}).
+ * The difference of the i-th gold and guess instance is only calculated when it is requested, and the most recently
+ * requested differences are kept in a bounded cache. With {@link #prefetch(int)} the differences around a given index
+ * can be calculated in a background thread, so that stepping through the corpus doesn't wait for the diff. If the
+ * difference at an index is requested while another thread calculates it, the request waits for that calculation
+ * instead of starting a second one.
+ * <p/>
+ * <p>Like the other lazily evaluated corpora a DiffCorpus has identity semantics for {@link #equals(Object)} and
+ * {@link #hashCode()}.
+ */
+public class DiffCorpus extends AbstractList<NLPInstance> implements RandomAccess {
+
+    /**
+     * The default number of differences to keep in memory.
+     */
+    public static final int DEFAULT_CACHE_SIZE = 500;
+
+    /**
+     * The default number of instances before and after the current instance to prefetch.
+     */
+    public static final int DEFAULT_PREFETCH_RADIUS = 5;
+
+    /**
+     * The gold corpus.
+     */
+    private final List<NLPInstance> gold;
+
+    /**
+     * The guess corpus.
+     */
+    private final List<NLPInstance> guess;
+
+    /**
+     * The object that calculates differences.
+     */
+    private final NLPDiff diff;
+
+    /**
+     * The recently requested differences.
+     */
+    private final LRUCache<Integer, NLPInstance> cache;
+
+    /**
+     * The differences that are being calculated right now, guarded by the lock of {@link #cache}.
+     */
+    private final HashMap<Integer, FutureTask<NLPInstance>> pending = new HashMap<Integer, FutureTask<NLPInstance>>();
+
+    /**
+     * How many instances before and after an index to prefetch.
+     */
+    private final int prefetchRadius;
+
+    /**
+     * The thread that prefetches differences.
+     */
+    private final ExecutorService prefetcher;
+
+    /**
+     * The last prefetch task, or null.
+     */
+    private Future<?> prefetch;
+
+    /**
+     * Creates a new DiffCorpus with default cache size and prefetch radius.
+     *
+     * @param gold  the gold corpus.
+     * @param guess the guess corpus.
+     * @param diff  the object that calculates the differences.
+     */
+    public DiffCorpus(final List<NLPInstance> gold, final List<NLPInstance> guess, final NLPDiff diff) {
+        this(gold, guess, diff, DEFAULT_CACHE_SIZE, DEFAULT_PREFETCH_RADIUS);
+    }
+
+    /**
+     * Creates a new DiffCorpus.
+     *
+     * @param gold           the gold corpus.
+     * @param guess          the guess corpus.
+     * @param diff           the object that calculates the differences.
+     * @param cacheSize      how many differences should be kept in memory.
+     * @param prefetchRadius how many instances before and after an index should be prefetched.
+     */
+    public DiffCorpus(final List<NLPInstance> gold, final List<NLPInstance> guess, final NLPDiff diff,
+                      final int cacheSize, final int prefetchRadius) {
+        this.gold = gold;
+        this.guess = guess;
+        this.diff = diff;
+        this.cache = new LRUCache<Integer, NLPInstance>(cacheSize);
+        this.prefetchRadius = prefetchRadius;
+        this.prefetcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "DiffCorpus prefetcher");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Returns the difference between the gold and guess instance at the given index. The difference is calculated if
+     * it is not in the cache, unless another thread is calculating it already; then this method waits for the result
+     * of that thread.
+     *
+     * @param index the index of the instance pair.
+     * @return the difference between the gold and guess instance at the given index.
+     */
+    public NLPInstance get(final int index) {
+        if (index < 0 || index >= size())
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        FutureTask<NLPInstance> task;
+        boolean calculate = false;
+        synchronized (cache) {
+            NLPInstance result = cache.get(index);
+            if (result != null) return result;
+            task = pending.get(index);
+            if (task == null) {
+                task = new FutureTask<NLPInstance>(new Callable<NLPInstance>() {
+                    public NLPInstance call() {
+                        return diff.diff(gold.get(index), guess.get(index));
+                    }
+                });
+                pending.put(index, task);
+                calculate = true;
+            }
+        }
+        if (calculate) {
+            task.run();
+            synchronized (cache) {
+                pending.remove(index);
+                try {
+                    cache.put(index, task.get());
+                } catch (Exception e) {
+                    //the calculation failed, the exception is thrown below
+                }
+            }
+        }
+        return getResult(task);
+    }
+
+    /**
+     * Waits for the result of a calculation. Interrupts while waiting are deferred until the result is there, because
+     * the calculation is needed by a thread that is not interrupted.
+     *
+     * @param task the calculation.
+     * @return the result of the calculation.
+     */
+    private static NLPInstance getResult(final FutureTask<NLPInstance> task) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+                    if (e.getCause() instanceof Error) throw (Error) e.getCause();
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+        } finally {
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Calculates the differences of the instances around the given index in a background thread. A previous prefetch
+     * that hasn't finished yet is cancelled, so only the latest request is served.
+     *
+     * @param index the index of the current instance.
+     */
+    public synchronized void prefetch(final int index) {
+        if (prefetcher.isShutdown()) return;
+        if (prefetch != null) prefetch.cancel(false);
+        prefetch = prefetcher.submit(new Runnable() {
+            public void run() {
+                for (int offset = 1; offset <= prefetchRadius; ++offset) {
+                    if (Thread.currentThread().isInterrupted()) return;
+                    prefetchIfAbsent(index + offset);
+                    prefetchIfAbsent(index - offset);
+                }
+            }
+        });
+    }
+
+    /**
+     * Calculates the difference at the given index if it exists and is not cached. Cached entries are not touched, so
+     * prefetching doesn't refresh instances in the cache that the user has not looked at for a while.
+     *
+     * @param index the index of the instance pair.
+     */
+    private void prefetchIfAbsent(final int index) {
+        if (index < 0 || index >= size()) return;
+        synchronized (cache) {
+            if (cache.containsKey(index) || pending.containsKey(index)) return;
+        }
+        get(index);
+    }
+
+    /**
+     * Stops the prefetching thread. This corpus can still be used afterwards, but without prefetching.
+     */
+    public synchronized void dispose() {
+        prefetcher.shutdownNow();
+    }
+
+    /**
+     * Checks whether this corpus has been disposed.
+     *
+     * @return true iff {@link #dispose()} has been called.
+     */
+    public boolean isDisposed() {
+        return prefetcher.isShutdown();
+    }
+
+    /**
+     * Returns the number of instance pairs.
+     *
+     * @return the minimum of the sizes of gold and guess corpus.
+     */
+    public int size() {
+        return Math.min(gold.size(), guess.size());
+    }
+
+    /**
+     * Checks whether the given object is this corpus.
+     *
+     * @param o the object to compare to.
+     * @return true iff <code>o == this</code>.
+     */
+    public boolean equals(final Object o) {
+        return o == this;
+    }
+
+    /**
+     * Returns the identity hashcode of this corpus.
+     *
+     * @return the identity hashcode of this corpus.
+     */
+    public int hashCode() {
+        return System.identityHashCode(this);
+    }
+}
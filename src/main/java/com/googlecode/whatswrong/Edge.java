@@ -171,6 +171,19 @@ public class Edge {
         return description;
     }
 
+    /**
+     * Replaces label, type, note and description of this edge with their canonical instances in the given symbol
+     * table.
+     *
+     * @param symbols the symbol table to use.
+     */
+    void intern(SymbolTable symbols) {
+        label = symbols.intern(label);
+        type = symbols.intern(type);
+        note = symbols.intern(note);
+        description = symbols.intern(description);
+    }
+
     /**
      * Returns the mimimal index of both tokens in this edge.
      *
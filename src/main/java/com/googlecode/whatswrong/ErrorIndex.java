@@ -0,0 +1,298 @@
+package com.googlecode.whatswrong;
+
+import com.googlecode.whatswrong.javautils.Pair;
+import gnu.trove.list.array.TIntArrayList;
+
+import java.util.*;
+
+/**
+ * An ErrorIndex maps each kind of mistake of a guess corpus, such as "false positive role edges with label A0", to the
+ * instances in which it occurs. For every edge type, label and outcome (false negative, false positive or match, the
+ * postfixes of the edge types in {@link NLPDiff} results) it keeps a {@link Category} with the sorted indices of the
+ * instances that contain such edges and how many each contains. Instance pairs are added one after the other with
+ * {@link #add(NLPInstance, NLPInstance)}, so the index is built in one streaming pass over the corpora without creating
+ * diff instances.
+ */
+public class ErrorIndex {
+
+    /**
+     * The outcome of edges that are only in the gold instance.
+     */
+    public static final String FN = "FN";
+
+    /**
+     * The outcome of edges that are only in the guess instance.
+     */
+    public static final String FP = "FP";
+
+    /**
+     * The outcome of edges that are in both instances.
+     */
+    public static final String MATCH = "Match";
+
+    /**
+     * The outcomes in the order in which their categories are stored in {@link #categories}.
+     */
+    private static final String[] OUTCOMES = {FN, FP, MATCH};
+
+    /**
+     * A Category contains all edges with a given type, label and outcome, grouped by instance. A category must not be
+     * read while instance pairs are still added to its index.
+     */
+    public static class Category {
+
+        /**
+         * The type of the edges.
+         */
+        private final String type;
+
+        /**
+         * The label of the edges.
+         */
+        private final String label;
+
+        /**
+         * The outcome of the edges: {@link ErrorIndex#FN}, {@link ErrorIndex#FP} or {@link ErrorIndex#MATCH}.
+         */
+        private final String outcome;
+
+        /**
+         * The sorted indices of the instances that contain edges of this category.
+         */
+        private final TIntArrayList instances = new TIntArrayList();
+
+        /**
+         * The number of edges of this category in each instance of {@link #instances}.
+         */
+        private final TIntArrayList counts = new TIntArrayList();
+
+        /**
+         * The number of edges of this category.
+         */
+        private int total;
+
+        /**
+         * Creates a new Category.
+         *
+         * @param type    the type of the edges.
+         * @param label   the label of the edges.
+         * @param outcome the outcome of the edges.
+         */
+        private Category(final String type, final String label, final String outcome) {
+            this.type = type;
+            this.label = label;
+            this.outcome = outcome;
+        }
+
+        /**
+         * Adds an edge in the given instance. Instances must be added in increasing order.
+         *
+         * @param instance the index of the instance.
+         */
+        private void add(final int instance) {
+            int last = instances.size() - 1;
+            if (last >= 0 && instances.get(last) == instance) counts.set(last, counts.get(last) + 1);
+            else {
+                instances.add(instance);
+                counts.add(1);
+            }
+            ++total;
+        }
+
+        /**
+         * Returns the type of the edges.
+         *
+         * @return the edge type.
+         */
+        public String getType() {
+            return type;
+        }
+
+        /**
+         * Returns the label of the edges.
+         *
+         * @return the edge label.
+         */
+        public String getLabel() {
+            return label;
+        }
+
+        /**
+         * Returns the outcome of the edges.
+         *
+         * @return {@link ErrorIndex#FN}, {@link ErrorIndex#FP} or {@link ErrorIndex#MATCH}.
+         */
+        public String getOutcome() {
+            return outcome;
+        }
+
+        /**
+         * Checks whether the edges of this category are mistakes.
+         *
+         * @return true iff the outcome is FN or FP.
+         */
+        public boolean isError() {
+            return outcome != MATCH;
+        }
+
+        /**
+         * Returns the number of edges in this category.
+         *
+         * @return the number of edges.
+         */
+        public int getTotal() {
+            return total;
+        }
+
+        /**
+         * Returns the number of instances that contain edges of this category.
+         *
+         * @return the number of instances.
+         */
+        public int getInstanceCount() {
+            return instances.size();
+        }
+
+        /**
+         * Returns the index of the i-th instance that contains edges of this category.
+         *
+         * @param i the position of the instance, between 0 and {@link #getInstanceCount()} - 1.
+         * @return the index of the instance in the corpus.
+         */
+        public int getInstance(final int i) {
+            return instances.get(i);
+        }
+
+        /**
+         * Returns the number of edges of this category in the i-th instance.
+         *
+         * @param i the position of the instance, between 0 and {@link #getInstanceCount()} - 1.
+         * @return the number of edges of this category in the instance.
+         */
+        public int getCount(final int i) {
+            return counts.get(i);
+        }
+
+        /**
+         * Returns the category as "type:outcome label".
+         *
+         * @return a string representation of this category.
+         */
+        public String toString() {
+            return type + ":" + outcome + " " + label;
+        }
+    }
+
+    /**
+     * The object that matches edges.
+     */
+    private final NLPDiff diff;
+
+    /**
+     * The categories for each pair of type and label, indexed like {@link #OUTCOMES}.
+     */
+    private final HashMap<Pair<String, String>, Category[]>
+        categories = new HashMap<Pair<String, String>, Category[]>();
+
+    /**
+     * The number of instance pairs added so far.
+     */
+    private int size;
+
+    /**
+     * Creates a new empty ErrorIndex.
+     *
+     * @param diff the object that matches the edges of gold and guess instances.
+     */
+    public ErrorIndex(final NLPDiff diff) {
+        this.diff = diff;
+    }
+
+    /**
+     * Adds the next pair of instances.
+     *
+     * @param gold  the gold instance.
+     * @param guess the guess instance.
+     */
+    public synchronized void add(final NLPInstance gold, final NLPInstance guess) {
+        final int instance = size;
+        diff.compare(gold, guess, new NLPDiff.Listener() {
+            public void match(Edge goldEdge, Edge guessEdge) {
+                getCategory(goldEdge, 2).add(instance);
+            }
+
+            public void falseNegative(Edge goldEdge) {
+                getCategory(goldEdge, 0).add(instance);
+            }
+
+            public void falsePositive(Edge guessEdge) {
+                getCategory(guessEdge, 1).add(instance);
+            }
+        });
+        ++size;
+    }
+
+    /**
+     * Returns the category of the given edge, creating it if necessary.
+     *
+     * @param edge    the edge.
+     * @param outcome the outcome of the edge, as index into {@link #OUTCOMES}.
+     * @return the category of edges with the type and label of the given edge and the given outcome.
+     */
+    private Category getCategory(final Edge edge, final int outcome) {
+        Pair<String, String> key = new Pair<String, String>(edge.getType(), edge.getLabel());
+        Category[] byOutcome = categories.get(key);
+        if (byOutcome == null) {
+            byOutcome = new Category[OUTCOMES.length];
+            categories.put(key, byOutcome);
+        }
+        if (byOutcome[outcome] == null)
+            byOutcome[outcome] = new Category(edge.getType(), edge.getLabel(), OUTCOMES[outcome]);
+        return byOutcome[outcome];
+    }
+
+    /**
+     * Returns the number of instance pairs in this index.
+     *
+     * @return the number of instance pairs added so far.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Returns the category with the given type, label and outcome.
+     *
+     * @param type    the edge type.
+     * @param label   the edge label.
+     * @param outcome the outcome: {@link #FN}, {@link #FP} or {@link #MATCH}.
+     * @return the category or null if there are no such edges.
+     */
+    public synchronized Category getCategory(final String type, final String label, final String outcome) {
+        Category[] byOutcome = categories.get(new Pair<String, String>(type, label));
+        if (byOutcome == null) return null;
+        for (Category category : byOutcome)
+            if (category != null && category.outcome.equals(outcome)) return category;
+        return null;
+    }
+
+    /**
+     * Returns the categories ranked by the number of their edges, largest first.
+     *
+     * @param includeMatches whether the categories of matching edges should be included, or only errors.
+     * @return the ranked categories.
+     */
+    public synchronized List<Category> getCategories(final boolean includeMatches) {
+        ArrayList<Category> result = new ArrayList<Category>();
+        for (Category[] byOutcome : categories.values())
+            for (Category category : byOutcome)
+                if (category != null && (includeMatches || category.isError())) result.add(category);
+        Collections.sort(result, new Comparator<Category>() {
+            public int compare(Category category1, Category category2) {
+                if (category1.total != category2.total) return category2.total - category1.total;
+                return category1.toString().compareTo(category2.toString());
+            }
+        });
+        return result;
+    }
+}
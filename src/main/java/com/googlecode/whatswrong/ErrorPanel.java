@@ -0,0 +1,332 @@
+package com.googlecode.whatswrong;
+
+import com.googlecode.whatswrong.javautils.Pair;
+
+import javax.swing.*;
+import javax.swing.event.ListSelectionEvent;
+import javax.swing.event.ListSelectionListener;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.HierarchyEvent;
+import java.awt.event.HierarchyListener;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * An ErrorPanel shows the mistakes of the selected guess corpus with respect to the selected gold corpus as a list of
+ * categories such as "role:FP A0", ranked by how often they occur (see {@link ErrorIndex}). Selecting a category lists
+ * the instances that contain such mistakes, and selecting one of those shows it in the {@link CorpusNavigator}. The
+ * error index of a corpus pair is built in a background thread when the pair is selected while the panel is showing
+ * (or the panel is shown while the pair is selected), and kept until one of its corpora is removed.
+ */
+@SuppressWarnings({"MissingMethodJavaDoc"})
+public class ErrorPanel extends ControllerPanel implements CorpusLoader.Listener {
+
+    /**
+     * The number of instance pairs between two progress updates while an index is built.
+     */
+    private static final int PROGRESS_INTERVAL = 1000;
+
+    /**
+     * The loader of the gold corpus.
+     */
+    private final CorpusLoader goldLoader;
+
+    /**
+     * The loader of the guess corpus.
+     */
+    private final CorpusLoader guessLoader;
+
+    /**
+     * The navigator that shows the selected instance.
+     */
+    private final CorpusNavigator navigator;
+
+    /**
+     * The complete error indices of all corpus pairs seen so far.
+     */
+    private final HashMap<Pair<List<NLPInstance>, List<NLPInstance>>, ErrorIndex>
+        indices = new HashMap<Pair<List<NLPInstance>, List<NLPInstance>>, ErrorIndex>();
+
+    /**
+     * The corpus pair whose index is currently built, or null.
+     */
+    private volatile Pair<List<NLPInstance>, List<NLPInstance>> building;
+
+    /**
+     * The index that is shown, or null.
+     */
+    private ErrorIndex shown;
+
+    /**
+     * The list of categories.
+     */
+    private final JList categories;
+
+    /**
+     * The list of instances of the selected category.
+     */
+    private final JList instances;
+
+    /**
+     * Whether categories of matching edges are shown too.
+     */
+    private final JCheckBox showMatches;
+
+    /**
+     * Shows the state of the index.
+     */
+    private final JLabel status;
+
+    /**
+     * Creates a new ErrorPanel.
+     *
+     * @param goldLoader  the loader of the gold corpus.
+     * @param guessLoader the loader of the guess corpus.
+     * @param navigator   the navigator that shows the selected instance.
+     */
+    public ErrorPanel(final CorpusLoader goldLoader, final CorpusLoader guessLoader,
+                      final CorpusNavigator navigator) {
+        this.goldLoader = goldLoader;
+        this.guessLoader = guessLoader;
+        this.navigator = navigator;
+        setLayout(new BorderLayout());
+
+        categories = new JList(new CategoryListModel(new ArrayList<ErrorIndex.Category>()));
+        categories.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        categories.addListSelectionListener(new ListSelectionListener() {
+            public void valueChanged(ListSelectionEvent e) {
+                if (e.getValueIsAdjusting()) return;
+                ErrorIndex.Category category = getSelectedCategory();
+                instances.setModel(category == null ? new DefaultListModel() : new InstanceListModel(category));
+                if (category != null) instances.setSelectedIndex(0);
+            }
+        });
+        instances = new JList();
+        instances.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        instances.addListSelectionListener(new ListSelectionListener() {
+            public void valueChanged(ListSelectionEvent e) {
+                ErrorIndex.Category category = getSelectedCategory();
+                int selected = instances.getSelectedIndex();
+                if (category != null && selected != -1) ErrorPanel.this.navigator.showInstance(
+                    category.getInstance(selected));
+            }
+        });
+        JScrollPane categoriesPane = new JScrollPane(categories);
+        categoriesPane.setPreferredSize(new Dimension(300, 300));
+        JScrollPane instancesPane = new JScrollPane(instances);
+        instancesPane.setPreferredSize(new Dimension(150, 300));
+        add(new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, categoriesPane, instancesPane), BorderLayout.CENTER);
+
+        JPanel controls = new JPanel(new GridBagLayout());
+        status = new JLabel(" ");
+        controls.add(status, new SimpleGridBagConstraints(0, 0, 1.0, 0.0, GridBagConstraints.WEST,
+            GridBagConstraints.HORIZONTAL));
+        showMatches = new JCheckBox("Matches");
+        showMatches.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                show(shown);
+            }
+        });
+        controls.add(showMatches, new SimpleGridBagConstraints(1, 0, 0.0, 0.0, GridBagConstraints.EAST,
+            GridBagConstraints.NONE));
+        add(controls, BorderLayout.SOUTH);
+
+        goldLoader.addChangeListener(this);
+        guessLoader.addChangeListener(this);
+        addHierarchyListener(new HierarchyListener() {
+            public void hierarchyChanged(HierarchyEvent e) {
+                if ((e.getChangeFlags() & HierarchyEvent.SHOWING_CHANGED) != 0 && isShowing()) update();
+            }
+        });
+        update();
+    }
+
+    /**
+     * Lists the instances of a category with the number of its edges in each instance.
+     */
+    private static class InstanceListModel extends AbstractListModel {
+
+        /**
+         * The category whose instances are listed.
+         */
+        private final ErrorIndex.Category category;
+
+        /**
+         * Creates a new InstanceListModel.
+         *
+         * @param category the category whose instances are listed.
+         */
+        public InstanceListModel(final ErrorIndex.Category category) {
+            this.category = category;
+        }
+
+        public int getSize() {
+            return category.getInstanceCount();
+        }
+
+        public Object getElementAt(int index) {
+            return category.getInstance(index) + " (" + category.getCount(index) + ")";
+        }
+    }
+
+    /**
+     * Lists categories with the number of their edges and instances.
+     */
+    private static class CategoryListModel extends AbstractListModel {
+
+        /**
+         * The listed categories.
+         */
+        private final List<ErrorIndex.Category> categories;
+
+        /**
+         * Creates a new CategoryListModel.
+         *
+         * @param categories the categories to list.
+         */
+        public CategoryListModel(final List<ErrorIndex.Category> categories) {
+            this.categories = categories;
+        }
+
+        public int getSize() {
+            return categories.size();
+        }
+
+        public Object getElementAt(int index) {
+            ErrorIndex.Category category = categories.get(index);
+            return category + ": " + category.getTotal() + " in " + category.getInstanceCount();
+        }
+
+        /**
+         * Returns the category at the given position.
+         *
+         * @param index the position of the category.
+         * @return the category at the given position.
+         */
+        public ErrorIndex.Category getCategory(final int index) {
+            return categories.get(index);
+        }
+    }
+
+    /**
+     * Returns the selected category.
+     *
+     * @return the selected category or null if no category is selected.
+     */
+    private ErrorIndex.Category getSelectedCategory() {
+        int selected = categories.getSelectedIndex();
+        return selected == -1 ? null : ((CategoryListModel) categories.getModel()).getCategory(selected);
+    }
+
+    /**
+     * Shows the error index of the selected corpora, or starts building it if it doesn't exist yet and the panel is
+     * showing.
+     */
+    private synchronized void update() {
+        List<NLPInstance> gold = goldLoader.getSelected();
+        List<NLPInstance> guess = guessLoader.getSelected();
+        if (gold == null || guess == null) {
+            building = null;
+            show(null);
+            status.setText("Select a gold and a guess corpus");
+            return;
+        }
+        Pair<List<NLPInstance>, List<NLPInstance>> pair = new Pair<List<NLPInstance>, List<NLPInstance>>(gold, guess);
+        ErrorIndex index = indices.get(pair);
+        if (index != null) {
+            building = null;
+            show(index);
+            status.setText(index.size() + " instances");
+        } else if (!pair.equals(building)) {
+            show(null);
+            if (isShowing()) build(pair);
+            else {
+                building = null;
+                status.setText(" ");
+            }
+        }
+    }
+
+    /**
+     * Builds the error index of the given corpus pair in a background thread. The build stops when another pair is
+     * selected before it is done.
+     *
+     * @param pair the gold and guess corpus.
+     */
+    private void build(final Pair<List<NLPInstance>, List<NLPInstance>> pair) {
+        building = pair;
+        final int size = Math.min(pair.arg1.size(), pair.arg2.size());
+        status.setText("Indexing errors...");
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                ErrorIndex index = new ErrorIndex(new NLPDiff());
+                for (int i = 0; i < size; ++i) {
+                    if (building != pair) return;
+                    index.add(pair.arg1.get(i), pair.arg2.get(i));
+                    if ((i + 1) % PROGRESS_INTERVAL == 0) progressed(pair, i + 1, size);
+                }
+                synchronized (ErrorPanel.this) {
+                    if (building != pair) return;
+                    building = null;
+                    indices.put(pair, index);
+                }
+                SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        update();
+                    }
+                });
+            }
+        }, "ErrorIndex builder");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Shows how many instance pairs of the given pair have been indexed, if it is still being built.
+     *
+     * @param pair    the corpus pair.
+     * @param indexed the number of indexed instance pairs.
+     * @param size    the number of instance pairs.
+     */
+    private void progressed(final Pair<List<NLPInstance>, List<NLPInstance>> pair, final int indexed, final int size) {
+        SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+                if (building == pair) status.setText("Indexed errors in " + indexed + " of " + size);
+            }
+        });
+    }
+
+    /**
+     * Shows the categories of the given index.
+     *
+     * @param index the index to show, or null to show nothing.
+     */
+    private void show(final ErrorIndex index) {
+        shown = index;
+        categories.setModel(new CategoryListModel(index == null ? new ArrayList<ErrorIndex.Category>() :
+            index.getCategories(showMatches.isSelected())));
+        instances.setModel(new DefaultListModel());
+    }
+
+    public void corpusAdded(final List<NLPInstance> corpus, final CorpusLoader src) {
+        update();
+    }
+
+    public synchronized void corpusRemoved(final List<NLPInstance> corpus, final CorpusLoader src) {
+        for (Iterator<Pair<List<NLPInstance>, List<NLPInstance>>> i = indices.keySet().iterator(); i.hasNext();) {
+            Pair<List<NLPInstance>, List<NLPInstance>> pair = i.next();
+            if (pair.arg1 == corpus || pair.arg2 == corpus) i.remove();
+        }
+        if (building != null && (building.arg1 == corpus || building.arg2 == corpus)) building = null;
+        update();
+    }
+
+    public void corpusSelected(final List<NLPInstance> corpus, final CorpusLoader src) {
+        update();
+    }
+}
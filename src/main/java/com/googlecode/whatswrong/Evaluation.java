@@ -0,0 +1,430 @@
+package com.googlecode.whatswrong;
+
+import com.googlecode.whatswrong.javautils.Counter;
+import com.googlecode.whatswrong.javautils.Pair;
+
+import java.util.*;
+
+/**
+ * An Evaluation holds the result of comparing a guess corpus with a gold corpus, as calculated by an {@link
+ * Evaluator}. It contains
+ * <ul>
+ * <li>true positive, false positive and false negative counts (and hence precision, recall and F1) over all edges, per
+ * edge type and per edge type and label,
+ * <li>the number of gold edges that were attached correctly when labels are ignored, per edge type. Together with the
+ * number of gold edges and true positives this gives unlabeled and labeled attachment scores (UAS and LAS). Every
+ * true positive is attached, so the LAS never exceeds the UAS,
+ * <li>a label confusion matrix per edge type that counts, for each attached gold edge, the gold label and the label
+ * of a guess edge that connects the same tokens.
+ * </ul>
+ * Types and labels may be null; null sorts before all other strings.
+ */
+public class Evaluation {
+
+    /**
+     * Counts holds true positive, false positive and false negative counts.
+     */
+    public static class Counts {
+        /**
+         * The number of true positives.
+         */
+        private int truePositives;
+        /**
+         * The number of false positives.
+         */
+        private int falsePositives;
+        /**
+         * The number of false negatives.
+         */
+        private int falseNegatives;
+
+        /**
+         * Returns the number of true positives.
+         *
+         * @return the number of true positives.
+         */
+        public int getTruePositives() {
+            return truePositives;
+        }
+
+        /**
+         * Returns the number of false positives.
+         *
+         * @return the number of false positives.
+         */
+        public int getFalsePositives() {
+            return falsePositives;
+        }
+
+        /**
+         * Returns the number of false negatives.
+         *
+         * @return the number of false negatives.
+         */
+        public int getFalseNegatives() {
+            return falseNegatives;
+        }
+
+        /**
+         * Returns the number of gold edges.
+         *
+         * @return true positives plus false negatives.
+         */
+        public int getGold() {
+            return truePositives + falseNegatives;
+        }
+
+        /**
+         * Returns the number of guess edges.
+         *
+         * @return true positives plus false positives.
+         */
+        public int getGuess() {
+            return truePositives + falsePositives;
+        }
+
+        /**
+         * Returns the precision.
+         *
+         * @return true positives divided by the number of guess edges, or 0 if there are no guess edges.
+         */
+        public double getPrecision() {
+            return getGuess() == 0 ? 0.0 : (double) truePositives / getGuess();
+        }
+
+        /**
+         * Returns the recall.
+         *
+         * @return true positives divided by the number of gold edges, or 0 if there are no gold edges.
+         */
+        public double getRecall() {
+            return getGold() == 0 ? 0.0 : (double) truePositives / getGold();
+        }
+
+        /**
+         * Returns the F1 score.
+         *
+         * @return the harmonic mean of precision and recall, or 0 if both are 0.
+         */
+        public double getF1() {
+            double precision = getPrecision();
+            double recall = getRecall();
+            return precision + recall == 0.0 ? 0.0 : 2 * precision * recall / (precision + recall);
+        }
+
+        /**
+         * Adds the given counts to these counts.
+         *
+         * @param counts the counts to add.
+         */
+        void add(final Counts counts) {
+            truePositives += counts.truePositives;
+            falsePositives += counts.falsePositives;
+            falseNegatives += counts.falseNegatives;
+        }
+
+        /**
+         * Returns a string representation of these counts.
+         *
+         * @return a string with counts, precision, recall and F1.
+         */
+        public String toString() {
+            return String.format("tp=%d fp=%d fn=%d p=%.4f r=%.4f f1=%.4f",
+                truePositives, falsePositives, falseNegatives, getPrecision(), getRecall(), getF1());
+        }
+    }
+
+    /**
+     * Orders types and labels alphabetically, with null first.
+     */
+    private static final Comparator<String> ORDER = new Comparator<String>() {
+        public int compare(String string1, String string2) {
+            if (string1 == null) return string2 == null ? 0 : -1;
+            return string2 == null ? 1 : string1.compareTo(string2);
+        }
+    };
+
+    /**
+     * The number of evaluated instance pairs.
+     */
+    private int instances;
+
+    /**
+     * The counts over all edges.
+     */
+    private final Counts total = new Counts();
+
+    /**
+     * The counts per edge type.
+     */
+    private final HashMap<String, Counts> types = new HashMap<String, Counts>();
+
+    /**
+     * The counts per edge type and label.
+     */
+    private final HashMap<Pair<String, String>, Counts> labels = new HashMap<Pair<String, String>, Counts>();
+
+    /**
+     * The number of gold edges per type that have a guess edge between the same tokens.
+     */
+    private final Counter<String> attached = new Counter<String>();
+
+    /**
+     * The label confusion counts per edge type, keyed by gold and guess label.
+     */
+    private final HashMap<String, Counter<Pair<String, String>>>
+        confusion = new HashMap<String, Counter<Pair<String, String>>>();
+
+    /**
+     * Returns the number of evaluated instance pairs.
+     *
+     * @return the number of evaluated instance pairs.
+     */
+    public int getInstanceCount() {
+        return instances;
+    }
+
+    /**
+     * Returns the counts over all edges.
+     *
+     * @return the counts over all edges.
+     */
+    public Counts getTotal() {
+        return total;
+    }
+
+    /**
+     * Returns the edge types that occur in gold or guess corpus.
+     *
+     * @return the sorted edge types.
+     */
+    public List<String> getTypes() {
+        ArrayList<String> result = new ArrayList<String>(types.keySet());
+        Collections.sort(result, ORDER);
+        return result;
+    }
+
+    /**
+     * Returns the counts for the given edge type.
+     *
+     * @param type the edge type.
+     * @return the counts for edges of the given type.
+     */
+    public Counts getCounts(final String type) {
+        Counts counts = types.get(type);
+        return counts == null ? new Counts() : counts;
+    }
+
+    /**
+     * Returns the labels of edges with the given type that occur in gold or guess corpus.
+     *
+     * @param type the edge type.
+     * @return the sorted labels of the given type.
+     */
+    public List<String> getLabels(final String type) {
+        ArrayList<String> result = new ArrayList<String>();
+        for (Pair<String, String> key : labels.keySet())
+            if (type == null ? key.arg1 == null : type.equals(key.arg1)) result.add(key.arg2);
+        Collections.sort(result, ORDER);
+        return result;
+    }
+
+    /**
+     * Returns the counts for the given edge type and label.
+     *
+     * @param type  the edge type.
+     * @param label the edge label.
+     * @return the counts for edges of the given type and label.
+     */
+    public Counts getCounts(final String type, final String label) {
+        Counts counts = labels.get(new Pair<String, String>(type, label));
+        return counts == null ? new Counts() : counts;
+    }
+
+    /**
+     * Returns the labeled attachment score for the given type.
+     *
+     * @param type the edge type.
+     * @return the fraction of gold edges that have a guess edge with the same tokens and label.
+     */
+    public double getLabeledAttachmentScore(final String type) {
+        return getCounts(type).getRecall();
+    }
+
+    /**
+     * Returns the unlabeled attachment score for the given type.
+     *
+     * @param type the edge type.
+     * @return the fraction of gold edges that have a guess edge with the same tokens.
+     */
+    public double getUnlabeledAttachmentScore(final String type) {
+        int gold = getCounts(type).getGold();
+        return gold == 0 ? 0.0 : (double) attached.get(type) / gold;
+    }
+
+    /**
+     * Returns the fraction of correctly attached gold edges that also have the correct label.
+     *
+     * @param type the edge type.
+     * @return the label accuracy on correctly attached edges.
+     */
+    public double getLabelAccuracy(final String type) {
+        int attachedEdges = attached.get(type);
+        return attachedEdges == 0 ? 0.0 : (double) getCounts(type).getTruePositives() / attachedEdges;
+    }
+
+    /**
+     * Returns the label confusion counts for the given edge type.
+     *
+     * @param type the edge type.
+     * @return a counter that maps (gold label, guess label) pairs to the number of attached edges with these labels.
+     */
+    public Counter<Pair<String, String>> getConfusion(final String type) {
+        Counter<Pair<String, String>> result = confusion.get(type);
+        return result == null ? new Counter<Pair<String, String>>() : result;
+    }
+
+    /**
+     * Returns the label confusions of the given edge type: the (gold label, guess label) pairs with different labels,
+     * together with the number of attached edges with these labels.
+     *
+     * @param type the edge type.
+     * @return the confusions of the given type, most frequent first.
+     */
+    public List<Map.Entry<Pair<String, String>, Integer>> getConfusions(final String type) {
+        ArrayList<Map.Entry<Pair<String, String>, Integer>> result =
+            new ArrayList<Map.Entry<Pair<String, String>, Integer>>();
+        for (Map.Entry<Pair<String, String>, Integer> entry : getConfusion(type).sorted(true))
+            if (ORDER.compare(entry.getKey().arg1, entry.getKey().arg2) != 0) result.add(entry);
+        return result;
+    }
+
+    /**
+     * Counts a true positive.
+     *
+     * @param edge the gold edge.
+     */
+    void truePositive(final Edge edge) {
+        ++total.truePositives;
+        ++counts(edge.getType()).truePositives;
+        ++counts(edge.getType(), edge.getLabel()).truePositives;
+    }
+
+    /**
+     * Counts a false positive.
+     *
+     * @param edge the guess edge.
+     */
+    void falsePositive(final Edge edge) {
+        ++total.falsePositives;
+        ++counts(edge.getType()).falsePositives;
+        ++counts(edge.getType(), edge.getLabel()).falsePositives;
+    }
+
+    /**
+     * Counts a false negative.
+     *
+     * @param edge the gold edge.
+     */
+    void falseNegative(final Edge edge) {
+        ++total.falseNegatives;
+        ++counts(edge.getType()).falseNegatives;
+        ++counts(edge.getType(), edge.getLabel()).falseNegatives;
+    }
+
+    /**
+     * Counts a gold edge for which there is a guess edge between the same tokens and with the same type.
+     *
+     * @param gold  the gold edge.
+     * @param guess the guess edge.
+     */
+    void attached(final Edge gold, final Edge guess) {
+        attached.increment(gold.getType(), 1);
+        Counter<Pair<String, String>> counter = confusion.get(gold.getType());
+        if (counter == null) {
+            counter = new Counter<Pair<String, String>>();
+            confusion.put(gold.getType(), counter);
+        }
+        counter.increment(new Pair<String, String>(gold.getLabel(), guess.getLabel()), 1);
+    }
+
+    /**
+     * Counts an evaluated instance pair.
+     */
+    void instance() {
+        ++instances;
+    }
+
+    /**
+     * Adds all counts of the given evaluation to this evaluation.
+     *
+     * @param evaluation the evaluation to add.
+     */
+    public void add(final Evaluation evaluation) {
+        instances += evaluation.instances;
+        total.add(evaluation.total);
+        for (Map.Entry<String, Counts> entry : evaluation.types.entrySet())
+            counts(entry.getKey()).add(entry.getValue());
+        for (Map.Entry<Pair<String, String>, Counts> entry : evaluation.labels.entrySet())
+            counts(entry.getKey().arg1, entry.getKey().arg2).add(entry.getValue());
+        for (Map.Entry<String, Integer> entry : evaluation.attached.entrySet())
+            attached.increment(entry.getKey(), entry.getValue());
+        for (Map.Entry<String, Counter<Pair<String, String>>> entry : evaluation.confusion.entrySet()) {
+            Counter<Pair<String, String>> counter = confusion.get(entry.getKey());
+            if (counter == null) {
+                counter = new Counter<Pair<String, String>>();
+                confusion.put(entry.getKey(), counter);
+            }
+            for (Map.Entry<Pair<String, String>, Integer> count : entry.getValue().entrySet())
+                counter.increment(count.getKey(), count.getValue());
+        }
+    }
+
+    /**
+     * Returns the counts for the given type, creating them if necessary.
+     *
+     * @param type the edge type.
+     * @return the counts for the given type.
+     */
+    private Counts counts(final String type) {
+        Counts counts = types.get(type);
+        if (counts == null) {
+            counts = new Counts();
+            types.put(type, counts);
+        }
+        return counts;
+    }
+
+    /**
+     * Returns the counts for the given type and label, creating them if necessary.
+     *
+     * @param type  the edge type.
+     * @param label the edge label.
+     * @return the counts for the given type and label.
+     */
+    private Counts counts(final String type, final String label) {
+        Pair<String, String> key = new Pair<String, String>(type, label);
+        Counts counts = labels.get(key);
+        if (counts == null) {
+            counts = new Counts();
+            labels.put(key, counts);
+        }
+        return counts;
+    }
+
+    /**
+     * Returns a summary of this evaluation with total counts and, for each type, counts and attachment scores.
+     *
+     * @return a multi-line summary of this evaluation.
+     */
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        result.append("instances: ").append(instances).append("\n");
+        result.append("total: ").append(total).append("\n");
+        for (String type : getTypes())
+            result.append(type).append(": ").append(getCounts(type))
+                .append(String.format(" las=%.4f uas=%.4f", getLabeledAttachmentScore(type),
+                    getUnlabeledAttachmentScore(type))).append("\n");
+        return result.toString();
+    }
+}
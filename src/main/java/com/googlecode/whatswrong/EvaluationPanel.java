@@ -0,0 +1,211 @@
+package com.googlecode.whatswrong;
+
+import com.googlecode.whatswrong.javautils.Pair;
+
+import javax.swing.*;
+import javax.swing.table.DefaultTableModel;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An EvaluationPanel evaluates the selected guess corpus against the selected gold corpus (see {@link Evaluator}) and
+ * shows precision, recall and F1 per edge type and label, together with labeled and unlabeled attachment scores per
+ * edge type. A second tab lists the label confusions of each edge type, most frequent first.
+ */
+@SuppressWarnings({"MissingMethodJavaDoc"})
+public class EvaluationPanel extends ControllerPanel implements CorpusLoader.Listener {
+
+    /**
+     * The column names of the result table.
+     */
+    private static final String[] COLUMNS = {"Type", "Label", "Gold", "Guess", "P", "R", "F1", "LAS", "UAS"};
+
+    /**
+     * The column names of the confusion table.
+     */
+    private static final String[] CONFUSION_COLUMNS = {"Type", "Gold label", "Guess label", "Count"};
+
+    /**
+     * The loader of the gold corpus.
+     */
+    private final CorpusLoader goldLoader;
+
+    /**
+     * The loader of the guess corpus.
+     */
+    private final CorpusLoader guessLoader;
+
+    /**
+     * The button that starts the evaluation.
+     */
+    private final JButton evaluate;
+
+    /**
+     * Shows the state of the evaluation.
+     */
+    private final JLabel status;
+
+    /**
+     * The model of the result table.
+     */
+    private final DefaultTableModel model;
+
+    /**
+     * The model of the confusion table.
+     */
+    private final DefaultTableModel confusionModel;
+
+    /**
+     * Creates a new EvaluationPanel.
+     *
+     * @param goldLoader  the loader of the gold corpus.
+     * @param guessLoader the loader of the guess corpus.
+     */
+    public EvaluationPanel(final CorpusLoader goldLoader, final CorpusLoader guessLoader) {
+        this.goldLoader = goldLoader;
+        this.guessLoader = guessLoader;
+        setLayout(new BorderLayout());
+        model = new DefaultTableModel(COLUMNS, 0) {
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        confusionModel = new DefaultTableModel(CONFUSION_COLUMNS, 0) {
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        JTabbedPane tabs = new JTabbedPane();
+        tabs.addTab("Scores", new JScrollPane(new JTable(model)));
+        tabs.addTab("Confusions", new JScrollPane(new JTable(confusionModel)));
+        tabs.setPreferredSize(new Dimension(520, 300));
+        add(tabs, BorderLayout.CENTER);
+        JPanel controls = new JPanel(new GridBagLayout());
+        status = new JLabel(" ");
+        controls.add(status, new SimpleGridBagConstraints(0, 0, 1.0, 0.0, GridBagConstraints.WEST,
+            GridBagConstraints.HORIZONTAL));
+        evaluate = new JButton("Evaluate");
+        evaluate.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                evaluate();
+            }
+        });
+        controls.add(evaluate, new SimpleGridBagConstraints(1, 0, 0.0, 0.0, GridBagConstraints.EAST,
+            GridBagConstraints.NONE));
+        add(controls, BorderLayout.SOUTH);
+        goldLoader.addChangeListener(this);
+        guessLoader.addChangeListener(this);
+        updateButton();
+    }
+
+    /**
+     * Evaluates the selected corpora in a background thread and shows the result.
+     */
+    private void evaluate() {
+        final List<NLPInstance> gold = goldLoader.getSelected();
+        final List<NLPInstance> guess = guessLoader.getSelected();
+        if (gold == null || guess == null) return;
+        evaluate.setEnabled(false);
+        status.setText("Evaluating...");
+        new Thread(new Runnable() {
+            public void run() {
+                try {
+                    long start = System.currentTimeMillis();
+                    final Evaluation evaluation = new Evaluator().evaluate(gold, guess);
+                    final long time = System.currentTimeMillis() - start;
+                    SwingUtilities.invokeLater(new Runnable() {
+                        public void run() {
+                            show(evaluation);
+                            status.setText(evaluation.getInstanceCount() + " instances in " + time + "ms");
+                        }
+                    });
+                } catch (final Exception e) {
+                    e.printStackTrace();
+                    SwingUtilities.invokeLater(new Runnable() {
+                        public void run() {
+                            status.setText("Evaluation failed: " + e.getMessage());
+                        }
+                    });
+                } finally {
+                    SwingUtilities.invokeLater(new Runnable() {
+                        public void run() {
+                            updateButton();
+                        }
+                    });
+                }
+            }
+        }, "Evaluation").start();
+    }
+
+    /**
+     * Fills the result tables with the given evaluation. For each type there is one row with the scores of the type,
+     * followed by one row per label. The confusion table has one row per pair of gold and guess label that were
+     * confused.
+     *
+     * @param evaluation the evaluation to show.
+     */
+    private void show(final Evaluation evaluation) {
+        model.setRowCount(0);
+        model.addRow(row("All", "", evaluation.getTotal(), "", ""));
+        for (String type : evaluation.getTypes()) {
+            model.addRow(row(type, "", evaluation.getCounts(type),
+                format(evaluation.getLabeledAttachmentScore(type)),
+                format(evaluation.getUnlabeledAttachmentScore(type))));
+            for (String label : evaluation.getLabels(type))
+                model.addRow(row("", label, evaluation.getCounts(type, label), "", ""));
+        }
+        confusionModel.setRowCount(0);
+        for (String type : evaluation.getTypes())
+            for (Map.Entry<Pair<String, String>, Integer> confusion : evaluation.getConfusions(type))
+                confusionModel.addRow(new Object[]{
+                    type, confusion.getKey().arg1, confusion.getKey().arg2, confusion.getValue()});
+    }
+
+    /**
+     * Creates a table row.
+     *
+     * @param type   the type column.
+     * @param label  the label column.
+     * @param counts the counts to show.
+     * @param las    the LAS column.
+     * @param uas    the UAS column.
+     * @return the cells of the row.
+     */
+    private static Object[] row(final String type, final String label, final Evaluation.Counts counts,
+                                final String las, final String uas) {
+        return new Object[]{type, label, counts.getGold(), counts.getGuess(),
+            format(counts.getPrecision()), format(counts.getRecall()), format(counts.getF1()), las, uas};
+    }
+
+    /**
+     * Formats a score.
+     *
+     * @param score the score to format.
+     * @return the score with four decimal places.
+     */
+    private static String format(final double score) {
+        return String.format("%.4f", score);
+    }
+
+    /**
+     * Enables the evaluate button iff a gold and a guess corpus are selected.
+     */
+    private void updateButton() {
+        evaluate.setEnabled(goldLoader.getSelected() != null && guessLoader.getSelected() != null);
+    }
+
+    public void corpusAdded(final List<NLPInstance> corpus, final CorpusLoader src) {
+        updateButton();
+    }
+
+    public void corpusRemoved(final List<NLPInstance> corpus, final CorpusLoader src) {
+        updateButton();
+    }
+
+    public void corpusSelected(final List<NLPInstance> corpus, final CorpusLoader src) {
+        updateButton();
+    }
+}
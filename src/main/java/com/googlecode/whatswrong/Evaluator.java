@@ -0,0 +1,184 @@
+package com.googlecode.whatswrong;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * An Evaluator compares a guess corpus with a gold corpus and counts true positives, false positives and false
+ * negatives per edge type and label, together with attachment scores and label confusions (see {@link Evaluation}).
+ * Different from the {@link DiffCorpus} it never creates diff instances: each instance pair is matched with {@link
+ * NLPDiff#compare(NLPInstance, NLPInstance, NLPDiff.Listener)} and only the counts are kept. The instance
+ * pairs are split into chunks that are evaluated in parallel, each into its own {@link Evaluation}, and the results of
+ * all chunks are merged at the end.
+ */
+public class Evaluator {
+
+    /**
+     * The number of instance pairs evaluated in one task.
+     */
+    private static final int CHUNK_SIZE = 500;
+
+    /**
+     * The object that matches edges.
+     */
+    private final NLPDiff diff;
+
+    /**
+     * The number of threads to use.
+     */
+    private final int threads;
+
+    /**
+     * Creates a new Evaluator that uses one thread per available processor.
+     */
+    public Evaluator() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a new Evaluator.
+     *
+     * @param threads the number of threads to use.
+     */
+    public Evaluator(final int threads) {
+        this.diff = new NLPDiff();
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Evaluates the given guess corpus against the given gold corpus. The i-th guess instance is compared to the i-th
+     * gold instance; if the corpora have different sizes the additional instances of the larger corpus are ignored.
+     *
+     * @param gold  the gold corpus.
+     * @param guess the guess corpus.
+     * @return the evaluation of the guess corpus.
+     * @throws InterruptedException if the calling thread is interrupted while waiting for the result.
+     */
+    public Evaluation evaluate(final List<NLPInstance> gold, final List<NLPInstance> guess)
+        throws InterruptedException {
+        int size = Math.min(gold.size(), guess.size());
+        if (threads == 1 || size <= CHUNK_SIZE) return evaluate(gold, guess, 0, size);
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "Evaluator");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            ArrayList<Future<Evaluation>> chunks = new ArrayList<Future<Evaluation>>();
+            for (int from = 0; from < size; from += CHUNK_SIZE) {
+                final int chunkFrom = from;
+                final int chunkTo = Math.min(size, from + CHUNK_SIZE);
+                chunks.add(executor.submit(new Callable<Evaluation>() {
+                    public Evaluation call() {
+                        return evaluate(gold, guess, chunkFrom, chunkTo);
+                    }
+                }));
+            }
+            Evaluation result = new Evaluation();
+            for (Future<Evaluation> chunk : chunks) {
+                try {
+                    result.add(chunk.get());
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+            return result;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Evaluates a single guess instance against a gold instance. Clients that stream large corpora can use this to get
+     * per-instance counts and merge them with {@link Evaluation#add(Evaluation)}.
+     *
+     * @param gold  the gold instance.
+     * @param guess the guess instance.
+     * @return the evaluation of the instance pair.
+     */
+    public Evaluation evaluate(final NLPInstance gold, final NLPInstance guess) {
+        Evaluation result = new Evaluation();
+        evaluate(gold, guess, result);
+        return result;
+    }
+
+    /**
+     * Evaluates the instance pairs in the given range.
+     *
+     * @param gold  the gold corpus.
+     * @param guess the guess corpus.
+     * @param from  the index of the first instance pair.
+     * @param to    the index after the last instance pair.
+     * @return the evaluation of the instance pairs in the given range.
+     */
+    private Evaluation evaluate(final List<NLPInstance> gold, final List<NLPInstance> guess,
+                                final int from, final int to) {
+        Evaluation result = new Evaluation();
+        for (int i = from; i < to; ++i)
+            evaluate(gold.get(i), guess.get(i), result);
+        return result;
+    }
+
+    /**
+     * Adds the counts of the given instance pair to the given evaluation. A gold edge is attached if it matches a
+     * guess edge, or if a guess edge connects the same tokens with the same type. Attachments are counted per gold
+     * edge, so several gold edges with different labels between the same tokens (as in SRL data) are all attached by
+     * one guess edge, and labeled matches never outnumber attached edges. The label confusion of an attached gold edge
+     * that has no match prefers a guess edge with that arc which matches no gold edge either.
+     *
+     * @param gold   the gold instance.
+     * @param guess  the guess instance.
+     * @param result the evaluation to add the counts to.
+     */
+    private void evaluate(final NLPInstance gold, final NLPInstance guess, final Evaluation result) {
+        final ArrayList<Edge> falseNegatives = new ArrayList<Edge>();
+        final HashMap<List<Object>, Edge> falsePositiveArcs = new HashMap<List<Object>, Edge>();
+        diff.compare(gold, guess, new NLPDiff.Listener() {
+            public void match(Edge goldEdge, Edge guessEdge) {
+                result.truePositive(goldEdge);
+                result.attached(goldEdge, guessEdge);
+            }
+
+            public void falseNegative(Edge goldEdge) {
+                result.falseNegative(goldEdge);
+                falseNegatives.add(goldEdge);
+            }
+
+            public void falsePositive(Edge guessEdge) {
+                result.falsePositive(guessEdge);
+                List<Object> arc = getArc(guessEdge);
+                if (!falsePositiveArcs.containsKey(arc)) falsePositiveArcs.put(arc, guessEdge);
+            }
+        }, false);
+        if (!falseNegatives.isEmpty()) {
+            HashMap<List<Object>, Edge> guessArcs = new HashMap<List<Object>, Edge>();
+            for (Edge guessEdge : guess.getEdges()) {
+                List<Object> arc = getArc(guessEdge);
+                if (!guessArcs.containsKey(arc)) guessArcs.put(arc, guessEdge);
+            }
+            for (Edge goldEdge : falseNegatives) {
+                List<Object> arc = getArc(goldEdge);
+                Edge guessEdge = falsePositiveArcs.get(arc);
+                if (guessEdge == null) guessEdge = guessArcs.get(arc);
+                if (guessEdge != null) result.attached(goldEdge, guessEdge);
+            }
+        }
+        result.instance();
+    }
+
+    /**
+     * Returns the arc of an edge: its tokens and type, but not its label.
+     *
+     * @param edge the edge.
+     * @return a list of from token index, to token index and type.
+     */
+    private static List<Object> getArc(final Edge edge) {
+        return Arrays.<Object>asList(edge.getFrom().getIndex(), edge.getTo().getIndex(), edge.getType());
+    }
+}
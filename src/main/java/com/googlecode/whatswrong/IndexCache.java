@@ -0,0 +1,595 @@
+package com.googlecode.whatswrong;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.RAMDirectory;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * An IndexCache creates the Lucene indices that the {@link CorpusNavigator} uses to search corpora, and keeps them on
+ * disk so that a corpus that has been seen before can be searched right away. Each index is stored in a subdirectory
+ * of the cache directory whose name is a hash of a key that describes where the corpus came from (see {@link
+ * CorpusLoader#getSource(List)}): if one of the files the corpus is read from, its size or modification time, or the
+ * loader settings change, the key changes and a new index is built. Corpora without a key are indexed in memory. Indices are built in the background
+ * (see {@link CorpusIndex}).
+ * <p/>
+ * <p>Indices are split into shards that are built in parallel, one shard per available processor.
+ * <p/>
+ * <p>The cache also stores the {@link PhraseIndex} of a corpus, in a single file next to its search index.
+ * <p/>
+ * <p>An index is built in a temporary directory and only renamed to its final name when it is complete, so an
+ * interrupted build never leaves a broken index behind, and several processes can share the cache directory.
+ */
+public class IndexCache {
+
+    /**
+     * The version of the index layout. It is part of every key, so changing the way documents are created invalidates
+     * all cached indices.
+     */
+    private static final String INDEX_VERSION = "2";
+
+    /**
+     * The name of the file in each index directory that contains the full key of the index.
+     */
+    private static final String KEY_FILE = "whatswrong.key";
+
+    /**
+     * How many indices are kept in the cache directory. When a new index is stored, the least recently used indices
+     * beyond this number are deleted, unless they are in use.
+     */
+    private static final int MAX_CACHED_INDICES = 20;
+
+    /**
+     * How many phrase indices are kept in the cache directory, in addition to the search indices.
+     */
+    private static final int MAX_CACHED_PHRASE_INDICES = 20;
+
+    /**
+     * The part of the name of the temporary directories and files that indices are built in.
+     */
+    private static final String TMP_INFIX = ".tmp";
+
+    /**
+     * The age in milliseconds after which a temporary directory or file is considered left behind by a build that
+     * crashed, and deleted.
+     */
+    private static final long STALE_TMP_AGE = 24L * 60 * 60 * 1000;
+
+    /**
+     * The name prefix of the shard directories of an index.
+     */
+    private static final String SHARD_PREFIX = "shard";
+
+    /**
+     * The minimum number of instances per shard; smaller corpora are indexed in fewer shards.
+     */
+    private static final int MIN_SHARD_SIZE = 1000;
+
+    /**
+     * The number of documents added between two commits while an index is built.
+     */
+    private static final int BATCH_SIZE = 2000;
+
+    /**
+     * The name suffix of stored phrase indices.
+     */
+    private static final String PHRASE_SUFFIX = ".phrases";
+
+    /**
+     * The maximum number of terms indexed per field.
+     */
+    private static final int MAX_FIELD_LENGTH = 25000;
+
+    /**
+     * The directory that contains the cached indices.
+     */
+    private final File directory;
+
+    /**
+     * The analyzer used to index the documents.
+     */
+    private final Analyzer analyzer;
+
+    /**
+     * The maximum number of shards (and threads) used to build an index.
+     */
+    private final int shards;
+
+    /**
+     * The stored indices returned by this cache, with their index directory. The directories of indices that haven't
+     * been cancelled are in use and not pruned.
+     */
+    private final Map<CorpusIndex, File>
+        openIndices = Collections.synchronizedMap(new WeakHashMap<CorpusIndex, File>());
+
+    /**
+     * Creates a new IndexCache that builds indices with one shard per available processor.
+     *
+     * @param directory the directory in which the indices are stored. It is created if it doesn't exist.
+     * @param analyzer  the analyzer used to index the documents.
+     */
+    public IndexCache(final File directory, final Analyzer analyzer) {
+        this(directory, analyzer, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a new IndexCache.
+     *
+     * @param directory the directory in which the indices are stored. It is created if it doesn't exist.
+     * @param analyzer  the analyzer used to index the documents.
+     * @param shards    the maximum number of shards (and threads) used to build an index.
+     */
+    public IndexCache(final File directory, final Analyzer analyzer, final int shards) {
+        this.directory = directory;
+        this.analyzer = analyzer;
+        this.shards = Math.max(1, shards);
+    }
+
+    /**
+     * Returns the default cache directory: the value of the system property <code>whatswrong.index.dir</code> or
+     * <code>.whatswrong-index</code> in the user's home directory.
+     *
+     * @return the default cache directory.
+     */
+    public static File getDefaultDirectory() {
+        String dir = System.getProperty("whatswrong.index.dir");
+        return dir != null ? new File(dir) : new File(System.getProperty("user.home"), ".whatswrong-index");
+    }
+
+    /**
+     * Returns the index of the given corpus. If there is a cached index for the given key it is opened and returned
+     * complete. Otherwise the index is built in a background thread and stored under the key when it is complete; the
+     * returned index becomes searchable batch by batch in the meantime.
+     *
+     * @param corpus the corpus to search.
+     * @param key    a description of the corpus source, or null if the index should not be cached.
+     * @return the (possibly incomplete) index of the corpus.
+     */
+    public CorpusIndex getIndex(final List<NLPInstance> corpus, final String key) {
+        final CorpusIndex index = new CorpusIndex(corpus);
+        final String fullKey = key == null ? null : INDEX_VERSION + "\n" + key;
+        final File indexDir = fullKey == null ? null : new File(directory, hash(fullKey));
+        if (indexDir != null) openIndices.put(index, indexDir);
+        if (indexDir != null && fullKey.equals(readKey(indexDir))) {
+            indexDir.setLastModified(System.currentTimeMillis());
+            try {
+                index.setReaders(openShards(indexDir), corpus.size(), true);
+                return index;
+            } catch (IOException e) {
+                //fall through and rebuild the index
+                e.printStackTrace();
+            }
+        }
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    buildIndex(index, fullKey, indexDir);
+                } catch (Exception e) {
+                    if (!index.isCancelled()) {
+                        e.printStackTrace();
+                        index.fail();
+                    }
+                }
+            }
+        }, "IndexCache builder");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+        return index;
+    }
+
+    /**
+     * Returns the phrase index of the given corpus. If there is a stored phrase index for the given key and property it
+     * is read, otherwise it is built and stored under the key. This method blocks until the index is available.
+     *
+     * @param corpus   the corpus to index.
+     * @param key      a description of the corpus source, or null if the index should not be stored.
+     * @param property the name of the property whose token sequences are indexed.
+     * @return the phrase index of the corpus.
+     * @throws IOException          if the index can't be stored.
+     * @throws InterruptedException if the thread is interrupted while the index is built.
+     */
+    public PhraseIndex getPhraseIndex(final List<NLPInstance> corpus, final String key, final String property)
+        throws IOException, InterruptedException {
+        if (key == null) return new PhraseIndex(corpus, property, shards);
+        String fullKey = INDEX_VERSION + "\nphrases " + property + "\n" + key;
+        File file = new File(directory, hash(fullKey) + PHRASE_SUFFIX);
+        if (file.exists()) {
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                try {
+                    if (fullKey.equals(readString(in))) {
+                        file.setLastModified(System.currentTimeMillis());
+                        return PhraseIndex.read(in);
+                    }
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                //fall through and rebuild the index
+                e.printStackTrace();
+            }
+        }
+        PhraseIndex index = new PhraseIndex(corpus, property, shards);
+        directory.mkdirs();
+        File tmpFile = new File(directory, file.getName() + TMP_INFIX + System.nanoTime());
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+        try {
+            writeString(out, fullKey);
+            index.write(out);
+        } finally {
+            out.close();
+        }
+        file.delete();
+        if (!tmpFile.renameTo(file)) tmpFile.delete();
+        prune();
+        return index;
+    }
+
+    /**
+     * Indexes the instances of the corpus of the given index. The corpus is split into contiguous shards that are
+     * indexed in parallel, each by its own writer. After every {@link #BATCH_SIZE} documents a shard commits its changes
+     * and the index gets a reader that sees them. If a key is given the shards are built in a temporary directory that
+     * is moved to the given index directory when all documents are added; otherwise they are built in memory. The build
+     * stops as soon as the index is cancelled.
+     *
+     * @param index    the index to build.
+     * @param fullKey  the key of the index including the index version, or null.
+     * @param indexDir the directory to store the index in, or null.
+     * @throws IOException          if I/O goes wrong.
+     * @throws InterruptedException if the thread is interrupted while waiting for the shards.
+     */
+    private void buildIndex(final CorpusIndex index, final String fullKey, final File indexDir)
+        throws IOException, InterruptedException {
+        final List<NLPInstance> corpus = index.getCorpus();
+        int shardCount = Math.max(1, Math.min(shards, corpus.size() / MIN_SHARD_SIZE));
+        File tmpDir = null;
+        if (indexDir != null) {
+            directory.mkdirs();
+            tmpDir = new File(directory, indexDir.getName() + TMP_INFIX + System.nanoTime());
+        }
+        Directory[] shardDirectories = new Directory[shardCount];
+        for (int shard = 0; shard < shardCount; ++shard)
+            shardDirectories[shard] = tmpDir == null ? new RAMDirectory() :
+                FSDirectory.getDirectory(new File(tmpDir, SHARD_PREFIX + shard));
+        index.setReaders(new IndexReader[shardCount], 0, false);
+        ExecutorService executor = Executors.newFixedThreadPool(shardCount, new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "IndexCache shard builder");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        try {
+            ArrayList<Future<Object>> shardBuilds = new ArrayList<Future<Object>>(shardCount);
+            for (int shard = 0; shard < shardCount; ++shard) {
+                final int shardNr = shard;
+                final Directory shardDirectory = shardDirectories[shard];
+                final int from = (int) ((long) corpus.size() * shard / shardCount);
+                final int to = (int) ((long) corpus.size() * (shard + 1) / shardCount);
+                shardBuilds.add(executor.submit(new Callable<Object>() {
+                    public Object call() throws IOException {
+                        buildShard(index, shardNr, shardDirectory, from, to);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Object> shardBuild : shardBuilds) {
+                try {
+                    shardBuild.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+                    if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+                    if (e.getCause() instanceof Error) throw (Error) e.getCause();
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        if (index.isCancelled()) {
+            if (tmpDir != null) delete(tmpDir);
+            return;
+        }
+        if (tmpDir == null) {
+            IndexReader[] readers = new IndexReader[shardCount];
+            for (int shard = 0; shard < shardCount; ++shard)
+                readers[shard] = IndexReader.open(shardDirectories[shard], true);
+            index.setReaders(readers, corpus.size(), true);
+            return;
+        }
+        for (Directory shardDirectory : shardDirectories) shardDirectory.close();
+        writeKey(tmpDir, fullKey);
+        delete(indexDir);
+        //searchers must not keep files of the temporary directory open while it is moved. Clients search while holding
+        //the lock of the index, so holding it here means they never see the index without a searcher.
+        synchronized (index) {
+            index.closeReaders();
+            if (!tmpDir.renameTo(indexDir)) {
+                //another process may have stored the same index in the meantime
+                delete(tmpDir);
+                if (!fullKey.equals(readKey(indexDir)))
+                    throw new IOException("Couldn't move index to " + indexDir);
+            }
+            index.setReaders(openShards(indexDir), corpus.size(), true);
+        }
+        prune();
+    }
+
+    /**
+     * Indexes the instances of one shard.
+     *
+     * @param index          the index to build.
+     * @param shard          the shard number.
+     * @param shardDirectory the directory of the shard.
+     * @param from           the index of the first instance of the shard.
+     * @param to             the index after the last instance of the shard.
+     * @throws IOException if I/O goes wrong.
+     */
+    private void buildShard(final CorpusIndex index, final int shard, final Directory shardDirectory,
+                            final int from, final int to) throws IOException {
+        List<NLPInstance> corpus = index.getCorpus();
+        IndexWriter writer = new IndexWriter(shardDirectory, analyzer, true,
+            new IndexWriter.MaxFieldLength(MAX_FIELD_LENGTH));
+        try {
+            for (int nr = from; nr < to; ++nr) {
+                if (index.isCancelled()) {
+                    writer.abort();
+                    writer = null;
+                    return;
+                }
+                writer.addDocument(createDocument(corpus.get(nr), nr));
+                int count = nr + 1 - from;
+                if (count % BATCH_SIZE == 0 && nr + 1 < to) {
+                    writer.commit();
+                    IndexReader reader = index.getReader(shard);
+                    index.setReader(shard, reader == null ? IndexReader.open(shardDirectory, true) : reader.reopen(),
+                        count);
+                }
+            }
+            writer.close();
+            writer = null;
+        } finally {
+            if (writer != null) writer.close();
+        }
+        IndexReader reader = index.getReader(shard);
+        index.setReader(shard, reader == null ? IndexReader.open(shardDirectory, true) : reader.reopen(), to - from);
+    }
+
+    /**
+     * Opens the readers of the shards of a stored index.
+     *
+     * @param indexDir the index directory.
+     * @return the readers of the shards, in shard order.
+     * @throws IOException if I/O goes wrong.
+     */
+    private static IndexReader[] openShards(final File indexDir) throws IOException {
+        ArrayList<IndexReader> readers = new ArrayList<IndexReader>();
+        for (File shardDir = new File(indexDir, SHARD_PREFIX + 0); shardDir.isDirectory();
+             shardDir = new File(indexDir, SHARD_PREFIX + readers.size()))
+            readers.add(IndexReader.open(shardDir));
+        if (readers.isEmpty()) throw new IOException("No shards in " + indexDir);
+        return readers.toArray(new IndexReader[readers.size()]);
+    }
+
+    /**
+     * Deletes the least recently used indices if there are more than {@link #MAX_CACHED_INDICES} search indices or
+     * more than {@link #MAX_CACHED_PHRASE_INDICES} phrase indices in the cache directory. Indices that are in use by
+     * this cache are kept. Temporary directories and files belong to builds in progress, possibly of other processes,
+     * and are only deleted when they are older than {@link #STALE_TMP_AGE}.
+     */
+    private void prune() {
+        File[] entries = directory.listFiles();
+        if (entries == null) return;
+        HashSet<File> inUse;
+        synchronized (openIndices) {
+            inUse = new HashSet<File>();
+            for (Map.Entry<CorpusIndex, File> entry : openIndices.entrySet())
+                if (!entry.getKey().isCancelled()) inUse.add(entry.getValue());
+        }
+        ArrayList<File> indexDirs = new ArrayList<File>();
+        ArrayList<File> phraseFiles = new ArrayList<File>();
+        long now = System.currentTimeMillis();
+        for (File entry : entries) {
+            if (entry.getName().contains(TMP_INFIX)) {
+                if (now - entry.lastModified() > STALE_TMP_AGE) delete(entry);
+            } else if (entry.getName().endsWith(PHRASE_SUFFIX)) phraseFiles.add(entry);
+            else indexDirs.add(entry);
+        }
+        deleteLeastRecentlyUsed(indexDirs, MAX_CACHED_INDICES, inUse);
+        deleteLeastRecentlyUsed(phraseFiles, MAX_CACHED_PHRASE_INDICES, inUse);
+    }
+
+    /**
+     * Deletes the least recently used of the given entries, so that at most the given number remains.
+     *
+     * @param entries the index directories or phrase index files.
+     * @param max     the number of entries to keep.
+     * @param inUse   the entries that must not be deleted; they count towards the entries to keep.
+     */
+    private static void deleteLeastRecentlyUsed(final List<File> entries, final int max, final Set<File> inUse) {
+        if (entries.size() <= max) return;
+        Collections.sort(entries, new Comparator<File>() {
+            public int compare(File entry1, File entry2) {
+                long modified1 = entry1.lastModified();
+                long modified2 = entry2.lastModified();
+                return modified1 > modified2 ? -1 : modified1 < modified2 ? 1 : 0;
+            }
+        });
+        for (int i = max; i < entries.size(); ++i)
+            if (!inUse.contains(entries.get(i))) delete(entries.get(i));
+    }
+
+    /**
+     * Creates a document for the given instance. The document has one field per token property that contains the
+     * property values of all tokens, one field per edge type prefix and postfix that contains the labels of the edges
+     * with that type, a field "types" with the types of all edges and a field "&lt;nr&gt;" with the index of the
+     * instance.
+     *
+     * @param instance the instance to create a document for.
+     * @param nr       the index of the instance in its corpus.
+     * @return a document for the given instance.
+     */
+    static Document createDocument(final NLPInstance instance, final int nr) {
+        Document doc = new Document();
+        HashMap<TokenProperty, StringBuffer>
+            sentences = new LinkedHashMap<TokenProperty, StringBuffer>();
+        for (Token token : instance.getTokens()) {
+            for (TokenProperty p : token.getPropertyTypes()) {
+                StringBuffer buffer = sentences.get(p);
+                if (buffer == null) {
+                    buffer = new StringBuffer();
+                    sentences.put(p, buffer);
+                }
+                if (token.getIndex() > 0) buffer.append(" ");
+                buffer.append(token.getProperty(p));
+            }
+        }
+        for (TokenProperty p : sentences.keySet()) {
+            doc.add(new Field(p.getName(), sentences.get(p).toString(),
+                Field.Store.YES, Field.Index.TOKENIZED));
+        }
+
+        //edges
+        HashMap<String, StringBuffer> edges = new HashMap<String, StringBuffer>();
+        StringBuffer types = new StringBuffer();
+        for (Edge e : instance.getEdges()) {
+            String prefix = e.getTypePrefix();
+            StringBuffer prefixBuffer = edges.get(prefix);
+            types.append(prefix).append(" ");
+            if (prefixBuffer == null) {
+                prefixBuffer = new StringBuffer();
+                edges.put(prefix, prefixBuffer);
+            }
+            prefixBuffer.append(e.getLabel()).append(" ");
+            String postfix = e.getTypePostfix();
+            if (postfix != null) {
+                types.append(postfix).append(" ");
+                StringBuffer postfixBuffer = edges.get(postfix);
+                if (postfixBuffer == null) {
+                    postfixBuffer = new StringBuffer();
+                    edges.put(postfix, postfixBuffer);
+                }
+                postfixBuffer.append(e.getLabel()).append(" ");
+            }
+        }
+
+        doc.add(new Field("types", types.toString(), Field.Store.YES, Field.Index.TOKENIZED));
+
+        for (String type : edges.keySet()) {
+            doc.add(new Field(type, edges.get(type).toString(), Field.Store.YES, Field.Index.TOKENIZED));
+        }
+
+        doc.add(new Field("<nr>", String.valueOf(nr), Field.Store.YES, Field.Index.UN_TOKENIZED));
+        return doc;
+    }
+
+    /**
+     * Reads the key of the index in the given directory.
+     *
+     * @param indexDir the index directory.
+     * @return the key of the index or null if there is no complete index in the directory.
+     */
+    private static String readKey(final File indexDir) {
+        File keyFile = new File(indexDir, KEY_FILE);
+        if (!keyFile.exists()) return null;
+        try {
+            Reader in = new InputStreamReader(new FileInputStream(keyFile), "UTF-8");
+            try {
+                StringBuilder result = new StringBuilder();
+                char[] buffer = new char[4096];
+                for (int read = in.read(buffer); read != -1; read = in.read(buffer))
+                    result.append(buffer, 0, read);
+                return result.toString();
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes the key of the index into the given directory.
+     *
+     * @param indexDir the index directory.
+     * @param key      the key of the index.
+     * @throws IOException if I/O goes wrong.
+     */
+    private static void writeKey(final File indexDir, final String key) throws IOException {
+        Writer out = new OutputStreamWriter(new FileOutputStream(new File(indexDir, KEY_FILE)), "UTF-8");
+        try {
+            out.write(key);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Writes a string of any length as UTF-8.
+     *
+     * @param out    the output.
+     * @param string the string to write.
+     * @throws IOException if I/O goes wrong.
+     */
+    private static void writeString(final DataOutputStream out, final String string) throws IOException {
+        byte[] bytes = string.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a string written by {@link #writeString(DataOutputStream, String)}.
+     *
+     * @param in the input.
+     * @return the string.
+     * @throws IOException if I/O goes wrong.
+     */
+    private static String readString(final DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    /**
+     * Deletes the given file, or directory with all its contents.
+     *
+     * @param indexDir the file or directory to delete.
+     */
+    private static void delete(final File indexDir) {
+        File[] files = indexDir.listFiles();
+        if (files != null) for (File file : files) delete(file);
+        indexDir.delete();
+    }
+
+    /**
+     * Returns a hex SHA-1 hash of the given key, used as directory name.
+     *
+     * @param key the key to hash.
+     * @return the hash of the key as hex string.
+     */
+    private static String hash(final String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            StringBuilder result = new StringBuilder();
+            for (byte b : digest.digest(key.getBytes("UTF-8")))
+                result.append(String.format("%02x", b & 0xff));
+            return result.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
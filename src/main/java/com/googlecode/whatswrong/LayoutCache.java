@@ -0,0 +1,135 @@
+package com.googlecode.whatswrong;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A LayoutCache keeps the most recently used {@link NLPLayout} objects of a renderer. A layout is stored under a key
+ * that describes everything the renderer draws of an instance: its render type and split points, the index and sorted
+ * property values of each token, and its edges with their render types. Since the key is taken from the instance
+ * after filtering, it covers both the original instance and the state of the filters. The appearance settings of the
+ * renderer are only represented by a version number; renderers clear their cache and count up the version whenever
+ * one of them changes. The version keeps copies of a renderer (see {@link NLPCanvasRenderer#copy()}) that share its
+ * cache from storing layouts with outdated settings under current keys.
+ * <p/>
+ * <p>Edges are part of the key by value, so instances with equal but different edge objects (for example the same
+ * instance filtered twice) share a layout. A cached layout is therefore returned rebound to the edges of the instance
+ * it is requested for (see {@link NLPLayout#rebind(Map)}).
+ */
+public class LayoutCache {
+
+    /**
+     * A cached layout with the edges of the instance it was created for.
+     */
+    private static final class CachedLayout {
+        /**
+         * The layout.
+         */
+        private final NLPLayout layout;
+        /**
+         * The edges of the instance the layout was created for, in instance order.
+         */
+        private final Edge[] edges;
+
+        /**
+         * Creates a new CachedLayout.
+         *
+         * @param layout the layout.
+         * @param edges  the edges of the instance the layout was created for.
+         */
+        private CachedLayout(final NLPLayout layout, final List<Edge> edges) {
+            this.layout = layout;
+            this.edges = edges.toArray(new Edge[edges.size()]);
+        }
+    }
+
+    /**
+     * The cached layouts, least recently used first.
+     */
+    private final LinkedHashMap<List<Object>, CachedLayout> layouts;
+
+    /**
+     * Creates a new LayoutCache.
+     *
+     * @param capacity the maximal number of layouts to keep.
+     */
+    public LayoutCache(final int capacity) {
+        layouts = new LinkedHashMap<List<Object>, CachedLayout>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<List<Object>, CachedLayout> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Creates the key of the layout of an instance.
+     *
+     * @param instance the (filtered) instance to lay out.
+     * @param font     the font the layout measures text with.
+     * @param settings the version of the appearance settings of the renderer; a renderer and its copies share a cache,
+     *                 and only the layouts created with the current settings must be returned.
+     * @return a list that is equal to the key of another instance iff both are drawn the same way.
+     */
+    public static List<Object> createKey(final NLPInstance instance, final Font font, final int settings) {
+        ArrayList<Object> key = new ArrayList<Object>();
+        key.add(settings);
+        key.add(font);
+        key.add(instance.getRenderType());
+        key.add(new ArrayList<Integer>(instance.getSplitPoints()));
+        for (Token token : instance.getTokens()) {
+            key.add(token.getIndex());
+            for (TokenProperty property : token.getSortedProperties()) {
+                key.add(property);
+                key.add(token.getProperty(property));
+            }
+        }
+        for (Edge edge : instance.getEdges()) {
+            key.add(edge);
+            key.add(edge.getRenderType());
+        }
+        return key;
+    }
+
+    /**
+     * Returns the layout stored under the given key, with the edges of the given instance.
+     *
+     * @param key      the key created by {@link #createKey(NLPInstance, Font, int)}.
+     * @param instance the instance the key was created for.
+     * @return the layout or null if there is none.
+     */
+    public synchronized NLPLayout get(final List<Object> key, final NLPInstance instance) {
+        CachedLayout cached = layouts.get(key);
+        if (cached == null) return null;
+        //equal keys have equal edges in the same order
+        List<Edge> edges = instance.getEdges();
+        IdentityHashMap<Edge, Edge> replacements = null;
+        for (int i = 0; i < cached.edges.length && i < edges.size(); ++i)
+            if (cached.edges[i] != edges.get(i)) {
+                if (replacements == null) replacements = new IdentityHashMap<Edge, Edge>();
+                replacements.put(cached.edges[i], edges.get(i));
+            }
+        return replacements == null ? cached.layout : cached.layout.rebind(replacements);
+    }
+
+    /**
+     * Stores a layout.
+     *
+     * @param key      the key created by {@link #createKey(NLPInstance, Font, int)}.
+     * @param instance the instance the layout was created for.
+     * @param layout   the layout of the instance.
+     */
+    public synchronized void put(final List<Object> key, final NLPInstance instance, final NLPLayout layout) {
+        layouts.put(key, new CachedLayout(layout, instance.getEdges()));
+    }
+
+    /**
+     * Removes all layouts.
+     */
+    public synchronized void clear() {
+        layouts.clear();
+    }
+}
@@ -10,12 +10,18 @@ import javax.swing.event.ChangeListener;
 import java.awt.*;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.awt.event.MouseMotionAdapter;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * An NLPCanvas is responsible for drawing the tokens and edges of an NLPInstance using different edge and token
@@ -23,6 +29,13 @@ import java.util.*;
  * com.googlecode.whatswrong.NLPCanvas#setNLPInstance(NLPInstance)} and then update the graphical representation by
  * calling {@link NLPCanvas#updateNLPGraphics()}. The latter method should also be called whenever changes are made to
  * the layout configuration (curved edges vs straight edges, antialiasing etc.).
+ * <p/>
+ * <p>Updates are rendered by a background thread: the filtered instance is laid out and the visible part rasterized
+ * off the event dispatch thread, and the new graph replaces the old one when it is finished. Update requests are
+ * coalesced and only the latest one is shown, so bursts of requests (e.g. typing into a filter field or dragging a
+ * slider) don't queue up renders of outdated states. With {@link #prefetch(java.util.List, int)} the neighbours of the
+ * current instance in a corpus are laid out and rasterized by the same thread, so that stepping to them shows them
+ * without delay.
  *
  * @author Sebastian Riedel
  * @see com.googlecode.whatswrong.EdgeLayout
@@ -30,6 +43,20 @@ import java.util.*;
  */
 public class NLPCanvas extends JPanel {
 
+    /**
+     * The radius around the mouse pointer in which edges are picked.
+     */
+    private static final int PICK_RADIUS = 5;
+
+    /**
+     * The color in which the edge under the mouse pointer is highlighted.
+     */
+    private static final Color HOVER_COLOR = new Color(255, 160, 0, 110);
+
+    /**
+     * The stroke with which the edge under the mouse pointer is highlighted.
+     */
+    private static final Stroke HOVER_STROKE = new BasicStroke(5.0f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
 
     /**
      * Renderers for different render types.
@@ -52,10 +79,73 @@ public class NLPCanvas extends JPanel {
     private LinkedList<Edge> dependencies = new LinkedList<Edge>();
 
     /**
-     * The image we render to.
+     * The width and height of the tiles the layout is rasterized into.
+     */
+    private static final int TILE_SIZE = 256;
+
+    /**
+     * The maximal number of pixels of all cached tiles; enough for the viewport of the current instance and of the
+     * prefetched instances.
+     */
+    private static final int MAX_TILE_PIXELS = 8 * 1024 * 1024;
+
+    /**
+     * The number of instances before and after the current instance to prefetch.
+     */
+    private static final int PREFETCH_RADIUS = 3;
+
+    /**
+     * The rasterized tiles of the current and the prefetched layouts. Tiles are only created for the parts of a layout
+     * that are painted, so memory stays bounded for very wide graphs.
+     */
+    private final TileCache tiles = new TileCache(MAX_TILE_PIXELS);
+
+    /**
+     * The thread that lays out and rasterizes updates and the neighbours of the current instance.
+     */
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "NLPCanvas renderer");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * True iff an update has been requested but not started yet.
+     */
+    private boolean updateScheduled;
+
+    /**
+     * The number of updates started so far. A render whose number is smaller is outdated and will not be shown.
+     */
+    private volatile int generation;
+
+    /**
+     * The last render task, or null.
+     */
+    private Future<?> render;
+
+    /**
+     * The last prefetch task, or null.
+     */
+    private Future<?> prefetch;
+
+    /**
+     * The image whose graphics objects are used to measure text during layout.
      */
-    private BufferedImage
-            image = new BufferedImage(1, 1, BufferedImage.TYPE_4BYTE_ABGR);
+    private final BufferedImage
+            measureImage = new BufferedImage(1, 1, BufferedImage.TYPE_4BYTE_ABGR);
+
+    /**
+     * The layout of the current instance, or null if the graphics have not been updated yet.
+     */
+    private NLPLayout layout;
+
+    /**
+     * The edge under the mouse pointer, or null.
+     */
+    private Edge hovered;
 
     /**
      * A collection of all edge types used in the current nlp instance.
@@ -137,17 +227,66 @@ public class NLPCanvas extends JPanel {
              * @param e the event.
              */
             public void mousePressed(MouseEvent e) {
-
-                Point point = e.getPoint();
-                int offset = getHeight() - image.getHeight();
-                point.translate(0, -offset);
-                Edge edge = renderer.getEdgeAt(point, 5);
-//                System.out.println("edge = " + edge + " at " + point);
+                Edge edge = getEdgeAt(e.getPoint());
                 if (edge != null) {
                     textArea.append(edge + ": " + edge.getDescription() + "\n");
                 }
             }
+
+            /**
+             * Removes the highlight when the mouse leaves the canvas.
+             * @param e the event.
+             */
+            public void mouseExited(MouseEvent e) {
+                setHovered(null);
+            }
+        });
+        addMouseMotionListener(new MouseMotionAdapter() {
+            /**
+             * Highlights the edge under the mouse pointer.
+             * @param e the event.
+             */
+            public void mouseMoved(MouseEvent e) {
+                setHovered(getEdgeAt(e.getPoint()));
+            }
         });
+        ToolTipManager.sharedInstance().registerComponent(this);
+    }
+
+    /**
+     * Returns the edge at the given location of the canvas.
+     *
+     * @param point a location in the coordinates of the canvas.
+     * @return the edge at the location or null if there is none.
+     */
+    private Edge getEdgeAt(Point point) {
+        if (layout == null) return null;
+        Point shifted = new Point(point);
+        shifted.translate(0, layout.getDimension().height - getHeight());
+        return layout.getEdgeAt(shifted, PICK_RADIUS);
+    }
+
+    /**
+     * Changes the highlighted edge and repaints the canvas if it changed.
+     *
+     * @param edge the edge to highlight or null to highlight no edge.
+     */
+    private void setHovered(Edge edge) {
+        if (edge == hovered) return;
+        hovered = edge;
+        repaint();
+    }
+
+    /**
+     * Returns the label, type and description of the edge under the mouse pointer as tool tip.
+     *
+     * @param event the mouse event.
+     * @return the tool tip text or null if there is no edge under the mouse pointer.
+     */
+    public String getToolTipText(MouseEvent event) {
+        Edge edge = getEdgeAt(event.getPoint());
+        if (edge == null) return null;
+        return edge.getDescription() == null ? edge.toString() : edge + ": " + edge.getDescription();
     }
 
     /**
@@ -265,24 +404,111 @@ public class NLPCanvas extends JPanel {
     }
 
     /**
-     * Updates the current graph. This takes into account all changes to the filter, NLP instance and drawing parameters.
+     * Lays out the filtered current instance with the renderer for its render type. The renderer returns a cached
+     * layout if the instance has been laid out before with the same filter result and appearance settings.
+     *
+     * @return the layout of the current instance.
      */
-    public void updateNLPGraphics() {
+    private NLPLayout layoutInstance() {
         NLPInstance filtered = filterInstance();
+        renderer = renderers.get(filtered.getRenderType());
+        return layout(renderer, filtered);
+    }
 
-        Graphics2D graphics = image.createGraphics();
+    /**
+     * Lays out a filtered instance. Can be called from any thread.
+     *
+     * @param renderer the renderer to use.
+     * @param filtered the filtered instance.
+     * @return the layout of the instance.
+     */
+    private NLPLayout layout(NLPCanvasRenderer renderer, NLPInstance filtered) {
+        Graphics2D measure = measureImage.createGraphics();
+        try {
+            return renderer.layout(filtered, measure);
+        } finally {
+            measure.dispose();
+        }
+    }
 
-        renderer = renderers.get(filtered.getRenderType());
+    /**
+     * Updates the current graph. This takes into account all changes to the filter, NLP instance and drawing parameters.
+     * The update happens asynchronously: the current state is taken after the events that are being processed, and the
+     * graph is replaced once it has been rendered in the background. Further calls before that supersede this one. This
+     * method has to be called on the event dispatch thread.
+     *
+     * @see #updateNLPGraphicsAndWait()
+     */
+    public void updateNLPGraphics() {
+        if (updateScheduled) return;
+        updateScheduled = true;
+        SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+                updateScheduled = false;
+                startUpdate();
+            }
+        });
+    }
 
-        Dimension dim = renderer.render(filtered, graphics);
+    /**
+     * Updates the current graph like {@link #updateNLPGraphics()}, but lays it out right away on the calling thread,
+     * so that the canvas shows the current state when this method returns. Renders that are still pending are
+     * discarded. This method has to be called on the event dispatch thread.
+     */
+    public void updateNLPGraphicsAndWait() {
+        ++generation;
+        if (render != null) render.cancel(false);
+        showLayout(layoutInstance());
+    }
 
-        image = new BufferedImage((int) dim.getWidth(),
-                (int) dim.getHeight(),
-                BufferedImage.TYPE_4BYTE_ABGR);
+    /**
+     * Filters the current instance and hands it to the rendering thread. A render that has not started yet is
+     * cancelled, and a render that is running is discarded when it finishes. Prefetching is cancelled as well, since it
+     * would delay the update.
+     */
+    private void startUpdate() {
+        final int number = ++generation;
+        final NLPInstance filtered = filterInstance();
+        final NLPCanvasRenderer current = renderers.get(filtered.getRenderType());
+        renderer = current;
+        if (render != null) render.cancel(false);
+        if (prefetch != null) prefetch.cancel(true);
+        final Rectangle visible = getVisibleRect();
+        final int below = getHeight() - visible.y - visible.height;
+        render = worker.submit(new Runnable() {
+            public void run() {
+                try {
+                    final NLPLayout rendered = layout(current, filtered);
+                    if (number != generation) return;
+                    rasterize(rendered, visible, below);
+                    SwingUtilities.invokeLater(new Runnable() {
+                        public void run() {
+                            if (number == generation) showLayout(rendered);
+                        }
+                    });
+                } catch (final RuntimeException e) {
+                    //the future would swallow the exception, so throw it where a synchronous update would have
+                    SwingUtilities.invokeLater(new Runnable() {
+                        public void run() {
+                            throw e;
+                        }
+                    });
+                }
+            }
+        });
+    }
 
-        graphics = image.createGraphics();
+    /**
+     * Replaces the graph on the canvas.
+     *
+     * @param rendered the layout of the new graph.
+     */
+    private void showLayout(NLPLayout rendered) {
+        layout = rendered;
+        hovered = null;
+
+        Dimension dim = layout.getDimension();
 
-        renderer.render(filtered, graphics);
         setPreferredSize(dim);
         setMinimumSize(dim);
         setSize(new Dimension(dim.width, getHeight()));
@@ -313,32 +539,189 @@ public class NLPCanvas extends JPanel {
         Graphics2D g2d = (Graphics2D) graphics;
         g2d.setColor(Color.WHITE);
         g2d.fillRect(0, 0, getWidth(), getHeight());
-        int y = getHeight() - image.getHeight();
-        //g2d.drawImage(dependencyImage, 0, y, this);
-        g2d.drawImage(image, 0, y, this);
-        //g2d.drawImage(spanImage, 0, y + image.getHeight() + dependencyImage.getHeight(), this);
+        if (layout == null) return;
+        Dimension dim = layout.getDimension();
+        int y = getHeight() - dim.height;
+        Rectangle clip = g2d.getClipBounds();
+        if (clip == null) clip = new Rectangle(0, 0, getWidth(), getHeight());
+        clip = clip.intersection(new Rectangle(0, y, dim.width, dim.height));
+        if (!clip.isEmpty()) {
+            int firstColumn = clip.x / TILE_SIZE;
+            int lastColumn = (clip.x + clip.width - 1) / TILE_SIZE;
+            int firstRow = (clip.y - y) / TILE_SIZE;
+            int lastRow = (clip.y - y + clip.height - 1) / TILE_SIZE;
+            for (int row = firstRow; row <= lastRow; ++row)
+                for (int column = firstColumn; column <= lastColumn; ++column)
+                    g2d.drawImage(getTile(layout, column, row), column * TILE_SIZE, y + row * TILE_SIZE, this);
+        }
+        Shape highlight = hovered == null ? null : layout.getEdgeShape(hovered);
+        if (highlight != null) {
+            Graphics2D overlay = (Graphics2D) g2d.create();
+            overlay.translate(0, y);
+            overlay.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            overlay.setColor(HOVER_COLOR);
+            overlay.setStroke(HOVER_STROKE);
+            overlay.draw(highlight);
+            overlay.dispose();
+        }
     }
 
 
     /**
-     * Exports the current graph to EPS.
+     * Returns a tile of a layout, rasterizing it if it is not in the tile cache.
+     *
+     * @param layout the layout.
+     * @param column the column of the tile.
+     * @param row    the row of the tile.
+     * @return an image of the part of the layout covered by the tile.
+     */
+    private BufferedImage getTile(NLPLayout layout, int column, int row) {
+        BufferedImage tile = tiles.get(layout, column, row);
+        if (tile == null) {
+            Dimension dim = layout.getDimension();
+            int x = column * TILE_SIZE;
+            int y = row * TILE_SIZE;
+            tile = new BufferedImage(Math.min(TILE_SIZE, dim.width - x), Math.min(TILE_SIZE, dim.height - y),
+                    BufferedImage.TYPE_4BYTE_ABGR);
+            Graphics2D graphics = tile.createGraphics();
+            graphics.translate(-x, -y);
+            //images have no clip, set one so that the layout only paints the operations reaching into the tile
+            graphics.clipRect(x, y, tile.getWidth(), tile.getHeight());
+            layout.paint(graphics);
+            graphics.dispose();
+            tiles.put(layout, column, row, tile);
+        }
+        return tile;
+    }
+
+    /**
+     * Lays out and rasterizes the instances before and after the given index of a corpus in a background thread, the
+     * nearest first. The layouts are created by copies of the renderers (see {@link NLPCanvasRenderer#copy()}), so the
+     * renderers themselves stay available to the event dispatch thread. The layouts end up in the layout cache the
+     * copies share with the renderers and the tiles in the tile cache, both keyed by the filtered instance and the
+     * current appearance settings, so the prefetched instances are only used if the filter and the settings are still
+     * the same when the user steps to them. Only the tiles that would be visible in
+     * the current viewport are rasterized. A previous prefetch that hasn't finished yet is cancelled.
+     * <p/>
+     * <p>The filters are not thread safe, so the instances are filtered on the event dispatch thread, which is cheap
+     * compared to the layout. This method has to be called on the event dispatch thread.
+     *
+     * @param corpus the corpus the current instance belongs to.
+     * @param index  the index of the current instance in the corpus.
+     */
+    public void prefetch(final List<NLPInstance> corpus, final int index) {
+        //queued behind a pending update, so the update is rendered first
+        SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+                startPrefetch(corpus, index);
+            }
+        });
+    }
+
+    /**
+     * Hands the prefetching of the neighbours of an instance to the rendering thread.
+     *
+     * @param corpus the corpus the current instance belongs to.
+     * @param index  the index of the current instance in the corpus.
+     */
+    private void startPrefetch(final List<NLPInstance> corpus, final int index) {
+        if (prefetch != null) prefetch.cancel(true);
+        final Rectangle visible = getVisibleRect();
+        final int below = getHeight() - visible.y - visible.height;
+        prefetch = worker.submit(new Runnable() {
+            public void run() {
+                //copies of the renderers, so that the event dispatch thread never waits for a prefetched layout
+                HashMap<NLPInstance.RenderType, NLPCanvasRenderer> copies =
+                        new HashMap<NLPInstance.RenderType, NLPCanvasRenderer>();
+                for (Map.Entry<NLPInstance.RenderType, NLPCanvasRenderer> entry : renderers.entrySet())
+                    copies.put(entry.getKey(), entry.getValue().copy());
+                try {
+                    for (int offset = 1; offset <= PREFETCH_RADIUS; ++offset) {
+                        prefetch(copies, corpus, index + offset, visible, below);
+                        prefetch(copies, corpus, index - offset, visible, below);
+                    }
+                } catch (InterruptedException e) {
+                    //a newer prefetch has been requested
+                } catch (InvocationTargetException e) {
+                    //the filter failed, the instance will fail again when the user steps to it
+                } catch (RuntimeException e) {
+                    //the future would swallow the exception
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    /**
+     * Lays out an instance and rasterizes the tiles that would be visible. Called by the prefetching thread.
+     *
+     * @param copies  copies of the renderers of the canvas, by render type.
+     * @param corpus  the corpus.
+     * @param index   the index of the instance to prefetch.
+     * @param visible the visible part of the canvas.
+     * @param below   the height of the part of the canvas below the visible part.
+     * @throws InterruptedException      if the prefetch has been cancelled.
+     * @throws InvocationTargetException if the filter throws an exception.
+     */
+    private void prefetch(final Map<NLPInstance.RenderType, NLPCanvasRenderer> copies, final List<NLPInstance> corpus,
+                          final int index, final Rectangle visible, final int below)
+            throws InterruptedException, InvocationTargetException {
+        if (index < 0 || index >= corpus.size()) return;
+        if (Thread.interrupted()) throw new InterruptedException();
+        final NLPInstance instance = corpus.get(index);
+        final NLPInstance[] filtered = new NLPInstance[1];
+        SwingUtilities.invokeAndWait(new Runnable() {
+            public void run() {
+                filtered[0] = filter.filter(new NLPInstance(instance.getTokens(), instance.getEdges(),
+                        instance.getRenderType(), instance.getSplitPoints()));
+            }
+        });
+        NLPLayout prefetched = layout(copies.get(filtered[0].getRenderType()), filtered[0]);
+        if (!rasterize(prefetched, visible, below)) throw new InterruptedException();
+    }
+
+    /**
+     * Rasterizes the tiles of a layout that would be visible if it was shown on the canvas. Called by the rendering
+     * thread; stops early if the thread is interrupted.
+     *
+     * @param layout  the layout.
+     * @param visible the visible part of the canvas.
+     * @param below   the height of the part of the canvas below the visible part.
+     * @return false iff the thread has been interrupted.
+     */
+    private boolean rasterize(NLPLayout layout, Rectangle visible, int below) {
+        //the layout is drawn at the bottom of the canvas, so the visible tiles are counted from the bottom
+        Dimension dim = layout.getDimension();
+        int top = Math.max(0, dim.height - below - visible.height);
+        int bottom = Math.min(dim.height, dim.height - below);
+        int right = Math.min(dim.width, visible.x + visible.width);
+        for (int row = top / TILE_SIZE; row * TILE_SIZE < bottom; ++row)
+            for (int column = visible.x / TILE_SIZE; column * TILE_SIZE < right; ++column) {
+                if (Thread.interrupted()) return false;
+                if (!tiles.contains(layout, column, row)) getTile(layout, column, row);
+            }
+        return true;
+    }
+
+    /**
+     * Exports the current graph to EPS. Pending updates are finished first (see {@link #updateNLPGraphicsAndWait()}),
+     * and the graph is painted from the layout shown on the canvas. This method has to be called on the event dispatch
+     * thread.
      *
      * @param file the eps file to export to.
      * @throws IOException if IO goes wrong.
      */
     public void exportToEPS(File file) throws IOException {
 
-        EpsGraphics dummy = new EpsGraphics("Title", new ByteArrayOutputStream(),
-                0, 0, 1, 1, ColorMode.BLACK_AND_WHITE);
-
-        NLPInstance filtered = filterInstance();
+        updateNLPGraphicsAndWait();
+        NLPLayout exported = layout;
 
-        Dimension dim = renderer.render(filtered, dummy);
+        Dimension dim = exported.getDimension();
 
         EpsGraphics g = new EpsGraphics("Title", new FileOutputStream(file), 0, 0,
                 (int) dim.getWidth() + 2, (int) dim.getHeight(), ColorMode.COLOR_RGB);
 
-        renderer.render(filtered, g);
+        exported.paint(g);
 
         g.flush();
         g.close();
@@ -5,7 +5,8 @@ import java.awt.geom.Point2D;
 
 /**
  * An NLPCanvasRenderer renders a given NLPInstance to a Graphics object and returns the dimension of the created
- * image.
+ * image. Rendering happens in two phases: {@link #layout(NLPInstance, java.awt.Graphics2D)} measures text and places
+ * tokens and edges, and {@link NLPLayout#paint(java.awt.Graphics2D)} draws the result.
  *
  * @author Sebastian Riedel
  */
@@ -21,6 +22,26 @@ public interface NLPCanvasRenderer {
      */
     Dimension render(NLPInstance instance, Graphics2D graphics2D);
 
+    /**
+     * Lays out the given instance without drawing it. The returned layout can be painted as often as needed; renderers
+     * may return the same layout object for instances that are drawn the same way, as long as their appearance
+     * settings have not changed since.
+     *
+     * @param instance   the instance to lay out.
+     * @param graphics2D the graphics object whose font and font render context are used to measure text.
+     * @return the layout of the instance.
+     */
+    NLPLayout layout(NLPInstance instance, Graphics2D graphics2D);
+
+    /**
+     * Creates a renderer with the same settings that shares the layout cache of this renderer but has its own layout
+     * state, so that it can lay out instances in another thread without waiting for this renderer. Layouts created by
+     * the copy are returned by this renderer as long as the settings of this renderer haven't changed.
+     *
+     * @return a copy of this renderer.
+     */
+    NLPCanvasRenderer copy();
+
     /**
      * Should anti-aliasing be used when drawing the graph.
      *
@@ -43,7 +64,7 @@ public interface NLPCanvasRenderer {
     public int getMargin();
 
     /**
-     * Get the Edge at a given location.
+     * Get the Edge at a given location in the layout that was created last.
      *
      * @param p      the location of the edge.
      * @param radius the radius around the point which the edge should cross.
@@ -1,8 +1,6 @@
 package com.googlecode.whatswrong;
 
-import java.util.HashSet;
-import java.util.Set;
-import java.util.Collection;
+import java.util.*;
 
 /**
  * An NLPDiff object takes two NLPInstances, a gold and a guess instance, and compares the set of edges that both
@@ -15,21 +13,30 @@ import java.util.Collection;
  */
 public class NLPDiff {
 
+    /**
+     * The symbol table for the types and labels of compared edges (used to encode edges as keys) and for the types of
+     * diff edges, so that each "type:FN", "type:FP" and "type:Match" string exists only once no matter how many
+     * instances are compared. The table is replaced by an empty one when it has grown beyond {@link #MAX_SYMBOLS}
+     * symbols, so that comparing many corpora over a session doesn't fill the memory.
+     */
+    private volatile SymbolTable symbols = new SymbolTable();
 
     /**
-     * This class defines the identity of an edge with respect to the diff operation.
+     * This class defines the identity of an edge with respect to the diff operation. Labels and types of edges from
+     * the same corpus are interned (see {@link SymbolTable}), so the string comparisons below usually succeed on
+     * reference equality and the string hash codes are cached.
      */
     private static class EdgeIdentity {
         private final int from, to;
         private final String type, label;
         public final Edge edge;
 
-        EdgeIdentity(Edge edge) {
+        EdgeIdentity(Edge edge, boolean ignoreLabel) {
             this.edge = edge;
             this.from = edge.getFrom().getIndex();
             this.to = edge.getTo().getIndex();
             this.type = edge.getType();
-            this.label = edge.getLabel();
+            this.label = ignoreLabel ? null : edge.getLabel();
         }
 
         @Override
@@ -57,6 +64,55 @@ public class NLPDiff {
         }
     }
 
+    /**
+     * A Listener is notified about the edges of a gold and a guess instance that match and about those that only exist
+     * in one of them. It allows clients to consume the result of a comparison without creating a diff instance.
+     */
+    public static interface Listener {
+        /**
+         * Called for an edge that is in both instances.
+         *
+         * @param gold  the edge in the gold instance.
+         * @param guess the edge in the guess instance.
+         */
+        void match(Edge gold, Edge guess);
+
+        /**
+         * Called for an edge that is only in the gold instance.
+         *
+         * @param gold the edge in the gold instance.
+         */
+        void falseNegative(Edge gold);
+
+        /**
+         * Called for an edge that is only in the guess instance.
+         *
+         * @param guess the edge in the guess instance.
+         */
+        void falsePositive(Edge guess);
+    }
+
+    /**
+     * The number of bits of each of the four components (from, to, type and label) of an edge key.
+     */
+    private static final int KEY_BITS = 15;
+
+    /**
+     * The exclusive upper bound for each key component.
+     */
+    private static final int KEY_LIMIT = 1 << KEY_BITS;
+
+    /**
+     * The number of symbols after which the symbol table is replaced by an empty one. Half the key limit, so that the
+     * edges of any single comparison can still be encoded after the table has grown close to this number.
+     */
+    private static final int MAX_SYMBOLS = KEY_LIMIT / 2;
+
+    /**
+     * The diff types for each type id of the current symbol table: FN, FP and Match type strings.
+     */
+    private final ArrayList<String[]> diffTypes = new ArrayList<String[]>();
+
     /**
      * Calculates the difference between two NLP instances in terms of their edges.
      *
@@ -65,49 +121,286 @@ public class NLPDiff {
      * @return An NLPInstance with Matches, False Negatives and False Positives of the difference.
      */
     public NLPInstance diff(NLPInstance goldInstance, NLPInstance guessInstance) {
-        NLPInstance diff = new NLPInstance();
+        final NLPInstance diff = new NLPInstance();
         diff.setRenderType(goldInstance.getRenderType());
         for (int splitPoint : goldInstance.getSplitPoints())
             diff.addSplitPoint(splitPoint);
         diff.addTokens(goldInstance.getTokens());
-        Set<EdgeIdentity> goldIdentities = createIdentities(goldInstance.getEdges());
-        Set<EdgeIdentity> guessIdentities = createIdentities(guessInstance.getEdges());
-        Set<EdgeIdentity> fn = new HashSet<EdgeIdentity>(goldIdentities);
-        fn.removeAll(guessIdentities);
-        Set<EdgeIdentity> fp = new HashSet<EdgeIdentity>(guessIdentities);
-        fp.removeAll(goldIdentities);
-        Set<EdgeIdentity> matches = new HashSet<EdgeIdentity>(goldIdentities);
-        matches.retainAll(guessIdentities);
-        for (EdgeIdentity edgeid : fn) {
-            Edge edge = edgeid.edge;
-            String type = edge.getType() + ":FN";
-            diff.addEdge(new Edge(edge.getFrom(), edge.getTo(), edge.getLabel(),
-                edge.getNote(), type, edge.getRenderType(), edge.getDescription()));
+        //tokens of guess edges that the gold instance doesn't have
+        final TreeMap<Integer, Token> guessTokens = new TreeMap<Integer, Token>();
+        final ArrayList<Edge> fn = new ArrayList<Edge>();
+        final ArrayList<Edge> fp = new ArrayList<Edge>();
+        final ArrayList<Edge> matches = new ArrayList<Edge>();
+        compare(goldInstance, guessInstance, new Listener() {
+            public void match(Edge gold, Edge guess) {
+                matches.add(copy(diff, guessTokens, gold, getDiffType(gold.getType(), 2)));
+            }
+
+            public void falseNegative(Edge gold) {
+                fn.add(copy(diff, guessTokens, gold, getDiffType(gold.getType(), 0)));
+            }
+
+            public void falsePositive(Edge guess) {
+                fp.add(copy(diff, guessTokens, guess, getDiffType(guess.getType(), 1)));
+            }
+        });
+        diff.addTokens(guessTokens.values());
+        diff.addEdges(fn);
+        diff.addEdges(fp);
+        diff.addEdges(matches);
+        return diff;
+    }
+
+    /**
+     * Compares the edges of the gold and guess instance and reports matches, false negatives and false positives to the
+     * listener. Edges are identified by their tokens, type and label; edges with the same identity within one instance
+     * are reported only once.
+     * <p/>
+     * <p>Each edge is encoded as a single long (from and to token index, and the ids of type and label in the symbol
+     * table of this diff object). Both key arrays are sorted and a single merge pass yields the result, so no sets of
+     * edges are created. If an instance is too large to be encoded this way the comparison falls back to hash sets.
+     *
+     * @param goldInstance  the gold instance.
+     * @param guessInstance the guess instance.
+     * @param listener      the listener to notify.
+     */
+    public void compare(NLPInstance goldInstance, NLPInstance guessInstance, Listener listener) {
+        compare(goldInstance, guessInstance, listener, false);
+    }
+
+    /**
+     * Compares the edges of the gold and guess instance like {@link #compare(NLPInstance, NLPInstance, Listener)}, but
+     * optionally ignores edge labels. When labels are ignored two edges match if they connect the same tokens and have
+     * the same type, which is what unlabeled attachment scores and label confusion counts need.
+     *
+     * @param goldInstance  the gold instance.
+     * @param guessInstance the guess instance.
+     * @param listener      the listener to notify.
+     * @param ignoreLabels  whether to ignore the labels of edges.
+     */
+    public void compare(NLPInstance goldInstance, NLPInstance guessInstance, Listener listener,
+                        boolean ignoreLabels) {
+        List<Edge> goldEdges = goldInstance.getEdges();
+        List<Edge> guessEdges = guessInstance.getEdges();
+        SymbolTable symbols = getSymbols();
+        long[] goldKeys = createKeys(goldEdges, ignoreLabels, symbols);
+        long[] guessKeys = createKeys(guessEdges, ignoreLabels, symbols);
+        if (goldKeys == null || guessKeys == null) {
+            compareWithSets(goldEdges, guessEdges, listener, ignoreLabels);
+            return;
         }
-        for (EdgeIdentity edgeId : fp) {
-            Edge edge = edgeId.edge;
-            String type = edge.getType() + ":FP";
-            diff.addEdge(new Edge(edge.getFrom(), edge.getTo(), edge.getLabel(),
-                edge.getNote(), type, edge.getRenderType(), edge.getDescription()));
+        int[] goldOrder = sort(goldKeys);
+        int[] guessOrder = sort(guessKeys);
+        int i = 0, j = 0;
+        while (i < goldOrder.length && j < guessOrder.length) {
+            long goldKey = goldKeys[goldOrder[i]];
+            long guessKey = guessKeys[guessOrder[j]];
+            if (goldKey < guessKey) {
+                listener.falseNegative(goldEdges.get(goldOrder[i]));
+                i = next(goldKeys, goldOrder, i);
+            } else if (goldKey > guessKey) {
+                listener.falsePositive(guessEdges.get(guessOrder[j]));
+                j = next(guessKeys, guessOrder, j);
+            } else {
+                listener.match(goldEdges.get(goldOrder[i]), guessEdges.get(guessOrder[j]));
+                i = next(goldKeys, goldOrder, i);
+                j = next(guessKeys, guessOrder, j);
+            }
         }
-        for (EdgeIdentity edgeId : matches) {
-            Edge edge = edgeId.edge;
-            diff.addEdge(new Edge(edge.getFrom(), edge.getTo(), edge.getLabel(),
-                edge.getNote(), edge.getType() + ":Match", edge.getRenderType(),edge.getDescription()));
+        for (; i < goldOrder.length; i = next(goldKeys, goldOrder, i))
+            listener.falseNegative(goldEdges.get(goldOrder[i]));
+        for (; j < guessOrder.length; j = next(guessKeys, guessOrder, j))
+            listener.falsePositive(guessEdges.get(guessOrder[j]));
+    }
+
+    /**
+     * Compares the edges using hash sets of edge identities. This is used for instances whose edges can't be encoded
+     * as keys.
+     *
+     * @param goldEdges    the gold edges.
+     * @param guessEdges   the guess edges.
+     * @param listener     the listener to notify.
+     * @param ignoreLabels whether to ignore the labels of edges.
+     */
+    private static void compareWithSets(List<Edge> goldEdges, List<Edge> guessEdges, Listener listener,
+                                        boolean ignoreLabels) {
+        Set<EdgeIdentity> goldIdentities = createIdentities(goldEdges, ignoreLabels);
+        HashMap<EdgeIdentity, EdgeIdentity> guessIdentities = new HashMap<EdgeIdentity, EdgeIdentity>();
+        for (EdgeIdentity identity : createIdentities(guessEdges, ignoreLabels))
+            guessIdentities.put(identity, identity);
+        for (EdgeIdentity identity : goldIdentities) {
+            EdgeIdentity guess = guessIdentities.get(identity);
+            if (guess == null) listener.falseNegative(identity.edge);
+            else listener.match(identity.edge, guess.edge);
         }
-        return diff;
+        for (EdgeIdentity identity : guessIdentities.keySet())
+            if (!goldIdentities.contains(identity)) listener.falsePositive(identity.edge);
+    }
+
+    /**
+     * Returns the symbol table to encode edges with, after replacing it with an empty one if it has grown too large.
+     *
+     * @return the current symbol table.
+     */
+    private synchronized SymbolTable getSymbols() {
+        if (symbols.size() >= MAX_SYMBOLS) {
+            symbols = new SymbolTable();
+            diffTypes.clear();
+        }
+        return symbols;
+    }
+
+    /**
+     * Encodes each edge as a long with 15 bits for from token, to token, type id and label id, in this order.
+     *
+     * @param edges       the edges to encode.
+     * @param ignoreLabel whether to leave out the label (the label bits are 0 then).
+     * @param symbols     the symbol table that provides the type and label ids.
+     * @return the keys of the edges, or null if some edge can't be encoded.
+     */
+    private static long[] createKeys(List<Edge> edges, boolean ignoreLabel, SymbolTable symbols) {
+        long[] keys = new long[edges.size()];
+        //most edges of an instance share their type, so remember the last one
+        String lastType = null;
+        int type = 0;
+        for (int i = 0; i < keys.length; ++i) {
+            Edge edge = edges.get(i);
+            int from = edge.getFrom().getIndex();
+            int to = edge.getTo().getIndex();
+            //shift ids by one so that null (id -1) becomes 0
+            if (i == 0 || edge.getType() != lastType) {
+                lastType = edge.getType();
+                type = symbols.getId(lastType) + 1;
+            }
+            int label = ignoreLabel ? 0 : symbols.getId(edge.getLabel()) + 1;
+            if (from < 0 || from >= KEY_LIMIT || to < 0 || to >= KEY_LIMIT || type >= KEY_LIMIT || label >= KEY_LIMIT)
+                return null;
+            keys[i] = (long) from << 3 * KEY_BITS | (long) to << 2 * KEY_BITS | (long) type << KEY_BITS | label;
+        }
+        return keys;
+    }
+
+    /**
+     * Returns the positions of the given keys in ascending key order. Equal keys stay in their original order.
+     *
+     * @param keys the keys to sort.
+     * @return the positions of the keys in sorted order.
+     */
+    private static int[] sort(long[] keys) {
+        int[] order = new int[keys.length];
+        for (int i = 0; i < order.length; ++i) order[i] = i;
+        if (order.length > 1) mergeSort(order, new int[order.length], keys, 0, order.length);
+        return order;
+    }
+
+    /**
+     * Stable merge sort of the positions in the given range by their keys.
+     *
+     * @param order  the positions to sort.
+     * @param buffer a buffer of the same size as <code>order</code>.
+     * @param keys   the keys of the positions.
+     * @param from   the start of the range to sort.
+     * @param to     the end of the range to sort (exclusive).
+     */
+    private static void mergeSort(int[] order, int[] buffer, long[] keys, int from, int to) {
+        if (to - from < 8) {
+            //insertion sort for small ranges
+            for (int i = from + 1; i < to; ++i)
+                for (int j = i; j > from && keys[order[j - 1]] > keys[order[j]]; --j) {
+                    int swap = order[j];
+                    order[j] = order[j - 1];
+                    order[j - 1] = swap;
+                }
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        mergeSort(order, buffer, keys, from, middle);
+        mergeSort(order, buffer, keys, middle, to);
+        if (keys[order[middle - 1]] <= keys[order[middle]]) return;
+        System.arraycopy(order, from, buffer, from, to - from);
+        for (int i = from, left = from, right = middle; i < to; ++i)
+            order[i] = right >= to || left < middle && keys[buffer[left]] <= keys[buffer[right]] ?
+                buffer[left++] : buffer[right++];
+    }
 
+    /**
+     * Returns the next position in the sorted order with a key different from the key at the given position.
+     *
+     * @param keys     the keys.
+     * @param order    the sorted order of positions.
+     * @param position the current position in the order.
+     * @return the next position with a different key, or the length of the order.
+     */
+    private static int next(long[] keys, int[] order, int position) {
+        long key = keys[order[position]];
+        do ++position; while (position < order.length && keys[order[position]] == key);
+        return position;
+    }
+
+    /**
+     * Returns the type of a diff edge.
+     *
+     * @param type the type of the original edge.
+     * @param kind 0 for false negatives, 1 for false positives, 2 for matches.
+     * @return the type with the ":FN", ":FP" or ":Match" postfix.
+     */
+    private synchronized String getDiffType(String type, int kind) {
+        int id = symbols.getId(type) + 1;
+        while (diffTypes.size() <= id) diffTypes.add(null);
+        String[] types = diffTypes.get(id);
+        if (types == null) {
+            types = new String[]{
+                symbols.intern(type + ":FN"), symbols.intern(type + ":FP"), symbols.intern(type + ":Match")};
+            diffTypes.set(id, types);
+        }
+        return types[kind];
+    }
+
+    /**
+     * Creates a copy of the edge with the given type that connects the tokens of the diff instance.
+     *
+     * @param diff        the diff instance.
+     * @param guessTokens the tokens of guess edges that the diff instance doesn't contain, by index.
+     * @param edge        the edge to copy.
+     * @param type        the type of the copy.
+     * @return a copy of the edge between the tokens of the diff instance with the same indices.
+     */
+    private static Edge copy(NLPInstance diff, Map<Integer, Token> guessTokens, Edge edge, String type) {
+        return new Edge(getToken(diff, guessTokens, edge.getFrom()), getToken(diff, guessTokens, edge.getTo()),
+            edge.getLabel(), edge.getNote(), type, edge.getRenderType(), edge.getDescription());
+    }
+
+    /**
+     * Returns the token of the diff instance with the index of the given token. If the diff instance has no such token
+     * (because the guess instance has more tokens than the gold instance) the given token is used instead, and
+     * remembered so that it can be added to the diff instance.
+     *
+     * @param diff        the diff instance.
+     * @param guessTokens the tokens that the diff instance doesn't contain, by index.
+     * @param token       the token of an edge to copy.
+     * @return the token with the same index in the diff instance, or the first token with this index that was missing.
+     */
+    private static Token getToken(NLPInstance diff, Map<Integer, Token> guessTokens, Token token) {
+        Token result = diff.getToken(token.getIndex());
+        if (result != null) return result;
+        result = guessTokens.get(token.getIndex());
+        if (result == null) {
+            result = token;
+            guessTokens.put(token.getIndex(), token);
+        }
+        return result;
     }
 
     /**
      * Converts a collection of edges to their diff-based identities.
      *
-     * @param edges the input edges
+     * @param edges       the input edges
+     * @param ignoreLabel whether the identities should ignore the edge label.
      * @return the identities of the input edges.
      */
-    private static Set<EdgeIdentity> createIdentities(Collection<Edge> edges) {
-        HashSet<EdgeIdentity> result = new HashSet<EdgeIdentity>();
-        for (Edge edge : edges) result.add(new EdgeIdentity(edge));
+    private static Set<EdgeIdentity> createIdentities(Collection<Edge> edges, boolean ignoreLabel) {
+        LinkedHashSet<EdgeIdentity> result = new LinkedHashSet<EdgeIdentity>();
+        for (Edge edge : edges) result.add(new EdgeIdentity(edge, ignoreLabel));
         return result;
     }
 
@@ -0,0 +1,617 @@
+package com.googlecode.whatswrong;
+
+import java.awt.*;
+import java.awt.font.FontRenderContext;
+import java.awt.font.TextLayout;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Line2D;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An NLPLayout is the result of laying out an NLPInstance: the bounds of the token stacks, the shapes of the edges,
+ * the positioned text of tokens and labels, and the dimension of the whole graph. It is created by a {@link
+ * com.googlecode.whatswrong.NLPCanvasRenderer} with the help of a {@link Builder}, and it does not change afterwards.
+ * Painting an NLPLayout only replays its drawing operations, so a layout can be painted any number of times, to the
+ * screen or to an EPS file, without measuring text or stacking edges again.
+ */
+public class NLPLayout {
+
+    /**
+     * The width and height of the cells of the grid that indexes the edge shapes.
+     */
+    private static final int CELL_SIZE = 32;
+
+    /**
+     * The maximal number of grid cells. Larger layouts use larger cells.
+     */
+    private static final int MAX_CELLS = 1 << 20;
+
+    /**
+     * The number of pixels by which the bounds of drawing operations are extended to cover anti-aliased pixels.
+     */
+    private static final int BLEED = 2;
+
+    /**
+     * A drawing operation with the color and stroke to use.
+     */
+    private abstract static class Element {
+        /**
+         * The color of the element.
+         */
+        private final Color color;
+        /**
+         * The stroke of the element.
+         */
+        private final Stroke stroke;
+        /**
+         * The area the element paints to, or a larger one.
+         */
+        private Rectangle2D bounds;
+
+        /**
+         * Creates a new Element.
+         *
+         * @param color  the color of the element.
+         * @param stroke the stroke of the element.
+         */
+        protected Element(final Color color, final Stroke stroke) {
+            this.color = color;
+            this.stroke = stroke;
+        }
+
+        /**
+         * Sets the area the element paints to, extended by the width of the stroke and some pixels for
+         * anti-aliasing.
+         *
+         * @param bounds the bounds of the element.
+         * @param width  the width of the stroke, or 0 if the element is not stroked.
+         */
+        protected void setBounds(final Rectangle2D bounds, final float width) {
+            double extension = width / 2 + BLEED;
+            this.bounds = new Rectangle2D.Double(bounds.getX() - extension, bounds.getY() - extension,
+                bounds.getWidth() + 2 * extension, bounds.getHeight() + 2 * extension);
+        }
+
+        /**
+         * Draws the element.
+         *
+         * @param g2d the graphics object to draw to.
+         */
+        protected abstract void draw(Graphics2D g2d);
+    }
+
+    /**
+     * A shape that is drawn with the current stroke.
+     */
+    private static class ShapeElement extends Element {
+        /**
+         * The shape to draw.
+         */
+        private final Shape shape;
+
+        /**
+         * Creates a new ShapeElement.
+         *
+         * @param color  the color of the shape.
+         * @param stroke the stroke of the shape.
+         * @param shape  the shape.
+         */
+        private ShapeElement(final Color color, final Stroke stroke, final Shape shape) {
+            super(color, stroke);
+            this.shape = shape;
+            setBounds(shape.getBounds2D(),
+                stroke instanceof BasicStroke ? ((BasicStroke) stroke).getLineWidth() : BLEED);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        protected void draw(final Graphics2D g2d) {
+            g2d.draw(shape);
+        }
+    }
+
+    /**
+     * A text layout drawn at a given position.
+     */
+    private static class TextElement extends Element {
+        /**
+         * The text to draw.
+         */
+        private final TextLayout text;
+        /**
+         * The x coordinate of the text origin.
+         */
+        private final float x;
+        /**
+         * The y coordinate of the baseline of the text.
+         */
+        private final float y;
+
+        /**
+         * Creates a new TextElement.
+         *
+         * @param color  the color of the text.
+         * @param stroke the current stroke (not used for text).
+         * @param text   the text.
+         * @param x      the x coordinate of the text origin.
+         * @param y      the y coordinate of the baseline of the text.
+         */
+        private TextElement(final Color color, final Stroke stroke, final TextLayout text, final float x,
+                            final float y) {
+            super(color, stroke);
+            this.text = text;
+            this.x = x;
+            this.y = y;
+            Rectangle2D textBounds = text.getBounds();
+            setBounds(new Rectangle2D.Double(textBounds.getX() + x, textBounds.getY() + y, textBounds.getWidth(),
+                textBounds.getHeight()), 0);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        protected void draw(final Graphics2D g2d) {
+            text.draw(g2d, x, y);
+        }
+    }
+
+    /**
+     * A Builder collects the drawing operations, token bounds and edge shapes of a layout. It offers the subset of the
+     * Graphics2D methods the token and edge layouts need, so they lay out as if they were drawing, and it measures
+     * text with the font and font render context of the graphics object it was created for.
+     */
+    public static class Builder {
+        /**
+         * The graphics object used to measure text.
+         */
+        private final Graphics2D measure;
+        /**
+         * The drawing operations so far.
+         */
+        private final ArrayList<Element> elements = new ArrayList<Element>();
+        /**
+         * The shapes of the edges so far.
+         */
+        private final ArrayList<Shape> edgeShapes = new ArrayList<Shape>();
+        /**
+         * The edges of the shapes in {@link #edgeShapes}.
+         */
+        private final ArrayList<Edge> edges = new ArrayList<Edge>();
+        /**
+         * The bounds of the token stacks so far.
+         */
+        private final HashMap<Token, Rectangle2D> tokenBounds = new HashMap<Token, Rectangle2D>();
+        /**
+         * The current color.
+         */
+        private Color color = Color.BLACK;
+        /**
+         * The current stroke.
+         */
+        private Stroke stroke = new BasicStroke();
+        /**
+         * The current translation in x direction.
+         */
+        private int translateX;
+        /**
+         * The current translation in y direction.
+         */
+        private int translateY;
+
+        /**
+         * Creates a new Builder.
+         *
+         * @param measure the graphics object whose font and font render context are used to measure text.
+         */
+        public Builder(final Graphics2D measure) {
+            this.measure = measure;
+        }
+
+        /**
+         * Returns the font to lay out text with.
+         *
+         * @return the font of the measuring graphics object.
+         */
+        public Font getFont() {
+            return measure.getFont();
+        }
+
+        /**
+         * Returns the font render context to lay out text with.
+         *
+         * @return the font render context of the measuring graphics object.
+         */
+        public FontRenderContext getFontRenderContext() {
+            return measure.getFontRenderContext();
+        }
+
+        /**
+         * Returns the current color.
+         *
+         * @return the color of the following drawing operations.
+         */
+        public Color getColor() {
+            return color;
+        }
+
+        /**
+         * Sets the color of the following drawing operations.
+         *
+         * @param color the new color.
+         */
+        public void setColor(final Color color) {
+            this.color = color;
+        }
+
+        /**
+         * Sets the stroke of the following drawing operations.
+         *
+         * @param stroke the new stroke.
+         */
+        public void setStroke(final Stroke stroke) {
+            this.stroke = stroke;
+        }
+
+        /**
+         * Moves the origin of the following drawing operations.
+         *
+         * @param x the translation in x direction.
+         * @param y the translation in y direction.
+         */
+        public void translate(final int x, final int y) {
+            translateX += x;
+            translateY += y;
+        }
+
+        /**
+         * Returns the given shape in the coordinates of the layout.
+         *
+         * @param shape a shape in the current coordinates.
+         * @return the shape moved by the current translation.
+         */
+        private Shape translated(final Shape shape) {
+            if (translateX == 0 && translateY == 0) return shape;
+            return AffineTransform.getTranslateInstance(translateX, translateY).createTransformedShape(shape);
+        }
+
+        /**
+         * Draws the outline of a shape.
+         *
+         * @param shape the shape to draw.
+         */
+        public void draw(final Shape shape) {
+            elements.add(new ShapeElement(color, stroke, translated(shape)));
+        }
+
+        /**
+         * Draws a line.
+         *
+         * @param x1 the x coordinate of the start point.
+         * @param y1 the y coordinate of the start point.
+         * @param x2 the x coordinate of the end point.
+         * @param y2 the y coordinate of the end point.
+         */
+        public void drawLine(final int x1, final int y1, final int x2, final int y2) {
+            elements.add(new ShapeElement(color, stroke, new Line2D.Float(
+                x1 + translateX, y1 + translateY, x2 + translateX, y2 + translateY)));
+        }
+
+        /**
+         * Draws a text layout.
+         *
+         * @param text the text to draw.
+         * @param x    the x coordinate of the text origin.
+         * @param y    the y coordinate of the baseline of the text.
+         */
+        public void draw(final TextLayout text, final float x, final float y) {
+            elements.add(new TextElement(color, stroke, text, x + translateX, y + translateY));
+        }
+
+        /**
+         * Remembers the shape of an edge so that the edge can be found by {@link NLPLayout#getEdgeAt(Point2D, int)}.
+         *
+         * @param shape the shape of the edge.
+         * @param edge  the edge.
+         */
+        public void addEdge(final Shape shape, final Edge edge) {
+            edgeShapes.add(translated(shape));
+            edges.add(edge);
+        }
+
+        /**
+         * Remembers the bounds of the property value stack of a token.
+         *
+         * @param token  the token.
+         * @param bounds the bounds of its stack.
+         */
+        public void setTokenBounds(final Token token, final Rectangle2D bounds) {
+            tokenBounds.put(token, translated(bounds).getBounds2D());
+        }
+
+        /**
+         * Creates the layout.
+         *
+         * @param dimension    the dimension of the laid out graph.
+         * @param antiAliasing whether lines should be painted with anti-aliasing.
+         * @return a layout with all drawing operations, edges and token bounds collected so far.
+         */
+        public NLPLayout build(final Dimension dimension, final boolean antiAliasing) {
+            return new NLPLayout(this, dimension, antiAliasing);
+        }
+    }
+
+    /**
+     * The drawing operations in the order in which they are painted.
+     */
+    private final Element[] elements;
+
+    /**
+     * The shapes of the edges.
+     */
+    private final Shape[] edgeShapes;
+
+    /**
+     * The edges of the shapes in {@link #edgeShapes}.
+     */
+    private final Edge[] edges;
+
+    /**
+     * The bounding boxes of the shapes in {@link #edgeShapes}.
+     */
+    private final Rectangle[] edgeBounds;
+
+    /**
+     * The width and height of a grid cell.
+     */
+    private final int cellSize;
+
+    /**
+     * The number of grid columns.
+     */
+    private final int columns;
+
+    /**
+     * The number of grid rows.
+     */
+    private final int rows;
+
+    /**
+     * For each grid cell (row by row) the position of its first edge in {@link #cellEdges}, plus the total number of
+     * entries at the end.
+     */
+    private final int[] cellStarts;
+
+    /**
+     * The indices of the edges whose bounding boxes overlap each cell, cell by cell.
+     */
+    private final int[] cellEdges;
+
+    /**
+     * The shape of each edge.
+     */
+    private final HashMap<Edge, Shape> shapeOfEdge = new HashMap<Edge, Shape>();
+
+    /**
+     * The bounds of the token stacks.
+     */
+    private final Map<Token, Rectangle2D> tokenBounds;
+
+    /**
+     * The dimension of the graph.
+     */
+    private final Dimension dimension;
+
+    /**
+     * Whether lines are painted with anti-aliasing.
+     */
+    private final boolean antiAliasing;
+
+    /**
+     * Creates a new NLPLayout from the content of a builder.
+     *
+     * @param builder      the builder.
+     * @param dimension    the dimension of the graph.
+     * @param antiAliasing whether lines are painted with anti-aliasing.
+     */
+    private NLPLayout(final Builder builder, final Dimension dimension, final boolean antiAliasing) {
+        this.elements = builder.elements.toArray(new Element[builder.elements.size()]);
+        this.edgeShapes = builder.edgeShapes.toArray(new Shape[builder.edgeShapes.size()]);
+        this.edges = builder.edges.toArray(new Edge[builder.edges.size()]);
+        this.tokenBounds = Collections.unmodifiableMap(new HashMap<Token, Rectangle2D>(builder.tokenBounds));
+        this.dimension = new Dimension(dimension);
+        this.antiAliasing = antiAliasing;
+
+        //put each edge into all grid cells its bounding box overlaps
+        edgeBounds = new Rectangle[edgeShapes.length];
+        for (int i = 0; i < edgeShapes.length; ++i) {
+            edgeBounds[i] = edgeShapes[i].getBounds();
+            shapeOfEdge.put(edges[i], edgeShapes[i]);
+        }
+        int size = CELL_SIZE;
+        while ((long) (dimension.width / size + 1) * (dimension.height / size + 1) > MAX_CELLS) size *= 2;
+        cellSize = size;
+        columns = Math.max(dimension.width, 0) / cellSize + 1;
+        rows = Math.max(dimension.height, 0) / cellSize + 1;
+        cellStarts = new int[columns * rows + 1];
+        for (Rectangle bounds : edgeBounds)
+            for (int row = getRow(bounds.getMinY()); row <= getRow(bounds.getMaxY()); ++row)
+                for (int column = getColumn(bounds.getMinX()); column <= getColumn(bounds.getMaxX()); ++column)
+                    ++cellStarts[row * columns + column + 1];
+        for (int cell = 0; cell < columns * rows; ++cell) cellStarts[cell + 1] += cellStarts[cell];
+        cellEdges = new int[cellStarts[columns * rows]];
+        int[] filled = new int[columns * rows];
+        for (int i = 0; i < edgeBounds.length; ++i) {
+            Rectangle bounds = edgeBounds[i];
+            for (int row = getRow(bounds.getMinY()); row <= getRow(bounds.getMaxY()); ++row)
+                for (int column = getColumn(bounds.getMinX()); column <= getColumn(bounds.getMaxX()); ++column) {
+                    int cell = row * columns + column;
+                    cellEdges[cellStarts[cell] + filled[cell]++] = i;
+                }
+        }
+    }
+
+    /**
+     * Creates a layout that paints like the given layout but reports other edge objects.
+     *
+     * @param layout       the layout to copy.
+     * @param replacements maps edges of the given layout to the edges that replace them.
+     */
+    private NLPLayout(final NLPLayout layout, final Map<Edge, Edge> replacements) {
+        this.elements = layout.elements;
+        this.edgeShapes = layout.edgeShapes;
+        this.edgeBounds = layout.edgeBounds;
+        this.tokenBounds = layout.tokenBounds;
+        this.dimension = layout.dimension;
+        this.antiAliasing = layout.antiAliasing;
+        this.cellSize = layout.cellSize;
+        this.columns = layout.columns;
+        this.rows = layout.rows;
+        this.cellStarts = layout.cellStarts;
+        this.cellEdges = layout.cellEdges;
+        this.edges = new Edge[layout.edges.length];
+        for (int i = 0; i < edges.length; ++i) {
+            Edge replacement = replacements.get(layout.edges[i]);
+            edges[i] = replacement != null ? replacement : layout.edges[i];
+            shapeOfEdge.put(edges[i], edgeShapes[i]);
+        }
+    }
+
+    /**
+     * Returns a layout that paints exactly like this layout, but whose edges are replaced by other edge objects. A
+     * cached layout is rebound this way to the edges of the instance it is shown for, so that the edges returned by
+     * {@link #getEdgeAt(Point2D, int)} and {@link #getEdges()} carry the descriptions of that instance.
+     *
+     * @param replacements maps edges of this layout to the edges that replace them. Edges that aren't mapped are
+     *                     kept.
+     * @return a layout with the replaced edges that shares everything else with this layout.
+     */
+    public NLPLayout rebind(final Map<Edge, Edge> replacements) {
+        return new NLPLayout(this, replacements);
+    }
+
+    /**
+     * Returns an object that is the same for all layouts that paint the same, that is for a layout and all layouts
+     * rebound from it. Caches of painted images use it as key.
+     *
+     * @return the drawing operations of this layout.
+     */
+    Object getPaintIdentity() {
+        return elements;
+    }
+
+    /**
+     * Returns the grid column of an x coordinate. Coordinates outside the layout are mapped to the first or last
+     * column.
+     *
+     * @param x the x coordinate.
+     * @return the column that contains the coordinate.
+     */
+    private int getColumn(final double x) {
+        return Math.max(0, Math.min(columns - 1, (int) Math.floor(x / cellSize)));
+    }
+
+    /**
+     * Returns the grid row of a y coordinate. Coordinates outside the layout are mapped to the first or last row.
+     *
+     * @param y the y coordinate.
+     * @return the row that contains the coordinate.
+     */
+    private int getRow(final double y) {
+        return Math.max(0, Math.min(rows - 1, (int) Math.floor(y / cellSize)));
+    }
+
+    /**
+     * Paints the layout. If the graphics object has a clip, only the drawing operations that reach into the clip are
+     * replayed, so painting a small part of a large layout is cheap.
+     *
+     * @param g2d the graphics object to paint to.
+     */
+    public void paint(final Graphics2D g2d) {
+        if (antiAliasing)
+            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        Color oldColor = g2d.getColor();
+        Stroke oldStroke = g2d.getStroke();
+        Rectangle clip = g2d.getClipBounds();
+        for (Element element : elements) {
+            if (clip != null && !element.bounds.intersects(clip)) continue;
+            g2d.setColor(element.color);
+            g2d.setStroke(element.stroke);
+            element.draw(g2d);
+        }
+        g2d.setColor(oldColor);
+        g2d.setStroke(oldStroke);
+    }
+
+    /**
+     * Returns the dimension of the graph.
+     *
+     * @return the width and height of the painted graph.
+     */
+    public Dimension getDimension() {
+        return new Dimension(dimension);
+    }
+
+    /**
+     * Returns the bounds of the property value stack of a token.
+     *
+     * @param token the token.
+     * @return the bounds of the stack of the token or null if the token is not part of this layout.
+     */
+    public Rectangle2D getTokenBounds(final Token token) {
+        Rectangle2D bounds = tokenBounds.get(token);
+        return bounds == null ? null : (Rectangle2D) bounds.clone();
+    }
+
+    /**
+     * Returns the edges of this layout.
+     *
+     * @return the edges in the order in which they were laid out.
+     */
+    public List<Edge> getEdges() {
+        ArrayList<Edge> result = new ArrayList<Edge>(edges.length);
+        Collections.addAll(result, edges);
+        return result;
+    }
+
+    /**
+     * Returns the shape of an edge.
+     *
+     * @param edge the edge.
+     * @return the shape of the edge or null if the edge is not part of this layout.
+     */
+    public Shape getEdgeShape(final Edge edge) {
+        return shapeOfEdge.get(edge);
+    }
+
+    /**
+     * Get the Edge at a given location. If several edges cross the location the lowest one is returned. Only the
+     * edges whose bounding boxes lie in the grid cells around the location are tested.
+     *
+     * @param p      the location of the edge.
+     * @param radius the radius around the point which the edge should cross.
+     * @return the edge that crosses circle around the given point with the given radius or null if there is none.
+     */
+    public Edge getEdgeAt(final Point2D p, final int radius) {
+        Rectangle2D cursor = new Rectangle.Double(p.getX() - radius / 2, p.getY() - radius / 2, radius, radius);
+        int result = -1;
+        for (int row = getRow(cursor.getMinY()); row <= getRow(cursor.getMaxY()); ++row)
+            for (int column = getColumn(cursor.getMinX()); column <= getColumn(cursor.getMaxX()); ++column) {
+                int cell = row * columns + column;
+                for (int entry = cellStarts[cell]; entry < cellStarts[cell + 1]; ++entry) {
+                    int i = cellEdges[entry];
+                    //prefer lower edges, and among edges at the same height the one laid out first
+                    if (result != -1 && (edgeBounds[i].y < edgeBounds[result].y ||
+                        edgeBounds[i].y == edgeBounds[result].y && i >= result)) continue;
+                    if (edgeBounds[i].intersects(cursor) && edgeShapes[i].intersects(cursor)) result = i;
+                }
+            }
+        return result == -1 ? null : edges[result];
+    }
+}
@@ -0,0 +1,490 @@
+package com.googlecode.whatswrong;
+
+import gnu.trove.list.array.TIntArrayList;
+
+import java.util.*;
+
+/**
+ * A PatternIndex answers structural queries such as "a token with PoS VB that has an OBJ dependent with PoS IN" over a
+ * whole corpus without looking at the instances again. For each edge of the corpus it records the properties of its
+ * head ({@link Edge#getFrom()}) and dependent ({@link Edge#getTo()}) token, its type (and type prefix and postfix) and
+ * its label; each of these features has a sorted posting list of the edges that have it. A pattern is answered by
+ * intersecting the posting lists of its constraints, smallest first, and mapping the resulting edges to their
+ * instances.
+ * <p/>
+ * <p>The query language: a query is one or more patterns separated by <code>&amp;</code>, and an instance matches if
+ * it matches all patterns (possibly with different edges). A pattern has the form
+ * <pre>
+ * head -[edge]-&gt; dependent
+ * </pre>
+ * where head and dependent are either <code>*</code> or a comma separated list of <code>property=value</code>
+ * constraints on the token, and edge is empty or a comma separated list of <code>type=value</code>,
+ * <code>label=value</code> or just a label. Values can be put into double quotes if they contain whitespace or any of
+ * <code>,&amp;=</code>. For example
+ * <pre>
+ * Pos=VB -[OBJ]-&gt; Pos=IN
+ * Word=bank -[type=role]-&gt; * &amp; * -[label=SBJ, type=dep]-&gt; Pos=PRP
+ * </pre>
+ */
+public class PatternIndex {
+
+    /**
+     * The feature kind of head token properties.
+     */
+    private static final char HEAD = 'h';
+
+    /**
+     * The feature kind of dependent token properties.
+     */
+    private static final char DEPENDENT = 'd';
+
+    /**
+     * The feature kind of edge types (and type prefixes and postfixes).
+     */
+    private static final char TYPE = 't';
+
+    /**
+     * The feature kind of edge labels.
+     */
+    private static final char LABEL = 'l';
+
+    /**
+     * A Match is an edge that matches a pattern.
+     */
+    public static class Match {
+        /**
+         * The index of the instance of the edge.
+         */
+        public final int instance;
+        /**
+         * The index of the head token.
+         */
+        public final int from;
+        /**
+         * The index of the dependent token.
+         */
+        public final int to;
+        /**
+         * The label of the edge.
+         */
+        public final String label;
+        /**
+         * The word of the head token, or its index if it has no "Word" property.
+         */
+        public final String head;
+        /**
+         * The word of the dependent token, or its index if it has no "Word" property.
+         */
+        public final String dependent;
+
+        /**
+         * Creates a new Match.
+         *
+         * @param instance  the index of the instance of the edge.
+         * @param from      the index of the head token.
+         * @param to        the index of the dependent token.
+         * @param label     the label of the edge.
+         * @param head      the word of the head token.
+         * @param dependent the word of the dependent token.
+         */
+        public Match(final int instance, final int from, final int to,
+                     final String label, final String head, final String dependent) {
+            this.instance = instance;
+            this.from = from;
+            this.to = to;
+            this.label = label;
+            this.head = head;
+            this.dependent = dependent;
+        }
+    }
+
+    /**
+     * The posting lists (sorted edge ids) of each feature.
+     */
+    private final HashMap<String, TIntArrayList> postings = new HashMap<String, TIntArrayList>();
+
+    /**
+     * The instance index of each edge.
+     */
+    private final TIntArrayList edgeInstances = new TIntArrayList();
+
+    /**
+     * The head token index of each edge.
+     */
+    private final TIntArrayList edgeFroms = new TIntArrayList();
+
+    /**
+     * The dependent token index of each edge.
+     */
+    private final TIntArrayList edgeTos = new TIntArrayList();
+
+    /**
+     * The label of each edge, as index into {@link #strings}.
+     */
+    private final TIntArrayList edgeLabels = new TIntArrayList();
+
+    /**
+     * The head word of each edge, as index into {@link #strings}.
+     */
+    private final TIntArrayList edgeHeads = new TIntArrayList();
+
+    /**
+     * The dependent word of each edge, as index into {@link #strings}.
+     */
+    private final TIntArrayList edgeDependents = new TIntArrayList();
+
+    /**
+     * The labels and words of the edges; each distinct string is stored only once.
+     */
+    private final ArrayList<String> strings = new ArrayList<String>();
+
+    /**
+     * The index of each string in {@link #strings}.
+     */
+    private final HashMap<String, Integer> stringIds = new HashMap<String, Integer>();
+
+    /**
+     * The property that is used to display tokens.
+     */
+    private static final TokenProperty WORD = new TokenProperty("Word");
+
+    /**
+     * The number of indexed instances.
+     */
+    private int size;
+
+    /**
+     * Creates a PatternIndex for the given corpus.
+     *
+     * @param corpus the corpus to index.
+     */
+    public PatternIndex(final List<NLPInstance> corpus) {
+        for (NLPInstance instance : corpus) add(instance);
+    }
+
+    /**
+     * Adds the edges of the next instance of the corpus to the index.
+     *
+     * @param instance the instance to add.
+     */
+    private void add(final NLPInstance instance) {
+        for (Edge edge : instance.getEdges()) {
+            int id = edgeInstances.size();
+            edgeInstances.add(size);
+            edgeFroms.add(edge.getFrom().getIndex());
+            edgeTos.add(edge.getTo().getIndex());
+            edgeLabels.add(stringId(edge.getLabel()));
+            edgeHeads.add(stringId(word(edge.getFrom())));
+            edgeDependents.add(stringId(word(edge.getTo())));
+            post(feature(TYPE, null, edge.getType()), id);
+            if (edge.getType().indexOf(':') != -1) {
+                post(feature(TYPE, null, edge.getTypePrefix()), id);
+                post(feature(TYPE, null, edge.getTypePostfix()), id);
+            }
+            post(feature(LABEL, null, edge.getLabel()), id);
+            for (TokenProperty property : edge.getFrom().getPropertyTypes())
+                post(feature(HEAD, property.getName(), edge.getFrom().getProperty(property)), id);
+            for (TokenProperty property : edge.getTo().getPropertyTypes())
+                post(feature(DEPENDENT, property.getName(), edge.getTo().getProperty(property)), id);
+        }
+        ++size;
+    }
+
+    /**
+     * Returns the word of a token.
+     *
+     * @param token the token.
+     * @return the value of the "Word" property of the token, or its index if it has no such property.
+     */
+    private static String word(final Token token) {
+        String word = token.getProperty(WORD);
+        return word != null ? word : String.valueOf(token.getIndex());
+    }
+
+    /**
+     * Returns the index of the given string in {@link #strings}, adding it if necessary.
+     *
+     * @param string the string.
+     * @return the index of the string.
+     */
+    private int stringId(final String string) {
+        Integer id = stringIds.get(string);
+        if (id == null) {
+            id = strings.size();
+            strings.add(string);
+            stringIds.put(string, id);
+        }
+        return id;
+    }
+
+    /**
+     * Adds an edge to the posting list of a feature. Edge ids are added in increasing order, and an edge that has the
+     * same feature twice (e.g. type prefix and full type) is only added once.
+     *
+     * @param feature the feature.
+     * @param id      the edge id.
+     */
+    private void post(final String feature, final int id) {
+        TIntArrayList list = postings.get(feature);
+        if (list == null) {
+            list = new TIntArrayList(4);
+            postings.put(feature, list);
+        }
+        if (list.isEmpty() || list.get(list.size() - 1) != id) list.add(id);
+    }
+
+    /**
+     * Creates the key of a feature.
+     *
+     * @param kind     the feature kind.
+     * @param property the property name for token features, or null.
+     * @param value    the value.
+     * @return the key of the feature.
+     */
+    private static String feature(final char kind, final String property, final String value) {
+        return property == null ? kind + "\t" + value : kind + "\t" + property + "\t" + value;
+    }
+
+    /**
+     * Returns the number of indexed instances.
+     *
+     * @return the number of indexed instances.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of indexed edges.
+     *
+     * @return the number of indexed edges.
+     */
+    public int getEdgeCount() {
+        return edgeInstances.size();
+    }
+
+    /**
+     * Checks whether the given text looks like a pattern query (as opposed to a keyword query).
+     *
+     * @param query the query text.
+     * @return true iff the text contains an edge pattern <code>-[...]-&gt;</code>.
+     */
+    public static boolean isPatternQuery(final String query) {
+        int edgeStart = query.indexOf("-[");
+        return edgeStart != -1 && query.indexOf("]->", edgeStart) != -1;
+    }
+
+    /**
+     * Finds the instances that match the given query.
+     *
+     * @param query the query, see the class documentation for the syntax.
+     * @return the matches of the first pattern of the query in all instances that match the complete query, ordered by
+     *         instance.
+     * @throws IllegalArgumentException if the query can't be parsed.
+     */
+    public List<Match> search(final String query) {
+        List<String> patterns = split(query, '&');
+        int[] instances = null;
+        int[] firstEdges = null;
+        for (String pattern : patterns) {
+            int[] edges = findEdges(pattern);
+            if (firstEdges == null) firstEdges = edges;
+            int[] patternInstances = toInstances(edges);
+            instances = instances == null ? patternInstances : intersect(instances, patternInstances);
+            if (instances.length == 0) break;
+        }
+        ArrayList<Match> result = new ArrayList<Match>();
+        if (instances == null || firstEdges == null) return result;
+        int i = 0;
+        for (int edge : firstEdges) {
+            int instance = edgeInstances.get(edge);
+            while (i < instances.length && instances[i] < instance) ++i;
+            if (i == instances.length) break;
+            if (instances[i] == instance) result.add(new Match(instance, edgeFroms.get(edge), edgeTos.get(edge),
+                strings.get(edgeLabels.get(edge)), strings.get(edgeHeads.get(edge)),
+                strings.get(edgeDependents.get(edge))));
+        }
+        return result;
+    }
+
+    /**
+     * Finds the edges that match a single pattern.
+     *
+     * @param pattern the pattern.
+     * @return the sorted ids of the matching edges.
+     * @throws IllegalArgumentException if the pattern can't be parsed.
+     */
+    private int[] findEdges(final String pattern) {
+        int edgeStart = pattern.indexOf("-[");
+        int edgeEnd = edgeStart == -1 ? -1 : pattern.indexOf("]->", edgeStart);
+        if (edgeEnd == -1)
+            throw new IllegalArgumentException("Pattern \"" + pattern.trim() + "\" has no edge -[...]->");
+        ArrayList<String> features = new ArrayList<String>();
+        addTokenFeatures(HEAD, pattern.substring(0, edgeStart), features);
+        addTokenFeatures(DEPENDENT, pattern.substring(edgeEnd + 3), features);
+        for (String constraint : split(pattern.substring(edgeStart + 2, edgeEnd), ',')) {
+            if (constraint.trim().equals("")) continue;
+            int equals = indexOfUnquoted(constraint, '=');
+            if (equals == -1) {
+                features.add(feature(LABEL, null, unquote(constraint)));
+            } else {
+                String key = constraint.substring(0, equals).trim();
+                if (key.equals("type")) features.add(feature(TYPE, null, unquote(constraint.substring(equals + 1))));
+                else if (key.equals("label"))
+                    features.add(feature(LABEL, null, unquote(constraint.substring(equals + 1))));
+                else throw new IllegalArgumentException("Unknown edge attribute \"" + key + "\"");
+            }
+        }
+        if (features.isEmpty()) {
+            int[] all = new int[edgeInstances.size()];
+            for (int i = 0; i < all.length; ++i) all[i] = i;
+            return all;
+        }
+        ArrayList<TIntArrayList> lists = new ArrayList<TIntArrayList>(features.size());
+        for (String feature : features) {
+            TIntArrayList list = postings.get(feature);
+            if (list == null) return new int[0];
+            lists.add(list);
+        }
+        Collections.sort(lists, new Comparator<TIntArrayList>() {
+            public int compare(TIntArrayList list1, TIntArrayList list2) {
+                return list1.size() - list2.size();
+            }
+        });
+        int[] result = lists.get(0).toArray();
+        for (int i = 1; i < lists.size() && result.length > 0; ++i)
+            result = intersect(result, lists.get(i));
+        return result;
+    }
+
+    /**
+     * Parses the constraints of a token and adds the corresponding features.
+     *
+     * @param kind        the feature kind (head or dependent).
+     * @param constraints the constraints, <code>*</code> or a comma separated list of <code>property=value</code>.
+     * @param features    the list to add the features to.
+     * @throws IllegalArgumentException if the constraints can't be parsed.
+     */
+    private static void addTokenFeatures(final char kind, final String constraints,
+                                         final List<String> features) {
+        if (constraints.trim().equals("*") || constraints.trim().equals("")) return;
+        for (String constraint : split(constraints, ',')) {
+            int equals = indexOfUnquoted(constraint, '=');
+            if (equals == -1)
+                throw new IllegalArgumentException("Token constraint \"" + constraint.trim() +
+                    "\" is not of the form property=value");
+            features.add(feature(kind, unquote(constraint.substring(0, equals)),
+                unquote(constraint.substring(equals + 1))));
+        }
+    }
+
+    /**
+     * Maps sorted edge ids to the sorted, distinct indices of their instances.
+     *
+     * @param edges sorted edge ids.
+     * @return the sorted indices of the instances of the edges.
+     */
+    private int[] toInstances(final int[] edges) {
+        TIntArrayList result = new TIntArrayList();
+        for (int edge : edges) {
+            int instance = edgeInstances.get(edge);
+            if (result.isEmpty() || result.get(result.size() - 1) != instance) result.add(instance);
+        }
+        return result.toArray();
+    }
+
+    /**
+     * Intersects a sorted array with a sorted posting list. Uses exponential search in the longer list, so
+     * intersecting a short with a long list is cheap.
+     *
+     * @param array the sorted array.
+     * @param list  the sorted posting list.
+     * @return the sorted elements that are in both.
+     */
+    private static int[] intersect(final int[] array, final TIntArrayList list) {
+        TIntArrayList result = new TIntArrayList(Math.min(array.length, list.size()));
+        int position = 0;
+        int size = list.size();
+        for (int value : array) {
+            //gallop to the first element >= value
+            int bound = 1;
+            while (position + bound < size && list.get(position + bound) < value) bound <<= 1;
+            int low = position;
+            int high = Math.min(position + bound, size - 1);
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (list.get(middle) < value) low = middle + 1;
+                else high = middle;
+            }
+            position = low;
+            if (position >= size) break;
+            if (list.get(position) == value) result.add(value);
+            else if (list.get(position) < value) break;
+        }
+        return result.toArray();
+    }
+
+    /**
+     * Intersects two sorted arrays.
+     *
+     * @param array1 the first array.
+     * @param array2 the second array.
+     * @return the sorted elements that are in both arrays.
+     */
+    private static int[] intersect(final int[] array1, final int[] array2) {
+        return intersect(array1, TIntArrayList.wrap(array2));
+    }
+
+    /**
+     * Splits the text at every occurrence of the separator that is not inside double quotes.
+     *
+     * @param text      the text to split.
+     * @param separator the separator.
+     * @return the parts of the text.
+     */
+    private static List<String> split(final String text, final char separator) {
+        ArrayList<String> result = new ArrayList<String>();
+        boolean quoted = false;
+        int start = 0;
+        for (int i = 0; i < text.length(); ++i) {
+            char c = text.charAt(i);
+            if (c == '"') quoted = !quoted;
+            else if (c == separator && !quoted) {
+                result.add(text.substring(start, i));
+                start = i + 1;
+            }
+        }
+        result.add(text.substring(start));
+        return result;
+    }
+
+    /**
+     * Returns the position of the first occurrence of the character that is not inside double quotes.
+     *
+     * @param text      the text to search.
+     * @param character the character to find.
+     * @return the position of the character or -1 if there is none outside quotes.
+     */
+    private static int indexOfUnquoted(final String text, final char character) {
+        boolean quoted = false;
+        for (int i = 0; i < text.length(); ++i) {
+            char c = text.charAt(i);
+            if (c == '"') quoted = !quoted;
+            else if (c == character && !quoted) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Trims the text and removes enclosing double quotes.
+     *
+     * @param text the text.
+     * @return the trimmed text without enclosing quotes.
+     */
+    private static String unquote(final String text) {
+        String trimmed = text.trim();
+        if (trimmed.length() >= 2 && trimmed.startsWith("\"") && trimmed.endsWith("\""))
+            return trimmed.substring(1, trimmed.length() - 1);
+        return trimmed;
+    }
+}
@@ -0,0 +1,664 @@
+package com.googlecode.whatswrong;
+
+import gnu.trove.list.array.TIntArrayList;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * A PhraseIndex finds token sequences such as "the Pos=NN of" in a corpus. The values of each token property are
+ * dictionary encoded as integers, with the ids of each property assigned in lexicographic order, and the tokens of all
+ * instances form one stream per property in which the instances are separated by 0. The stream of one chosen property
+ * (usually "Word") is indexed by a suffix array that contains all token positions, sorted by the sequence of values
+ * from the position to the end of its instance.
+ * <p/>
+ * <p>A query is a sequence of space separated slots. A slot is
+ * <ul>
+ * <li><code>*</code>, which matches any token,
+ * <li><code>value</code>, which matches tokens with this value of the chosen property,
+ * <li><code>property=value</code>, which matches tokens with this value of the given property.
+ * </ul>
+ * A value that ends with <code>*</code> matches all values with the given prefix. Because the ids are sorted, such a
+ * value is a range of ids. Each run of consecutive slots on the chosen property (exact values, possibly followed by
+ * one prefix) is a range of the suffix array that is found by binary search. The smallest such range gives the
+ * candidate positions, and the other slots are checked on the streams. A query that is a single such run is
+ * counted without looking at the positions at all.
+ * <p/>
+ * <p>The suffixes are first bucketed by their first value, and the buckets are sorted in parallel.
+ */
+public class PhraseIndex {
+
+    /**
+     * The id that separates instances in the streams.
+     */
+    private static final int SEPARATOR = 0;
+
+    /**
+     * The slot that matches any token.
+     */
+    private static final String ANY = "*";
+
+    /**
+     * The number of suffix array tasks per thread, so that threads that get small buckets can take more tasks.
+     */
+    private static final int TASKS_PER_THREAD = 16;
+
+    /**
+     * The property whose stream is indexed by the suffix array.
+     */
+    private final String property;
+
+    /**
+     * The names of all properties, in the order of {@link #dictionaries} and {@link #streams}.
+     */
+    private final String[] properties;
+
+    /**
+     * For each property the sorted values; the value with id i is at position i - 1.
+     */
+    private final String[][] dictionaries;
+
+    /**
+     * For each property the ids of the values of all tokens, with a {@link #SEPARATOR} after each instance.
+     */
+    private final int[][] streams;
+
+    /**
+     * The stream position of the first token of each instance, and the size of the streams at the end.
+     */
+    private final int[] starts;
+
+    /**
+     * The token positions of the chosen property's stream, sorted by their suffixes up to the end of their instance.
+     */
+    private final int[] suffixes;
+
+    /**
+     * A query slot, a range of ids of one property.
+     */
+    private static class Slot {
+        /**
+         * The index of the property, or -1 for slots that match any token.
+         */
+        private final int property;
+        /**
+         * The smallest matching id.
+         */
+        private final int low;
+        /**
+         * The largest matching id. Empty ranges have high &lt; low.
+         */
+        private final int high;
+
+        /**
+         * Creates a new Slot.
+         *
+         * @param property the index of the property, or -1.
+         * @param low      the smallest matching id.
+         * @param high     the largest matching id.
+         */
+        private Slot(final int property, final int low, final int high) {
+            this.property = property;
+            this.low = low;
+            this.high = high;
+        }
+
+        /**
+         * Checks whether this slot matches a single id, as opposed to a prefix range or any token.
+         *
+         * @return true iff this slot matches exactly one id.
+         */
+        private boolean isExact() {
+            return property != -1 && low == high;
+        }
+    }
+
+    /**
+     * Creates a PhraseIndex for the given corpus, sorting the suffix array with one thread per available processor.
+     *
+     * @param corpus   the corpus to index.
+     * @param property the name of the property whose stream is indexed by the suffix array.
+     * @throws InterruptedException if the thread is interrupted while the suffix array is sorted.
+     */
+    public PhraseIndex(final List<NLPInstance> corpus, final String property) throws InterruptedException {
+        this(corpus, property, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a PhraseIndex for the given corpus.
+     *
+     * @param corpus   the corpus to index.
+     * @param property the name of the property whose stream is indexed by the suffix array.
+     * @param threads  the number of threads used to sort the suffix array.
+     * @throws InterruptedException if the thread is interrupted while the suffix array is sorted.
+     */
+    public PhraseIndex(final List<NLPInstance> corpus, final String property, final int threads)
+        throws InterruptedException {
+        this.property = property;
+        //collect the properties and the stream length
+        LinkedHashSet<TokenProperty> propertySet = new LinkedHashSet<TokenProperty>();
+        propertySet.add(new TokenProperty(property));
+        starts = new int[corpus.size() + 1];
+        int length = 0;
+        for (int i = 0; i < corpus.size(); ++i) {
+            starts[i] = length;
+            List<Token> tokens = corpus.get(i).getTokens();
+            for (Token token : tokens) propertySet.addAll(token.getPropertyTypes());
+            length += tokens.size() + 1;
+        }
+        starts[corpus.size()] = length;
+        TokenProperty[] tokenProperties = propertySet.toArray(new TokenProperty[propertySet.size()]);
+        properties = new String[tokenProperties.length];
+        for (int p = 0; p < properties.length; ++p) properties[p] = tokenProperties[p].getName();
+        //encode with provisional ids
+        ArrayList<HashMap<String, Integer>> ids = new ArrayList<HashMap<String, Integer>>();
+        streams = new int[properties.length][length];
+        for (int p = 0; p < properties.length; ++p) ids.add(new HashMap<String, Integer>());
+        for (int i = 0; i < corpus.size(); ++i) {
+            int position = starts[i];
+            for (Token token : corpus.get(i).getTokens()) {
+                for (int p = 0; p < properties.length; ++p) {
+                    String value = token.getProperty(tokenProperties[p]);
+                    if (value == null) value = "";
+                    HashMap<String, Integer> propertyIds = ids.get(p);
+                    Integer id = propertyIds.get(value);
+                    if (id == null) {
+                        id = propertyIds.size() + 1;
+                        propertyIds.put(value, id);
+                    }
+                    streams[p][position] = id;
+                }
+                ++position;
+            }
+        }
+        //renumber the ids in lexicographic order
+        dictionaries = new String[properties.length][];
+        for (int p = 0; p < properties.length; ++p) {
+            HashMap<String, Integer> propertyIds = ids.get(p);
+            dictionaries[p] = propertyIds.keySet().toArray(new String[propertyIds.size()]);
+            Arrays.sort(dictionaries[p]);
+            int[] renumbered = new int[propertyIds.size() + 1];
+            for (int id = 0; id < dictionaries[p].length; ++id)
+                renumbered[propertyIds.get(dictionaries[p][id])] = id + 1;
+            int[] stream = streams[p];
+            for (int i = 0; i < length; ++i) stream[i] = renumbered[stream[i]];
+        }
+        suffixes = sortSuffixes(streams[0], dictionaries[0].length, Math.max(1, threads));
+    }
+
+    /**
+     * Creates a PhraseIndex from its parts.
+     *
+     * @param property     the property indexed by the suffix array.
+     * @param properties   the names of all properties.
+     * @param dictionaries the sorted values of each property.
+     * @param streams      the stream of each property.
+     * @param starts       the start positions of the instances.
+     * @param suffixes     the suffix array.
+     */
+    private PhraseIndex(final String property, final String[] properties, final String[][] dictionaries,
+                        final int[][] streams, final int[] starts, final int[] suffixes) {
+        this.property = property;
+        this.properties = properties;
+        this.dictionaries = dictionaries;
+        this.streams = streams;
+        this.starts = starts;
+        this.suffixes = suffixes;
+    }
+
+    /**
+     * Creates the suffix array of the given stream. The positions are bucketed by their first id, and each bucket is
+     * then sorted by comparing the rest of the suffixes up to the end of their instance.
+     *
+     * @param stream  the stream.
+     * @param maxId   the largest id in the stream.
+     * @param threads the number of threads.
+     * @return the sorted token positions of the stream.
+     * @throws InterruptedException if the thread is interrupted while the buckets are sorted.
+     */
+    private static int[] sortSuffixes(final int[] stream, final int maxId, final int threads)
+        throws InterruptedException {
+        //bucket sort by the first id
+        final int[] bucketStarts = new int[maxId + 2];
+        for (int id : stream) if (id != SEPARATOR) ++bucketStarts[id + 1];
+        for (int id = 1; id < bucketStarts.length; ++id) bucketStarts[id] += bucketStarts[id - 1];
+        final int[] result = new int[bucketStarts[maxId + 1]];
+        int[] next = bucketStarts.clone();
+        for (int i = 0; i < stream.length; ++i) if (stream[i] != SEPARATOR) result[next[stream[i]]++] = i;
+        //sort the buckets, grouped into tasks of similar size
+        int taskSize = Math.max(1, result.length / (threads * TASKS_PER_THREAD));
+        ArrayList<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+        int firstId = 1;
+        while (firstId <= maxId) {
+            int lastId = firstId;
+            while (lastId < maxId && bucketStarts[lastId + 1] - bucketStarts[firstId] < taskSize) ++lastId;
+            final int from = firstId;
+            final int to = lastId;
+            tasks.add(new Callable<Object>() {
+                public Object call() {
+                    int[] buffer = new int[0];
+                    for (int id = from; id <= to; ++id) {
+                        int size = bucketStarts[id + 1] - bucketStarts[id];
+                        if (size < 2) continue;
+                        if (buffer.length < size) buffer = new int[size];
+                        sort(stream, result, bucketStarts[id], bucketStarts[id + 1], buffer);
+                    }
+                    return null;
+                }
+            });
+            firstId = lastId + 1;
+        }
+        if (threads == 1) {
+            for (Callable<Object> task : tasks) {
+                try {
+                    task.call();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return result;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "PhraseIndex sorter");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            for (Future<Object> task : executor.invokeAll(tasks)) {
+                try {
+                    task.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+                    if (e.getCause() instanceof Error) throw (Error) e.getCause();
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return result;
+    }
+
+    /**
+     * Sorts the positions of one bucket by merge sort. All positions in the bucket have the same first id.
+     *
+     * @param stream    the stream.
+     * @param positions the positions to sort.
+     * @param from      the first position of the bucket.
+     * @param to        the position after the last position of the bucket.
+     * @param buffer    a buffer with at least to - from elements.
+     */
+    private static void sort(final int[] stream, final int[] positions, final int from, final int to,
+                             final int[] buffer) {
+        if (to - from < 2) return;
+        int middle = (from + to) >>> 1;
+        sort(stream, positions, from, middle, buffer);
+        sort(stream, positions, middle, to, buffer);
+        if (compare(stream, positions[middle - 1], positions[middle]) <= 0) return;
+        System.arraycopy(positions, from, buffer, 0, middle - from);
+        int left = 0;
+        int leftEnd = middle - from;
+        int right = middle;
+        int target = from;
+        while (left < leftEnd && right < to)
+            positions[target++] = compare(stream, buffer[left], positions[right]) <= 0 ?
+                buffer[left++] : positions[right++];
+        while (left < leftEnd) positions[target++] = buffer[left++];
+    }
+
+    /**
+     * Compares the suffixes at two positions up to the end of their instances. A suffix that ends first is smaller,
+     * and equal suffixes are ordered by position.
+     *
+     * @param stream    the stream.
+     * @param position1 the first position.
+     * @param position2 the second position.
+     * @return a negative number, zero or a positive number if the first suffix is smaller, equal or larger.
+     */
+    private static int compare(final int[] stream, final int position1, final int position2) {
+        if (position1 == position2) return 0;
+        for (int offset = 1; ; ++offset) {
+            int id1 = stream[position1 + offset];
+            int id2 = stream[position2 + offset];
+            if (id1 != id2) return id1 < id2 ? -1 : 1;
+            if (id1 == SEPARATOR) return position1 < position2 ? -1 : 1;
+        }
+    }
+
+    /**
+     * Returns the name of the property that is indexed by the suffix array.
+     *
+     * @return the name of the indexed property.
+     */
+    public String getProperty() {
+        return property;
+    }
+
+    /**
+     * Returns the number of indexed instances.
+     *
+     * @return the number of instances.
+     */
+    public int size() {
+        return starts.length - 1;
+    }
+
+    /**
+     * Returns the number of indexed tokens.
+     *
+     * @return the number of tokens.
+     */
+    public int getTokenCount() {
+        return suffixes.length;
+    }
+
+    /**
+     * Returns the number of slots of a query, the length of its matches.
+     *
+     * @param query the query.
+     * @return the number of slots of the query.
+     */
+    public static int getLength(final String query) {
+        return split(query).length;
+    }
+
+    /**
+     * Counts the matches of the given query.
+     *
+     * @param query the query, see the class documentation for the syntax.
+     * @return the number of token positions at which the query matches.
+     * @throws IllegalArgumentException if the query is empty or refers to an unknown property.
+     */
+    public int count(final String query) {
+        Slot[] slots = parse(query);
+        int[] run = findBestRun(slots);
+        if (run == null) return find(slots).length;
+        if (run[0] == 0 && run[1] == slots.length) return run[3] - run[2];
+        return find(slots).length;
+    }
+
+    /**
+     * Finds the matches of the given query.
+     *
+     * @param query the query, see the class documentation for the syntax.
+     * @return the stream positions of the first tokens of all matches, in corpus order.
+     * @throws IllegalArgumentException if the query is empty or refers to an unknown property.
+     */
+    public int[] find(final String query) {
+        return find(parse(query));
+    }
+
+    /**
+     * Finds the matches of the given slots.
+     *
+     * @param slots the slots.
+     * @return the sorted stream positions of the first tokens of all matches.
+     */
+    private int[] find(final Slot[] slots) {
+        for (Slot slot : slots) if (slot.high < slot.low) return new int[0];
+        int[] run = findBestRun(slots);
+        TIntArrayList result = new TIntArrayList();
+        if (run == null) {
+            //no slot on the indexed property, check every position
+            int end = streams[0].length - slots.length;
+            for (int start = 0; start <= end; ++start)
+                if (matches(slots, start)) result.add(start);
+        } else {
+            for (int i = run[2]; i < run[3]; ++i) {
+                int start = suffixes[i] - run[0];
+                if (start >= 0 && start + slots.length <= streams[0].length && matches(slots, start))
+                    result.add(start);
+            }
+            result.sort();
+        }
+        return result.toArray();
+    }
+
+    /**
+     * Finds the run of slots on the indexed property with the smallest suffix array range. A run is a sequence of exact
+     * slots, possibly followed by one prefix slot.
+     *
+     * @param slots the slots.
+     * @return the first slot of the run, the slot after the run, and the first and last (exclusive) suffix array index
+     *         of its range; or null if no slot is on the indexed property.
+     */
+    private int[] findBestRun(final Slot[] slots) {
+        int[] best = null;
+        int first = 0;
+        while (first < slots.length) {
+            if (slots[first].property != 0) {
+                ++first;
+                continue;
+            }
+            int end = first;
+            while (end < slots.length && slots[end].property == 0 && slots[end].isExact()) ++end;
+            if (end < slots.length && slots[end].property == 0) ++end;
+            int low = searchSuffixes(slots, first, end, false);
+            int high = searchSuffixes(slots, first, end, true);
+            if (best == null || high - low < best[3] - best[2]) best = new int[]{first, end, low, high};
+            first = end;
+        }
+        return best;
+    }
+
+    /**
+     * Finds the first suffix array index whose suffix is not smaller (or, if upper is true, larger) than the given run
+     * of slots.
+     *
+     * @param slots the slots.
+     * @param from  the first slot of the run.
+     * @param to    the slot after the run.
+     * @param upper whether to find the end of the range instead of its start.
+     * @return the start or end of the suffix array range of the run.
+     */
+    private int searchSuffixes(final Slot[] slots, final int from, final int to, final boolean upper) {
+        int[] stream = streams[0];
+        int low = 0;
+        int high = suffixes.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            int position = suffixes[middle];
+            int comparison = 0;
+            for (int slot = from; slot < to && comparison == 0; ++slot) {
+                int id = stream[position + slot - from];
+                if (id < slots[slot].low) comparison = -1;
+                else if (id > slots[slot].high) comparison = 1;
+            }
+            if (comparison < 0 || (upper && comparison == 0)) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * Checks whether all slots match at the given position and the match lies within one instance.
+     *
+     * @param slots the slots.
+     * @param start the stream position of the first slot.
+     * @return true iff the slots match at the position.
+     */
+    private boolean matches(final Slot[] slots, final int start) {
+        for (int slot = 0; slot < slots.length; ++slot) {
+            if (streams[0][start + slot] == SEPARATOR) return false;
+            if (slots[slot].property == -1) continue;
+            int id = streams[slots[slot].property][start + slot];
+            if (id < slots[slot].low || id > slots[slot].high) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Parses a query into slots.
+     *
+     * @param query the query.
+     * @return the slots of the query.
+     * @throws IllegalArgumentException if the query is empty or refers to an unknown property.
+     */
+    private Slot[] parse(final String query) {
+        String[] parts = split(query);
+        if (parts.length == 0) throw new IllegalArgumentException("Empty phrase query");
+        Slot[] slots = new Slot[parts.length];
+        for (int i = 0; i < parts.length; ++i) {
+            String part = parts[i];
+            if (part.equals(ANY)) {
+                slots[i] = new Slot(-1, 0, 0);
+                continue;
+            }
+            int p = 0;
+            String value = part;
+            int equals = part.indexOf('=');
+            if (equals > 0) {
+                p = Arrays.asList(properties).indexOf(part.substring(0, equals));
+                if (p == -1)
+                    throw new IllegalArgumentException("Unknown property \"" + part.substring(0, equals) + "\"");
+                value = part.substring(equals + 1);
+            }
+            String[] dictionary = dictionaries[p];
+            if (value.endsWith(ANY) && value.length() > 1) {
+                String prefix = value.substring(0, value.length() - 1);
+                int low = lowerBound(dictionary, prefix);
+                int high = lowerBound(dictionary, prefix + Character.MAX_VALUE);
+                slots[i] = new Slot(p, low + 1, high);
+            } else {
+                int index = Arrays.binarySearch(dictionary, value);
+                slots[i] = index < 0 ? new Slot(p, 1, 0) : new Slot(p, index + 1, index + 1);
+            }
+        }
+        return slots;
+    }
+
+    /**
+     * Returns the index of the first value that is not smaller than the given key.
+     *
+     * @param dictionary the sorted values.
+     * @param key        the key.
+     * @return the index of the first value &gt;= key, or the length of the dictionary.
+     */
+    private static int lowerBound(final String[] dictionary, final String key) {
+        int index = Arrays.binarySearch(dictionary, key);
+        return index < 0 ? -index - 1 : index;
+    }
+
+    /**
+     * Splits a query into its slots.
+     *
+     * @param query the query.
+     * @return the non-empty space separated parts of the query.
+     */
+    private static String[] split(final String query) {
+        String trimmed = query.trim();
+        return trimmed.equals("") ? new String[0] : trimmed.split("\\s+");
+    }
+
+    /**
+     * Returns the index of the instance that contains the given stream position.
+     *
+     * @param position the stream position.
+     * @return the index of the instance of the position.
+     */
+    public int getInstance(final int position) {
+        int index = Arrays.binarySearch(starts, position);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    /**
+     * Returns the position of the token at the given stream position within its instance.
+     *
+     * @param position the stream position.
+     * @return the index of the token in its instance.
+     */
+    public int getTokenIndex(final int position) {
+        return position - starts[getInstance(position)];
+    }
+
+    /**
+     * Returns the value of the indexed property at the given stream position.
+     *
+     * @param position the stream position.
+     * @return the value of the token at the position, or null if the position separates two instances or is outside
+     *         the stream.
+     */
+    public String getValue(final int position) {
+        if (position < 0 || position >= streams[0].length) return null;
+        int id = streams[0][position];
+        return id == SEPARATOR ? null : dictionaries[0][id - 1];
+    }
+
+    /**
+     * Writes this index.
+     *
+     * @param out the output to write to.
+     * @throws IOException if I/O goes wrong.
+     */
+    void write(final DataOutput out) throws IOException {
+        out.writeUTF(property);
+        out.writeInt(properties.length);
+        for (int p = 0; p < properties.length; ++p) {
+            out.writeUTF(properties[p]);
+            out.writeInt(dictionaries[p].length);
+            for (String value : dictionaries[p]) out.writeUTF(value);
+            writeInts(out, streams[p]);
+        }
+        writeInts(out, starts);
+        writeInts(out, suffixes);
+    }
+
+    /**
+     * Reads an index written by {@link #write(DataOutput)}.
+     *
+     * @param in the input to read from.
+     * @return the index.
+     * @throws IOException if I/O goes wrong.
+     */
+    static PhraseIndex read(final DataInput in) throws IOException {
+        String property = in.readUTF();
+        int count = in.readInt();
+        String[] properties = new String[count];
+        String[][] dictionaries = new String[count][];
+        int[][] streams = new int[count][];
+        for (int p = 0; p < count; ++p) {
+            properties[p] = in.readUTF();
+            dictionaries[p] = new String[in.readInt()];
+            for (int id = 0; id < dictionaries[p].length; ++id) dictionaries[p][id] = in.readUTF();
+            streams[p] = readInts(in);
+        }
+        int[] starts = readInts(in);
+        int[] suffixes = readInts(in);
+        return new PhraseIndex(property, properties, dictionaries, streams, starts, suffixes);
+    }
+
+    /**
+     * Writes an int array in one block.
+     *
+     * @param out   the output.
+     * @param array the array to write.
+     * @throws IOException if I/O goes wrong.
+     */
+    private static void writeInts(final DataOutput out, final int[] array) throws IOException {
+        out.writeInt(array.length);
+        ByteBuffer buffer = ByteBuffer.allocate(array.length * 4);
+        buffer.asIntBuffer().put(array);
+        out.write(buffer.array());
+    }
+
+    /**
+     * Reads an int array written by {@link #writeInts(DataOutput, int[])}.
+     *
+     * @param in the input.
+     * @return the array.
+     * @throws IOException if I/O goes wrong.
+     */
+    private static int[] readInts(final DataInput in) throws IOException {
+        int[] result = new int[in.readInt()];
+        byte[] bytes = new byte[result.length * 4];
+        in.readFully(bytes);
+        ByteBuffer.wrap(bytes).asIntBuffer().get(result);
+        return result;
+    }
+}
@@ -0,0 +1,268 @@
+package com.googlecode.whatswrong;
+
+import java.util.*;
+
+/**
+ * A SimilarityIndex finds the instances of a corpus that are most similar to a given instance, without comparing the
+ * instance to all others. Each instance is described by a set of features: the words and word bigrams of its tokens,
+ * and for each edge its type, label, and the words of its head and dependent. For a difference corpus the edge types
+ * include the FP/FN/Match postfix, so instances with the same mistakes are similar.
+ * <p/>
+ * <p>The similarity of two instances is the Jaccard similarity of their feature sets, estimated by MinHash: each
+ * instance gets a signature of {@link #HASHES} minimum hash values, and the fraction of equal signature values
+ * estimates the similarity. For locality sensitive hashing the signature is split into {@link #BANDS} bands of
+ * {@link #ROWS} values, and each band is hashed. Instances that share at least one band hash are candidates. For each
+ * band the instances are stored sorted by their band hash, so the candidates of a band are found by binary search.
+ */
+public class SimilarityIndex {
+
+    /**
+     * The number of bands.
+     */
+    private static final int BANDS = 16;
+
+    /**
+     * The number of signature values per band.
+     */
+    private static final int ROWS = 4;
+
+    /**
+     * The length of the signatures.
+     */
+    private static final int HASHES = BANDS * ROWS;
+
+    /**
+     * The maximal number of candidates taken from one band bucket. Very large buckets contain instances that are
+     * nearly identical to each other, so a sample is enough.
+     */
+    private static final int MAX_BUCKET = 1000;
+
+    /**
+     * The property whose values are used as words.
+     */
+    private static final TokenProperty WORD = new TokenProperty("Word");
+
+    /**
+     * A Hit is an instance that is similar to the query instance.
+     */
+    public static class Hit {
+        /**
+         * The index of the similar instance.
+         */
+        public final int instance;
+        /**
+         * The estimated Jaccard similarity of the feature sets of the query instance and this instance.
+         */
+        public final double similarity;
+
+        /**
+         * Creates a new Hit.
+         *
+         * @param instance   the index of the similar instance.
+         * @param similarity the estimated similarity.
+         */
+        public Hit(final int instance, final double similarity) {
+            this.instance = instance;
+            this.similarity = similarity;
+        }
+    }
+
+    /**
+     * The multipliers of the hash functions (odd).
+     */
+    private final int[] multipliers = new int[HASHES];
+
+    /**
+     * The addends of the hash functions.
+     */
+    private final int[] addends = new int[HASHES];
+
+    /**
+     * The signatures of all instances; the signature of instance i starts at i * {@link #HASHES}.
+     */
+    private final int[] signatures;
+
+    /**
+     * For each band the band hashes of all instances, sorted.
+     */
+    private final int[][] bandHashes = new int[BANDS][];
+
+    /**
+     * For each band the instances, in the order of {@link #bandHashes}.
+     */
+    private final int[][] bandInstances = new int[BANDS][];
+
+    /**
+     * Creates a SimilarityIndex for the given corpus.
+     *
+     * @param corpus the corpus to index.
+     */
+    public SimilarityIndex(final List<NLPInstance> corpus) {
+        Random random = new Random(0);
+        for (int i = 0; i < HASHES; ++i) {
+            multipliers[i] = random.nextInt() | 1;
+            addends[i] = random.nextInt();
+        }
+        int size = corpus.size();
+        signatures = new int[size * HASHES];
+        for (int instance = 0; instance < size; ++instance)
+            sign(corpus.get(instance), instance * HASHES);
+        long[] keys = new long[size];
+        for (int band = 0; band < BANDS; ++band) {
+            //sort the instances by band hash by sorting the hash and the instance packed into one long
+            for (int instance = 0; instance < size; ++instance)
+                keys[instance] = ((long) bandHash(instance, band) << 32) | instance;
+            Arrays.sort(keys);
+            bandHashes[band] = new int[size];
+            bandInstances[band] = new int[size];
+            for (int i = 0; i < size; ++i) {
+                bandHashes[band][i] = (int) (keys[i] >> 32);
+                bandInstances[band][i] = (int) keys[i];
+            }
+        }
+    }
+
+    /**
+     * Calculates the signature of an instance.
+     *
+     * @param instance the instance.
+     * @param offset   the position of its signature in {@link #signatures}.
+     */
+    private void sign(final NLPInstance instance, final int offset) {
+        Arrays.fill(signatures, offset, offset + HASHES, Integer.MAX_VALUE);
+        String previous = null;
+        for (Token token : instance.getTokens()) {
+            String word = word(token);
+            add("w\t" + word, offset);
+            if (previous != null) add("b\t" + previous + "\t" + word, offset);
+            previous = word;
+        }
+        for (Edge edge : instance.getEdges())
+            add("e\t" + edge.getType() + "\t" + edge.getLabel() + "\t" + word(edge.getFrom()) + "\t" +
+                word(edge.getTo()), offset);
+    }
+
+    /**
+     * Adds a feature to a signature.
+     *
+     * @param feature the feature.
+     * @param offset  the position of the signature in {@link #signatures}.
+     */
+    private void add(final String feature, final int offset) {
+        int hash = mix(feature.hashCode());
+        for (int i = 0; i < HASHES; ++i) {
+            int value = mix(hash * multipliers[i] + addends[i]);
+            if (value < signatures[offset + i]) signatures[offset + i] = value;
+        }
+    }
+
+    /**
+     * Scrambles the bits of a hash value (the finalizer of MurmurHash3).
+     *
+     * @param hash the hash value.
+     * @return the scrambled value.
+     */
+    private static int mix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+
+    /**
+     * Returns the word of a token.
+     *
+     * @param token the token.
+     * @return the value of the "Word" property of the token, or its index if it has no such property.
+     */
+    private static String word(final Token token) {
+        String word = token.getProperty(WORD);
+        return word != null ? word : String.valueOf(token.getIndex());
+    }
+
+    /**
+     * Calculates the hash of one band of the signature of an instance.
+     *
+     * @param instance the instance.
+     * @param band     the band.
+     * @return the hash of the band.
+     */
+    private int bandHash(final int instance, final int band) {
+        int offset = instance * HASHES + band * ROWS;
+        int hash = band;
+        for (int row = 0; row < ROWS; ++row) hash = 31 * hash + signatures[offset + row];
+        return mix(hash);
+    }
+
+    /**
+     * Returns the number of indexed instances.
+     *
+     * @return the number of instances.
+     */
+    public int size() {
+        return signatures.length / HASHES;
+    }
+
+    /**
+     * Estimates the similarity of two instances.
+     *
+     * @param instance1 the first instance.
+     * @param instance2 the second instance.
+     * @return the fraction of equal signature values.
+     */
+    public double getSimilarity(final int instance1, final int instance2) {
+        int offset1 = instance1 * HASHES;
+        int offset2 = instance2 * HASHES;
+        int equal = 0;
+        for (int i = 0; i < HASHES; ++i) if (signatures[offset1 + i] == signatures[offset2 + i]) ++equal;
+        return (double) equal / HASHES;
+    }
+
+    /**
+     * Finds the instances most similar to the given instance. Only instances that share a band with the given instance
+     * are considered, so instances with an estimated similarity below about 0.3 are usually not found.
+     *
+     * @param instance the index of the instance.
+     * @param max      the maximal number of hits.
+     * @return the hits, most similar first, without the instance itself.
+     */
+    public List<Hit> findSimilar(final int instance, final int max) {
+        HashSet<Integer> candidates = new HashSet<Integer>();
+        for (int band = 0; band < BANDS; ++band) {
+            int hash = bandHash(instance, band);
+            int[] hashes = bandHashes[band];
+            int position = lowerBound(hashes, hash);
+            for (int i = position; i < hashes.length && i < position + MAX_BUCKET && hashes[i] == hash; ++i)
+                if (bandInstances[band][i] != instance) candidates.add(bandInstances[band][i]);
+        }
+        ArrayList<Hit> result = new ArrayList<Hit>(candidates.size());
+        for (int candidate : candidates) result.add(new Hit(candidate, getSimilarity(instance, candidate)));
+        Collections.sort(result, new Comparator<Hit>() {
+            public int compare(Hit hit1, Hit hit2) {
+                if (hit1.similarity != hit2.similarity) return hit1.similarity > hit2.similarity ? -1 : 1;
+                return hit1.instance - hit2.instance;
+            }
+        });
+        return result.size() > max ? new ArrayList<Hit>(result.subList(0, max)) : result;
+    }
+
+    /**
+     * Returns the index of the first element that is not smaller than the given key.
+     *
+     * @param array the sorted array.
+     * @param key   the key.
+     * @return the index of the first element &gt;= key, or the length of the array.
+     */
+    private static int lowerBound(final int[] array, final int key) {
+        int low = 0;
+        int high = array.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (array[middle] < key) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+}
@@ -4,6 +4,7 @@ import java.awt.*;
 import java.awt.geom.Point2D;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -15,6 +16,11 @@ import java.util.Map;
  */
 public class SingleSentenceRenderer implements NLPCanvasRenderer {
 
+    /**
+     * The number of layouts kept in the cache.
+     */
+    private static final int CACHE_SIZE = 64;
+
     /**
      * The layout object for spans.
      */
@@ -34,16 +40,82 @@ public class SingleSentenceRenderer implements NLPCanvasRenderer {
     private boolean antiAliasing = true;
 
     /**
-     * Y coordinates where token layout starts
+     * The layouts of recently drawn instances, shared with the copies of this renderer.
+     */
+    private final LayoutCache cache;
+
+    /**
+     * The version of the settings, counted up whenever a setting changes.
+     */
+    private int settings;
+
+    /**
+     * The colors set for edge types, so that copies can be given the same colors.
+     */
+    private final LinkedHashMap<String, Color> edgeTypeColors = new LinkedHashMap<String, Color>();
+
+    /**
+     * The orders set for edge types, so that copies can be given the same orders.
      */
-    private int startOfTokens = 0;
+    private final LinkedHashMap<String, Integer> edgeTypeOrders = new LinkedHashMap<String, Integer>();
 
     /**
-     * Y coordinate where span layout starts
+     * The layout that was returned last.
      */
-    private int startOfSpans = 0;
+    private NLPLayout lastLayout;
 
 
+    /**
+     * Creates a new SingleSentenceRenderer.
+     */
+    public SingleSentenceRenderer() {
+        this(new LayoutCache(CACHE_SIZE));
+    }
+
+    /**
+     * Creates a new SingleSentenceRenderer that stores its layouts in the given cache.
+     *
+     * @param cache the layout cache.
+     */
+    private SingleSentenceRenderer(final LayoutCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Creates a renderer with the same settings that shares the layout cache of this renderer.
+     *
+     * @return a copy of this renderer.
+     * @see NLPCanvasRenderer#copy()
+     */
+    public synchronized NLPCanvasRenderer copy() {
+        SingleSentenceRenderer copy = new SingleSentenceRenderer(cache);
+        copy.settings = settings;
+        copy.antiAliasing = antiAliasing;
+        copy.tokenLayout.setMargin(tokenLayout.getMargin());
+        copy.dependencyLayout.setHeightPerLevel(dependencyLayout.getHeightPerLevel());
+        copy.spanLayout.setHeightPerLevel(spanLayout.getHeightPerLevel());
+        copy.dependencyLayout.setCurve(dependencyLayout.isCurve());
+        copy.spanLayout.setCurve(spanLayout.isCurve());
+        for (Map.Entry<String, Color> entry : edgeTypeColors.entrySet()) {
+            copy.dependencyLayout.setColor(entry.getKey(), entry.getValue());
+            copy.spanLayout.setColor(entry.getKey(), entry.getValue());
+            copy.edgeTypeColors.put(entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, Integer> entry : edgeTypeOrders.entrySet()) {
+            copy.spanLayout.setTypeOrder(entry.getKey(), entry.getValue());
+            copy.edgeTypeOrders.put(entry.getKey(), entry.getValue());
+        }
+        return copy;
+    }
+
+    /**
+     * Clears the layout cache and counts up the version of the settings.
+     */
+    private void settingsChanged() {
+        ++settings;
+        cache.clear();
+    }
+
     /**
      * Renders the given instance as a single sentence with spans drawn below tokens, and dependencies above tokens.
      *
@@ -53,6 +125,39 @@ public class SingleSentenceRenderer implements NLPCanvasRenderer {
      * @see NLPCanvasRenderer#render(NLPInstance, Graphics2D)
      */
     public Dimension render(NLPInstance instance, Graphics2D graphics2D) {
+        NLPLayout layout = layout(instance, graphics2D);
+        layout.paint(graphics2D);
+        return layout.getDimension();
+    }
+
+    /**
+     * Lays out the given instance as a single sentence with spans below tokens, and dependencies above tokens. The
+     * layout is taken from the cache if the same instance has been laid out before with the current settings.
+     *
+     * @param instance   the instance to lay out.
+     * @param graphics2D the graphics object whose font is used to measure text.
+     * @return the layout of the instance.
+     * @see NLPCanvasRenderer#layout(NLPInstance, Graphics2D)
+     */
+    public synchronized NLPLayout layout(NLPInstance instance, Graphics2D graphics2D) {
+        List<Object> key = LayoutCache.createKey(instance, graphics2D.getFont(), settings);
+        NLPLayout layout = cache.get(key, instance);
+        if (layout == null) {
+            layout = createLayout(instance, graphics2D);
+            cache.put(key, instance, layout);
+        }
+        lastLayout = layout;
+        return layout;
+    }
+
+    /**
+     * Lays out the given instance without looking at the cache.
+     *
+     * @param instance   the instance to lay out.
+     * @param graphics2D the graphics object whose font is used to measure text.
+     * @return the layout of the instance.
+     */
+    private NLPLayout createLayout(NLPInstance instance, Graphics2D graphics2D) {
         List<Token> tokens =
                 new ArrayList<Token>(instance.getTokens());
         Collection<Edge> dependencies =
@@ -73,31 +178,30 @@ public class SingleSentenceRenderer implements NLPCanvasRenderer {
                     RenderingHints.VALUE_ANTIALIAS_ON);
         }
 
+        NLPLayout.Builder builder = new NLPLayout.Builder(graphics2D);
 
         int width = 0;
         int height = 0;
         Dimension dim;
 
         //place dependencies on top
-        dim = dependencyLayout.layoutEdges(dependencies, tokenXBounds, graphics2D);
+        dim = dependencyLayout.layoutEdges(dependencies, tokenXBounds, builder);
         height += dim.height;
-        startOfTokens = height;
         width = dim.width > width ? dim.width : width;
 
         //add tokens
-        graphics2D.translate(0, dim.height);
-        dim = tokenLayout.layout(instance, widths, graphics2D);
+        builder.translate(0, dim.height);
+        dim = tokenLayout.layout(instance, widths, builder);
         height += dim.height;
-        startOfSpans = height;
         width = dim.width > width ? dim.width : width;
 
         //add spans
-        graphics2D.translate(0, dim.height);
-        dim = spanLayout.layoutEdges(spans, tokenXBounds, graphics2D);
+        builder.translate(0, dim.height);
+        dim = spanLayout.layoutEdges(spans, tokenXBounds, builder);
         height += dim.height;
         width = dim.width > width ? dim.width : width;
 
-        return new Dimension(width, height + 1);
+        return builder.build(new Dimension(width, height + 1), antiAliasing);
     }
 
     /**
@@ -105,8 +209,9 @@ public class SingleSentenceRenderer implements NLPCanvasRenderer {
      *
      * @param antiAliasing rue iff anti-aliasing should be used when drawing the graph.
      */
-    public void setAntiAliasing(boolean antiAliasing) {
+    public synchronized void setAntiAliasing(boolean antiAliasing) {
         this.antiAliasing = antiAliasing;
+        settingsChanged();
     }
 
     /**
@@ -114,8 +219,9 @@ public class SingleSentenceRenderer implements NLPCanvasRenderer {
      *
      * @param margin the margin between tokens.
      */
-    public void setMargin(int margin) {
+    public synchronized void setMargin(int margin) {
         tokenLayout.setMargin(margin);
+        settingsChanged();
     }
 
 
@@ -132,16 +238,8 @@ public class SingleSentenceRenderer implements NLPCanvasRenderer {
     /**
      * @inheritDoc
      */
-    public Edge getEdgeAt(Point2D p, int radius) {
-        System.out.println("dependencyLayout height = " + dependencyLayout.getHeight());    
-        if (p.getY() < startOfTokens) {
-            return dependencyLayout.getEdgeAt(p, radius);
-        }
-        else {
-            Point2D shifted = new Point2D.Double(p.getX(),
-                    p.getY() - startOfSpans);
-            return spanLayout.getEdgeAt(shifted,radius);
-        }
+    public synchronized Edge getEdgeAt(Point2D p, int radius) {
+        return lastLayout == null ? null : lastLayout.getEdgeAt(p, radius);
     }
 
     /**
@@ -149,9 +247,10 @@ public class SingleSentenceRenderer implements NLPCanvasRenderer {
      *
      * @param heightFactor an integer that indicates how high the graph should be.
      */
-    public void setHeightFactor(int heightFactor) {
+    public synchronized void setHeightFactor(int heightFactor) {
         dependencyLayout.setHeightPerLevel(heightFactor);
         spanLayout.setHeightPerLevel(heightFactor);
+        settingsChanged();
     }
 
     /**
@@ -170,9 +269,10 @@ public class SingleSentenceRenderer implements NLPCanvasRenderer {
      * @param isCurved should the graph be more curved.
      * @see NLPCanvasRenderer#setCurved(boolean)
      */
-    public void setCurved(boolean isCurved) {
+    public synchronized void setCurved(boolean isCurved) {
         dependencyLayout.setCurve(isCurved);
         spanLayout.setCurve(isCurved);
+        settingsChanged();
     }
 
     /**
@@ -185,14 +285,17 @@ public class SingleSentenceRenderer implements NLPCanvasRenderer {
     }
 
     /**
-     * Set the color for edges of a certain type.
+     * Set the color for edges of a certain type. The layout cache is only cleared if the color actually changes, since
+     * the corpus navigator sets the colors of differences again for each instance it shows.
      *
      * @param edgeType the type of the edges we want to change the color for.
      * @param color    the color of the edges of the given type.
      */
-    public void setEdgeTypeColor(String edgeType, Color color) {
-        dependencyLayout.setColor(edgeType, color);
-        spanLayout.setColor(edgeType, color);
+    public synchronized void setEdgeTypeColor(String edgeType, Color color) {
+        edgeTypeColors.put(edgeType, color);
+        boolean changed = dependencyLayout.setColor(edgeType, color);
+        changed |= spanLayout.setColor(edgeType, color);
+        if (changed) settingsChanged();
     }
 
     /**
@@ -201,8 +304,10 @@ public class SingleSentenceRenderer implements NLPCanvasRenderer {
      * @param edgeType the type we want to change the order for.
      * @param order    the order/vertical layer in which the area of the given type should be drawn.
      */
-    public void setEdgeTypeOrder(String edgeType, int order) {
+    public synchronized void setEdgeTypeOrder(String edgeType, int order) {
+        edgeTypeOrders.put(edgeType, order);
         spanLayout.setTypeOrder(edgeType, order);
+        settingsChanged();
     }
 
     /**
@@ -9,10 +9,13 @@ import java.awt.font.FontRenderContext;
 import java.awt.font.TextLayout;
 import java.awt.geom.Rectangle2D;
 import java.awt.geom.RoundRectangle2D;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * A SpanLayouy lays out edges as rectangular blocks under or above the tokens that the edge covers. The label is
@@ -103,11 +106,11 @@ public class SpanLayout extends AbstractEdgeLayout {
         final Collection<Edge> edges, final Graphics2D g2d) {
 
         HashMap<Token, Integer> result = new HashMap<Token, Integer>();
+        Font font = getLabelFont(g2d.getFont());
+        FontRenderContext frc = g2d.getFontRenderContext();
         for (Edge edge : edges) {
             if (edge.getFrom() == edge.getTo()) {
-                Font font = new Font(g2d.getFont().getName(), Font.PLAIN, 8);
-                FontRenderContext frc = g2d.getFontRenderContext();
-                TextLayout layout = new TextLayout(edge.getLabel(), font, frc);
+                TextLayout layout = textLayoutCache.getTextLayout(edge.getLabel(), font, frc);
                 Integer oldWidth = result.get(edge.getFrom());
                 int width = oldWidth == null ? (int) layout.getBounds().getWidth() :
                     (int) Math.max(layout.getBounds().getWidth(), oldWidth);
@@ -124,12 +127,12 @@ public class SpanLayout extends AbstractEdgeLayout {
      *
      * @param edges  the edges to layout.
      * @param bounds the bounds of the tokens the spans connect.
-     * @param g2d    the graphics object to draw on.
+     * @param g2d    the layout builder to draw on.
      * @return the dimensions of the drawn graph.
      */
     public Dimension layoutEdges(Collection<Edge> edges,
                                  Map<Token, Bounds1D> bounds,
-                                 Graphics2D g2d) {
+                                 NLPLayout.Builder g2d) {
         if (visible.size() > 0) {
             edges = new HashSet<Edge>(edges);
             edges.retainAll(visible);
@@ -138,29 +141,30 @@ public class SpanLayout extends AbstractEdgeLayout {
         //find out height of each edge
         shapes.clear();
 
+        //edges of a higher order are stacked above all edges of a lower order
+        TreeMap<Integer, List<Edge>> byOrder = new TreeMap<Integer, List<Edge>>();
+        for (Edge edge : edges) {
+            int order = getOrder(edge.getTypePrefix());
+            List<Edge> edgesOfOrder = byOrder.get(order);
+            if (edgesOfOrder == null) {
+                edgesOfOrder = new ArrayList<Edge>();
+                byOrder.put(order, edgesOfOrder);
+            }
+            edgesOfOrder.add(edge);
+        }
         Counter<Edge> depth = new Counter<Edge>();
         Counter<Edge> offset = new Counter<Edge>();
-        HashMultiMapLinkedList<Edge, Edge>
-            dominates = new HashMultiMapLinkedList<Edge, Edge>();
-
-
-        for (Edge over : edges)
-            for (Edge under : edges) {
-                int orderOver = getOrder(over.getTypePrefix());
-                int orderUnder = getOrder(under.getTypePrefix());
-                if (orderOver > orderUnder ||
-                    orderOver == orderUnder && (
-                        over.covers(under) ||
-                            over.coversSemi(under) ||
-                            over.coversExactly(under) && over.lexicographicOrder(under) > 0 ||
-                            over.overlaps(under) && over.getMinIndex() < under.getMinIndex()
-                    ))
-                    dominates.add(over, under);
-
+        int base = 0;
+        for (List<Edge> edgesOfOrder : byOrder.values()) {
+            Counter<Edge> orderDepth = calculateOverlapDepths(edgesOfOrder);
+            int maxOrderDepth = 0;
+            for (Edge edge : edgesOfOrder) {
+                int edgeDepth = base + orderDepth.get(edge);
+                if (edgeDepth > 0) depth.put(edge, edgeDepth);
+                if (edgeDepth > maxOrderDepth) maxOrderDepth = edgeDepth;
             }
-
-        for (Edge edge : edges)
-            calculateDepth(dominates, depth, edge);
+            base = maxOrderDepth + 1;
+        }
 
         //calculate maxHeight and maxWidth
         int maxDepth = depth.getMaximum();
@@ -182,15 +186,15 @@ public class SpanLayout extends AbstractEdgeLayout {
         int maxWidth = 0;
 
         //draw each edge
+        Font font = getLabelFont(g2d.getFont());
+        FontRenderContext frc = g2d.getFontRenderContext();
         for (Edge edge : edges) {
             //set Color and remember old color
             Color old = g2d.getColor();
             g2d.setColor(getColor(edge.getType()));
 
             //prepare label (will be needed for spacing)
-            Font font = new Font(g2d.getFont().getName(), Font.PLAIN, 8);
-            FontRenderContext frc = g2d.getFontRenderContext();
-            TextLayout layout = new TextLayout(edge.getLabel(), font, frc);
+            TextLayout layout = textLayoutCache.getTextLayout(edge.getLabel(), font, frc);
 
             //draw lines
             Integer spanLevel = revert ? maxDepth - depth.get(edge) : depth.get(edge);
@@ -225,9 +229,10 @@ public class SpanLayout extends AbstractEdgeLayout {
             //write label in the middle under
             int labelx = minX + (maxX - minX) / 2 - (int) layout.getBounds().getWidth() / 2;
             int labely = height + heightPerLevel / 2;
-            layout.draw(g2d, labelx, labely);
+            g2d.draw(layout, labelx, labely);
             g2d.setColor(old);
             shapes.put(shape, edge);
+            g2d.addEdge(shape, edge);
 
         }
 
@@ -0,0 +1,168 @@
+package com.googlecode.whatswrong;
+
+import com.googlecode.whatswrong.javautils.Pair;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A SymbolTable maps the strings of a corpus (property values, labels, types etc.) to canonical instances and dense
+ * integer ids. Corpus formats create one table per loaded corpus and pass every created NLPInstance through {@link
+ * #intern(NLPInstance)}. Afterwards all equal strings (and all equal {@link TokenProperty} objects) in the corpus are
+ * the same object: a value such as "NN" is stored once instead of once per token, equality checks between strings of
+ * the corpus mostly succeed on reference equality, and hash codes are computed once per symbol instead of once per
+ * token or edge.
+ * <p/>
+ * <p>A SymbolTable can be used by several threads at the same time. Looking up ids and symbols that are already in
+ * the table does not lock.
+ */
+public class SymbolTable {
+
+    /**
+     * The id returned for null.
+     */
+    public static final int NULL = -1;
+
+    /**
+     * Maps each symbol to its id.
+     */
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>(1000);
+
+    /**
+     * The canonical instance of each symbol, indexed by id. The array is replaced by a larger copy when it is full;
+     * every write of this field publishes the symbols added before.
+     */
+    private volatile String[] symbols = new String[1000];
+
+    /**
+     * The number of symbols.
+     */
+    private int size;
+
+    /**
+     * The canonical token properties, keyed by name and level.
+     */
+    private final HashMap<Pair<String, Integer>, TokenProperty>
+        properties = new HashMap<Pair<String, Integer>, TokenProperty>();
+
+    /**
+     * The canonical property schemas, keyed by the names and levels of their properties.
+     */
+    private final HashMap<List<Pair<String, Integer>>, TokenProperty[]>
+        schemas = new HashMap<List<Pair<String, Integer>>, TokenProperty[]>();
+
+    /**
+     * Returns the id of the given string, adding the string to the table if it isn't contained yet.
+     *
+     * @param string the string to get the id for.
+     * @return the id of the string, or {@link #NULL} if the string is null.
+     */
+    public int getId(final String string) {
+        if (string == null) return NULL;
+        Integer id = ids.get(string);
+        return id != null ? id : add(string);
+    }
+
+    /**
+     * Adds the string to the table unless another thread has added it already.
+     *
+     * @param string the string to add.
+     * @return the id of the string.
+     */
+    private synchronized int add(final String string) {
+        Integer id = ids.get(string);
+        if (id != null) return id;
+        String[] array = symbols;
+        if (size == array.length) {
+            String[] newArray = new String[array.length * 2];
+            System.arraycopy(array, 0, newArray, 0, size);
+            array = newArray;
+        }
+        array[size] = string;
+        symbols = array;
+        ids.put(string, size);
+        return size++;
+    }
+
+    /**
+     * Returns the symbol with the given id.
+     *
+     * @param id the id of the symbol.
+     * @return the symbol with the given id or null if the id is {@link #NULL}.
+     */
+    public String getSymbol(final int id) {
+        return id == NULL ? null : symbols[id];
+    }
+
+    /**
+     * Returns the canonical instance of the given string.
+     *
+     * @param string the string to intern.
+     * @return the string in this table that equals the given string, or null if the string is null.
+     */
+    public String intern(final String string) {
+        return getSymbol(getId(string));
+    }
+
+    /**
+     * Returns the canonical instance of the given token property. Note that different from {@link
+     * TokenProperty#equals(Object)} the level is taken into account here, so that the level of the property is
+     * preserved.
+     *
+     * @param property the property to intern.
+     * @return a property with the same name and level as the given property.
+     */
+    public synchronized TokenProperty intern(final TokenProperty property) {
+        Pair<String, Integer> key = new Pair<String, Integer>(property.getName(), property.getLevel());
+        TokenProperty result = properties.get(key);
+        if (result == null) {
+            result = new TokenProperty(intern(property.getName()), property.getLevel());
+            properties.put(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the canonical array of the given properties, so that instances with the same token properties can share
+     * their property schema.
+     *
+     * @param schema the properties of the schema, in column order.
+     * @return an array of canonical properties with the same names and levels, in the same order. Callers must not
+     *         change the array.
+     */
+    public synchronized TokenProperty[] internSchema(final List<TokenProperty> schema) {
+        ArrayList<Pair<String, Integer>> key = new ArrayList<Pair<String, Integer>>(schema.size());
+        for (TokenProperty property : schema)
+            key.add(new Pair<String, Integer>(property.getName(), property.getLevel()));
+        TokenProperty[] result = schemas.get(key);
+        if (result == null) {
+            result = new TokenProperty[schema.size()];
+            for (int i = 0; i < result.length; ++i) result[i] = intern(schema.get(i));
+            schemas.put(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * Replaces all strings and token properties in the given instance with their canonical instances.
+     *
+     * @param instance the instance to intern.
+     * @return the given instance.
+     */
+    public NLPInstance intern(final NLPInstance instance) {
+        for (Token token : instance.getTokens()) token.intern(this);
+        for (Edge edge : instance.getEdges()) edge.intern(this);
+        return instance;
+    }
+
+    /**
+     * Returns the number of symbols in this table.
+     *
+     * @return the number of symbols in this table.
+     */
+    public synchronized int size() {
+        return size;
+    }
+}
@@ -0,0 +1,152 @@
+package com.googlecode.whatswrong;
+
+import java.awt.*;
+import java.awt.font.FontRenderContext;
+import java.awt.font.TextLayout;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A TextLayoutCache keeps the text layouts of recently measured strings. Creating a TextLayout shapes the string into
+ * glyph vectors, which dominates the time to lay out long sentences, while the same token property values and edge
+ * labels are measured again and again. A TextLayout is immutable once created, and it computes its bounds only once,
+ * so a cached layout serves both for measuring the string and for drawing it.
+ * <p/>
+ * <p>The token and edge layouts share one cache, see {@link #getShared()}. A TextLayoutCache can be used by several
+ * threads at the same time.
+ */
+public class TextLayoutCache {
+
+    /**
+     * The number of text layouts kept by the shared cache.
+     */
+    private static final int SHARED_CAPACITY = 10000;
+
+    /**
+     * The cache shared by all token and edge layouts.
+     */
+    private static final TextLayoutCache shared = new TextLayoutCache(SHARED_CAPACITY);
+
+    /**
+     * The key of a text layout.
+     */
+    private static final class Key {
+        /**
+         * The string.
+         */
+        private final String text;
+        /**
+         * The font of the string.
+         */
+        private final Font font;
+        /**
+         * The font render context the string is measured in.
+         */
+        private final FontRenderContext frc;
+        /**
+         * The hash code of this key.
+         */
+        private final int hashCode;
+
+        /**
+         * Creates a new Key.
+         *
+         * @param text the string.
+         * @param font the font.
+         * @param frc  the font render context.
+         */
+        private Key(final String text, final Font font, final FontRenderContext frc) {
+            this.text = text;
+            this.font = font;
+            this.frc = frc;
+            this.hashCode = 31 * (31 * text.hashCode() + font.hashCode()) + frc.hashCode();
+        }
+
+        /**
+         * Checks whether the string, font and font render context of both keys are equal.
+         *
+         * @param o the other key.
+         * @return true iff the other key describes the same text layout.
+         */
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key that = (Key) o;
+            return hashCode == that.hashCode && text.equals(that.text) && font.equals(that.font) &&
+                frc.equals(that.frc);
+        }
+
+        /**
+         * Returns the hash code of this key.
+         *
+         * @return a hash code over string, font and font render context.
+         */
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    /**
+     * The cached text layouts, least recently used first.
+     */
+    private final LinkedHashMap<Key, TextLayout> layouts;
+
+    /**
+     * Creates a new TextLayoutCache.
+     *
+     * @param capacity the maximal number of text layouts to keep.
+     */
+    public TextLayoutCache(final int capacity) {
+        layouts = new LinkedHashMap<Key, TextLayout>(capacity / 4, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<Key, TextLayout> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the cache shared by all token and edge layouts.
+     *
+     * @return the shared cache.
+     */
+    public static TextLayoutCache getShared() {
+        return shared;
+    }
+
+    /**
+     * Returns the text layout of a string, creating it if it is not in the cache.
+     *
+     * @param text the string to lay out; must not be empty.
+     * @param font the font of the string.
+     * @param frc  the font render context to measure the string in.
+     * @return a text layout of the string.
+     */
+    public TextLayout getTextLayout(final String text, final Font font, final FontRenderContext frc) {
+        Key key = new Key(text, font, frc);
+        synchronized (this) {
+            TextLayout layout = layouts.get(key);
+            if (layout != null) return layout;
+        }
+        TextLayout layout = new TextLayout(text, font, frc);
+        synchronized (this) {
+            layouts.put(key, layout);
+        }
+        return layout;
+    }
+
+    /**
+     * Returns the number of cached text layouts.
+     *
+     * @return the number of text layouts in the cache.
+     */
+    public synchronized int size() {
+        return layouts.size();
+    }
+
+    /**
+     * Removes all text layouts.
+     */
+    public synchronized void clear() {
+        layouts.clear();
+    }
+}
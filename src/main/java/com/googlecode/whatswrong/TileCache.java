@@ -0,0 +1,157 @@
+package com.googlecode.whatswrong;
+
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A TileCache keeps rasterized tiles of {@link NLPLayout} objects. A tile is stored under its layout and its column
+ * and row in the tile grid of the layout. Layouts are compared by the identity of what they paint (see {@link
+ * NLPLayout#getPaintIdentity()}): renderers create a new layout whenever the filtered instance or their appearance
+ * settings change, so tiles of outdated layouts are never returned and simply age out of the cache, while layouts
+ * that are only rebound to other edge objects share their tiles.
+ * <p/>
+ * <p>The cache is bounded by the total number of pixels of its tiles, and the least recently used tiles are evicted
+ * first. A TileCache can be used by several threads at the same time.
+ */
+public class TileCache {
+
+    /**
+     * The key of a tile.
+     */
+    private static final class Key {
+        /**
+         * The paint identity of the layout the tile belongs to.
+         */
+        private final Object layout;
+        /**
+         * The column of the tile.
+         */
+        private final int column;
+        /**
+         * The row of the tile.
+         */
+        private final int row;
+
+        /**
+         * Creates a new Key.
+         *
+         * @param layout the layout.
+         * @param column the column of the tile.
+         * @param row    the row of the tile.
+         */
+        private Key(final NLPLayout layout, final int column, final int row) {
+            this.layout = layout.getPaintIdentity();
+            this.column = column;
+            this.row = row;
+        }
+
+        /**
+         * Checks whether both keys describe the same tile of the same layout.
+         *
+         * @param o the other key.
+         * @return true iff the other key has a layout that paints the same, and the same column and row.
+         */
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key that = (Key) o;
+            return layout == that.layout && column == that.column && row == that.row;
+        }
+
+        /**
+         * Returns the hash code of this key.
+         *
+         * @return a hash code over the identity of the layout, the column and the row.
+         */
+        public int hashCode() {
+            return 31 * (31 * System.identityHashCode(layout) + column) + row;
+        }
+    }
+
+    /**
+     * The cached tiles, least recently used first.
+     */
+    private final LinkedHashMap<Key, BufferedImage> tiles = new LinkedHashMap<Key, BufferedImage>(16, 0.75f, true);
+
+    /**
+     * The maximal number of pixels of all tiles.
+     */
+    private final long capacity;
+
+    /**
+     * The number of pixels of all tiles in the cache.
+     */
+    private long pixels;
+
+    /**
+     * Creates a new TileCache.
+     *
+     * @param capacity the maximal number of pixels of all tiles together.
+     */
+    public TileCache(final long capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns a tile.
+     *
+     * @param layout the layout the tile belongs to.
+     * @param column the column of the tile.
+     * @param row    the row of the tile.
+     * @return the tile or null if it is not in the cache.
+     */
+    public synchronized BufferedImage get(final NLPLayout layout, final int column, final int row) {
+        return tiles.get(new Key(layout, column, row));
+    }
+
+    /**
+     * Checks whether a tile is in the cache, without changing its position in the eviction order.
+     *
+     * @param layout the layout the tile belongs to.
+     * @param column the column of the tile.
+     * @param row    the row of the tile.
+     * @return true iff the tile is in the cache.
+     */
+    public synchronized boolean contains(final NLPLayout layout, final int column, final int row) {
+        return tiles.containsKey(new Key(layout, column, row));
+    }
+
+    /**
+     * Stores a tile and evicts the least recently used tiles until the cache is within its capacity again.
+     *
+     * @param layout the layout the tile belongs to.
+     * @param column the column of the tile.
+     * @param row    the row of the tile.
+     * @param tile   the image of the tile.
+     */
+    public synchronized void put(final NLPLayout layout, final int column, final int row, final BufferedImage tile) {
+        BufferedImage old = tiles.put(new Key(layout, column, row), tile);
+        if (old != null) pixels -= size(old);
+        pixels += size(tile);
+        Iterator<Map.Entry<Key, BufferedImage>> iterator = tiles.entrySet().iterator();
+        while (pixels > capacity && tiles.size() > 1) {
+            pixels -= size(iterator.next().getValue());
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Returns the number of pixels of a tile.
+     *
+     * @param tile the tile.
+     * @return width times height of the tile.
+     */
+    private static long size(final BufferedImage tile) {
+        return (long) tile.getWidth() * tile.getHeight();
+    }
+
+    /**
+     * Removes all tiles.
+     */
+    public synchronized void clear() {
+        tiles.clear();
+        pixels = 0;
+    }
+}
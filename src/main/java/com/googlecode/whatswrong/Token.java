@@ -16,8 +16,7 @@ public class Token implements Comparable<Token> {
     /**
      * A mapping from properties to values.
      */
-    private HashMap<TokenProperty, String>
-        tokenProperties = new HashMap<TokenProperty, String>();
+    private HashMap<TokenProperty, String> tokenProperties;
 
 
     /**
@@ -26,7 +25,19 @@ public class Token implements Comparable<Token> {
      * @param index the index of the token.
      */
     public Token(final int index) {
+        this(index, new HashMap<TokenProperty, String>());
+    }
+
+    /**
+     * Creates a new token with the given index and property map. Subclasses that store their properties elsewhere
+     * pass null and override all methods that read or write properties.
+     *
+     * @param index           the index of the token.
+     * @param tokenProperties the map from properties to values, or null.
+     */
+    Token(final int index, final HashMap<TokenProperty, String> tokenProperties) {
         this.index = index;
+        this.tokenProperties = tokenProperties;
     }
 
     /**
@@ -127,7 +138,7 @@ public class Token implements Comparable<Token> {
      */
     public List<TokenProperty> getSortedProperties() {
         ArrayList<TokenProperty>
-            sorted = new ArrayList<TokenProperty>(tokenProperties.keySet());
+            sorted = new ArrayList<TokenProperty>(getPropertyTypes());
         Collections.sort(sorted);
         return sorted;
     }
@@ -149,7 +160,7 @@ public class Token implements Comparable<Token> {
      *         corresponding property value.
      */
     public boolean propertiesContain(String substring) {
-        for (String property : tokenProperties.values())
+        for (String property : getPropertyValues())
             if (property.contains(substring)) return true;
         return false;
     }
@@ -165,7 +176,7 @@ public class Token implements Comparable<Token> {
      *         <code>substrings</code> (wholeword=false).
      */
     public boolean propertiesContain(Collection<String> substrings, boolean wholeWord) {
-        for (String property : tokenProperties.values())
+        for (String property : getPropertyValues())
             for (String substring : substrings)
                 if (substring.matches("\\d+-\\d+")) {
                     String[] split = substring.split("[-]");
@@ -187,7 +198,7 @@ public class Token implements Comparable<Token> {
      */
     public boolean equals(Object o) {
         if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
+        if (!(o instanceof Token)) return false;
 
         Token that = (Token) o;
 
@@ -204,6 +215,19 @@ public class Token implements Comparable<Token> {
         return index;
     }
 
+    /**
+     * Replaces all properties and values of this token with their canonical instances in the given symbol table.
+     *
+     * @param symbols the symbol table to use.
+     */
+    void intern(SymbolTable symbols) {
+        HashMap<TokenProperty, String> interned = new HashMap<TokenProperty, String>(
+            tokenProperties.size() * 4 / 3 + 1);
+        for (Map.Entry<TokenProperty, String> entry : tokenProperties.entrySet())
+            interned.put(symbols.intern(entry.getKey()), symbols.intern(entry.getValue()));
+        tokenProperties = interned;
+    }
+
     /**
      * Inserts all properties and values of the other token into this token. In case of clashes the value of the other
      * token is taken.
@@ -211,7 +235,8 @@ public class Token implements Comparable<Token> {
      * @param token the token to merge with.
      */
     public void merge(Token token) {
-        tokenProperties.putAll(token.tokenProperties);
+        for (TokenProperty property : token.getPropertyTypes())
+            tokenProperties.put(property, token.getProperty(property));
     }
 
     /**
@@ -30,6 +30,11 @@ public class TokenLayout {
     private HashMap<Pair<Token, Integer>, TextLayout>
         textLayouts = new HashMap<Pair<Token, Integer>, TextLayout>();
 
+    /**
+     * The cache that measures and shapes the property values.
+     */
+    private TextLayoutCache textLayoutCache = TextLayoutCache.getShared();
+
     /**
      * Mapping from token to its bounding box.
      */
@@ -206,7 +211,7 @@ public class TokenLayout {
             int lasty = baseline + rowHeight;
             for (TokenProperty p : token.getSortedProperties()) {
                 String property = token.getProperty(p);
-                TextLayout layout = new TextLayout(property, font, frc);
+                TextLayout layout = textLayoutCache.getTextLayout(property, font, frc);
                 lasty += rowHeight;
                 if (layout.getBounds().getMaxX() > maxX)
                     maxX = (int) layout.getBounds().getMaxX();
@@ -233,12 +238,12 @@ public class TokenLayout {
      * @param tokenWidths if some tokens need extra space (for example because they have self loops in a {@link
      *                    com.googlecode.whatswrong.DependencyLayout}) the space they need can be provided through this
      *                    map.
-     * @param g2d         the graphics object to draw to.
+     * @param g2d         the layout builder to draw to.
      * @return the dimension of the drawn graph.
      */
     public Dimension layout(final NLPInstance instance,
                             final Map<Token, Integer> tokenWidths,
-                            final Graphics2D g2d) {
+                            final NLPLayout.Builder g2d) {
         List<Token> tokens = instance.getTokens();
         if (tokens.size() == 0) {
             height = 1;
@@ -266,8 +271,8 @@ public class TokenLayout {
             for (TokenProperty p : token.getSortedProperties()) {
                 String property = token.getProperty(p);
                 g2d.setColor(index == 0 ? Color.BLACK : Color.GRAY);
-                TextLayout layout = new TextLayout(property, font, frc);
-                layout.draw(g2d, lastx, lasty);
+                TextLayout layout = textLayoutCache.getTextLayout(property, font, frc);
+                g2d.draw(layout, lastx, lasty);
                 lasty += rowHeight;
                 if (layout.getBounds().getMaxX() > maxX)
                     maxX = (int) layout.getBounds().getMaxX();
@@ -275,7 +280,9 @@ public class TokenLayout {
             }
             Integer requiredWidth = tokenWidths.get(token);
             if (requiredWidth != null && maxX < requiredWidth) maxX = requiredWidth;
-            bounds.put(token, new Rectangle(lastx, baseline, maxX, lasty - baseline));
+            Rectangle tokenBounds = new Rectangle(lastx, baseline, maxX, lasty - baseline);
+            bounds.put(token, tokenBounds);
+            g2d.setTokenBounds(token, tokenBounds);
             lastx += maxX + margin;
             if (lasty - rowHeight > height) height = lasty - rowHeight;
         }
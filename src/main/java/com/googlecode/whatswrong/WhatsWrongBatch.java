@@ -0,0 +1,324 @@
+package com.googlecode.whatswrong;
+
+import com.googlecode.whatswrong.io.MappedTabReader;
+import com.googlecode.whatswrong.io.TabFormat;
+import com.googlecode.whatswrong.io.TabProcessor;
+import com.googlecode.whatswrong.io.TabRow;
+import com.googlecode.whatswrong.javautils.Pair;
+
+import java.io.*;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.*;
+
+/**
+ * WhatsWrongBatch is the headless counterpart of {@link WhatsWrongWithMyNLP}. It evaluates a guess file against a gold
+ * file in one of the tab separated formats and prints per-sentence error counts and aggregate scores (see {@link
+ * Evaluation}) as TSV or JSON. Both files are read in lockstep with {@link MappedTabReader}s, and only a bounded
+ * number of sentence pairs is in memory at any time, so arbitrarily large files can be evaluated with a fixed heap.
+ * No Swing classes are used.
+ * <p/>
+ * <p>Usage: <code>java com.googlecode.whatswrong.WhatsWrongBatch [options] gold guess</code>, see {@link
+ * #printUsage(PrintStream)} for the options.
+ */
+public class WhatsWrongBatch {
+
+    /**
+     * How many sentence pairs per worker thread may wait to be processed.
+     */
+    private static final int MAX_PENDING_PER_THREAD = 64;
+
+    /**
+     * The processor that turns sentences into instances.
+     */
+    private final TabProcessor processor;
+
+    /**
+     * Whether to print JSON instead of TSV.
+     */
+    private final boolean json;
+
+    /**
+     * Whether to print a line per sentence pair.
+     */
+    private final boolean sentences;
+
+    /**
+     * The evaluator used for each sentence pair.
+     */
+    private final Evaluator evaluator = new Evaluator(1);
+
+    /**
+     * Creates a new WhatsWrongBatch.
+     *
+     * @param processor the processor that turns sentences into instances.
+     * @param json      whether to print JSON instead of TSV.
+     * @param sentences whether to print a line per sentence pair.
+     */
+    public WhatsWrongBatch(final TabProcessor processor, final boolean json, final boolean sentences) {
+        this.processor = processor;
+        this.json = json;
+        this.sentences = sentences;
+    }
+
+    /**
+     * Evaluates the guess file against the gold file and prints the result. The sentences of both files are read on
+     * the calling thread while a pool of worker threads creates and compares the instances. Results are printed in file
+     * order. If one file has more sentences than the other the additional sentences are ignored and a warning is
+     * printed to stderr.
+     *
+     * @param goldFile  the gold file.
+     * @param guessFile the guess file.
+     * @param out       the stream to print to.
+     * @return the evaluation of all sentence pairs.
+     * @throws IOException if I/O goes wrong.
+     */
+    public Evaluation run(final File goldFile, final File guessFile, final PrintStream out) throws IOException {
+        MappedTabReader gold = new MappedTabReader(goldFile);
+        MappedTabReader guess = new MappedTabReader(guessFile);
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "WhatsWrongBatch worker");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        LinkedList<Future<Evaluation>> pending = new LinkedList<Future<Evaluation>>();
+        Evaluation total = new Evaluation();
+        int sentenceNr = 0;
+        try {
+            printHeader(out);
+            List<TabRow> goldRows = gold.nextSentence();
+            List<TabRow> guessRows = guess.nextSentence();
+            for (; goldRows != null && guessRows != null;
+                 goldRows = gold.nextSentence(), guessRows = guess.nextSentence()) {
+                final List<TabRow> goldSentence = goldRows;
+                final List<TabRow> guessSentence = guessRows;
+                pending.add(executor.submit(new Callable<Evaluation>() {
+                    public Evaluation call() {
+                        return evaluator.evaluate(processor.create(goldSentence), processor.create(guessSentence));
+                    }
+                }));
+                if (pending.size() >= threads * MAX_PENDING_PER_THREAD)
+                    collect(pending.removeFirst(), sentenceNr++, total, out);
+            }
+            while (!pending.isEmpty())
+                collect(pending.removeFirst(), sentenceNr++, total, out);
+            if (goldRows != null || guessRows != null)
+                System.err.println("Warning: " + (goldRows != null ? goldFile : guessFile) + " has more than " +
+                    sentenceNr + " sentences, the remaining sentences were ignored");
+            printFooter(total, out);
+        } finally {
+            executor.shutdownNow();
+            gold.close();
+            guess.close();
+        }
+        out.flush();
+        return total;
+    }
+
+    /**
+     * Waits for the evaluation of a sentence pair, prints it and adds it to the total.
+     *
+     * @param future     the future evaluation of the sentence pair.
+     * @param sentenceNr the index of the sentence pair.
+     * @param total      the evaluation to add to.
+     * @param out        the stream to print to.
+     */
+    private void collect(final Future<Evaluation> future, final int sentenceNr, final Evaluation total,
+                         final PrintStream out) {
+        Evaluation evaluation;
+        try {
+            evaluation = future.get();
+        } catch (InterruptedException e) {
+            throw new RuntimeException("Interrupted while evaluating", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error) throw (Error) e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+        total.add(evaluation);
+        if (!sentences) return;
+        Evaluation.Counts counts = evaluation.getTotal();
+        if (json)
+            out.print((sentenceNr == 0 ? "\n" : ",\n") + "{\"sentence\":" + sentenceNr +
+                ",\"gold\":" + counts.getGold() + ",\"guess\":" + counts.getGuess() +
+                ",\"tp\":" + counts.getTruePositives() + ",\"fp\":" + counts.getFalsePositives() +
+                ",\"fn\":" + counts.getFalseNegatives() + "}");
+        else
+            out.println(sentenceNr + "\t" + counts.getGold() + "\t" + counts.getGuess() + "\t" +
+                counts.getTruePositives() + "\t" + counts.getFalsePositives() + "\t" + counts.getFalseNegatives());
+    }
+
+    /**
+     * Prints what comes before the per-sentence results.
+     *
+     * @param out the stream to print to.
+     */
+    private void printHeader(final PrintStream out) {
+        if (json) out.print("{\"sentences\":[");
+        else if (sentences) out.println("#sentence\tgold\tguess\ttp\tfp\tfn");
+    }
+
+    /**
+     * Prints the aggregate scores: the total scores, the scores per type (with attachment scores) and the scores per
+     * type and label, followed by the label confusions per type.
+     *
+     * @param evaluation the evaluation of all sentence pairs.
+     * @param out        the stream to print to.
+     */
+    private void printFooter(final Evaluation evaluation, final PrintStream out) {
+        if (json) {
+            out.print("\n],\n\"instances\":" + evaluation.getInstanceCount());
+            out.print(",\n\"total\":" + toJSON(evaluation.getTotal()));
+            out.print(",\n\"types\":[");
+            String separator = "\n";
+            for (String type : evaluation.getTypes()) {
+                out.print(separator + "{\"type\":" + quote(type) + ",\"scores\":" + toJSON(evaluation.getCounts(type)) +
+                    ",\"las\":" + evaluation.getLabeledAttachmentScore(type) +
+                    ",\"uas\":" + evaluation.getUnlabeledAttachmentScore(type) + ",\"labels\":[");
+                String labelSeparator = "";
+                for (String label : evaluation.getLabels(type)) {
+                    out.print(labelSeparator + "{\"label\":" + quote(label) + ",\"scores\":" +
+                        toJSON(evaluation.getCounts(type, label)) + "}");
+                    labelSeparator = ",";
+                }
+                out.print("],\"confusions\":[");
+                String confusionSeparator = "";
+                for (Map.Entry<Pair<String, String>, Integer> confusion : evaluation.getConfusions(type)) {
+                    out.print(confusionSeparator + "{\"gold\":" + quote(confusion.getKey().arg1) +
+                        ",\"guess\":" + quote(confusion.getKey().arg2) + ",\"count\":" + confusion.getValue() + "}");
+                    confusionSeparator = ",";
+                }
+                out.print("]}");
+                separator = ",\n";
+            }
+            out.println("\n]}");
+        } else {
+            if (sentences) out.println();
+            out.println("#type\tlabel\tgold\tguess\ttp\tfp\tfn\tprecision\trecall\tf1\tlas\tuas");
+            out.println(toTSV("*", "*", evaluation.getTotal()) + "\t\t");
+            for (String type : evaluation.getTypes()) {
+                out.println(toTSV(type, "*", evaluation.getCounts(type)) + "\t" +
+                    evaluation.getLabeledAttachmentScore(type) + "\t" +
+                    evaluation.getUnlabeledAttachmentScore(type));
+                for (String label : evaluation.getLabels(type))
+                    out.println(toTSV(type, label, evaluation.getCounts(type, label)) + "\t\t");
+            }
+            out.println();
+            out.println("#type\tgold label\tguess label\tcount");
+            for (String type : evaluation.getTypes())
+                for (Map.Entry<Pair<String, String>, Integer> confusion : evaluation.getConfusions(type))
+                    out.println(type + "\t" + confusion.getKey().arg1 + "\t" + confusion.getKey().arg2 + "\t" +
+                        confusion.getValue());
+        }
+    }
+
+    /**
+     * Returns the given counts as tab separated values.
+     *
+     * @param type   the type column.
+     * @param label  the label column.
+     * @param counts the counts.
+     * @return the type, label, counts and scores separated by tabs.
+     */
+    private static String toTSV(final String type, final String label, final Evaluation.Counts counts) {
+        return type + "\t" + label + "\t" + counts.getGold() + "\t" + counts.getGuess() + "\t" +
+            counts.getTruePositives() + "\t" + counts.getFalsePositives() + "\t" + counts.getFalseNegatives() + "\t" +
+            counts.getPrecision() + "\t" + counts.getRecall() + "\t" + counts.getF1();
+    }
+
+    /**
+     * Returns the given counts as JSON object.
+     *
+     * @param counts the counts.
+     * @return a JSON object with counts and scores.
+     */
+    private static String toJSON(final Evaluation.Counts counts) {
+        return "{\"gold\":" + counts.getGold() + ",\"guess\":" + counts.getGuess() +
+            ",\"tp\":" + counts.getTruePositives() + ",\"fp\":" + counts.getFalsePositives() +
+            ",\"fn\":" + counts.getFalseNegatives() + ",\"precision\":" + counts.getPrecision() +
+            ",\"recall\":" + counts.getRecall() + ",\"f1\":" + counts.getF1() + "}";
+    }
+
+    /**
+     * Returns the given string as JSON string literal.
+     *
+     * @param string the string to quote.
+     * @return the quoted and escaped string, or <code>null</code> if the string is null.
+     */
+    private static String quote(final String string) {
+        if (string == null) return "null";
+        StringBuilder result = new StringBuilder(string.length() + 2);
+        result.append('"');
+        for (int i = 0; i < string.length(); ++i) {
+            char c = string.charAt(i);
+            if (c == '"' || c == '\\') result.append('\\').append(c);
+            else if (c < ' ') result.append(String.format("\\u%04x", (int) c));
+            else result.append(c);
+        }
+        return result.append('"').toString();
+    }
+
+    /**
+     * Prints usage information.
+     *
+     * @param out the stream to print to.
+     */
+    private static void printUsage(final PrintStream out) {
+        out.println("Usage: java " + WhatsWrongBatch.class.getName() + " [options] <gold file> <guess file>");
+        out.println("Options:");
+        out.println("  -format <name>   the tab format of both files (default: CoNLL 2008), one of:");
+        for (String name : TabFormat.createProcessors().keySet())
+            out.println("                     " + name);
+        out.println("  -json            print JSON instead of tab separated values");
+        out.println("  -summary         only print aggregate scores, no line per sentence");
+        out.println("  -out <file>      print to the given file instead of stdout");
+    }
+
+    /**
+     * Evaluates a guess file against a gold file and prints the results.
+     *
+     * @param args the command line arguments, see {@link #printUsage(PrintStream)}.
+     * @throws IOException if I/O goes wrong.
+     */
+    public static void main(String[] args) throws IOException {
+        System.setProperty("java.awt.headless", "true");
+        SortedMap<String, TabProcessor> processors = TabFormat.createProcessors();
+        String format = "CoNLL 2008";
+        boolean json = false;
+        boolean sentences = true;
+        String output = null;
+        int argIndex = 0;
+        for (; argIndex < args.length && args[argIndex].startsWith("-"); ++argIndex) {
+            String option = args[argIndex];
+            if (option.equals("-format") && argIndex + 1 < args.length) format = args[++argIndex];
+            else if (option.equals("-json")) json = true;
+            else if (option.equals("-summary")) sentences = false;
+            else if (option.equals("-out") && argIndex + 1 < args.length) output = args[++argIndex];
+            else {
+                printUsage(System.err);
+                System.exit(1);
+            }
+        }
+        TabProcessor processor = null;
+        for (Map.Entry<String, TabProcessor> entry : processors.entrySet())
+            if (entry.getKey().equalsIgnoreCase(format)) processor = entry.getValue();
+        if (processor == null || args.length - argIndex != 2) {
+            if (processor == null) System.err.println("Unknown format: " + format);
+            printUsage(System.err);
+            System.exit(1);
+        }
+        PrintStream out = output == null ? System.out :
+            new PrintStream(new BufferedOutputStream(new FileOutputStream(output), 1 << 16));
+        try {
+            new WhatsWrongBatch(processor, json, sentences).run(new File(args[argIndex]), new File(args[argIndex + 1]),
+                out);
+        } finally {
+            if (out != System.out) out.close();
+        }
+    }
+}
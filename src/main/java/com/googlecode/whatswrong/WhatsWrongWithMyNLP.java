@@ -294,6 +294,22 @@ public class WhatsWrongWithMyNLP extends JPanel {
         navigatorWindow.setVisible(USE_SYSTEM_UI);
         window.add(new WindowMenuItem(navigatorWindow, "Navigator"));
 
+        //evaluation
+        ControllerDialog evaluationWindow = new ControllerDialog("Evaluation", true);
+        evaluationWindow.getContentPane().add(new EvaluationPanel(gold, guess));
+        evaluationWindow.pack();
+        evaluationWindow.setLocation(canvasX + 600, canvasBottom + 40);
+        evaluationWindow.setVisible(false);
+        window.add(new WindowMenuItem(evaluationWindow));
+
+        //errors
+        ControllerDialog errorWindow = new ControllerDialog("Errors", true);
+        errorWindow.getContentPane().add(new ErrorPanel(gold, guess, navigator));
+        errorWindow.pack();
+        errorWindow.setLocation(canvasX + 600, canvasBottom + 60);
+        errorWindow.setVisible(false);
+        window.add(new WindowMenuItem(errorWindow));
+
         //statusbar
         JPanel statusBar = new JPanel();
         JLabel status = new JLabel("What's Wrong With My NLP version " + VERSION);
@@ -0,0 +1,419 @@
+package com.googlecode.whatswrong.io;
+
+import com.googlecode.whatswrong.Edge;
+import com.googlecode.whatswrong.NLPInstance;
+import com.googlecode.whatswrong.SymbolTable;
+import com.googlecode.whatswrong.Token;
+import com.googlecode.whatswrong.TokenProperty;
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+import javax.swing.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * A BinaryCorpusFormat loads corpora from the compact binary ".wwc" format, and can save any loaded corpus in this
+ * format (see {@link #save(java.util.List, java.io.File)}). Opening a binary corpus does not parse anything: the file
+ * is memory mapped and each instance is decoded from the mapped bytes when it is requested. This means reopening even
+ * large corpora is almost instant, and several processes that open the same file share its pages.
+ * <p/>
+ * <p>A ".wwc" file contains (all numbers are big-endian)
+ * <ol>
+ * <li>the magic number and version,
+ * <li>a dictionary of all strings in the corpus (property values and names, labels, types, notes and descriptions),
+ * <li>the table of token properties (name and level),
+ * <li>one record per instance with its tokens and edges stored as int columns of dictionary ids,
+ * <li>the offset table with the start of each instance record, and
+ * <li>the position of the offset table as the final 8 bytes.
+ * </ol>
+ * Files are mapped as a whole and hence limited to 2GB.
+ */
+@SuppressWarnings({"MissingMethodJavaDoc"})
+public class BinaryCorpusFormat implements CorpusFormat {
+
+    /**
+     * The extension of binary corpus files.
+     */
+    public static final String EXTENSION = ".wwc";
+
+    /**
+     * The magic number at the start of every binary corpus file ("WWC1").
+     */
+    private static final int MAGIC = 0x57574331;
+
+    /**
+     * The version of the file layout.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * The accessory (this format has no configuration).
+     */
+    private JPanel accessory = new JPanel();
+
+    /**
+     * The monitor to notify.
+     */
+    private Monitor monitor;
+
+    public String getName() {
+        return "Binary";
+    }
+
+    public String getLongName() {
+        return getName();
+    }
+
+    public String toString() {
+        return getName();
+    }
+
+    public JComponent getAccessory() {
+        return accessory;
+    }
+
+    public void setMonitor(Monitor monitor) {
+        this.monitor = monitor;
+    }
+
+    public void loadProperties(Properties properties, String prefix) {
+    }
+
+    public void saveProperties(Properties properties, String prefix) {
+    }
+
+    /**
+     * Memory maps the given binary corpus file and returns a list that decodes instances from <code>from</code> to
+     * <code>to</code> (exclusive) on demand. Like the full corpus, the returned list has identity semantics for
+     * equals and hashCode, since its instances are decoded anew on every access.
+     *
+     * @param file the file to load the corpus from.
+     * @param from the starting instance index.
+     * @param to   the end instance index.
+     * @return a list of the instances in the given interval.
+     * @throws IOException if the file is not a binary corpus or I/O goes wrong.
+     */
+    public List<NLPInstance> load(File file, int from, int to) throws IOException {
+        BinaryCorpus corpus = new BinaryCorpus(file);
+        int end = Math.min(to, corpus.size());
+        if (monitor != null) monitor.progressed(end - 1);
+        return from == 0 && end == corpus.size() ? corpus : new BinaryCorpus(corpus, Math.min(from, end), end);
+    }
+
+    /**
+     * Returns the given file, the only file this format reads.
+     *
+     * @param file the file to load the corpus from.
+     * @return a list containing the given file.
+     */
+    public List<File> getInputFiles(File file) {
+        return Collections.singletonList(file);
+    }
+
+    /**
+     * Saves a corpus in the binary format.
+     *
+     * @param corpus the corpus to save.
+     * @param file   the file to save to.
+     * @throws IOException if I/O goes wrong.
+     */
+    public static void save(List<NLPInstance> corpus, File file) throws IOException {
+        //first pass: collect dictionary and properties
+        SymbolTable symbols = new SymbolTable();
+        ArrayList<TokenProperty> properties = new ArrayList<TokenProperty>();
+        TObjectIntHashMap<TokenProperty> propertyIds = new TObjectIntHashMap<TokenProperty>();
+        for (NLPInstance instance : corpus) {
+            for (Token token : instance.getTokens())
+                for (TokenProperty property : token.getPropertyTypes()) {
+                    if (!propertyIds.containsKey(property)) {
+                        propertyIds.put(property, properties.size());
+                        properties.add(property);
+                        symbols.getId(property.getName());
+                    }
+                    symbols.getId(token.getProperty(property));
+                }
+            for (Edge edge : instance.getEdges()) {
+                symbols.getId(edge.getLabel());
+                symbols.getId(edge.getType());
+                symbols.getId(edge.getNote());
+                symbols.getId(edge.getDescription());
+            }
+        }
+
+        //second pass: write header and instance records
+        CountingOutputStream counter = new CountingOutputStream(
+            new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        DataOutputStream out = new DataOutputStream(counter);
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(symbols.size());
+            for (int id = 0; id < symbols.size(); ++id) {
+                byte[] bytes = symbols.getSymbol(id).getBytes("UTF-8");
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            out.writeInt(properties.size());
+            for (TokenProperty property : properties) {
+                out.writeInt(symbols.getId(property.getName()));
+                out.writeInt(property.getLevel());
+            }
+            out.writeInt(corpus.size());
+            long[] offsets = new long[corpus.size()];
+            int nr = 0;
+            for (NLPInstance instance : corpus) {
+                offsets[nr++] = counter.count;
+                writeInstance(instance, out, symbols, propertyIds);
+            }
+            long offsetTable = counter.count;
+            for (long offset : offsets) out.writeLong(offset);
+            out.writeLong(offsetTable);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Writes a single instance record.
+     *
+     * @param instance    the instance to write.
+     * @param out         the output to write to.
+     * @param symbols     the dictionary of all strings.
+     * @param propertyIds the ids of all token properties.
+     * @throws IOException if I/O goes wrong.
+     */
+    private static void writeInstance(NLPInstance instance, DataOutputStream out,
+                                      SymbolTable symbols,
+                                      TObjectIntHashMap<TokenProperty> propertyIds) throws IOException {
+        out.writeInt(instance.getRenderType().ordinal());
+        List<Integer> splitPoints = instance.getSplitPoints();
+        out.writeInt(splitPoints.size());
+        for (int splitPoint : splitPoints) out.writeInt(splitPoint);
+
+        //tokens: index column, property count column, then the flattened property and value columns (null values
+        //are stored as SymbolTable.NULL)
+        List<Token> tokens = instance.getTokens();
+        out.writeInt(tokens.size());
+        int propertyCount = 0;
+        for (Token token : tokens) out.writeInt(token.getIndex());
+        for (Token token : tokens) {
+            out.writeInt(token.getPropertyTypes().size());
+            propertyCount += token.getPropertyTypes().size();
+        }
+        out.writeInt(propertyCount);
+        for (Token token : tokens)
+            for (TokenProperty property : token.getPropertyTypes())
+                out.writeInt(propertyIds.get(property));
+        for (Token token : tokens)
+            for (TokenProperty property : token.getPropertyTypes())
+                out.writeInt(symbols.getId(token.getProperty(property)));
+
+        //edges: one column per attribute
+        List<Edge> edges = instance.getEdges();
+        out.writeInt(edges.size());
+        for (Edge edge : edges) out.writeInt(edge.getFrom().getIndex());
+        for (Edge edge : edges) out.writeInt(edge.getTo().getIndex());
+        for (Edge edge : edges) out.writeInt(symbols.getId(edge.getLabel()));
+        for (Edge edge : edges) out.writeInt(symbols.getId(edge.getType()));
+        for (Edge edge : edges) out.writeInt(symbols.getId(edge.getNote()));
+        for (Edge edge : edges) out.writeInt(symbols.getId(edge.getDescription()));
+        for (Edge edge : edges) out.writeInt(edge.getRenderType().ordinal());
+    }
+
+    /**
+     * An output stream that counts the number of bytes written, so we know the offset of each instance record.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        /**
+         * The number of bytes written so far.
+         */
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        public void write(int b) throws IOException {
+            out.write(b);
+            ++count;
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    /**
+     * A BinaryCorpus is a list of instances backed by a memory mapped binary corpus file. Instances are decoded each
+     * time they are requested.
+     */
+    private static class BinaryCorpus extends AbstractList<NLPInstance> implements RandomAccess {
+
+        /**
+         * The mapped file.
+         */
+        private final ByteBuffer buffer;
+
+        /**
+         * The dictionary.
+         */
+        private final String[] symbols;
+
+        /**
+         * The token properties.
+         */
+        private final TokenProperty[] properties;
+
+        /**
+         * The position of the offset table in the buffer.
+         */
+        private final int offsetTable;
+
+        /**
+         * The index in the file of the first instance of this list.
+         */
+        private final int first;
+
+        /**
+         * The number of instances.
+         */
+        private final int size;
+
+        /**
+         * Maps the file and reads dictionary and property table.
+         *
+         * @param file the file to map.
+         * @throws IOException if the file is not a binary corpus or I/O goes wrong.
+         */
+        BinaryCorpus(File file) throws IOException {
+            if (file.length() > Integer.MAX_VALUE)
+                throw new IOException(file + " is too large to be mapped");
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            } finally {
+                raf.close();
+            }
+            if (buffer.limit() < 8 || buffer.getInt(0) != MAGIC)
+                throw new IOException(file + " is not a binary corpus file");
+            if (buffer.getInt(4) != VERSION)
+                throw new IOException(file + " has unsupported version " + buffer.getInt(4));
+            ByteBuffer in = buffer.duplicate();
+            in.position(8);
+            symbols = new String[in.getInt()];
+            for (int i = 0; i < symbols.length; ++i) {
+                byte[] bytes = new byte[in.getInt()];
+                in.get(bytes);
+                symbols[i] = new String(bytes, "UTF-8");
+            }
+            properties = new TokenProperty[in.getInt()];
+            for (int i = 0; i < properties.length; ++i)
+                properties[i] = new TokenProperty(symbols[in.getInt()], in.getInt());
+            first = 0;
+            size = in.getInt();
+            offsetTable = (int) buffer.getLong(buffer.limit() - 8);
+        }
+
+        /**
+         * Creates a list of a range of the instances of another corpus, sharing its mapped file and dictionary.
+         *
+         * @param corpus the corpus.
+         * @param from   the index of the first instance in the given corpus.
+         * @param to     the index after the last instance in the given corpus.
+         */
+        BinaryCorpus(BinaryCorpus corpus, int from, int to) {
+            buffer = corpus.buffer;
+            symbols = corpus.symbols;
+            properties = corpus.properties;
+            offsetTable = corpus.offsetTable;
+            first = corpus.first + from;
+            size = to - from;
+        }
+
+        /**
+         * Decodes the instance at the given index.
+         *
+         * @param index the index of the instance.
+         * @return the decoded instance.
+         */
+        public NLPInstance get(int index) {
+            if (index < 0 || index >= size)
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            ByteBuffer in = buffer.duplicate();
+            in.position((int) buffer.getLong(offsetTable + 8 * (first + index)));
+
+            NLPInstance.RenderType renderType = NLPInstance.RenderType.values()[in.getInt()];
+            ArrayList<Integer> splitPoints = new ArrayList<Integer>();
+            for (int i = in.getInt(); i > 0; --i) splitPoints.add(in.getInt());
+
+            Token[] tokens = new Token[in.getInt()];
+            HashMap<Integer, Token> map = new HashMap<Integer, Token>();
+            for (int i = 0; i < tokens.length; ++i) {
+                tokens[i] = new Token(in.getInt());
+                map.put(tokens[i].getIndex(), tokens[i]);
+            }
+            int[] propertyCounts = readColumn(in, tokens.length);
+            int propertyCount = in.getInt();
+            int[] propertyIds = readColumn(in, propertyCount);
+            int[] values = readColumn(in, propertyCount);
+            int current = 0;
+            for (int i = 0; i < tokens.length; ++i)
+                for (int p = 0; p < propertyCounts[i]; ++p, ++current)
+                    tokens[i].addProperty(properties[propertyIds[current]], symbol(values[current]));
+
+            int edgeCount = in.getInt();
+            int[] from = readColumn(in, edgeCount);
+            int[] to = readColumn(in, edgeCount);
+            int[] labels = readColumn(in, edgeCount);
+            int[] types = readColumn(in, edgeCount);
+            int[] notes = readColumn(in, edgeCount);
+            int[] descriptions = readColumn(in, edgeCount);
+            int[] renderTypes = readColumn(in, edgeCount);
+            ArrayList<Edge> edges = new ArrayList<Edge>(edgeCount);
+            for (int i = 0; i < edgeCount; ++i)
+                edges.add(new Edge(map.get(from[i]), map.get(to[i]), symbol(labels[i]), symbol(notes[i]),
+                    symbol(types[i]), Edge.RenderType.values()[renderTypes[i]], symbol(descriptions[i])));
+
+            return new NLPInstance(Arrays.asList(tokens), edges, renderType, splitPoints);
+        }
+
+        /**
+         * Reads an int column.
+         *
+         * @param in     the buffer to read from.
+         * @param length the number of values in the column.
+         * @return the column values.
+         */
+        private static int[] readColumn(ByteBuffer in, int length) {
+            int[] column = new int[length];
+            in.asIntBuffer().get(column);
+            in.position(in.position() + 4 * length);
+            return column;
+        }
+
+        /**
+         * Returns the string for a dictionary id.
+         *
+         * @param id the dictionary id.
+         * @return the string with the given id or null if id is {@link SymbolTable#NULL}.
+         */
+        private String symbol(int id) {
+            return id == SymbolTable.NULL ? null : symbols[id];
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public boolean equals(Object o) {
+            return o == this;
+        }
+
+        public int hashCode() {
+            return System.identityHashCode(this);
+        }
+    }
+}
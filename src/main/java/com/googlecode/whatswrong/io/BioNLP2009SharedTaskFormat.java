@@ -3,6 +3,7 @@ package com.googlecode.whatswrong.io;
 import com.googlecode.whatswrong.Edge;
 import com.googlecode.whatswrong.NLPInstance;
 import com.googlecode.whatswrong.SimpleGridBagConstraints;
+import com.googlecode.whatswrong.SymbolTable;
 import com.googlecode.whatswrong.Token;
 import gnu.trove.map.hash.TIntObjectHashMap;
 import org.apache.commons.io.IOUtils;
@@ -110,6 +111,31 @@ public class BioNLP2009SharedTaskFormat implements CorpusFormat {
         properties.setProperty(prefix + ".bionlp09.event", eventExtensionField.getText());
     }
 
+    /**
+     * Returns the text, protein and event files in the given directory that {@link #load(File, int, int)} reads.
+     *
+     * @param file the directory to load the corpus from.
+     * @return for each text file with protein and event files the three files.
+     */
+    public List<File> getInputFiles(final File file) {
+        ArrayList<File> result = new ArrayList<File>();
+        File[] txtFiles = file.listFiles((FileFilter)
+            new WildcardFileFilter("*." + txtExtensionField.getText().trim()));
+        if (txtFiles == null) return result;
+        for (final File txtFile : txtFiles) {
+            String filename = txtFile.getAbsolutePath();
+            String prefix = filename.substring(0, filename.lastIndexOf("."));
+            File proteinFile = new File(prefix + "." + proteinExtensionField.getText().trim());
+            File eventFile = new File(prefix + "." + eventExtensionField.getText().trim());
+            if (proteinFile.exists() && eventFile.exists()) {
+                result.add(txtFile);
+                result.add(proteinFile);
+                result.add(eventFile);
+            }
+        }
+        return result;
+    }
+
     /**
      * Loads files from the given directory with the extensions specified by the text fields of the accessory.
      *
@@ -123,6 +149,7 @@ public class BioNLP2009SharedTaskFormat implements CorpusFormat {
                                   final int from,
                                   final int to) throws IOException {
         ArrayList<NLPInstance> result = new ArrayList<NLPInstance>();
+        SymbolTable symbols = new SymbolTable();
         int index = 0;
         for (final File txtFile : file.listFiles((FileFilter)
             new WildcardFileFilter("*." + txtExtensionField.getText().trim()))) {
@@ -133,7 +160,7 @@ public class BioNLP2009SharedTaskFormat implements CorpusFormat {
             File eventFile = new File(prefix + "." +
                 eventExtensionField.getText().trim());
             if (proteinFile.exists() && eventFile.exists()) {
-                result.add(load(txtFile, proteinFile, eventFile));
+                result.add(symbols.intern(load(txtFile, proteinFile, eventFile)));
                 monitor.progressed(index++);
             }
         }
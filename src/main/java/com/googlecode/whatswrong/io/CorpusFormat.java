@@ -73,6 +73,15 @@ public interface CorpusFormat {
      */
     List<NLPInstance> load(File file, int from, int to) throws IOException;
 
+    /**
+     * Returns the files that {@link #load(java.io.File, int, int)} reads when it is called with the given file and the
+     * current configuration. Caches of data derived from a corpus use these files to notice changes.
+     *
+     * @param file the file to load the corpus from.
+     * @return all files read when loading the corpus.
+     */
+    List<File> getInputFiles(File file);
+
     /**
      * A Monitor monitors the progress of the {@link com.googlecode.whatswrong.io.CorpusFormat#load(java.io.File, int,
      * int)} method.
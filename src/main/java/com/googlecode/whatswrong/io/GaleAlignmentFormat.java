@@ -1,6 +1,7 @@
 package com.googlecode.whatswrong.io;
 
 import com.googlecode.whatswrong.NLPInstance;
+import com.googlecode.whatswrong.SymbolTable;
 
 import javax.swing.*;
 import java.io.BufferedReader;
@@ -8,6 +9,7 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
 
@@ -104,6 +106,16 @@ public class GaleAlignmentFormat implements CorpusFormat {
 
     }
 
+    /**
+     * Returns the given file, the only file this format reads.
+     *
+     * @param file the file to load the corpus from.
+     * @return a list containing the given file.
+     */
+    public List<File> getInputFiles(File file) {
+        return Collections.singletonList(file);
+    }
+
     /**
      * Loads a corpus from a file, starting at instance <code>from</code> and ending at instance <code>to</code>
      * (exclusive). This method is required to call {@link com.googlecode.whatswrong.io.CorpusFormat.Monitor#progressed(int)}
@@ -120,6 +132,7 @@ public class GaleAlignmentFormat implements CorpusFormat {
                                   int from,
                                   int to) throws IOException {
         ArrayList<NLPInstance> result = new ArrayList<NLPInstance>();
+        SymbolTable symbols = new SymbolTable();
         BufferedReader reader = new BufferedReader(new FileReader(file));
         NLPInstance instance = null;
         int sourceLength = -1;
@@ -152,7 +165,7 @@ public class GaleAlignmentFormat implements CorpusFormat {
                             instance.addEdge(src - 1, tgt + sourceLength, "align", "align");
                     }
                 }
-                result.add(instance);
+                result.add(symbols.intern(instance));
             }
         }
         return result;
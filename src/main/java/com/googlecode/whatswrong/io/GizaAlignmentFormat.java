@@ -6,6 +6,7 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
 import java.util.regex.Pattern;
@@ -15,6 +16,7 @@ import javax.swing.JComponent;
 import javax.swing.JPanel;
 
 import com.googlecode.whatswrong.NLPInstance;
+import com.googlecode.whatswrong.SymbolTable;
 import com.googlecode.whatswrong.javautils.Pair;
 
 @SuppressWarnings("serial")
@@ -75,6 +77,7 @@ public class GizaAlignmentFormat implements CorpusFormat
         }
 
         final ArrayList<NLPInstance> result = new ArrayList<NLPInstance>();
+        final SymbolTable symbols = new SymbolTable();
 
         for (int i = from; i <= to; i++) {
             NLPInstance instance;
@@ -83,7 +86,7 @@ public class GizaAlignmentFormat implements CorpusFormat
             } catch (EndOfInputException e) {
                 break;
             }
-            result.add(instance);
+            result.add(symbols.intern(instance));
         }
 
         reader.close();
@@ -230,6 +233,11 @@ public class GizaAlignmentFormat implements CorpusFormat
     {
     }
 
+    public List<File> getInputFiles(File file)
+    {
+        return Collections.singletonList(file);
+    }
+
     public String toString()
     {
         return getName();
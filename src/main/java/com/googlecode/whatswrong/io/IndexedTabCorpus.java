@@ -0,0 +1,210 @@
+package com.googlecode.whatswrong.io;
+
+import com.googlecode.whatswrong.NLPInstance;
+import com.googlecode.whatswrong.SymbolTable;
+import com.googlecode.whatswrong.javautils.LRUCache;
+import gnu.trove.list.array.TLongArrayList;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * An IndexedTabCorpus is a corpus of NLPInstance objects backed by a file in tab format. Instead of parsing the whole
+ * file when it is opened the corpus makes a single pass over the file with a {@link MappedTabReader} and records where
+ * each sentence starts and ends. Instances are then parsed on demand by the {@link TabProcessor} when they are
+ * requested via {@link #get(int)}, and the most recently requested instances are kept in a bounded cache.
+ * <p/>
+ * <p>Sentence boundaries and instance numbering are the same as for the eager loading in {@link TabFormat}: every
+ * empty line (and every line starting with <code>&lt;\s&gt;</code>) ends an instance.
+ * <p/>
+ * <p>Note that an IndexedTabCorpus has identity semantics for {@link #equals(Object)} and {@link #hashCode()}. Content
+ * based equality would require to parse the complete file.
+ */
+public class IndexedTabCorpus extends AbstractList<NLPInstance> implements RandomAccess {
+
+    /**
+     * The default number of parsed instances to keep in memory.
+     */
+    public static final int DEFAULT_CACHE_SIZE = 500;
+
+    /**
+     * The file this corpus is read from.
+     */
+    private final File file;
+
+    /**
+     * The processor that turns rows into NLPInstance objects.
+     */
+    private final TabProcessor processor;
+
+    /**
+     * Whether the rows are to be read as part of an open dataset.
+     */
+    private final boolean open;
+
+    /**
+     * The symbol table that parsed instances are interned with.
+     */
+    private final SymbolTable symbols;
+
+    /**
+     * The byte offset at which each instance starts.
+     */
+    private final TLongArrayList starts = new TLongArrayList();
+
+    /**
+     * The byte offset at which each instance ends (exclusive).
+     */
+    private final TLongArrayList ends = new TLongArrayList();
+
+    /**
+     * A corpus with the same number of instances that is merged into the instances of this corpus, or null.
+     */
+    private IndexedTabCorpus merged;
+
+    /**
+     * The recently parsed instances.
+     */
+    private final LRUCache<Integer, NLPInstance> cache;
+
+    /**
+     * Creates a new IndexedTabCorpus and builds the sentence offset index for the instances from <code>from</code> to
+     * <code>to</code> (exclusive).
+     *
+     * @param file      the file to read.
+     * @param from      the index of the first instance.
+     * @param to        the index of the last instance (exclusive).
+     * @param processor the processor that creates instances from rows.
+     * @param open      whether the file contains the open dataset.
+     * @param symbols   the symbol table to intern parsed instances with.
+     * @param cacheSize how many parsed instances should be kept in memory.
+     * @param monitor   the monitor to notify about the progress of indexing.
+     * @throws IOException if I/O goes wrong.
+     */
+    public IndexedTabCorpus(final File file, final int from, final int to,
+                            final TabProcessor processor, final boolean open, final SymbolTable symbols,
+                            final int cacheSize, final CorpusFormat.Monitor monitor) throws IOException {
+        this.file = file;
+        this.processor = processor;
+        this.open = open;
+        this.symbols = symbols;
+        this.cache = new LRUCache<Integer, NLPInstance>(cacheSize);
+        buildIndex(from, to, monitor);
+    }
+
+    /**
+     * Scans the file once and records the byte offsets of all instances in the given range.
+     *
+     * @param from    the index of the first instance.
+     * @param to      the index of the last instance (exclusive).
+     * @param monitor the monitor to notify.
+     * @throws IOException if I/O goes wrong.
+     */
+    private void buildIndex(final int from, final int to, final CorpusFormat.Monitor monitor) throws IOException {
+        MappedTabReader reader = new MappedTabReader(file);
+        try {
+            int instanceNr = 0;
+            for (List<TabRow> rows = reader.nextSentence(); rows != null && instanceNr < to;
+                 rows = reader.nextSentence()) {
+                monitor.progressed(instanceNr);
+                if (instanceNr++ < from) continue;
+                starts.add(reader.getSentenceStart());
+                ends.add(reader.getSentenceEnd());
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Sets a corpus whose instances will be merged into the instances of this corpus (see {@link
+     * NLPInstance#merge(NLPInstance)}). This is used for open datasets.
+     *
+     * @param merged the corpus to merge into this corpus.
+     */
+    public void setMerged(final IndexedTabCorpus merged) {
+        this.merged = merged;
+    }
+
+    /**
+     * Returns the instance at the given index. The instance is parsed if it is not in the cache.
+     *
+     * @param index the index of the instance.
+     * @return the instance at the given index.
+     */
+    public synchronized NLPInstance get(final int index) {
+        if (index < 0 || index >= size())
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        NLPInstance instance = cache.get(index);
+        if (instance == null) {
+            try {
+                instance = parse(index);
+            } catch (IOException e) {
+                throw new RuntimeException("Couldn't read instance " + index + " from " + file, e);
+            }
+            if (merged != null && index < merged.size())
+                instance.merge(merged.get(index));
+            cache.put(index, instance);
+        }
+        return instance;
+    }
+
+    /**
+     * Reads the bytes of the given instance from the file and parses them.
+     *
+     * @param index the index of the instance.
+     * @return the parsed instance.
+     * @throws IOException if I/O goes wrong.
+     */
+    private NLPInstance parse(final int index) throws IOException {
+        MappedTabReader reader = new MappedTabReader(file, starts.get(index), ends.get(index));
+        try {
+            List<TabRow> rows = reader.nextSentence();
+            if (rows == null) rows = new ArrayList<TabRow>();
+            return symbols.intern(open ? processor.createOpen(rows) : processor.create(rows));
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Returns the number of instances in this corpus.
+     *
+     * @return the number of instances in this corpus.
+     */
+    public int size() {
+        return starts.size();
+    }
+
+    /**
+     * Returns the file this corpus is read from.
+     *
+     * @return the file this corpus is read from.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Checks whether the given object is this corpus.
+     *
+     * @param o the object to compare to.
+     * @return true iff <code>o == this</code>.
+     */
+    public boolean equals(final Object o) {
+        return o == this;
+    }
+
+    /**
+     * Returns the identity hashcode of this corpus.
+     *
+     * @return the identity hashcode of this corpus.
+     */
+    public int hashCode() {
+        return System.identityHashCode(this);
+    }
+}
@@ -2,6 +2,7 @@ package com.googlecode.whatswrong.io;
 
 import com.googlecode.whatswrong.NLPInstance;
 import com.googlecode.whatswrong.SimpleGridBagConstraints;
+import com.googlecode.whatswrong.SymbolTable;
 
 import javax.swing.*;
 import java.awt.*;
@@ -10,6 +11,7 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
 import java.util.Stack;
@@ -77,10 +79,15 @@ public class LispSExprFormat implements CorpusFormat {
     }
 
 
+    public List<File> getInputFiles(File file) {
+        return Collections.singletonList(file);
+    }
+
     public List<NLPInstance> load(File file, int from, int to) throws IOException {
         BufferedReader reader = new BufferedReader(new FileReader(file));
 
         ArrayList<NLPInstance> result = new ArrayList<NLPInstance>(1000);
+        SymbolTable symbols = new SymbolTable();
         int instanceNr = 0;
         for (String line = reader.readLine(); line != null && instanceNr < to; line = reader.readLine()) {
             line = line.trim();
@@ -92,7 +99,7 @@ public class LispSExprFormat implements CorpusFormat {
                     NLPInstance instance = new NLPInstance();
                     tree.writeTokens(word.getText(), tag.getText(), instance);
                     tree.writeSpans(phrase.getText(), tag.getText(), instance);
-                    result.add(instance);
+                    result.add(symbols.intern(instance));
                 }
                 monitor.progressed(instanceNr);
                 ++instanceNr;
@@ -0,0 +1,253 @@
+package com.googlecode.whatswrong.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A MappedTabReader reads sentences from a tab format file without going through a Reader and regular expressions.
+ * The file is memory mapped (in windows, so files larger than 2GB can be read) and the bytes are scanned directly for
+ * whitespace and newlines. Each sentence is returned as a list of {@link TabRow} objects that only decode their
+ * columns when asked to.
+ * <p/>
+ * <p>A sentence ends at an empty line or a line that starts with <code>&lt;\s&gt;</code>. Note that two consecutive
+ * boundary lines yield an empty sentence in between, just as the line based reading in {@link TabFormat} always did.
+ */
+public class MappedTabReader {
+
+    /**
+     * The default size of the mapped window.
+     */
+    private static final int WINDOW_SIZE = 1 << 26;
+
+    /**
+     * The marker that can start a sentence boundary line.
+     */
+    private static final String BOUNDARY_MARKER = "<\\s>";
+
+    /**
+     * The file we read from.
+     */
+    private final RandomAccessFile file;
+
+    /**
+     * The channel of the file.
+     */
+    private final FileChannel channel;
+
+    /**
+     * Where to stop reading (exclusive).
+     */
+    private final long end;
+
+    /**
+     * The currently mapped part of the file.
+     */
+    private MappedByteBuffer buffer;
+
+    /**
+     * The file offset at which the current buffer starts.
+     */
+    private long bufferStart;
+
+    /**
+     * The current window size.
+     */
+    private int windowSize = WINDOW_SIZE;
+
+    /**
+     * The current position in the buffer.
+     */
+    private int position;
+
+    /**
+     * The file offset of the first byte of the last sentence returned.
+     */
+    private long sentenceStart;
+
+    /**
+     * The file offset right after the last row of the last sentence returned.
+     */
+    private long sentenceEnd;
+
+    /**
+     * Column offsets of the line currently being tokenized.
+     */
+    private int[] columns = new int[64];
+
+    /**
+     * Creates a reader for the complete file.
+     *
+     * @param file the file to read.
+     * @throws IOException if I/O goes wrong.
+     */
+    public MappedTabReader(final File file) throws IOException {
+        this(file, 0, file.length());
+    }
+
+    /**
+     * Creates a reader for the bytes of the file between <code>start</code> and <code>end</code>.
+     *
+     * @param file  the file to read.
+     * @param start the offset of the first byte to read.
+     * @param end   the offset after the last byte to read.
+     * @throws IOException if I/O goes wrong.
+     */
+    public MappedTabReader(final File file, final long start, final long end) throws IOException {
+        this.file = new RandomAccessFile(file, "r");
+        this.channel = this.file.getChannel();
+        this.end = end;
+        map(start);
+    }
+
+    /**
+     * Maps the window starting at the given file offset.
+     *
+     * @param start the file offset of the window.
+     * @throws IOException if I/O goes wrong.
+     */
+    private void map(final long start) throws IOException {
+        bufferStart = start;
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(windowSize, end - start));
+        position = 0;
+    }
+
+    /**
+     * Reads the next sentence.
+     *
+     * @return the rows of the next sentence (possibly empty if there are two consecutive boundary lines), or null if
+     *         there are no more sentences.
+     * @throws IOException if I/O goes wrong.
+     */
+    public List<TabRow> nextSentence() throws IOException {
+        ArrayList<TabRow> rows = new ArrayList<TabRow>();
+        int start = position;
+        while (true) {
+            int lineEnd = findLineEnd(position);
+            boolean lastWindow = bufferStart + buffer.limit() >= end;
+            if (lineEnd == buffer.limit() && !lastWindow) {
+                //the sentence crosses the end of the window: map a new window at the start of the sentence
+                if (start == 0) windowSize = (int) Math.min(Integer.MAX_VALUE, 2L * windowSize);
+                map(bufferStart + start);
+                rows.clear();
+                start = 0;
+                continue;
+            }
+            if (position == lineEnd && lineEnd == buffer.limit()) {
+                //end of input
+                sentenceStart = bufferStart + start;
+                sentenceEnd = bufferStart + position;
+                return rows.size() > 0 ? rows : null;
+            }
+            int count = tokenize(position, lineEnd);
+            int next = lineEnd < buffer.limit() ? lineEnd + 1 : lineEnd;
+            if (count == 0 || columnEquals(0, BOUNDARY_MARKER)) {
+                sentenceStart = bufferStart + start;
+                sentenceEnd = bufferStart + position;
+                position = next;
+                return rows;
+            }
+            int[] offsets = new int[2 * count];
+            System.arraycopy(columns, 0, offsets, 0, offsets.length);
+            rows.add(new TabRow(buffer, offsets, count));
+            position = next;
+        }
+    }
+
+    /**
+     * Finds the position of the next newline character or the end of the buffer.
+     *
+     * @param from where to start searching.
+     * @return the position of the next newline or the buffer limit.
+     */
+    private int findLineEnd(final int from) {
+        int limit = buffer.limit();
+        for (int i = from; i < limit; ++i)
+            if (buffer.get(i) == '\n') return i;
+        return limit;
+    }
+
+    /**
+     * Splits the given line into whitespace separated columns and stores their offsets in <code>columns</code>.
+     *
+     * @param from the start of the line.
+     * @param to   the end of the line (exclusive).
+     * @return the number of columns.
+     */
+    private int tokenize(final int from, final int to) {
+        int count = 0;
+        int i = from;
+        while (i < to) {
+            while (i < to && isWhitespace(buffer.get(i))) ++i;
+            if (i == to) break;
+            int columnStart = i;
+            while (i < to && !isWhitespace(buffer.get(i))) ++i;
+            if (2 * count + 1 >= columns.length) {
+                int[] newColumns = new int[columns.length * 2];
+                System.arraycopy(columns, 0, newColumns, 0, columns.length);
+                columns = newColumns;
+            }
+            columns[2 * count] = columnStart;
+            columns[2 * count + 1] = i;
+            ++count;
+        }
+        return count;
+    }
+
+    /**
+     * Checks whether the given column of the current line has the given ASCII value.
+     *
+     * @param column the column.
+     * @param ascii  the value.
+     * @return true iff the column equals the given value.
+     */
+    private boolean columnEquals(final int column, final String ascii) {
+        int start = columns[2 * column];
+        int length = columns[2 * column + 1] - start;
+        if (length != ascii.length()) return false;
+        for (int i = 0; i < length; ++i)
+            if (buffer.get(start + i) != ascii.charAt(i)) return false;
+        return true;
+    }
+
+    /**
+     * Checks whether the byte is a whitespace character (an ASCII control character or space).
+     *
+     * @param b the byte to check.
+     * @return true iff the byte is whitespace.
+     */
+    private static boolean isWhitespace(final byte b) {
+        return b >= 0 && b <= ' ';
+    }
+
+    /**
+     * Returns the file offset of the first byte of the last sentence returned by {@link #nextSentence()}.
+     *
+     * @return the start offset of the last sentence.
+     */
+    public long getSentenceStart() {
+        return sentenceStart;
+    }
+
+    /**
+     * Returns the file offset right after the last row of the last sentence returned by {@link #nextSentence()}.
+     *
+     * @return the end offset of the last sentence.
+     */
+    public long getSentenceEnd() {
+        return sentenceEnd;
+    }
+
+    /**
+     * Closes the underlying file. Rows that were already returned remain readable.
+     *
+     * @throws IOException if I/O goes wrong.
+     */
+    public void close() throws IOException {
+        file.close();
+    }
+}
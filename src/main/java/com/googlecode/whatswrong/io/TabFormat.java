@@ -1,7 +1,9 @@
 package com.googlecode.whatswrong.io;
 
+import com.googlecode.whatswrong.CompactNLPInstance;
 import com.googlecode.whatswrong.NLPInstance;
 import com.googlecode.whatswrong.SimpleGridBagConstraints;
+import com.googlecode.whatswrong.SymbolTable;
 
 import javax.swing.*;
 import java.awt.*;
@@ -10,12 +12,14 @@ import java.awt.event.ActionListener;
 import java.io.*;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.*;
 
 /**
  * A TabFormat loads data from text files where token properties are represented as white-space/tab separated values.
  * This includes formats such as the CoNLL shared task formats or the MALT-Tab format. This class represents the generic
  * framework to process such tab separated data. To implement a concrete format clients have to implement the {@link
- * TabProcessor} interface.
+ * TabProcessor} interface. Note that TabProcessor implementations are called from several loader threads at once and
+ * hence need to be thread-safe.
  *
  * @author Sebastian Riedel
  */
@@ -26,20 +30,17 @@ public class TabFormat implements CorpusFormat {
     private SortedMap<String, TabProcessor> processors = new TreeMap<String, TabProcessor>();
     private JComboBox type;
     private JCheckBox open;
+    private JCheckBox lazy;
     private Monitor monitor;
 
+    /**
+     * How many sentences per worker thread may wait to be processed while loading.
+     */
+    private static final int MAX_PENDING_PER_THREAD = 64;
+
 
     public TabFormat() {
-        addProcessor("CCG", new CCG());
-        addProcessor("CoNLL 2009", new CoNLL2009());
-        addProcessor("CoNLL 2008", new CoNLL2008());
-        addProcessor("CoNLL 2006", new CoNLL2006());
-        //addProcessor("CoNLL 2005", new CoNLL2005());
-        addProcessor("CoNLL 2004", new CoNLL2004());
-        addProcessor("CoNLL 2002", new CoNLL2002());
-        addProcessor("CoNLL 2003", new CoNLL2003());
-        addProcessor("CoNLL 2000", new CoNLL2000());
-        addProcessor(new MaltTab());
+        processors.putAll(createProcessors());
 
         accessory = new JPanel(new GridBagLayout());
         type = new JComboBox(new Vector<Object>(processors.values()));
@@ -56,6 +57,32 @@ public class TabFormat implements CorpusFormat {
         accessory.add(type, new SimpleGridBagConstraints(0, false));
         accessory.add(open, new SimpleGridBagConstraints(1, false));
 
+        lazy = new JCheckBox("lazy", false);
+        lazy.setToolTipText("If checked the file is only indexed when loaded, and instances are parsed when shown");
+        accessory.add(lazy, new SimpleGridBagConstraints(2, false));
+
+    }
+
+    /**
+     * Creates the built-in processors. This doesn't involve any Swing classes, so clients that run without a display
+     * can use it to look up processors by name.
+     *
+     * @return a map from processor names to processors.
+     */
+    public static SortedMap<String, TabProcessor> createProcessors() {
+        SortedMap<String, TabProcessor> result = new TreeMap<String, TabProcessor>();
+        result.put("CCG", new CCG());
+        result.put("CoNLL 2009", new CoNLL2009());
+        result.put("CoNLL 2008", new CoNLL2008());
+        result.put("CoNLL 2006", new CoNLL2006());
+        //result.put("CoNLL 2005", new CoNLL2005());
+        result.put("CoNLL 2004", new CoNLL2004());
+        result.put("CoNLL 2002", new CoNLL2002());
+        result.put("CoNLL 2003", new CoNLL2003());
+        result.put("CoNLL 2000", new CoNLL2000());
+        MaltTab maltTab = new MaltTab();
+        result.put(maltTab.toString(), maltTab);
+        return result;
     }
 
     public void addProcessor(String name, TabProcessor processor) {
@@ -89,56 +116,164 @@ public class TabFormat implements CorpusFormat {
     public void loadProperties(Properties properties, String prefix) {
         String yearString = properties.getProperty(prefix + ".tab.type", "CoNLL 2008");
         type.setSelectedItem(processors.get(yearString));
+        lazy.setSelected(Boolean.valueOf(properties.getProperty(prefix + ".tab.lazy", "false")));
+        open.setSelected(Boolean.valueOf(properties.getProperty(prefix + ".tab.open", "false")));
     }
 
 
     public void saveProperties(Properties properties, String prefix) {
         properties.setProperty(prefix + ".tab.type", type.getSelectedItem().toString());
+        properties.setProperty(prefix + ".tab.lazy", String.valueOf(lazy.isSelected()));
+        properties.setProperty(prefix + ".tab.open", String.valueOf(open.isSelected()));
+
+    }
+
 
+    /**
+     * Returns the given file and, if the "open" option is selected, the file with the open dataset.
+     *
+     * @param file the file to load the corpus from.
+     * @return the files read when loading the corpus.
+     */
+    public java.util.List<File> getInputFiles(File file) {
+        ArrayList<File> result = new ArrayList<File>();
+        result.add(file);
+        if (open.isSelected()) result.add(getOpenFile(file));
+        return result;
     }
 
+    /**
+     * Returns the file with the open dataset that belongs to the given file: the file with the same name but ".open"
+     * extension.
+     *
+     * @param file the file with the closed dataset.
+     * @return the file with the open dataset.
+     */
+    private static File getOpenFile(File file) {
+        return new File(file.getParent() + "/" +
+            file.getName().substring(0, file.getName().lastIndexOf('.')) + ".open");
+    }
 
     public java.util.List<NLPInstance> load(File file, int from, int to) throws IOException {
         TabProcessor processor = (TabProcessor) type.getSelectedItem();
-        java.util.List<NLPInstance> result = loadTabs(file, from, to, processor, false);
+        SymbolTable symbols = new SymbolTable();
+        if (lazy.isSelected()) return loadIndexed(file, from, to, processor, symbols);
+        java.util.List<NLPInstance> result = loadTabs(file, from, to, processor, false, symbols,
+            !open.isSelected());
         if (open.isSelected()) {
-            String filename = file.getName().substring(0, file.getName().lastIndexOf('.')) + ".open";
-            File openFile = new File(file.getParent() + "/" + filename);
-            java.util.List<NLPInstance> openCorpus = loadTabs(openFile, from, to, processor, true);
+            java.util.List<NLPInstance> openCorpus = loadTabs(getOpenFile(file), from, to, processor, true, symbols, false);
             for (int i = 0; i < openCorpus.size(); ++i) {
                 result.get(i).merge(openCorpus.get(i));
             }
+            //compact only after merging, compact instances are read-only
+            for (int i = 0; i < result.size(); ++i)
+                result.set(i, new CompactNLPInstance(result.get(i), symbols));
+        }
+        return result;
+    }
 
+    /**
+     * Creates a corpus that only indexes the sentence boundaries of the file and parses instances on demand.
+     *
+     * @param file      the file to load.
+     * @param from      the index of the first instance.
+     * @param to        the index of the last instance (exclusive).
+     * @param processor the processor that creates the instances.
+     * @param symbols   the symbol table of the corpus.
+     * @return an {@link IndexedTabCorpus} for the given file.
+     * @throws IOException if I/O goes wrong.
+     */
+    private java.util.List<NLPInstance> loadIndexed(File file, int from, int to, TabProcessor processor,
+                                                    SymbolTable symbols)
+        throws IOException {
+        IndexedTabCorpus result = new IndexedTabCorpus(file, from, to, processor, false, symbols,
+            IndexedTabCorpus.DEFAULT_CACHE_SIZE, monitor);
+        if (open.isSelected()) {
+            result.setMerged(new IndexedTabCorpus(getOpenFile(file), from, to, processor, true, symbols,
+                IndexedTabCorpus.DEFAULT_CACHE_SIZE, monitor));
         }
         return result;
     }
 
-    private java.util.List<NLPInstance> loadTabs(File file, int from, int to, TabProcessor processor, boolean open)
+    /**
+     * Loads the instances of the given file. A single thread splits the file into sentences while a pool of worker
+     * threads (one per processor) turns the sentences into instances and interns their strings (or stores them as
+     * {@link CompactNLPInstance} objects). The results are collected in corpus order, and the number of sentences
+     * waiting to be processed is bounded to keep memory usage flat.
+     *
+     * @param file      the file to load.
+     * @param from      the index of the first instance.
+     * @param to        the index of the last instance (exclusive).
+     * @param processor the processor that creates the instances.
+     * @param open      whether to create instances of the open dataset.
+     * @param symbols   the symbol table of the corpus.
+     * @param compact   whether to store the instances as compact instances.
+     * @return the list of instances in corpus order.
+     * @throws IOException if I/O goes wrong.
+     */
+    private java.util.List<NLPInstance> loadTabs(File file, int from, int to,
+                                                 final TabProcessor processor, final boolean open,
+                                                 final SymbolTable symbols, final boolean compact)
         throws IOException {
-        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        MappedTabReader reader = new MappedTabReader(file);
         ArrayList<NLPInstance> corpus = new ArrayList<NLPInstance>();
-        ArrayList<List<String>> rows = new ArrayList<List<String>>();
-        int instanceNr = 0;
-        for (String line = reader.readLine(); line != null && instanceNr < to; line = reader.readLine()) {
-            line = line.trim();
-            if (line.equals("") || line.split("\\s")[0].equals("<\\s>")) {
-                monitor.progressed(instanceNr);
-                if (instanceNr++ < from) continue;
-                NLPInstance instance = open ? processor.createOpen(rows) : processor.create(rows);
-                corpus.add(instance);
-                rows.clear();
-            } else {
-                if (instanceNr < from) continue;
-                rows.add(Arrays.asList(line.split("\\s+")));
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "TabFormat worker");
+                thread.setDaemon(true);
+                return thread;
             }
-
+        });
+        LinkedList<Future<NLPInstance>> pending = new LinkedList<Future<NLPInstance>>();
+        try {
+            int instanceNr = 0;
+            for (List<TabRow> sentence = reader.nextSentence(); sentence != null && instanceNr < to;
+                 sentence = reader.nextSentence()) {
+                if (instanceNr++ < from) {
+                    monitor.progressed(instanceNr - 1);
+                    continue;
+                }
+                final List<TabRow> rows = sentence;
+                pending.add(executor.submit(new Callable<NLPInstance>() {
+                    public NLPInstance call() {
+                        NLPInstance instance = open ? processor.createOpen(rows) : processor.create(rows);
+                        return compact ? new CompactNLPInstance(instance, symbols) : symbols.intern(instance);
+                    }
+                }));
+                if (pending.size() >= threads * MAX_PENDING_PER_THREAD)
+                    collect(pending.removeFirst(), corpus, from);
+            }
+            while (!pending.isEmpty())
+                collect(pending.removeFirst(), corpus, from);
+        } finally {
+            executor.shutdownNow();
+            reader.close();
         }
-        if (rows.size() > 0)
-            corpus.add(open ? processor.createOpen(rows) : processor.create(rows));
         return corpus;
 
     }
 
+    /**
+     * Waits for the given instance to be created, adds it to the corpus and notifies the monitor.
+     *
+     * @param future the future result of creating an instance.
+     * @param corpus the corpus to add the instance to.
+     * @param from   the index of the first instance of the corpus.
+     */
+    private void collect(Future<NLPInstance> future, java.util.List<NLPInstance> corpus, int from) {
+        try {
+            corpus.add(future.get());
+        } catch (InterruptedException e) {
+            throw new RuntimeException("Interrupted while loading", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error) throw (Error) e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+        monitor.progressed(from + corpus.size() - 1);
+    }
+
     public static void extractSpan03(java.util.List<? extends java.util.List<String>> rows,
                                      int column,
                                      String type,
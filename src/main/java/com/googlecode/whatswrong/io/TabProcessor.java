@@ -8,6 +8,9 @@ import java.util.List;
  * A TabProcessor takes a table of string values and returns an NLPInstance. This table of string value corresponds to
  * the standard way of representing sentences in the CoNLL shared tasks as well as the MALT-Tab format for
  * dependencies.
+ * <p/>
+ * <p>{@link TabFormat} creates instances for different sentences in parallel, so implementations must not keep mutable
+ * state between calls.
  *
  * @author Sebastian Riedel
  */
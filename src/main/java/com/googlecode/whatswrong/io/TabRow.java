@@ -0,0 +1,111 @@
+package com.googlecode.whatswrong.io;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * A TabRow is a row of a tab format file that has been tokenized by a {@link MappedTabReader}. It does not hold the
+ * column values as strings but only the positions of each column in the underlying (usually memory mapped) buffer. A
+ * column is decoded to a String only when a {@link TabProcessor} asks for it, and the decoded value is remembered for
+ * subsequent calls.
+ */
+public class TabRow extends AbstractList<String> implements RandomAccess {
+
+    /**
+     * The buffer that contains the bytes of this row.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * The start (even positions) and end (odd positions, exclusive) of each column in the buffer.
+     */
+    private final int[] offsets;
+
+    /**
+     * The number of columns.
+     */
+    private final int size;
+
+    /**
+     * The decoded column values, created on demand.
+     */
+    private String[] values;
+
+    /**
+     * Creates a new row.
+     *
+     * @param buffer  the buffer that contains the bytes of the row.
+     * @param offsets the start and end offsets of each column, alternating.
+     * @param size    the number of columns.
+     */
+    TabRow(final ByteBuffer buffer, final int[] offsets, final int size) {
+        this.buffer = buffer;
+        this.offsets = offsets;
+        this.size = size;
+    }
+
+    /**
+     * Returns the value of the given column, decoding it if necessary.
+     *
+     * @param column the column index.
+     * @return the value of the column.
+     */
+    public String get(final int column) {
+        if (column < 0 || column >= size)
+            throw new IndexOutOfBoundsException("Column: " + column + ", Size: " + size);
+        if (values == null) values = new String[size];
+        String value = values[column];
+        if (value == null) {
+            value = decode(offsets[2 * column], offsets[2 * column + 1]);
+            values[column] = value;
+        }
+        return value;
+    }
+
+    /**
+     * Returns the number of columns in this row.
+     *
+     * @return the number of columns in this row.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Decodes the UTF-8 bytes between start and end. Pure ASCII values (the common case) are converted without going
+     * through a charset decoder.
+     *
+     * @param start the start offset in the buffer.
+     * @param end   the end offset in the buffer (exclusive).
+     * @return the decoded string.
+     */
+    private String decode(final int start, final int end) {
+        int length = end - start;
+        char[] chars = new char[length];
+        for (int i = 0; i < length; ++i) {
+            byte b = buffer.get(start + i);
+            if (b < 0) return decodeUTF8(start, end);
+            chars[i] = (char) b;
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Decodes the bytes between start and end as UTF-8.
+     *
+     * @param start the start offset in the buffer.
+     * @param end   the end offset in the buffer (exclusive).
+     * @return the decoded string.
+     */
+    private String decodeUTF8(final int start, final int end) {
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; ++i) bytes[i] = buffer.get(start + i);
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.googlecode.whatswrong.io;
 
 import com.googlecode.whatswrong.NLPInstance;
 import com.googlecode.whatswrong.SimpleGridBagConstraints;
+import com.googlecode.whatswrong.SymbolTable;
 
 import javax.swing.*;
 import java.awt.*;
@@ -94,6 +95,10 @@ public class TheBeastFormat implements CorpusFormat {
         return preds;
     }
 
+    public List<File> getInputFiles(File file) {
+        return Collections.singletonList(file);
+    }
+
     public List<NLPInstance> load(File file, int from, int to) throws IOException {
         BufferedReader reader = new BufferedReader(new FileReader(file));
         Map<String, String> tokenPreds = extractPredicatesFromString(tokens.getText());
@@ -107,6 +112,7 @@ public class TheBeastFormat implements CorpusFormat {
         String asSpan = null;
 
         ArrayList<NLPInstance> result = new ArrayList<NLPInstance>(1000);
+        SymbolTable symbols = new SymbolTable();
 
         HashMap<String, List<List<String>>> rows = new HashMap<String, List<List<String>>>();
         for (String pred : tokenPreds.values())
@@ -127,7 +133,7 @@ public class TheBeastFormat implements CorpusFormat {
                         addDeps(rows.get(pred), pred, instance);
                     for (String pred : spanPreds.values())
                         addSpans(rows.get(pred), pred, instance);
-                    result.add(instance);
+                    result.add(symbols.intern(instance));
                     instance = new NLPInstance();
                     rows.clear();
                     for (String pred : tokenPreds.values())
@@ -162,7 +168,7 @@ public class TheBeastFormat implements CorpusFormat {
             addDeps(rows.get(pred), pred, instance);
         for (String pred : spanPreds.values())
             addSpans(rows.get(pred), pred, instance);
-        result.add(instance);
+        result.add(symbols.intern(instance));
         return result;
     }
 
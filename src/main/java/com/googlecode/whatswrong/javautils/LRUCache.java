@@ -0,0 +1,45 @@
+package com.googlecode.whatswrong.javautils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A LRUCache is a mapping with a bounded number of entries. When a new entry would exceed the capacity the least
+ * recently accessed entry is evicted.
+ */
+public class LRUCache<K, V> extends LinkedHashMap<K, V> {
+
+    /**
+     * The maximum number of entries in this cache.
+     */
+    private final int capacity;
+
+    /**
+     * Creates a new cache that holds at most <code>capacity</code> entries.
+     *
+     * @param capacity the maximum number of entries.
+     */
+    public LRUCache(final int capacity) {
+        super(16, 0.75f, true);
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns the maximum number of entries in this cache.
+     *
+     * @return the maximum number of entries in this cache.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Evicts the eldest entry if the cache has grown beyond its capacity.
+     *
+     * @param eldest the least recently accessed entry.
+     * @return true iff the size of this cache exceeds its capacity.
+     */
+    protected boolean removeEldestEntry(final Map.Entry<K, V> eldest) {
+        return size() > capacity;
+    }
+}
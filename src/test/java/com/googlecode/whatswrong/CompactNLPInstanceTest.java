@@ -0,0 +1,72 @@
+package com.googlecode.whatswrong;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+
+/**
+ * Tests that compact instances show the content of the instance they were created from and can't be changed.
+ */
+public class CompactNLPInstanceTest extends TestCase {
+
+    /**
+     * Creates an instance with two tokens, a dependency and a span.
+     *
+     * @return the instance.
+     */
+    private static NLPInstance createInstance() {
+        NLPInstance instance = new NLPInstance();
+        instance.addToken().addProperty("Word", "the").addProperty("Pos", "DT");
+        instance.addToken().addProperty("Word", "dog").addProperty("Pos", "NN");
+        instance.addDependency(1, 0, "NMOD", "dep", "a dependency");
+        instance.addSpan(0, 1, "NP", "chunk");
+        return instance;
+    }
+
+    /**
+     * Checks that tokens and edges are the same as in the original instance.
+     */
+    public void testContent() {
+        NLPInstance original = createInstance();
+        CompactNLPInstance compact = new CompactNLPInstance(original, new SymbolTable());
+        assertEquals(2, compact.getTokens().size());
+        assertEquals("dog", compact.getToken(1).getProperty(new TokenProperty("Word", 0)));
+        assertEquals(original.getEdges(), compact.getEdges());
+        assertEquals(1, compact.getEdges(Edge.RenderType.span).size());
+        assertEquals("a dependency", compact.getEdges(Edge.RenderType.dependency).get(0).getDescription());
+    }
+
+    /**
+     * Checks that all methods that add edges throw an exception.
+     */
+    public void testAddEdgeIsNotSupported() {
+        CompactNLPInstance compact = new CompactNLPInstance(createInstance(), new SymbolTable());
+        Token from = compact.getToken(0);
+        Token to = compact.getToken(1);
+        try {
+            compact.addEdge(from, to, "SBJ", "dep");
+            fail();
+        } catch (UnsupportedOperationException e) {
+            //expected
+        }
+        try {
+            compact.addEdge(from, to, "SBJ", "dep", Edge.RenderType.dependency);
+            fail();
+        } catch (UnsupportedOperationException e) {
+            //expected
+        }
+        try {
+            compact.addEdge(0, 1, "SBJ", "dep");
+            fail();
+        } catch (UnsupportedOperationException e) {
+            //expected
+        }
+        try {
+            compact.addEdges(new ArrayList<Edge>());
+            fail();
+        } catch (UnsupportedOperationException e) {
+            //expected
+        }
+        assertEquals(2, compact.getEdges().size());
+    }
+}
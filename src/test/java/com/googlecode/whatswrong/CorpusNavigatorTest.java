@@ -0,0 +1,103 @@
+package com.googlecode.whatswrong;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests that the navigator releases the difference corpora and indices of removed corpora.
+ */
+public class CorpusNavigatorTest extends TestCase {
+
+    /**
+     * The loader of gold corpora.
+     */
+    private CorpusLoader goldLoader;
+
+    /**
+     * The loader of guess corpora.
+     */
+    private CorpusLoader guessLoader;
+
+    /**
+     * The navigator under test.
+     */
+    private CorpusNavigator navigator;
+
+    /**
+     * Creates the loaders and the navigator.
+     */
+    protected void setUp() {
+        System.setProperty("java.awt.headless", "true");
+        goldLoader = new CorpusLoader("Gold");
+        guessLoader = new CorpusLoader("Guess");
+        NLPCanvas canvas = new NLPCanvas();
+        EdgeTypeFilter filter = new EdgeTypeFilter();
+        canvas.setFilter(filter);
+        navigator = new CorpusNavigator(canvas, goldLoader, guessLoader, filter);
+    }
+
+    /**
+     * Creates a corpus of one instance.
+     *
+     * @return a corpus with one instance.
+     */
+    private static List<NLPInstance> createCorpus() {
+        NLPInstance instance = new NLPInstance();
+        instance.addToken().addProperty("Word", "dog");
+        ArrayList<NLPInstance> corpus = new ArrayList<NLPInstance>();
+        corpus.add(instance);
+        return corpus;
+    }
+
+    /**
+     * Checks that removing a guess corpus disposes its difference corpus and that a new one is created afterwards.
+     */
+    public void testRemovingGuessDisposesDiffCorpus() {
+        List<NLPInstance> gold = createCorpus();
+        List<NLPInstance> guess = createCorpus();
+        navigator.corpusAdded(gold, goldLoader);
+        navigator.corpusAdded(guess, guessLoader);
+        DiffCorpus diffCorpus = navigator.getDiffCorpus(gold, guess);
+        assertSame(diffCorpus, navigator.getDiffCorpus(gold, guess));
+
+        navigator.corpusRemoved(guess, guessLoader);
+
+        assertTrue(diffCorpus.isDisposed());
+        assertNotSame(diffCorpus, navigator.getDiffCorpus(gold, guess));
+    }
+
+    /**
+     * Checks that removing a gold corpus disposes its difference corpus.
+     */
+    public void testRemovingGoldDisposesDiffCorpus() {
+        List<NLPInstance> gold = createCorpus();
+        List<NLPInstance> guess = createCorpus();
+        navigator.corpusAdded(gold, goldLoader);
+        navigator.corpusAdded(guess, guessLoader);
+        DiffCorpus diffCorpus = navigator.getDiffCorpus(gold, guess);
+
+        navigator.corpusRemoved(gold, goldLoader);
+
+        assertTrue(diffCorpus.isDisposed());
+    }
+
+    /**
+     * Checks that removing a guess corpus cancels the search index of its difference corpus.
+     */
+    public void testRemovingGuessCancelsDiffIndex() {
+        List<NLPInstance> gold = createCorpus();
+        List<NLPInstance> guess = createCorpus();
+        navigator.corpusAdded(gold, goldLoader);
+        navigator.corpusAdded(guess, guessLoader);
+        DiffCorpus diffCorpus = navigator.getDiffCorpus(gold, guess);
+        CorpusIndex index = navigator.getIndex(diffCorpus);
+        assertSame(index, navigator.getIndex(diffCorpus));
+
+        navigator.corpusRemoved(guess, guessLoader);
+
+        assertTrue(index.isCancelled());
+        assertNotSame(index, navigator.getIndex(diffCorpus));
+    }
+}
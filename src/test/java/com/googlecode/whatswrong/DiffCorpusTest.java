@@ -0,0 +1,105 @@
+package com.googlecode.whatswrong;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests that the differences of a diff corpus are calculated once, even if they are requested concurrently.
+ */
+public class DiffCorpusTest extends TestCase {
+
+    /**
+     * Creates a small corpus.
+     *
+     * @param size the number of instances.
+     * @return a corpus of instances with one dependency each.
+     */
+    private static List<NLPInstance> createCorpus(int size) {
+        ArrayList<NLPInstance> corpus = new ArrayList<NLPInstance>();
+        for (int i = 0; i < size; ++i) {
+            NLPInstance instance = new NLPInstance();
+            instance.addToken().addProperty("Word", "the");
+            instance.addToken().addProperty("Word", "dog");
+            instance.addDependency(1, 0, "NMOD", "dep");
+            corpus.add(instance);
+        }
+        return corpus;
+    }
+
+    /**
+     * Checks that a request for a difference that is being calculated waits for that calculation.
+     *
+     * @throws Exception if the threads are interrupted.
+     */
+    public void testConcurrentRequestsDiffOnce() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+        NLPDiff diff = new NLPDiff() {
+            public NLPInstance diff(NLPInstance goldInstance, NLPInstance guessInstance) {
+                calls.incrementAndGet();
+                started.countDown();
+                try {
+                    proceed.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.diff(goldInstance, guessInstance);
+            }
+        };
+        final DiffCorpus corpus = new DiffCorpus(createCorpus(3), createCorpus(3), diff);
+        final NLPInstance[] results = new NLPInstance[2];
+        Thread first = new Thread(new Runnable() {
+            public void run() {
+                results[0] = corpus.get(1);
+            }
+        });
+        first.start();
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        Thread second = new Thread(new Runnable() {
+            public void run() {
+                results[1] = corpus.get(1);
+            }
+        });
+        second.start();
+        Thread.sleep(100);
+        proceed.countDown();
+        first.join(10000);
+        second.join(10000);
+
+        assertEquals(1, calls.get());
+        assertNotNull(results[0]);
+        assertSame(results[0], results[1]);
+        assertSame(results[0], corpus.get(1));
+        assertEquals(1, calls.get());
+        corpus.dispose();
+    }
+
+    /**
+     * Checks that a failed calculation is reported and can be repeated.
+     */
+    public void testFailedDiffIsNotCached() {
+        final AtomicInteger calls = new AtomicInteger();
+        NLPDiff diff = new NLPDiff() {
+            public NLPInstance diff(NLPInstance goldInstance, NLPInstance guessInstance) {
+                if (calls.incrementAndGet() == 1) throw new IllegalStateException("first call");
+                return super.diff(goldInstance, guessInstance);
+            }
+        };
+        DiffCorpus corpus = new DiffCorpus(createCorpus(1), createCorpus(1), diff);
+        try {
+            corpus.get(0);
+            fail("the exception of the diff should be thrown");
+        } catch (IllegalStateException e) {
+            assertEquals("first call", e.getMessage());
+        }
+        assertEquals(1, corpus.get(0).getEdges().size());
+        assertEquals(2, calls.get());
+        corpus.dispose();
+    }
+}
@@ -0,0 +1,142 @@
+package com.googlecode.whatswrong;
+
+import com.googlecode.whatswrong.javautils.Counter;
+import com.googlecode.whatswrong.javautils.HashMultiMapLinkedList;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests the stacking of edges in {@link AbstractEdgeLayout} by comparing it with the pairwise definitions of nesting,
+ * overlap and crossing on random instances.
+ */
+public class EdgeStackingTest extends TestCase {
+
+    /**
+     * The layout whose stacking methods are tested.
+     */
+    private final DependencyLayout layout = new DependencyLayout();
+
+    /**
+     * Creates random edges between few tokens, so that there are many duplicate spans, nested edges and crossings.
+     *
+     * @param random the random generator.
+     * @param count  the number of edges.
+     * @param loops  whether edges may start and end at the same token.
+     * @return the edges.
+     */
+    private static List<Edge> createEdges(Random random, int count, boolean loops) {
+        NLPInstance instance = new NLPInstance();
+        int tokens = 2 + random.nextInt(10);
+        for (int i = 0; i < tokens; ++i) instance.addToken().addProperty("Word", "w" + i);
+        ArrayList<Edge> edges = new ArrayList<Edge>();
+        while (edges.size() < count) {
+            int from = random.nextInt(tokens);
+            int to = random.nextInt(tokens);
+            if (from == to && !loops) continue;
+            edges.add(new Edge(instance.getToken(from), instance.getToken(to),
+                "L" + random.nextInt(3), "T" + random.nextInt(2)));
+        }
+        return edges;
+    }
+
+    /**
+     * Calculates the depth of an edge as the longest chain of edges drawn under it.
+     *
+     * @param dominates the edges drawn directly under each edge.
+     * @param depth     the depths calculated so far.
+     * @param edge      the edge.
+     * @return the depth of the edge.
+     */
+    private static int calculateDepth(HashMultiMapLinkedList<Edge, Edge> dominates, Counter<Edge> depth, Edge edge) {
+        if (depth.get(edge) > 0 || dominates.get(edge).size() == 0) return depth.get(edge);
+        int max = 0;
+        for (Edge under : dominates.get(edge)) max = Math.max(max, calculateDepth(dominates, depth, under));
+        depth.put(edge, max + 1);
+        return max + 1;
+    }
+
+    /**
+     * Calculates depths by comparing all pairs of edges.
+     *
+     * @param edges   the edges.
+     * @param overlap true if edges are stacked like spans, false if they are stacked like dependencies.
+     * @return the depths of the edges.
+     */
+    private static Counter<Edge> calculateDepths(List<Edge> edges, boolean overlap) {
+        HashMultiMapLinkedList<Edge, Edge> dominates = new HashMultiMapLinkedList<Edge, Edge>();
+        for (Edge over : edges)
+            for (Edge under : edges)
+                if (over != under && (over.covers(under) || over.coversSemi(under) ||
+                    over.coversExactly(under) && over.lexicographicOrder(under) > 0 ||
+                    overlap && over.overlaps(under) && over.getMinIndex() < under.getMinIndex()))
+                    dominates.add(over, under);
+        Counter<Edge> depth = new Counter<Edge>();
+        for (Edge edge : edges) calculateDepth(dominates, depth, edge);
+        return depth;
+    }
+
+    /**
+     * Calculates crossing offsets by visiting all pairs of edges.
+     *
+     * @param edges          the edges.
+     * @param depth          the depths of the edges.
+     * @param heightPerLevel the height of a level.
+     * @return the offsets of the edges.
+     */
+    private static Counter<Edge> calculateOffsets(List<Edge> edges, Counter<Edge> depth, int heightPerLevel) {
+        Counter<Edge> offset = new Counter<Edge>();
+        for (Edge left : edges)
+            for (Edge right : edges)
+                if (left != right && left.crosses(right) && depth.get(left).equals(depth.get(right))) {
+                    if (offset.get(left) == 0 && offset.get(right) == 0)
+                        offset.increment(left, heightPerLevel / 2);
+                    else if (offset.get(left).equals(offset.get(right))) {
+                        offset.put(left, heightPerLevel / 3);
+                        offset.put(right, heightPerLevel * 2 / 3);
+                    }
+                }
+        return offset;
+    }
+
+    /**
+     * Checks that two counters agree on the given edges.
+     *
+     * @param message  the message to report.
+     * @param edges    the edges.
+     * @param expected the expected counts.
+     * @param actual   the actual counts.
+     */
+    private static void assertSameCounts(String message, List<Edge> edges, Counter<Edge> expected,
+                                         Counter<Edge> actual) {
+        for (Edge edge : edges) assertEquals(message + " " + edge, expected.get(edge), actual.get(edge));
+    }
+
+    /**
+     * Checks nesting depths and crossing offsets of dependency edges against the pairwise definitions.
+     */
+    public void testNestingDepthsAndCrossingOffsets() {
+        Random random = new Random(0);
+        for (int instance = 0; instance < 300; ++instance) {
+            List<Edge> edges = createEdges(random, 1 + random.nextInt(25), false);
+            Counter<Edge> expected = calculateDepths(edges, false);
+            Counter<Edge> depth = layout.calculateNestingDepths(edges);
+            assertSameCounts("depth of", edges, expected, depth);
+            assertSameCounts("offset of", edges, calculateOffsets(edges, expected, layout.getHeightPerLevel()),
+                layout.calculateCrossingOffsets(edges, depth));
+        }
+    }
+
+    /**
+     * Checks overlap depths of span edges against the pairwise definition.
+     */
+    public void testOverlapDepths() {
+        Random random = new Random(1);
+        for (int instance = 0; instance < 300; ++instance) {
+            List<Edge> edges = createEdges(random, 1 + random.nextInt(25), true);
+            assertSameCounts("depth of", edges, calculateDepths(edges, true), layout.calculateOverlapDepths(edges));
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.googlecode.whatswrong;
+
+import com.googlecode.whatswrong.javautils.Pair;
+import junit.framework.TestCase;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests the scores and label confusions of an evaluation.
+ */
+public class EvaluationTest extends TestCase {
+
+    /**
+     * Creates an instance with three tokens.
+     *
+     * @return an instance with three tokens and no edges.
+     */
+    private static NLPInstance createInstance() {
+        NLPInstance instance = new NLPInstance();
+        for (int i = 0; i < 3; ++i) instance.addToken().addProperty("Word", "w" + i);
+        return instance;
+    }
+
+    /**
+     * Checks counts, attachment scores and confusions of a single instance pair.
+     */
+    public void testEvaluate() {
+        NLPInstance gold = createInstance();
+        gold.addDependency(0, 1, "SBJ", "dep");
+        gold.addDependency(1, 2, "OBJ", "dep");
+        gold.addDependency(2, 0, "NMOD", "dep");
+        NLPInstance guess = createInstance();
+        guess.addDependency(0, 1, "SBJ", "dep");
+        guess.addDependency(1, 2, "SBJ", "dep");
+        guess.addDependency(0, 2, "NMOD", "dep");
+
+        Evaluation evaluation = new Evaluator(1).evaluate(gold, guess);
+
+        assertEquals(1, evaluation.getTotal().getTruePositives());
+        assertEquals(2, evaluation.getTotal().getFalsePositives());
+        assertEquals(2, evaluation.getTotal().getFalseNegatives());
+        assertEquals(1.0 / 3, evaluation.getLabeledAttachmentScore("dep"), 1e-9);
+        assertEquals(2.0 / 3, evaluation.getUnlabeledAttachmentScore("dep"), 1e-9);
+        List<Map.Entry<Pair<String, String>, Integer>> confusions = evaluation.getConfusions("dep");
+        assertEquals(1, confusions.size());
+        assertEquals(new Pair<String, String>("OBJ", "SBJ"), confusions.get(0).getKey());
+        assertEquals(1, confusions.get(0).getValue().intValue());
+    }
+
+    /**
+     * Checks that gold edges with different labels between the same tokens are each attached, so that the label
+     * accuracy stays at most 1 and the LAS at most the UAS.
+     */
+    public void testSeveralLabelsOnOneArc() {
+        NLPInstance gold = createInstance();
+        gold.addDependency(0, 1, "A0", "role");
+        gold.addDependency(0, 1, "A1", "role");
+        gold.addDependency(0, 2, "A2", "role");
+        gold.addDependency(1, 2, "A0", "role");
+        NLPInstance guess = createInstance();
+        guess.addDependency(0, 1, "A0", "role");
+        guess.addDependency(0, 1, "A1", "role");
+        guess.addDependency(0, 2, "AM", "role");
+        guess.addDependency(0, 2, "A2", "role");
+        guess.addDependency(1, 2, "A1", "role");
+
+        Evaluation evaluation = new Evaluator(1).evaluate(gold, guess);
+
+        assertEquals(3, evaluation.getCounts("role").getTruePositives());
+        assertEquals(1, evaluation.getCounts("role").getFalseNegatives());
+        assertEquals(1.0, evaluation.getUnlabeledAttachmentScore("role"), 1e-9);
+        assertEquals(0.75, evaluation.getLabeledAttachmentScore("role"), 1e-9);
+        assertEquals(0.75, evaluation.getLabelAccuracy("role"), 1e-9);
+        List<Map.Entry<Pair<String, String>, Integer>> confusions = evaluation.getConfusions("role");
+        assertEquals(1, confusions.size());
+        assertEquals(new Pair<String, String>("A0", "A1"), confusions.get(0).getKey());
+
+        NLPInstance partial = createInstance();
+        partial.addDependency(0, 1, "A0", "role");
+        evaluation = new Evaluator(1).evaluate(gold, partial);
+        assertEquals(0.5, evaluation.getUnlabeledAttachmentScore("role"), 1e-9);
+        assertEquals(0.5, evaluation.getLabelAccuracy("role"), 1e-9);
+        confusions = evaluation.getConfusions("role");
+        assertEquals(new Pair<String, String>("A1", "A0"), confusions.get(0).getKey());
+    }
+
+    /**
+     * Checks that edges without label or type can be evaluated and reported.
+     */
+    public void testNullLabelsAndTypes() {
+        NLPInstance gold = createInstance();
+        gold.addDependency(0, 1, null, "dep");
+        gold.addDependency(1, 2, "OBJ", "dep");
+        gold.addDependency(2, 0, "NMOD", null);
+        NLPInstance guess = createInstance();
+        guess.addDependency(0, 1, "SBJ", "dep");
+        guess.addDependency(1, 2, "OBJ", "dep");
+
+        Evaluation evaluation = new Evaluator(1).evaluate(gold, guess);
+
+        List<String> types = evaluation.getTypes();
+        assertEquals(2, types.size());
+        assertNull(types.get(0));
+        List<String> labels = evaluation.getLabels("dep");
+        assertEquals(3, labels.size());
+        assertNull(labels.get(0));
+        assertEquals(1, evaluation.getLabels(null).size());
+        List<Map.Entry<Pair<String, String>, Integer>> confusions = evaluation.getConfusions("dep");
+        assertEquals(1, confusions.size());
+        assertEquals(new Pair<String, String>(null, "SBJ"), confusions.get(0).getKey());
+        assertNotNull(evaluation.toString());
+    }
+}
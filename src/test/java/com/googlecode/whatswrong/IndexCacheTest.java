@@ -0,0 +1,141 @@
+package com.googlecode.whatswrong;
+
+import junit.framework.TestCase;
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests storing and pruning indices in the index cache directory.
+ */
+public class IndexCacheTest extends TestCase {
+
+    /**
+     * The cache directory.
+     */
+    private File directory;
+
+    /**
+     * Creates the temporary cache directory.
+     *
+     * @throws Exception if the directory can't be created.
+     */
+    protected void setUp() throws Exception {
+        directory = File.createTempFile("indexcache", "");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdir());
+    }
+
+    /**
+     * Deletes the temporary cache directory.
+     */
+    protected void tearDown() {
+        delete(directory);
+    }
+
+    /**
+     * Deletes a file or directory recursively.
+     *
+     * @param file the file or directory to delete.
+     */
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) for (File child : children) delete(child);
+        file.delete();
+    }
+
+    /**
+     * Creates a small corpus.
+     *
+     * @return a corpus of two instances.
+     */
+    private static List<NLPInstance> createCorpus() {
+        ArrayList<NLPInstance> corpus = new ArrayList<NLPInstance>();
+        for (int i = 0; i < 2; ++i) {
+            NLPInstance instance = new NLPInstance();
+            instance.addToken().addProperty("Word", "the");
+            instance.addToken().addProperty("Word", "dog");
+            instance.addDependency(1, 0, "NMOD", "dep");
+            corpus.add(instance);
+        }
+        return corpus;
+    }
+
+    /**
+     * Waits until an index is complete.
+     *
+     * @param index the index.
+     * @throws InterruptedException if the thread is interrupted.
+     */
+    private static void waitFor(CorpusIndex index) throws InterruptedException {
+        for (int i = 0; i < 1000 && !index.isComplete(); ++i) Thread.sleep(10);
+        assertTrue(index.isComplete());
+    }
+
+    /**
+     * Creates an entry in the cache directory.
+     *
+     * @param name      the name of the entry.
+     * @param directory true if the entry is a directory, false if it is a file.
+     * @param modified  the modification time of the entry.
+     * @return the entry.
+     * @throws IOException if the entry can't be created.
+     */
+    private File createEntry(String name, boolean directory, long modified) throws IOException {
+        File entry = new File(this.directory, name);
+        assertTrue(directory ? entry.mkdir() : entry.createNewFile());
+        entry.setLastModified(modified);
+        return entry;
+    }
+
+    /**
+     * Checks that a stored index is reused for the same key.
+     *
+     * @throws Exception if the index can't be built.
+     */
+    public void testStoredIndexIsReused() throws Exception {
+        IndexCache cache = new IndexCache(directory, new WhitespaceAnalyzer(), 2);
+        waitFor(cache.getIndex(createCorpus(), "corpus"));
+        assertEquals(1, directory.listFiles().length);
+        CorpusIndex index = cache.getIndex(createCorpus(), "corpus");
+        assertTrue(index.isComplete());
+        assertEquals(2, index.size());
+    }
+
+    /**
+     * Checks that pruning deletes the least recently used indices but keeps temporary entries of builds in progress,
+     * phrase indices and indices that are in use.
+     *
+     * @throws Exception if the index can't be built.
+     */
+    public void testPruneKeepsEntriesInUse() throws Exception {
+        IndexCache cache = new IndexCache(directory, new WhitespaceAnalyzer(), 2);
+        CorpusIndex inUse = cache.getIndex(createCorpus(), "in use");
+        waitFor(inUse);
+        long now = System.currentTimeMillis();
+        File inUseDir = directory.listFiles()[0];
+        inUseDir.setLastModified(now - 100000000L);
+        File oldest = createEntry("oldest", true, now - 90000000L);
+        for (int i = 0; i < 30; ++i)
+            createEntry("index" + i, true, now - 80000000L + i * 1000);
+        File tmp = createEntry("index.tmp1", true, now - 1000);
+        File staleTmp = createEntry("index.tmp2", true, now - 200000000L);
+        ArrayList<File> phraseFiles = new ArrayList<File>();
+        for (int i = 0; i < 5; ++i)
+            phraseFiles.add(createEntry("index" + i + ".phrases", false, now - 100000000L));
+
+        waitFor(cache.getIndex(createCorpus(), "new"));
+        //the cache is pruned after the new index has become searchable
+        for (int i = 0; i < 1000 && oldest.exists(); ++i) Thread.sleep(10);
+
+        assertTrue(inUseDir.exists());
+        assertFalse(oldest.exists());
+        assertTrue(tmp.exists());
+        assertFalse(staleTmp.exists());
+        for (File phraseFile : phraseFiles) assertTrue(phraseFile.exists());
+        assertEquals(20 + 1 + 1 + 5, directory.listFiles().length);
+    }
+}
@@ -0,0 +1,69 @@
+package com.googlecode.whatswrong;
+
+import junit.framework.TestCase;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+/**
+ * Tests that cached layouts are shared between equal instances but report the edges of the instance they are
+ * requested for, and that renderers share layouts with their copies.
+ */
+public class LayoutCacheTest extends TestCase {
+
+    /**
+     * Creates an instance with one dependency.
+     *
+     * @param description the description of the dependency.
+     * @return an instance with two tokens and one dependency between them.
+     */
+    private static NLPInstance createInstance(String description) {
+        NLPInstance instance = new NLPInstance();
+        Token from = instance.addToken().addProperty("Word", "the");
+        Token to = instance.addToken().addProperty("Word", "dog");
+        instance.addEdge(new Edge(to, from, "NMOD", null, "dep", Edge.RenderType.dependency, description));
+        return instance;
+    }
+
+    /**
+     * Checks that the layout of an equal instance paints the same but returns the edges of that instance.
+     */
+    public void testCachedLayoutIsReboundToInstanceEdges() {
+        Graphics2D graphics = new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB).createGraphics();
+        SingleSentenceRenderer renderer = new SingleSentenceRenderer();
+        NLPInstance first = createInstance("first");
+        NLPInstance second = createInstance("second");
+
+        NLPLayout firstLayout = renderer.layout(first, graphics);
+        NLPLayout secondLayout = renderer.layout(second, graphics);
+
+        assertSame(firstLayout.getPaintIdentity(), secondLayout.getPaintIdentity());
+        assertSame(first.getEdges().get(0), firstLayout.getEdges().get(0));
+        Edge edge = secondLayout.getEdges().get(0);
+        assertSame(second.getEdges().get(0), edge);
+        assertEquals("second", edge.getDescription());
+        assertNotNull(secondLayout.getEdgeShape(edge));
+        assertSame(firstLayout, renderer.layout(first, graphics));
+    }
+
+    /**
+     * Checks that a renderer returns the layouts of its copies unless its settings have changed since the copy.
+     */
+    public void testCopySharesLayoutsWithCurrentSettings() {
+        Graphics2D graphics = new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB).createGraphics();
+        SingleSentenceRenderer renderer = new SingleSentenceRenderer();
+        renderer.setEdgeTypeColor("dep", Color.RED);
+        NLPCanvasRenderer copy = renderer.copy();
+        NLPInstance instance = createInstance("edge");
+
+        NLPLayout copied = copy.layout(instance, graphics);
+        assertSame(copied, renderer.layout(instance, graphics));
+
+        NLPCanvasRenderer outdated = renderer.copy();
+        renderer.setMargin(renderer.getMargin() + 10);
+        NLPLayout stale = outdated.layout(createInstance("edge"), graphics);
+        NLPLayout current = renderer.layout(instance, graphics);
+        assertNotSame(stale.getPaintIdentity(), current.getPaintIdentity());
+        assertTrue(current.getDimension().width > stale.getDimension().width);
+    }
+}
@@ -0,0 +1,147 @@
+package com.googlecode.whatswrong;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests the comparison of gold and guess instances.
+ */
+public class NLPDiffTest extends TestCase {
+
+    /**
+     * Creates an instance with the given number of tokens.
+     *
+     * @param tokens the number of tokens.
+     * @return an instance with tokens "w0", "w1" etc.
+     */
+    private static NLPInstance createInstance(int tokens) {
+        NLPInstance instance = new NLPInstance();
+        for (int i = 0; i < tokens; ++i) instance.addToken().addProperty("Word", "w" + i);
+        return instance;
+    }
+
+    /**
+     * Returns the types of the edges of an instance, in order.
+     *
+     * @param instance the instance.
+     * @return the edge types.
+     */
+    private static List<String> getTypes(NLPInstance instance) {
+        ArrayList<String> types = new ArrayList<String>();
+        for (Edge edge : instance.getEdges()) types.add(edge.getType());
+        return types;
+    }
+
+    /**
+     * Checks that false negatives, false positives and matches are found, and added in this order.
+     */
+    public void testDiff() {
+        NLPInstance gold = createInstance(3);
+        gold.addDependency(0, 1, "SBJ", "dep");
+        gold.addDependency(1, 2, "OBJ", "dep");
+        NLPInstance guess = createInstance(3);
+        guess.addDependency(1, 2, "OBJ", "dep");
+        guess.addDependency(2, 1, "NMOD", "dep");
+        guess.addDependency(0, 1, "OBJ", "dep");
+
+        NLPInstance diff = new NLPDiff().diff(gold, guess);
+
+        assertEquals(3, diff.getTokens().size());
+        List<String> types = getTypes(diff);
+        assertEquals(4, types.size());
+        assertEquals("dep:FN", types.get(0));
+        assertEquals("dep:FP", types.get(1));
+        assertEquals("dep:FP", types.get(2));
+        assertEquals("dep:Match", types.get(3));
+        assertEquals("SBJ", diff.getEdges().get(0).getLabel());
+        assertEquals("OBJ", diff.getEdges().get(3).getLabel());
+        for (Edge edge : diff.getEdges()) {
+            assertSame(diff.getToken(edge.getFrom().getIndex()), edge.getFrom());
+            assertSame(diff.getToken(edge.getTo().getIndex()), edge.getTo());
+        }
+    }
+
+    /**
+     * Checks that guess edges between tokens that the gold instance lacks keep their tokens.
+     */
+    public void testGuessHasMoreTokens() {
+        NLPInstance gold = createInstance(2);
+        gold.addDependency(0, 1, "SBJ", "dep");
+        NLPInstance guess = createInstance(4);
+        guess.addDependency(0, 1, "SBJ", "dep");
+        guess.addDependency(3, 2, "NMOD", "dep");
+
+        NLPInstance diff = new NLPDiff().diff(gold, guess);
+
+        assertEquals(4, diff.getTokens().size());
+        assertEquals(2, diff.getTokens().get(2).getIndex());
+        assertEquals(3, diff.getTokens().get(3).getIndex());
+        Edge fp = diff.getEdges().get(0);
+        assertEquals("dep:FP", fp.getType());
+        assertSame(diff.getToken(3), fp.getFrom());
+        assertSame(diff.getToken(2), fp.getTo());
+    }
+
+    /**
+     * Checks that edges are compared by tokens and type only when labels are ignored.
+     */
+    public void testCompareIgnoringLabels() {
+        NLPInstance gold = createInstance(2);
+        gold.addDependency(0, 1, "SBJ", "dep");
+        NLPInstance guess = createInstance(2);
+        guess.addDependency(0, 1, "OBJ", "dep");
+        final int[] counts = new int[3];
+        NLPDiff.Listener listener = new NLPDiff.Listener() {
+            public void match(Edge gold, Edge guess) {
+                ++counts[0];
+            }
+
+            public void falseNegative(Edge gold) {
+                ++counts[1];
+            }
+
+            public void falsePositive(Edge guess) {
+                ++counts[2];
+            }
+        };
+        NLPDiff diff = new NLPDiff();
+        diff.compare(gold, guess, listener, true);
+        assertEquals(1, counts[0]);
+        assertEquals(0, counts[1] + counts[2]);
+        diff.compare(gold, guess, listener, false);
+        assertEquals(1, counts[0]);
+        assertEquals(1, counts[1]);
+        assertEquals(1, counts[2]);
+    }
+
+    /**
+     * Checks that duplicate edges within one instance are reported once.
+     */
+    public void testDuplicateEdges() {
+        NLPInstance gold = createInstance(2);
+        gold.addDependency(0, 1, "SBJ", "dep");
+        gold.addDependency(0, 1, "SBJ", "dep");
+        NLPInstance guess = createInstance(2);
+        guess.addDependency(0, 1, "SBJ", "dep");
+
+        assertEquals(1, new NLPDiff().diff(gold, guess).getEdges().size());
+    }
+
+    /**
+     * Checks that comparisons stay correct when many distinct labels have been seen.
+     */
+    public void testManyLabels() {
+        NLPDiff nlpDiff = new NLPDiff();
+        for (int i = 0; i < 20000; ++i) {
+            NLPInstance gold = createInstance(2);
+            gold.addDependency(0, 1, "L" + i, "dep");
+            NLPInstance guess = createInstance(2);
+            guess.addDependency(0, 1, "L" + i, "dep");
+            NLPInstance diff = nlpDiff.diff(gold, guess);
+            assertEquals(1, diff.getEdges().size());
+            assertEquals("dep:Match", diff.getEdges().get(0).getType());
+        }
+    }
+}
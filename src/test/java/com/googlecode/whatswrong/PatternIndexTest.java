@@ -0,0 +1,155 @@
+package com.googlecode.whatswrong;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests structural queries against a pattern index.
+ */
+public class PatternIndexTest extends TestCase {
+
+    /**
+     * The index of the test corpus.
+     */
+    private PatternIndex index;
+
+    /**
+     * Creates an instance with the given words and part-of-speech tags.
+     *
+     * @param words the words and tags, alternating.
+     * @return an instance with one token per word.
+     */
+    private static NLPInstance createInstance(String... words) {
+        NLPInstance instance = new NLPInstance();
+        for (int i = 0; i < words.length; i += 2)
+            instance.addToken().addProperty("Word", words[i]).addProperty("Pos", words[i + 1]);
+        return instance;
+    }
+
+    /**
+     * Indexes a corpus of three instances.
+     */
+    protected void setUp() {
+        ArrayList<NLPInstance> corpus = new ArrayList<NLPInstance>();
+        NLPInstance first = createInstance("he", "PRP", "eats", "VB", "in", "IN");
+        first.addDependency(1, 0, "SBJ", "dep");
+        first.addDependency(1, 2, "OBJ", "dep");
+        corpus.add(first);
+        NLPInstance second = createInstance("she", "PRP", "sleeps", "VB");
+        second.addDependency(1, 0, "SBJ", "dep");
+        second.addDependency(1, 0, "A0", "role");
+        corpus.add(second);
+        NLPInstance third = createInstance("New York", "NNP", "grows", "VB", "fast", "RB");
+        third.addDependency(1, 0, "SBJ", "dep:FN");
+        third.addDependency(1, 2, "OBJ", "dep:FP");
+        corpus.add(third);
+        index = new PatternIndex(corpus);
+    }
+
+    /**
+     * Returns the instance indices of the matches.
+     *
+     * @param matches the matches.
+     * @return the instance index of each match, in order.
+     */
+    private static List<Integer> instances(List<PatternIndex.Match> matches) {
+        ArrayList<Integer> result = new ArrayList<Integer>();
+        for (PatternIndex.Match match : matches) result.add(match.instance);
+        return result;
+    }
+
+    /**
+     * Checks the sizes of the index.
+     */
+    public void testSize() {
+        assertEquals(3, index.size());
+        assertEquals(6, index.getEdgeCount());
+    }
+
+    /**
+     * Checks which queries are pattern queries.
+     */
+    public void testIsPatternQuery() {
+        assertTrue(PatternIndex.isPatternQuery("Pos=VB -[OBJ]-> *"));
+        assertTrue(PatternIndex.isPatternQuery("* -[]-> *"));
+        assertFalse(PatternIndex.isPatternQuery("Word:eats"));
+        assertFalse(PatternIndex.isPatternQuery("-[OBJ"));
+    }
+
+    /**
+     * Checks a pattern with token and label constraints and the reported match.
+     */
+    public void testSinglePattern() {
+        List<PatternIndex.Match> matches = index.search("Pos=VB -[OBJ]-> Pos=IN");
+        assertEquals(1, matches.size());
+        PatternIndex.Match match = matches.get(0);
+        assertEquals(0, match.instance);
+        assertEquals(1, match.from);
+        assertEquals(2, match.to);
+        assertEquals("OBJ", match.label);
+        assertEquals("eats", match.head);
+        assertEquals("in", match.dependent);
+    }
+
+    /**
+     * Checks that types are matched in full and by prefix and postfix.
+     */
+    public void testTypes() {
+        assertEquals(3, index.search("* -[SBJ, type=dep]-> *").size());
+        assertEquals(1, index.search("* -[SBJ, type=dep:FN]-> *").size());
+        assertEquals(1, index.search("* -[type=FP]-> *").size());
+        assertEquals(1, index.search("* -[label=A0, type=role]-> *").size());
+        assertEquals(0, index.search("* -[SBJ, type=role]-> *").size());
+        assertEquals(6, index.search("* -[]-> *").size());
+    }
+
+    /**
+     * Checks that all patterns of a query have to match and that the matches of the first pattern are returned.
+     */
+    public void testConjunction() {
+        List<PatternIndex.Match> matches = index.search("* -[SBJ]-> Pos=PRP & * -[OBJ]-> *");
+        assertEquals(1, matches.size());
+        assertEquals(0, matches.get(0).instance);
+        assertEquals("SBJ", matches.get(0).label);
+        assertEquals(0, index.search("* -[A0]-> * & * -[OBJ]-> *").size());
+        assertEquals(Arrays.asList(0, 0, 2, 2), instances(index.search("Pos=VB -[]-> * & * -[OBJ]-> *")));
+    }
+
+    /**
+     * Checks that quoted values can contain whitespace and separators.
+     */
+    public void testQuotedValues() {
+        List<PatternIndex.Match> matches = index.search("* -[SBJ]-> Word=\"New York\"");
+        assertEquals(1, matches.size());
+        assertEquals(2, matches.get(0).instance);
+        assertEquals("New York", matches.get(0).dependent);
+        assertEquals(0, index.search("* -[SBJ]-> Word=\"New York, NY\"").size());
+    }
+
+    /**
+     * Checks that malformed queries are rejected.
+     */
+    public void testMalformedQueries() {
+        try {
+            index.search("Pos=VB");
+            fail("a pattern without edge should be rejected");
+        } catch (IllegalArgumentException e) {
+            //expected
+        }
+        try {
+            index.search("VB -[OBJ]-> *");
+            fail("a token constraint without property should be rejected");
+        } catch (IllegalArgumentException e) {
+            //expected
+        }
+        try {
+            index.search("* -[role=A0]-> *");
+            fail("an unknown edge attribute should be rejected");
+        } catch (IllegalArgumentException e) {
+            //expected
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.googlecode.whatswrong;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests phrase queries against a phrase index by comparing them with a scan of the corpus.
+ */
+public class PhraseIndexTest extends TestCase {
+
+    /**
+     * The words of the test corpus. Several of them share prefixes.
+     */
+    private static final String[] WORDS = {"a", "ab", "abc", "b", "ba", "c"};
+
+    /**
+     * The part-of-speech tags of the test corpus.
+     */
+    private static final String[] TAGS = {"NN", "NNS", "VB"};
+
+    /**
+     * The queries that are checked.
+     */
+    private static final String[] QUERIES = {
+        "a", "a b", "ab*", "a*", "* a", "Pos=NN", "Pos=NN*", "a Pos=VB", "* *", "a * b", "ba c*", "b ba c a",
+        "Pos=VB Pos=NN", "zzz", "a zzz", "z*", "Pos=XX a"};
+
+    /**
+     * The test corpus.
+     */
+    private List<NLPInstance> corpus;
+
+    /**
+     * Creates a random corpus. Some instances are empty, and some tokens have no part-of-speech tag.
+     */
+    protected void setUp() {
+        Random random = new Random(0);
+        corpus = new ArrayList<NLPInstance>();
+        for (int i = 0; i < 60; ++i) {
+            NLPInstance instance = new NLPInstance();
+            int length = random.nextInt(9);
+            for (int j = 0; j < length; ++j) {
+                Token token = instance.addToken().addProperty("Word", WORDS[random.nextInt(WORDS.length)]);
+                if (random.nextInt(10) > 0) token.addProperty("Pos", TAGS[random.nextInt(TAGS.length)]);
+            }
+            corpus.add(instance);
+        }
+    }
+
+    /**
+     * Checks whether a token matches a slot of a query.
+     *
+     * @param token the token.
+     * @param slot  the slot.
+     * @return true iff the token matches the slot.
+     */
+    private static boolean matches(Token token, String slot) {
+        if (slot.equals("*")) return true;
+        String property = "Word";
+        String value = slot;
+        int equals = slot.indexOf('=');
+        if (equals > 0) {
+            property = slot.substring(0, equals);
+            value = slot.substring(equals + 1);
+        }
+        String actual = token.getProperty(new TokenProperty(property, 0));
+        if (actual == null) actual = "";
+        return value.endsWith("*") ? actual.startsWith(value.substring(0, value.length() - 1)) : actual.equals(value);
+    }
+
+    /**
+     * Finds the matches of a query by looking at every token of the corpus.
+     *
+     * @param query the query.
+     * @return the stream positions of the first tokens of all matches, in corpus order.
+     */
+    private int[] scan(String query) {
+        String[] slots = query.split(" ");
+        ArrayList<Integer> result = new ArrayList<Integer>();
+        int offset = 0;
+        for (NLPInstance instance : corpus) {
+            List<Token> tokens = instance.getTokens();
+            for (int start = 0; start + slots.length <= tokens.size(); ++start) {
+                boolean match = true;
+                for (int slot = 0; slot < slots.length && match; ++slot)
+                    match = matches(tokens.get(start + slot), slots[slot]);
+                if (match) result.add(offset + start);
+            }
+            offset += tokens.size() + 1;
+        }
+        int[] array = new int[result.size()];
+        for (int i = 0; i < array.length; ++i) array[i] = result.get(i);
+        return array;
+    }
+
+    /**
+     * Checks the matches and counts of all queries against a scan of the corpus.
+     *
+     * @param index the index of the corpus.
+     */
+    private void assertSameAsScan(PhraseIndex index) {
+        for (String query : QUERIES) {
+            int[] expected = scan(query);
+            assertEquals(query, Arrays.toString(expected), Arrays.toString(index.find(query)));
+            assertEquals(query, expected.length, index.count(query));
+        }
+    }
+
+    /**
+     * Checks that the index finds the same matches as a scan, whether the suffix array is sorted by one or more
+     * threads.
+     *
+     * @throws Exception if the thread is interrupted.
+     */
+    public void testFindMatchesScan() throws Exception {
+        assertSameAsScan(new PhraseIndex(corpus, "Word", 1));
+        assertSameAsScan(new PhraseIndex(corpus, "Word", 4));
+    }
+
+    /**
+     * Checks that stream positions are mapped back to instances, tokens and values.
+     *
+     * @throws Exception if the thread is interrupted.
+     */
+    public void testPositions() throws Exception {
+        PhraseIndex index = new PhraseIndex(corpus, "Word", 2);
+        assertEquals(corpus.size(), index.size());
+        int tokens = 0;
+        for (NLPInstance instance : corpus) tokens += instance.getTokens().size();
+        assertEquals(tokens, index.getTokenCount());
+        int position = 0;
+        for (int i = 0; i < corpus.size(); ++i) {
+            for (Token token : corpus.get(i).getTokens()) {
+                assertEquals(i, index.getInstance(position));
+                assertEquals(token.getIndex(), index.getTokenIndex(position));
+                assertEquals(token.getProperty(new TokenProperty("Word", 0)), index.getValue(position));
+                ++position;
+            }
+            assertNull(index.getValue(position++));
+        }
+        assertEquals(3, PhraseIndex.getLength(" a  * Pos=NN "));
+    }
+
+    /**
+     * Checks that a written and read index answers queries like the original.
+     *
+     * @throws Exception if I/O goes wrong.
+     */
+    public void testWriteAndRead() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        new PhraseIndex(corpus, "Word", 2).write(out);
+        out.close();
+        PhraseIndex index = PhraseIndex.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals("Word", index.getProperty());
+        assertSameAsScan(index);
+    }
+
+    /**
+     * Checks that empty queries and unknown properties are rejected.
+     *
+     * @throws Exception if the thread is interrupted.
+     */
+    public void testMalformedQueries() throws Exception {
+        PhraseIndex index = new PhraseIndex(corpus, "Word", 1);
+        try {
+            index.find("  ");
+            fail("an empty query should be rejected");
+        } catch (IllegalArgumentException e) {
+            //expected
+        }
+        try {
+            index.count("Lemma=a");
+            fail("an unknown property should be rejected");
+        } catch (IllegalArgumentException e) {
+            //expected
+        }
+    }
+}
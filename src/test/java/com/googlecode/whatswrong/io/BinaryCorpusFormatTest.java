@@ -0,0 +1,108 @@
+package com.googlecode.whatswrong.io;
+
+import com.googlecode.whatswrong.Edge;
+import com.googlecode.whatswrong.NLPInstance;
+import com.googlecode.whatswrong.Token;
+import com.googlecode.whatswrong.TokenProperty;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Tests saving and loading corpora in the binary format.
+ */
+public class BinaryCorpusFormatTest extends TestCase {
+
+    /**
+     * The file the corpus is saved to.
+     */
+    private File file;
+
+    /**
+     * Creates the temporary corpus file.
+     *
+     * @throws Exception if the file can't be created.
+     */
+    protected void setUp() throws Exception {
+        file = File.createTempFile("corpus", BinaryCorpusFormat.EXTENSION);
+    }
+
+    /**
+     * Deletes the temporary corpus file.
+     */
+    protected void tearDown() {
+        file.delete();
+    }
+
+    /**
+     * Creates a corpus of instances whose first token's word is the instance number.
+     *
+     * @param size the number of instances.
+     * @return the corpus.
+     */
+    private static List<NLPInstance> createCorpus(int size) {
+        ArrayList<NLPInstance> corpus = new ArrayList<NLPInstance>();
+        for (int i = 0; i < size; ++i) {
+            NLPInstance instance = new NLPInstance();
+            instance.addToken().addProperty("Word", String.valueOf(i)).addProperty("Pos", "NN");
+            instance.addToken().addProperty("Word", "dog").addProperty("Pos", "NN");
+            instance.addDependency(0, 1, "SBJ", "dep");
+            corpus.add(instance);
+        }
+        return corpus;
+    }
+
+    /**
+     * Checks that saved instances are loaded with the same tokens and edges.
+     *
+     * @throws Exception if I/O goes wrong.
+     */
+    public void testRoundTrip() throws Exception {
+        BinaryCorpusFormat.save(createCorpus(3), file);
+        List<NLPInstance> loaded = new BinaryCorpusFormat().load(file, 0, Integer.MAX_VALUE);
+        assertEquals(3, loaded.size());
+        NLPInstance instance = loaded.get(2);
+        assertEquals("2", instance.getTokens().get(0).getProperty(new TokenProperty("Word", 0)));
+        Edge edge = instance.getEdges().get(0);
+        assertEquals("SBJ", edge.getLabel());
+        assertEquals(1, edge.getTo().getIndex());
+    }
+
+    /**
+     * Checks that a range of the corpus contains the right instances and can be used as a hash key.
+     *
+     * @throws Exception if I/O goes wrong.
+     */
+    public void testRangeHasIdentitySemantics() throws Exception {
+        BinaryCorpusFormat.save(createCorpus(10), file);
+        List<NLPInstance> range = new BinaryCorpusFormat().load(file, 2, 5);
+        assertEquals(3, range.size());
+        assertEquals("2", range.get(0).getTokens().get(0).getProperty(new TokenProperty("Word", 0)));
+        assertEquals("4", range.get(2).getTokens().get(0).getProperty(new TokenProperty("Word", 0)));
+        assertEquals(range.hashCode(), range.hashCode());
+        HashMap<List<NLPInstance>, String> map = new HashMap<List<NLPInstance>, String>();
+        map.put(range, "indexed");
+        assertEquals("indexed", map.get(range));
+    }
+
+    /**
+     * Checks that null property values survive saving and loading.
+     *
+     * @throws Exception if I/O goes wrong.
+     */
+    public void testNullPropertyValue() throws Exception {
+        NLPInstance instance = new NLPInstance();
+        Token token = instance.addToken();
+        token.addProperty("Word", "dog");
+        token.addProperty(new TokenProperty("Lemma", 1), null);
+        ArrayList<NLPInstance> corpus = new ArrayList<NLPInstance>();
+        corpus.add(instance);
+        BinaryCorpusFormat.save(corpus, file);
+        Token loaded = new BinaryCorpusFormat().load(file, 0, 1).get(0).getTokens().get(0);
+        assertEquals("dog", loaded.getProperty(new TokenProperty("Word", 0)));
+        assertNull(loaded.getProperty(new TokenProperty("Lemma", 1)));
+    }
+}